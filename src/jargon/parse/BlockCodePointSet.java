@@ -0,0 +1,397 @@
+package jargon.parse;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of code points for sets which are fragmented into very many small ranges (e.g. a Unicode category or script),
+ * for which the odd/even range arrays of a CodePointSet are long and each operation walks all of them.
+ * The code point space is split into blocks of 4096 points, and each block is stored as whichever is smallest of
+ * empty, full, a list of ranges (4 bytes a range) or a bitmap (512 bytes).
+ * Operations work block by block, and blocks which are empty or full are settled without looking at the other operand,
+ * so the cost of an operation follows the number of fragmented blocks rather than the number of range endpoints.
+ * Sets are converted to and from CodePointSets with of() and toCodePointSet().
+ * @author Warren Falk
+ *
+ */
+public final class BlockCodePointSet {
+	static final int BLOCK_BITS = 12;
+	static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+	static final int BLOCK_WORDS = BLOCK_SIZE >> 6;
+	static final int BLOCK_COUNT = CodePointSet.UNICODE_END >> BLOCK_BITS;
+	// a block with fewer ranges than this is smaller as a range list than as a bitmap
+	static final int MAX_RANGES = (BLOCK_WORDS * 8) / 4;
+
+	static final byte EMPTY = 0;
+	static final byte FULL = 1;
+	static final byte RANGES = 2;
+	static final byte BITMAP = 3;
+
+	static final long EVEN_BITS = 0x5555555555555555L;
+	static final long ODD_BITS = 0xAAAAAAAAAAAAAAAAL;
+
+	final byte[] kinds; // the kind of each block
+	final char[][] ranges; // for RANGES blocks, (start, end) pairs of offsets within the block
+	final long[][] bitmaps; // for BITMAP blocks, one bit per point
+	private int hash; // cached hash code (0 if not yet calculated)
+
+	public static final BlockCodePointSet NONE = of(CodePointSet.NONE);
+	public static final BlockCodePointSet ALL = of(CodePointSet.ALL);
+
+	private BlockCodePointSet(byte[] kinds, char[][] ranges, long[][] bitmaps) {
+		this.kinds = kinds;
+		this.ranges = ranges;
+		this.bitmaps = bitmaps;
+	}
+
+	/**
+	 * Converts a CodePointSet to blocks
+	 * @param cps the set
+	 * @return a set of the same points
+	 */
+	public static BlockCodePointSet of(CodePointSet cps) {
+		long[] bits = new long[CodePointSet.UNICODE_END >> 6];
+		fill(bits, cps.even, 0, EVEN_BITS);
+		fill(bits, cps.odd, 1, ODD_BITS);
+		byte[] kinds = new byte[BLOCK_COUNT];
+		char[][] ranges = new char[BLOCK_COUNT][];
+		long[][] bitmaps = new long[BLOCK_COUNT][];
+		for (int b = 0; b < BLOCK_COUNT; b++)
+			_compact(bits, b * BLOCK_WORDS, b, kinds, ranges, bitmaps);
+		return new BlockCodePointSet(kinds, ranges, bitmaps);
+	}
+
+	// sets the bits of all points of the given parity within the (shifted) ranges of points
+	private static void fill(long[] bits, int[] points, int parity, long pattern) {
+		for (int i = 0; i + 1 < points.length; i += 2) {
+			int from = (points[i] << 1) | parity;
+			int to = ((points[i + 1] - 1) << 1) + parity + 1;
+			if (from >= to)
+				continue;
+			int first = from >> 6, last = (to - 1) >> 6;
+			long firstMask = -1L << from, lastMask = -1L >>> -to;
+			if (first == last) {
+				bits[first] |= firstMask & lastMask & pattern;
+			}
+			else {
+				bits[first] |= firstMask & pattern;
+				for (int w = first + 1; w < last; w++)
+					bits[w] |= pattern;
+				bits[last] |= lastMask & pattern;
+			}
+		}
+	}
+
+	/**
+	 * Converts this set to a CodePointSet
+	 * @return a set of the same points
+	 */
+	public CodePointSet toCodePointSet() {
+		CodePointSet.Builder builder = new CodePointSet.Builder();
+		long[] bits = new long[BLOCK_WORDS];
+		for (int b = 0; b < BLOCK_COUNT; b++) {
+			int base = b << BLOCK_BITS;
+			switch (kinds[b]) {
+			case EMPTY:
+				break;
+			case FULL:
+				builder.add(base, base + BLOCK_SIZE);
+				break;
+			case RANGES:
+				char[] r = ranges[b];
+				for (int i = 0; i < r.length; i += 2)
+					builder.add(base + r[i], base + r[i + 1]);
+				break;
+			default:
+				bitmap(b, bits);
+				for (int start = _next(bits, 0, true); start < BLOCK_SIZE;) {
+					int end = _next(bits, start, false);
+					builder.add(base + start, base + end);
+					start = _next(bits, end, true);
+				}
+			}
+		}
+		return builder.build();
+	}
+
+	public boolean contains(int codepoint) {
+		if (codepoint < 0 || codepoint >= CodePointSet.UNICODE_END)
+			return false;
+		int b = codepoint >> BLOCK_BITS;
+		int offset = codepoint & (BLOCK_SIZE - 1);
+		switch (kinds[b]) {
+		case EMPTY:
+			return false;
+		case FULL:
+			return true;
+		case RANGES:
+			// the number of range points at or below the offset is odd inside a range
+			char[] r = ranges[b];
+			int low = 0, high = r.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (offset < r[mid])
+					high = mid;
+				else
+					low = mid + 1;
+			}
+			return (low & 1) == 1;
+		default:
+			return (bitmaps[b][offset >> 6] & (1L << offset)) != 0;
+		}
+	}
+
+	public BlockCodePointSet union(BlockCodePointSet other) {
+		return op(CodePointSet.OP_UNION, this, other);
+	}
+
+	public BlockCodePointSet minus(BlockCodePointSet other) {
+		return op(CodePointSet.OP_MINUS, this, other);
+	}
+
+	public BlockCodePointSet intersect(BlockCodePointSet other) {
+		return op(CodePointSet.OP_INTERSECT, this, other);
+	}
+
+	public static BlockCodePointSet not(BlockCodePointSet cps) {
+		return op(CodePointSet.OP_MINUS, ALL, cps);
+	}
+
+	static BlockCodePointSet op(int operation, BlockCodePointSet left, BlockCodePointSet right) {
+		byte[] kinds = new byte[BLOCK_COUNT];
+		char[][] ranges = new char[BLOCK_COUNT][];
+		long[][] bitmaps = new long[BLOCK_COUNT][];
+		long[] l = new long[BLOCK_WORDS], r = new long[BLOCK_WORDS];
+		for (int b = 0; b < BLOCK_COUNT; b++) {
+			byte lk = left.kinds[b], rk = right.kinds[b];
+			// the blocks which an empty or full operand settles (the containers are immutable, so they are shared)
+			BlockCodePointSet same = null;
+			byte kind = -1;
+			boolean complement = false;
+			switch (operation) {
+			case CodePointSet.OP_UNION:
+				if (lk == FULL || rk == FULL)
+					kind = FULL;
+				else if (lk == EMPTY)
+					same = right;
+				else if (rk == EMPTY)
+					same = left;
+				break;
+			case CodePointSet.OP_MINUS:
+				if (lk == EMPTY || rk == FULL)
+					kind = EMPTY;
+				else if (rk == EMPTY)
+					same = left;
+				else if (lk == FULL && rk == RANGES)
+					complement = true;
+				break;
+			default:
+				if (lk == EMPTY || rk == EMPTY)
+					kind = EMPTY;
+				else if (lk == FULL)
+					same = right;
+				else if (rk == FULL)
+					same = left;
+				break;
+			}
+			if (same != null) {
+				kinds[b] = same.kinds[b];
+				ranges[b] = same.ranges[b];
+				bitmaps[b] = same.bitmaps[b];
+			}
+			else if (complement && right.ranges[b].length < MAX_RANGES * 2 - 2) {
+				// the complement of a range list has at most one range more
+				kinds[b] = RANGES;
+				ranges[b] = _complement(right.ranges[b]);
+			}
+			else if (kind != -1) {
+				kinds[b] = kind;
+			}
+			else {
+				left.bitmap(b, l);
+				right.bitmap(b, r);
+				for (int w = 0; w < BLOCK_WORDS; w++) {
+					switch (operation) {
+					case CodePointSet.OP_UNION:
+						l[w] |= r[w];
+						break;
+					case CodePointSet.OP_MINUS:
+						l[w] &= ~r[w];
+						break;
+					default:
+						l[w] &= r[w];
+						break;
+					}
+				}
+				_compact(l, 0, b, kinds, ranges, bitmaps);
+			}
+		}
+		return new BlockCodePointSet(kinds, ranges, bitmaps);
+	}
+
+	// the ranges of the points of a block which are not in the given ranges
+	private static char[] _complement(char[] r) {
+		boolean head = r[0] != 0, tail = r[r.length - 1] != BLOCK_SIZE;
+		char[] out = new char[r.length - 2 + (head ? 2 : 0) + (tail ? 2 : 0)];
+		int o = 0;
+		if (head) {
+			out[o++] = 0;
+			out[o++] = r[0];
+		}
+		for (int i = 1; i + 1 < r.length; i += 2) {
+			out[o++] = r[i];
+			out[o++] = r[i + 1];
+		}
+		if (tail) {
+			out[o++] = r[r.length - 1];
+			out[o++] = BLOCK_SIZE;
+		}
+		return out;
+	}
+
+	// writes the bits of a block to a bitmap
+	void bitmap(int b, long[] bits) {
+		switch (kinds[b]) {
+		case EMPTY:
+			Arrays.fill(bits, 0L);
+			break;
+		case FULL:
+			Arrays.fill(bits, -1L);
+			break;
+		case RANGES:
+			Arrays.fill(bits, 0L);
+			char[] r = ranges[b];
+			for (int i = 0; i < r.length; i += 2) {
+				int from = r[i], to = r[i + 1];
+				int first = from >> 6, last = (to - 1) >> 6;
+				long firstMask = -1L << from, lastMask = -1L >>> -to;
+				if (first == last) {
+					bits[first] |= firstMask & lastMask;
+				}
+				else {
+					bits[first] |= firstMask;
+					for (int w = first + 1; w < last; w++)
+						bits[w] = -1L;
+					bits[last] |= lastMask;
+				}
+			}
+			break;
+		default:
+			System.arraycopy(bitmaps[b], 0, bits, 0, BLOCK_WORDS);
+		}
+	}
+
+	// stores the bits of a block (at the offset in bits) in whichever form is smallest
+	private static void _compact(long[] bits, int offset, int b, byte[] kinds, char[][] ranges, long[][] bitmaps) {
+		int runs = 0;
+		boolean full = true;
+		long carry = 0;
+		for (int w = 0; w < BLOCK_WORDS; w++) {
+			long x = bits[offset + w];
+			// a run starts at every set bit whose lower neighbour is clear
+			runs += Long.bitCount(x & ~((x << 1) | carry));
+			carry = x >>> 63;
+			full &= x == -1L;
+		}
+		ranges[b] = null;
+		bitmaps[b] = null;
+		if (runs == 0) {
+			kinds[b] = EMPTY;
+		}
+		else if (full) {
+			kinds[b] = FULL;
+		}
+		else if (runs < MAX_RANGES) {
+			char[] r = new char[runs << 1];
+			int i = 0;
+			for (int start = _next(bits, offset, 0, true); start < BLOCK_SIZE;) {
+				int end = _next(bits, offset, start, false);
+				r[i++] = (char)start;
+				r[i++] = (char)end;
+				start = _next(bits, offset, end, true);
+			}
+			kinds[b] = RANGES;
+			ranges[b] = r;
+		}
+		else {
+			long[] bitmap = new long[BLOCK_WORDS];
+			System.arraycopy(bits, offset, bitmap, 0, BLOCK_WORDS);
+			kinds[b] = BITMAP;
+			bitmaps[b] = bitmap;
+		}
+	}
+
+	private static int _next(long[] bits, int from, boolean set) {
+		return _next(bits, 0, from, set);
+	}
+
+	// the first point at or after from in the block (at the offset in bits) which is set (or clear), or BLOCK_SIZE if there is none
+	private static int _next(long[] bits, int offset, int from, boolean set) {
+		while (from < BLOCK_SIZE) {
+			long w = bits[offset + (from >> 6)];
+			if (!set)
+				w = ~w;
+			w &= -1L << from;
+			if (w != 0)
+				return (from & ~63) + Long.numberOfTrailingZeros(w);
+			from = (from & ~63) + 64;
+		}
+		return BLOCK_SIZE;
+	}
+
+	// the approximate number of bytes taken by the containers of the blocks
+	int footprint() {
+		int bytes = 0;
+		for (int b = 0; b < BLOCK_COUNT; b++) {
+			if (kinds[b] == RANGES)
+				bytes += ranges[b].length * 2;
+			else if (kinds[b] == BITMAP)
+				bytes += BLOCK_WORDS * 8;
+		}
+		return bytes;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof BlockCodePointSet)
+			return equals((BlockCodePointSet)obj);
+		return false;
+	}
+
+	/**
+	 * Compare this set to another for equality (each block is always stored in the same form for the same points)
+	 * @param other the other set
+	 * @return true if the two sets contain the same points
+	 */
+	public boolean equals(BlockCodePointSet other) {
+		if (!Arrays.equals(kinds, other.kinds))
+			return false;
+		for (int b = 0; b < BLOCK_COUNT; b++) {
+			if (kinds[b] == RANGES && !Arrays.equals(ranges[b], other.ranges[b]))
+				return false;
+			if (kinds[b] == BITMAP && !Arrays.equals(bitmaps[b], other.bitmaps[b]))
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (h == 0) {
+			h = Arrays.hashCode(kinds);
+			for (int b = 0; b < BLOCK_COUNT; b++) {
+				if (kinds[b] == RANGES)
+					h = h * 31 + Arrays.hashCode(ranges[b]);
+				else if (kinds[b] == BITMAP)
+					h = h * 31 + Arrays.hashCode(bitmaps[b]);
+			}
+			hash = h;
+		}
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		return toCodePointSet().toString();
+	}
+}
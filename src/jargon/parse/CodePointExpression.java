@@ -0,0 +1,239 @@
+package jargon.parse;
+
+import java.util.IdentityHashMap;
+
+/**
+ * A lazily evaluated expression of set operations over CodePointSets.
+ * Evaluating an expression does a single merge sweep over the arrays of all of its leaf sets
+ * (once for odd and once for even points) and allocates only the arrays of the result,
+ * where nesting the CodePointSet operations would allocate a full intermediate set at every step.
+ * @author Warren Falk
+ *
+ */
+public abstract class CodePointExpression {
+	static final int OP_LEAF = 0;
+	static final int OP_UNION = 1;
+	static final int OP_INTERSECT = 2;
+	static final int OP_MINUS = 3;
+	static final int OP_NOT = 4;
+	static final int OP_BITS = 3;
+
+	CodePointExpression() {
+	}
+
+	/**
+	 * Returns an expression consisting of a single set
+	 * @param cps the set
+	 * @return the leaf expression
+	 */
+	public static CodePointExpression of(CodePointSet cps) {
+		return new Leaf(cps);
+	}
+
+	/**
+	 * Returns an expression for all points in any of the operands
+	 * @param operands the operands
+	 * @return the union expression
+	 */
+	public static CodePointExpression union(CodePointExpression... operands) {
+		return new Operation(OP_UNION, operands.clone());
+	}
+
+	/**
+	 * Returns an expression for the points that are in every one of the operands
+	 * @param operands the operands
+	 * @return the intersection expression
+	 */
+	public static CodePointExpression intersect(CodePointExpression... operands) {
+		if (operands.length == 0)
+			throw new IllegalArgumentException("intersection requires at least one operand");
+		return new Operation(OP_INTERSECT, operands.clone());
+	}
+
+	/**
+	 * Returns an expression for the points in left that are not in right
+	 * @param left the set to subtract from
+	 * @param right the set to subtract
+	 * @return the difference expression
+	 */
+	public static CodePointExpression minus(CodePointExpression left, CodePointExpression right) {
+		return new Operation(OP_MINUS, new CodePointExpression[] {left, right});
+	}
+
+	/**
+	 * Returns an expression for every unicode point that is not in the operand
+	 * @param operand the set to complement
+	 * @return the complement expression
+	 */
+	public static CodePointExpression not(CodePointExpression operand) {
+		return new Operation(OP_NOT, new CodePointExpression[] {operand});
+	}
+
+	/**
+	 * Evaluates this expression
+	 * @return a code point set equal to the result of evaluating the expression one operation at a time
+	 */
+	public CodePointSet evaluate() {
+		IdentityHashMap<CodePointSet, Integer> leafIndexes = new IdentityHashMap<CodePointSet, Integer>();
+		int size = compile(null, 0, leafIndexes);
+		int[] program = new int[size];
+		compile(program, 0, leafIndexes);
+		CodePointSet[] leaves = new CodePointSet[leafIndexes.size()];
+		for (java.util.Map.Entry<CodePointSet, Integer> entry : leafIndexes.entrySet())
+			leaves[entry.getValue()] = entry.getKey();
+
+		boolean shared = true;
+		int[][] odds = new int[leaves.length][];
+		int[][] evens = new int[leaves.length][];
+		for (int i = 0; i < leaves.length; i++) {
+			odds[i] = leaves[i].odd;
+			evens[i] = leaves[i].even;
+			shared &= odds[i] == evens[i];
+		}
+		boolean[] stack = new boolean[size];
+		int[] o = sweep(program, odds, stack);
+		int[] e = shared ? o : sweep(program, evens, stack);
+		return new CodePointSet(o, e);
+	}
+
+	// writes this expression into the program in postfix order (if program is not null)
+	// returns the position after the last instruction written
+	abstract int compile(int[] program, int position, IdentityHashMap<CodePointSet, Integer> leafIndexes);
+
+	// runs the sweep twice, once to count and once to fill the exactly sized result, similar to CodePointSet.op()
+	private static int[] sweep(int[] program, int[][] arrays, boolean[] stack) {
+		RangeSweep sweep = new RangeSweep(arrays);
+		int count = sweep(program, sweep, stack, null);
+		if (count == 0)
+			return CodePointSet.empty;
+		int[] out = new int[count];
+		sweep.reset();
+		sweep(program, sweep, stack, out);
+		return out;
+	}
+
+	private static int sweep(int[] program, RangeSweep sweep, boolean[] stack, int[] out) {
+		int outCursor = 0;
+		sweep.skip(0);
+		boolean outOn = run(program, sweep, stack);
+		if (outOn) {
+			if (out != null)
+				out[outCursor] = 0;
+			outCursor++;
+		}
+		while (sweep.next()) {
+			int value = sweep.value();
+			if (value >= CodePointSet.MAXSHIFTED)
+				break;
+			boolean newb = run(program, sweep, stack);
+			if (newb != outOn) {
+				outOn = newb;
+				if (out != null)
+					out[outCursor] = value;
+				outCursor++;
+			}
+		}
+		if (outOn) {
+			if (out != null)
+				out[outCursor] = CodePointSet.MAXSHIFTED;
+			outCursor++;
+		}
+		return outCursor;
+	}
+
+	// evaluates the postfix program against the current on/off state of the leaves
+	private static boolean run(int[] program, RangeSweep sweep, boolean[] stack) {
+		int top = 0;
+		for (int pc = 0; pc < program.length; pc++) {
+			int instruction = program[pc];
+			int arg = instruction >>> OP_BITS;
+			switch (instruction & ((1 << OP_BITS) - 1)) {
+			case OP_LEAF:
+				stack[top++] = sweep.isOn(arg);
+				break;
+			case OP_UNION: {
+				boolean b = false;
+				for (int i = 0; i < arg; i++)
+					b |= stack[--top];
+				stack[top++] = b;
+				break;
+			}
+			case OP_INTERSECT: {
+				boolean b = true;
+				for (int i = 0; i < arg; i++)
+					b &= stack[--top];
+				stack[top++] = b;
+				break;
+			}
+			case OP_MINUS: {
+				boolean right = stack[--top];
+				boolean left = stack[--top];
+				stack[top++] = left && !right;
+				break;
+			}
+			case OP_NOT:
+				stack[top - 1] = !stack[top - 1];
+				break;
+			}
+		}
+		return stack[0];
+	}
+
+	static final class Leaf extends CodePointExpression {
+		final CodePointSet cps;
+
+		Leaf(CodePointSet cps) {
+			this.cps = cps;
+		}
+
+		@Override
+		int compile(int[] program, int position, IdentityHashMap<CodePointSet, Integer> leafIndexes) {
+			Integer index = leafIndexes.get(cps);
+			if (index == null) {
+				index = leafIndexes.size();
+				leafIndexes.put(cps, index);
+			}
+			if (program != null)
+				program[position] = (index << OP_BITS) | OP_LEAF;
+			return position + 1;
+		}
+
+		@Override
+		public String toString() {
+			return cps.toString();
+		}
+	}
+
+	static final class Operation extends CodePointExpression {
+		final int operation;
+		final CodePointExpression[] operands;
+
+		Operation(int operation, CodePointExpression[] operands) {
+			this.operation = operation;
+			this.operands = operands;
+		}
+
+		@Override
+		int compile(int[] program, int position, IdentityHashMap<CodePointSet, Integer> leafIndexes) {
+			for (CodePointExpression operand : operands)
+				position = operand.compile(program, position, leafIndexes);
+			if (program != null)
+				program[position] = (operands.length << OP_BITS) | operation;
+			return position + 1;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(operation == OP_UNION ? "union" : operation == OP_INTERSECT ? "intersect" : operation == OP_MINUS ? "minus" : "not");
+			sb.append('(');
+			for (int i = 0; i < operands.length; i++) {
+				if (i > 0)
+					sb.append(", ");
+				sb.append(operands[i]);
+			}
+			sb.append(')');
+			return sb.toString();
+		}
+	}
+}
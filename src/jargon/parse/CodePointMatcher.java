@@ -0,0 +1,362 @@
+package jargon.parse;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A compiled, read-only form of a CodePointSet tuned for fast membership tests.
+ * Lookup is tiered:
+ * Latin-1 points are answered from a 256 bit bitmap,
+ * the rest of the BMP from a two-level table (high byte selects a shared 256 bit block),
+ * and supplementary points by binary search over the set's shifted odd/even arrays.
+ * When the ASCII part of the set (or of its complement) is a few ranges, spans over UTF-8 are scanned eight bytes at a time,
+ * testing all the bytes of a word against the ranges at once with carry-free arithmetic.
+ * @author Warren Falk
+ *
+ */
+public final class CodePointMatcher {
+	final CodePointSet cps;
+	final long[] latin1; // 4 words, one bit per point
+	final char[] bmpIndex; // block number for each high byte of a BMP point
+	final long[] bmpBlocks; // blocks of 4 words each (256 bits), deduplicated
+	final int[] odd;
+	final int[] even;
+	// for span() and spanNot() over UTF-8: pairs of words to add to eight ASCII bytes to test them against each ASCII range
+	// of members (non-members), or null if there are too many ranges
+	final long[] spanWords;
+	final long[] spanNotWords;
+
+	static final int BLOCK_BITS = 8;
+	static final int BLOCK_WORDS = (1 << BLOCK_BITS) >> 6;
+	static final int BMP_END = 0x10000;
+	static final int REPLACEMENT = 0xFFFD;
+	static final int MAX_WORD_RANGES = 4;
+	static final long ONES = 0x0101010101010101L;
+	static final long HIGHS = 0x8080808080808080L;
+
+	public CodePointMatcher(CodePointSet cps) {
+		this(cps, true);
+	}
+
+	// words is false to compile a matcher which scans one byte at a time (for comparison)
+	CodePointMatcher(CodePointSet cps, boolean words) {
+		this.cps = cps;
+		this.odd = cps.odd;
+		this.even = cps.even;
+		long[] bits = new long[BMP_END >> 6];
+		fill(bits, even, 0);
+		fill(bits, odd, 1);
+		latin1 = new long[BLOCK_WORDS];
+		System.arraycopy(bits, 0, latin1, 0, BLOCK_WORDS);
+		// deduplicate blocks, most sets consist of a handful of distinct blocks (usually including all-empty and all-full)
+		int blockCount = BMP_END >> BLOCK_BITS;
+		bmpIndex = new char[blockCount];
+		long[] blocks = new long[bits.length];
+		int distinct = 0;
+		for (int b = 0; b < blockCount; b++) {
+			int found = -1;
+			for (int d = 0; d < distinct; d++) {
+				if (_eqblock(bits, b * BLOCK_WORDS, blocks, d * BLOCK_WORDS)) {
+					found = d;
+					break;
+				}
+			}
+			if (found == -1) {
+				found = distinct++;
+				System.arraycopy(bits, b * BLOCK_WORDS, blocks, found * BLOCK_WORDS, BLOCK_WORDS);
+			}
+			bmpIndex[b] = (char)found;
+		}
+		bmpBlocks = new long[distinct * BLOCK_WORDS];
+		System.arraycopy(blocks, 0, bmpBlocks, 0, bmpBlocks.length);
+		spanWords = words ? _words(latin1, true) : null;
+		spanNotWords = words ? _words(latin1, false) : null;
+	}
+
+	// for each ASCII range of points whose membership is the given one, the words which, added to eight ASCII bytes,
+	// set the high bit of each byte at least the low end of the range, and of each byte above its high end
+	private static long[] _words(long[] latin1, boolean member) {
+		long[] words = new long[MAX_WORD_RANGES * 2];
+		int count = 0;
+		for (int cp = 0; cp < 0x80; cp++) {
+			if (((latin1[cp >> 6] & (1L << cp)) != 0) != member)
+				continue;
+			int low = cp;
+			while (cp + 1 < 0x80 && ((latin1[(cp + 1) >> 6] & (1L << (cp + 1))) != 0) == member)
+				cp++;
+			if (count == MAX_WORD_RANGES * 2)
+				return null;
+			words[count++] = (0x80 - low) * ONES;
+			words[count++] = (0x7F - cp) * ONES;
+		}
+		if (count == 0)
+			return null;
+		long[] result = new long[count];
+		System.arraycopy(words, 0, result, 0, count);
+		return result;
+	}
+
+	// sets the bits of all BMP points of the given parity within the (shifted) ranges of points
+	private static void fill(long[] bits, int[] points, int parity) {
+		int limit = BMP_END >> 1;
+		for (int i = 0; i + 1 < points.length; i += 2) {
+			int start = points[i];
+			if (start >= limit)
+				break;
+			int end = Math.min(points[i + 1], limit);
+			for (int s = start; s < end; s++) {
+				int cp = (s << 1) | parity;
+				bits[cp >> 6] |= 1L << cp;
+			}
+		}
+	}
+
+	private static boolean _eqblock(long[] left, int leftOffset, long[] right, int rightOffset) {
+		for (int i = 0; i < BLOCK_WORDS; i++) {
+			if (left[leftOffset + i] != right[rightOffset + i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if the set this matcher was compiled from contains the given code point
+	 * @param codepoint the codepoint to test
+	 * @return true if the code point is in the set
+	 */
+	public boolean contains(int codepoint) {
+		if ((codepoint >>> BLOCK_BITS) == 0)
+			return (latin1[codepoint >> 6] & (1L << codepoint)) != 0;
+		if ((codepoint >>> 16) == 0)
+			return (bmpBlocks[(bmpIndex[codepoint >> BLOCK_BITS] * BLOCK_WORDS) + ((codepoint >> 6) & (BLOCK_WORDS - 1))] & (1L << codepoint)) != 0;
+		return CodePointSet.search((codepoint & 1) == 0 ? even : odd, codepoint >> 1);
+	}
+
+	/**
+	 * Skips over the code points in the set
+	 * @param input the input
+	 * @param from the offset at which to start
+	 * @return the offset of the first code point which is not in the set (or the length of the input)
+	 */
+	public int span(CharSequence input, int from) {
+		return scan(input, from, true);
+	}
+
+	/**
+	 * Skips over the code points not in the set
+	 * @param input the input
+	 * @param from the offset at which to start
+	 * @return the offset of the first code point which is in the set (or the length of the input)
+	 */
+	public int spanNot(CharSequence input, int from) {
+		return scan(input, from, false);
+	}
+
+	/**
+	 * Skips over the UTF-8 encoded code points in the set.
+	 * Malformed sequences are taken as U+FFFD; a sequence cut short by the end of the input ends the span.
+	 * @param utf8 the input
+	 * @param from the offset at which to start
+	 * @param to the offset of the end of the input
+	 * @return the offset of the first code point which is not in the set (or to)
+	 */
+	public int span(byte[] utf8, int from, int to) {
+		return scan(utf8, from, to, true);
+	}
+
+	/**
+	 * Skips over the UTF-8 encoded code points not in the set (see span())
+	 * @param utf8 the input
+	 * @param from the offset at which to start
+	 * @param to the offset of the end of the input
+	 * @return the offset of the first code point which is in the set (or to)
+	 */
+	public int spanNot(byte[] utf8, int from, int to) {
+		return scan(utf8, from, to, false);
+	}
+
+	/**
+	 * Skips over the code points in the set
+	 * @param codepoints the input
+	 * @param from the index at which to start
+	 * @param to the index of the end of the input
+	 * @return the index of the first code point which is not in the set (or to)
+	 */
+	public int span(int[] codepoints, int from, int to) {
+		long[] latin1 = this.latin1;
+		int i = from;
+		while (i < to) {
+			int cp = codepoints[i];
+			if ((cp >>> BLOCK_BITS) == 0) {
+				if ((latin1[cp >> 6] & (1L << cp)) == 0)
+					return i;
+			}
+			else if (!contains(cp)) {
+				return i;
+			}
+			i++;
+		}
+		return to;
+	}
+
+	/**
+	 * @param codepoints the code points
+	 * @param offset the index of the first code point
+	 * @param length the number of code points
+	 * @return true if the set contains every one of the code points
+	 */
+	public boolean containsAll(int[] codepoints, int offset, int length) {
+		return span(codepoints, offset, offset + length) == offset + length;
+	}
+
+	private int scan(CharSequence input, int from, boolean member) {
+		long[] latin1 = this.latin1;
+		int length = input.length();
+		int i = from;
+		// the last range (of right-shifted points) of each parity found for a supplementary point, which the next ones are likely in
+		int evenLow = 0, evenHigh = 0, oddLow = 0, oddHigh = 0;
+		boolean evenIn = false, oddIn = false;
+		while (i < length) {
+			char c = input.charAt(i);
+			boolean in;
+			if (c < 0x100) {
+				in = (latin1[c >> 6] & (1L << c)) != 0;
+				i++;
+			}
+			else if (c < 0xD800 || c > 0xDFFF) {
+				in = (bmpBlocks[(bmpIndex[c >> BLOCK_BITS] * BLOCK_WORDS) + ((c >> 6) & (BLOCK_WORDS - 1))] & (1L << c)) != 0;
+				i++;
+			}
+			else {
+				int cp = Character.codePointAt(input, i);
+				if (cp < BMP_END) {
+					in = contains(cp);
+				}
+				else {
+					int shifted = cp >> 1;
+					if ((cp & 1) == 0) {
+						if (shifted < evenLow || shifted >= evenHigh) {
+							int index = upper(even, shifted);
+							evenLow = index == 0 ? 0 : even[index - 1];
+							evenHigh = index == even.length ? CodePointSet.MAXSHIFTED : even[index];
+							evenIn = (index & 1) == 1;
+						}
+						in = evenIn;
+					}
+					else {
+						if (shifted < oddLow || shifted >= oddHigh) {
+							int index = upper(odd, shifted);
+							oddLow = index == 0 ? 0 : odd[index - 1];
+							oddHigh = index == odd.length ? CodePointSet.MAXSHIFTED : odd[index];
+							oddIn = (index & 1) == 1;
+						}
+						in = oddIn;
+					}
+				}
+				if (in != member)
+					return i;
+				i += Character.charCount(cp);
+				continue;
+			}
+			if (in != member)
+				return i - 1;
+		}
+		return length;
+	}
+
+	private int scan(byte[] utf8, int from, int to, boolean member) {
+		long[] latin1 = this.latin1;
+		long[] words = member ? spanWords : spanNotWords;
+		ByteBuffer buffer = null;
+		// most runs are short, so the first bytes are tested one at a time, and words only past them
+		int wordsFrom = words == null ? Integer.MAX_VALUE : from + 8;
+		int i = from;
+		while (i < to) {
+			if (i >= wordsFrom) {
+				if (buffer == null)
+					buffer = ByteBuffer.wrap(utf8).order(ByteOrder.LITTLE_ENDIAN);
+				// skip whole words of ASCII bytes which are all in the ranges
+				while (i + 8 <= to) {
+					long word = buffer.getLong(i);
+					long in = 0;
+					for (int r = 0; r < words.length; r += 2)
+						in |= (word + words[r]) & ~(word + words[r + 1]);
+					long stop = (~in | word) & HIGHS;
+					if (stop != 0) {
+						// the byte index is the index of the lowest byte with its high bit set
+						i += Long.numberOfTrailingZeros(stop) >> 3;
+						break;
+					}
+					i += 8;
+				}
+				if (i == to)
+					break;
+			}
+			int b0 = utf8[i];
+			if (b0 >= 0) {
+				// ASCII, the common case
+				if (((latin1[b0 >> 6] & (1L << b0)) != 0) != member)
+					return i;
+				i++;
+				continue;
+			}
+			b0 &= 0xFF;
+			int need, min, cp;
+			if (b0 >= 0xC2 && b0 < 0xE0) {
+				need = 1;
+				min = 0x80;
+				cp = b0 & 0x1F;
+			}
+			else if (b0 >= 0xE0 && b0 < 0xF0) {
+				need = 2;
+				min = 0x800;
+				cp = b0 & 0x0F;
+			}
+			else if (b0 >= 0xF0 && b0 < 0xF5) {
+				need = 3;
+				min = 0x10000;
+				cp = b0 & 0x07;
+			}
+			else {
+				need = 0;
+				min = 0;
+				cp = REPLACEMENT;
+			}
+			int n = 1;
+			for (; n <= need; n++) {
+				if (i + n == to)
+					return i;
+				int b = utf8[i + n] & 0xFF;
+				if ((b & 0xC0) != 0x80)
+					break;
+				cp = (cp << 6) | (b & 0x3F);
+			}
+			if (n <= need || cp < min || cp > 0x10FFFF || (cp >= 0xD800 && cp < 0xE000))
+				cp = REPLACEMENT;
+			if (contains(cp) != member)
+				return i;
+			i += n;
+		}
+		return to;
+	}
+
+	// the index of the first point greater than the shifted code point
+	private static int upper(int[] points, int shifted) {
+		int low = 0, high = points.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (shifted < points[mid])
+				high = mid;
+			else
+				low = mid + 1;
+		}
+		return low;
+	}
+
+	/**
+	 * @return the set this matcher was compiled from
+	 */
+	public CodePointSet getCodePointSet() {
+		return cps;
+	}
+}
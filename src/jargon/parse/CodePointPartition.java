@@ -0,0 +1,234 @@
+package jargon.parse;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+
+import warrenfalk.util.IntegerList;
+
+/**
+ * The coarsest partition of unicode into disjoint classes which respects every one of a number of CodePointSets,
+ * i.e. two code points are in the same class if and only if every one of the sets either contains both or neither.
+ * Each original set is then exactly the union of some of the classes, which lets automata use class ids
+ * (usually a few dozen) in place of the 0x110000 code points.
+ * Classes are numbered in order of their lowest code point (so the class of code point 0 is always 0).
+ * Lookup of the class of a code point is tiered like CodePointMatcher.
+ * @author Warren Falk
+ *
+ */
+public final class CodePointPartition {
+	final int classCount;
+	final int[] oddStarts; // right shifted start of each odd interval
+	final int[] oddClasses; // class id of each odd interval
+	final int[] evenStarts;
+	final int[] evenClasses;
+	final int[] latin1; // class id of each latin-1 point
+	final char[] bmpIndex; // block number for each high byte of a BMP point
+	final int[] bmpBlocks; // blocks of 256 class ids, deduplicated
+	final BitSet[] setClasses; // the class ids making up each original set
+
+	static final int BLOCK_BITS = CodePointMatcher.BLOCK_BITS;
+	static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+
+	/**
+	 * Partitions unicode by the given sets
+	 * @param sets the sets which every class must respect
+	 */
+	public CodePointPartition(CodePointSet... sets) {
+		int[][] odds = new int[sets.length][];
+		int[][] evens = new int[sets.length][];
+		for (int i = 0; i < sets.length; i++) {
+			odds[i] = sets[i].odd;
+			evens[i] = sets[i].even;
+		}
+		// first number the classes by order of discovery, then renumber by lowest code point
+		HashMap<BitSet, Integer> signatures = new HashMap<BitSet, Integer>();
+		ArrayList<BitSet> signatureList = new ArrayList<BitSet>();
+		IntegerList lowest = new IntegerList();
+		IntegerList oddStartList = new IntegerList(), oddClassList = new IntegerList();
+		IntegerList evenStartList = new IntegerList(), evenClassList = new IntegerList();
+		sweep(odds, 1, signatures, signatureList, lowest, oddStartList, oddClassList);
+		sweep(evens, 0, signatures, signatureList, lowest, evenStartList, evenClassList);
+
+		classCount = signatureList.size();
+		int[] renumber = renumber(lowest.toArray());
+		oddStarts = oddStartList.toArray();
+		oddClasses = map(oddClassList.toArray(), renumber);
+		evenStarts = evenStartList.toArray();
+		evenClasses = map(evenClassList.toArray(), renumber);
+
+		setClasses = new BitSet[sets.length];
+		for (int i = 0; i < sets.length; i++)
+			setClasses[i] = new BitSet(classCount);
+		for (int c = 0; c < classCount; c++) {
+			BitSet signature = signatureList.get(c);
+			for (int i = signature.nextSetBit(0); i >= 0; i = signature.nextSetBit(i + 1))
+				setClasses[i].set(renumber[c]);
+		}
+
+		latin1 = new int[BLOCK_SIZE];
+		for (int cp = 0; cp < BLOCK_SIZE; cp++)
+			latin1[cp] = search(cp);
+		int blockCount = CodePointMatcher.BMP_END >> BLOCK_BITS;
+		bmpIndex = new char[blockCount];
+		int[] blocks = new int[CodePointMatcher.BMP_END];
+		int[] block = new int[BLOCK_SIZE];
+		int distinct = 0;
+		for (int b = 0; b < blockCount; b++) {
+			for (int i = 0; i < BLOCK_SIZE; i++)
+				block[i] = search((b << BLOCK_BITS) | i);
+			int found = -1;
+			for (int d = 0; d < distinct && found == -1; d++) {
+				found = d;
+				for (int i = 0; i < BLOCK_SIZE; i++) {
+					if (blocks[(d << BLOCK_BITS) + i] != block[i]) {
+						found = -1;
+						break;
+					}
+				}
+			}
+			if (found == -1) {
+				found = distinct++;
+				System.arraycopy(block, 0, blocks, found << BLOCK_BITS, BLOCK_SIZE);
+			}
+			bmpIndex[b] = (char)found;
+		}
+		bmpBlocks = new int[distinct << BLOCK_BITS];
+		System.arraycopy(blocks, 0, bmpBlocks, 0, bmpBlocks.length);
+	}
+
+	// sweeps the points of one parity, recording an interval at every change of signature
+	private static void sweep(int[][] arrays, int parity, HashMap<BitSet, Integer> signatures, ArrayList<BitSet> signatureList, IntegerList lowest, IntegerList starts, IntegerList classes) {
+		RangeSweep sweep = new RangeSweep(arrays);
+		sweep.skip(0);
+		int value = 0;
+		for (;;) {
+			BitSet signature = new BitSet(arrays.length);
+			for (int i = 0; i < arrays.length; i++) {
+				if (sweep.isOn(i))
+					signature.set(i);
+			}
+			Integer id = signatures.get(signature);
+			if (id == null) {
+				id = signatureList.size();
+				signatures.put(signature, id);
+				signatureList.add(signature);
+				lowest.add(Integer.MAX_VALUE);
+			}
+			int start = (value << 1) | parity;
+			if (start < lowest.get(id))
+				lowest.set(id, start);
+			if (classes.size() == 0 || classes.get(classes.size() - 1) != id) {
+				starts.add(value);
+				classes.add(id);
+			}
+			if (!sweep.next())
+				break;
+			value = sweep.value();
+			if (value >= CodePointSet.MAXSHIFTED)
+				break;
+		}
+	}
+
+	// returns the new id of each class when ordered by lowest code point
+	private static int[] renumber(int[] lowest) {
+		Integer[] order = new Integer[lowest.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		final int[] keys = lowest;
+		java.util.Arrays.sort(order, new java.util.Comparator<Integer>() {
+			public int compare(Integer x0, Integer x1) {
+				return keys[x0] < keys[x1] ? -1 : keys[x0] == keys[x1] ? 0 : 1;
+			}
+		});
+		int[] renumber = new int[lowest.length];
+		for (int i = 0; i < order.length; i++)
+			renumber[order[i]] = i;
+		return renumber;
+	}
+
+	private static int[] map(int[] ids, int[] renumber) {
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = renumber[ids[i]];
+		return ids;
+	}
+
+	// finds the class of a code point by binary search over the intervals of its parity
+	private int search(int codepoint) {
+		int[] starts, classes;
+		if ((codepoint & 1) == 0) {
+			starts = evenStarts;
+			classes = evenClasses;
+		}
+		else {
+			starts = oddStarts;
+			classes = oddClasses;
+		}
+		int shifted = codepoint >> 1;
+		int low = 0, high = starts.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (shifted < starts[mid])
+				high = mid;
+			else
+				low = mid + 1;
+		}
+		return classes[low - 1];
+	}
+
+	/**
+	 * Returns the id of the class containing a code point
+	 * @param codepoint the code point
+	 * @return the class id, or -1 if the code point is outside of unicode
+	 */
+	public int classOf(int codepoint) {
+		if ((codepoint >>> BLOCK_BITS) == 0)
+			return latin1[codepoint];
+		if ((codepoint >>> 16) == 0)
+			return bmpBlocks[(bmpIndex[codepoint >> BLOCK_BITS] << BLOCK_BITS) | (codepoint & (BLOCK_SIZE - 1))];
+		if (codepoint < 0 || codepoint >= CodePointSet.UNICODE_END)
+			return -1;
+		return search(codepoint);
+	}
+
+	/**
+	 * @return the number of classes
+	 */
+	public int getClassCount() {
+		return classCount;
+	}
+
+	/**
+	 * Returns the code points of a class
+	 * @param id the class id
+	 * @return a set of every code point in the class
+	 */
+	public CodePointSet getClassSet(int id) {
+		CodePointSet.Builder builder = new CodePointSet.Builder();
+		addIntervals(builder, id, oddStarts, oddClasses, 1);
+		addIntervals(builder, id, evenStarts, evenClasses, 0);
+		return builder.build();
+	}
+
+	private static void addIntervals(CodePointSet.Builder builder, int id, int[] starts, int[] classes, int parity) {
+		for (int i = 0; i < starts.length; i++) {
+			if (classes[i] != id)
+				continue;
+			int start = (starts[i] << 1) | parity;
+			int end = (i + 1 < starts.length) ? (starts[i + 1] << 1) | parity : CodePointSet.UNICODE_END;
+			if (parity == 1)
+				builder.addOdd(start, end);
+			else
+				builder.addEven(start, end);
+		}
+	}
+
+	/**
+	 * Returns the classes which make up one of the sets the partition was built from
+	 * @param index the index of the set (in the order the sets were given)
+	 * @return the ids of the classes whose union is the set
+	 */
+	public BitSet getSetClasses(int index) {
+		return (BitSet)setClasses[index].clone();
+	}
+}
@@ -1,14 +1,24 @@
 package jargon.parse;
 
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import warrenfalk.util.LongList;
+import warrenfalk.util.SortLong;
+
 /**
  * Represents a set of unicode code points
  * (optimized for dealing with "combed" ranges (every-other) which is common in upper unicode)
+ * Sets are immutable and may be shared between threads: the hash code and matcher cached on first use are computed
+ * from final fields, so threads which race to cache them compute the same thing.
  * @author Warren Falk
  * 
  */
 public final class CodePointSet {
 	final int[] odd; // right shifted points
 	final int[] even; // right shifted points
+	private int hash; // cached hash code (0 if not yet calculated)
+	private CodePointMatcher matcher; // compiled on first use by the span methods
 	
 	public final static int UNICODE_END = 0x110000;
 	static final int[] empty = new int[0];
@@ -37,12 +47,135 @@ public final class CodePointSet {
 		int parity = codepoint & 1;
 		codepoint >>= 1;
 		int[] points = (parity == 0) ? even : odd;
-		int i, len = points.length;
-		for (i = 0; i < len; i++) {
-			if (codepoint < points[i])
-				return (i & 1) == 1;
+		return search(points, codepoint);
+	}
+	
+	// binary search for the first point greater than the (right-shifted) code point
+	// the code point is in the set if that point closes a range (i.e. is at an odd index)
+	static boolean search(int[] points, int shifted) {
+		int low = 0, high = points.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (shifted < points[mid])
+				high = mid;
+			else
+				low = mid + 1;
 		}
-		return (i & 1) == 1;
+		return (low & 1) == 1;
+	}
+	
+	/**
+	 * Returns the lowest code point in this set which is not less than the given one
+	 * @param codepoint the code point to start at
+	 * @return the next code point in the set, or -1 if there is none
+	 */
+	public int next(int codepoint) {
+		if (codepoint < 0)
+			codepoint = 0;
+		int e = _next(even, codepoint, 0);
+		int o = _next(odd, codepoint, 1);
+		if (e == -1)
+			return o;
+		if (o == -1)
+			return e;
+		return Math.min(e, o);
+	}
+	
+	private static int _next(int[] points, int codepoint, int parity) {
+		if ((codepoint & 1) != parity)
+			codepoint++;
+		int shifted = codepoint >> 1;
+		int low = 0, high = points.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (shifted < points[mid])
+				high = mid;
+			else
+				low = mid + 1;
+		}
+		if ((low & 1) == 0) {
+			// not in a range, so the answer is the start of the next one
+			if (low == points.length)
+				return -1;
+			shifted = points[low];
+		}
+		return (shifted << 1) | parity;
+	}
+	
+	/**
+	 * Compiles this set into a matcher with faster (tiered table) lookup
+	 * @return a matcher which answers contains() identically to this set
+	 */
+	public CodePointMatcher matcher() {
+		return new CodePointMatcher(this);
+	}
+	
+	// the matcher used by the bulk methods (creating it twice in a race is harmless, its fields are final)
+	private CodePointMatcher compiled() {
+		CodePointMatcher m = matcher;
+		if (m == null)
+			matcher = m = new CodePointMatcher(this);
+		return m;
+	}
+	
+	/**
+	 * Skips over the code points in this set (see CodePointMatcher.span())
+	 * @param input the input
+	 * @param from the offset at which to start
+	 * @return the offset of the first code point which is not in the set (or the length of the input)
+	 */
+	public int span(CharSequence input, int from) {
+		return compiled().span(input, from);
+	}
+	
+	/**
+	 * Skips over the code points not in this set
+	 * @param input the input
+	 * @param from the offset at which to start
+	 * @return the offset of the first code point which is in the set (or the length of the input)
+	 */
+	public int spanNot(CharSequence input, int from) {
+		return compiled().spanNot(input, from);
+	}
+	
+	/**
+	 * Skips over the UTF-8 encoded code points in this set (see CodePointMatcher.span())
+	 * @param utf8 the input
+	 * @param from the offset at which to start
+	 * @param to the offset of the end of the input
+	 * @return the offset of the first code point which is not in the set (or to)
+	 */
+	public int span(byte[] utf8, int from, int to) {
+		return compiled().span(utf8, from, to);
+	}
+	
+	/**
+	 * Skips over the UTF-8 encoded code points not in this set
+	 * @param utf8 the input
+	 * @param from the offset at which to start
+	 * @param to the offset of the end of the input
+	 * @return the offset of the first code point which is in the set (or to)
+	 */
+	public int spanNot(byte[] utf8, int from, int to) {
+		return compiled().spanNot(utf8, from, to);
+	}
+	
+	/**
+	 * @param codepoints the code points
+	 * @param offset the index of the first code point
+	 * @param length the number of code points
+	 * @return true if this set contains every one of the code points
+	 */
+	public boolean containsAll(int[] codepoints, int offset, int length) {
+		return compiled().containsAll(codepoints, offset, length);
+	}
+	
+	/**
+	 * Compiles this set into a matcher of its UTF-8 encoded members
+	 * @return a matcher which runs over UTF-8 bytes without decoding them
+	 */
+	public Utf8Matcher utf8Matcher() {
+		return new Utf8Matcher(this);
 	}
 	
 	/**
@@ -98,9 +231,9 @@ public final class CodePointSet {
 	// if you don't know, then make out null and the function will run twice, once to count+allocate, next to fill
 	static int[] op(int operation, int[] left, int[] right, int[] out) {
 		if (left.length == 0)
-			return right;
+			return operation == OP_UNION ? right : empty;
 		if (right.length == 0)
-			return left;
+			return operation == OP_INTERSECT ? empty : left;
 		int leftCursor = 1, rightCursor = 1;
 		int leftValue = left[0], rightValue = right[0];
 		// first, count
@@ -185,6 +318,72 @@ public final class CodePointSet {
 			&& _eqcontents(even, other.even);
 	}
 	
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (h == 0) {
+			h = Arrays.hashCode(odd) * 31 + Arrays.hashCode(even);
+			hash = h;
+		}
+		return h;
+	}
+	
+	/**
+	 * Returns the canonical instance of this set from the shared pool.
+	 * Interned sets which are equal are also identical.
+	 * @return the canonical set equal to this one
+	 */
+	public CodePointSet intern() {
+		return CodePointSetPool.SHARED.intern(this);
+	}
+
+	/**
+	 * @return the number of ints encode() writes for this set
+	 */
+	public int encodedSize() {
+		return 2 + odd.length + even.length;
+	}
+
+	/**
+	 * Writes the odd and even arrays of this set, each preceded by its length
+	 * @param out the buffer to write to
+	 */
+	public void encode(IntBuffer out) {
+		out.put(odd.length);
+		out.put(odd);
+		out.put(even.length);
+		out.put(even);
+	}
+
+	/**
+	 * Reads a set written by encode()
+	 * @param in the buffer to read from
+	 * @return the set
+	 * @throws IllegalArgumentException if the arrays are not valid (odd length, out of order or out of range)
+	 */
+	public static CodePointSet decode(IntBuffer in) {
+		int[] o = _decode(in);
+		int[] e = _decode(in);
+		if (o.length == e.length && _eqcontents(o, e))
+			e = o;
+		return new CodePointSet(o, e);
+	}
+
+	private static int[] _decode(IntBuffer in) {
+		int length = in.get();
+		if (length < 0 || (length & 1) != 0 || length > in.remaining())
+			throw new IllegalArgumentException("invalid code point set length " + length);
+		if (length == 0)
+			return empty;
+		int[] points = new int[length];
+		in.get(points);
+		for (int i = 0, last = -1; i < length; last = points[i++]) {
+			if (points[i] <= last || points[i] > MAXSHIFTED)
+				throw new IllegalArgumentException("invalid code point set range at " + i);
+		}
+		return points;
+	}
+
 	private static boolean _eqcontents(int[] left, int[] right) {
 		if (left == right)
 			return true;
@@ -304,12 +503,12 @@ public final class CodePointSet {
 	 */
 	public static CodePointSet all(int start, int end) {
 		int[] odd, even;
-		odd = new int[] {start >> 1, end >> 1};
+		odd = range(start >> 1, end >> 1);
 		// the below code allows us to use the same array for even and odd if there would be no difference
 		if (0 == (start & 1) && 0 == (end & 1))
 			even = odd;
 		else
-			even = new int[] {(start + 1) >> 1, (end + 1) >> 1};
+			even = range((start + 1) >> 1, (end + 1) >> 1);
 		return new CodePointSet(odd, even);
 	}
 	
@@ -350,7 +549,7 @@ public final class CodePointSet {
 	 * @return
 	 */
 	public static CodePointSet charRanges(char... endpoint) {
-		CodePointSet cps = CodePointSet.NONE;
+		Builder builder = new Builder();
 		for (int i = 0; i < endpoint.length;) {
 			int s = endpoint[i++];
 			int e;
@@ -358,17 +557,151 @@ public final class CodePointSet {
 				e = endpoint[i++] + 1;
 			else
 				e = CodePointSet.UNICODE_END;
-			CodePointSet seg = all(s, e);
-			cps = cps.union(seg);
+			builder.add(s, e);
 		}
-		return cps;
+		return builder.build();
 	}
 	
 	public static CodePointSet chars(char... chars) {
-		CodePointSet cps = CodePointSet.NONE;
+		Builder builder = new Builder();
 		for (int i = 0; i < chars.length; i++) {
-			cps = cps.union(all(chars[i], chars[i] + 1));
+			builder.add(chars[i]);
+		}
+		return builder.build();
+	}
+	
+	/**
+	 * Collects ranges in any order and builds a CodePointSet of their union.
+	 * Ranges are kept as packed (start, end) longs in right-shifted form for each parity,
+	 * they are sorted once and merged in a single pass when build() is called,
+	 * which is much cheaper than union-ing them one at a time.
+	 */
+	public static final class Builder {
+		final LongList odd = new LongList();
+		final LongList even = new LongList();
+		
+		/**
+		 * Add every point between start (inclusive) and end (exclusive)
+		 * @param start beginning of range (inclusive)
+		 * @param end end of range (exclusive)
+		 * @return this builder
+		 */
+		public Builder add(int start, int end) {
+			check(start, end);
+			addShifted(odd, start >> 1, end >> 1);
+			addShifted(even, (start + 1) >> 1, (end + 1) >> 1);
+			return this;
+		}
+		
+		/**
+		 * Add a single code point
+		 * @param codepoint the point to add
+		 * @return this builder
+		 */
+		public Builder add(int codepoint) {
+			return add(codepoint, codepoint + 1);
+		}
+		
+		/**
+		 * Add the odd points between start (inclusive) and end (exclusive)
+		 * @param start beginning of range (inclusive)
+		 * @param end end of range (exclusive)
+		 * @return this builder
+		 */
+		public Builder addOdd(int start, int end) {
+			check(start, end);
+			addShifted(odd, start >> 1, end >> 1);
+			return this;
+		}
+		
+		/**
+		 * Add the even points between start (inclusive) and end (exclusive)
+		 * @param start beginning of range (inclusive)
+		 * @param end end of range (exclusive)
+		 * @return this builder
+		 */
+		public Builder addEven(int start, int end) {
+			check(start, end);
+			addShifted(even, (start + 1) >> 1, (end + 1) >> 1);
+			return this;
+		}
+		
+		/**
+		 * Add every point in an existing set
+		 * @param cps the set to add
+		 * @return this builder
+		 */
+		public Builder add(CodePointSet cps) {
+			addAll(odd, cps.odd);
+			addAll(even, cps.even);
+			return this;
+		}
+		
+		/**
+		 * Forget all ranges added so far so that the builder can be reused
+		 */
+		public void clear() {
+			odd.clear();
+			even.clear();
+		}
+		
+		/**
+		 * @return a set containing every point added to this builder
+		 */
+		public CodePointSet build() {
+			int[] o = merge(odd);
+			int[] e = merge(even);
+			if (o.length == e.length && _eqcontents(o, e))
+				e = o;
+			return new CodePointSet(o, e);
+		}
+		
+		private static void check(int start, int end) {
+			if (start < 0 || end > UNICODE_END)
+				throw new IllegalArgumentException("range " + start + "-" + end + " is outside of unicode");
+			if (end < start)
+				throw new IllegalArgumentException("end (" + end + ") must be greater than or equal to start (" + start + ")");
+		}
+		
+		private static void addShifted(LongList ranges, int start, int end) {
+			if (end > start)
+				ranges.add(((long)start << 32) | end);
+		}
+		
+		private static void addAll(LongList ranges, int[] points) {
+			for (int i = 0; i + 1 < points.length; i += 2)
+				addShifted(ranges, points[i], points[i + 1]);
+		}
+		
+		// sorts the ranges (by start) and then merges overlapping or adjacent ones in place
+		private static int[] merge(LongList ranges) {
+			int count = ranges.size();
+			if (count == 0)
+				return empty;
+			ranges.sort(SortLong.ASCENDING);
+			int merged = 0;
+			long current = ranges.get(0);
+			for (int i = 1; i < count; i++) {
+				long next = ranges.get(i);
+				int currentEnd = (int)current;
+				if ((int)(next >>> 32) <= currentEnd) {
+					if ((int)next > currentEnd)
+						current = (current & 0xFFFFFFFF00000000L) | (next & 0xFFFFFFFFL);
+				}
+				else {
+					ranges.set(merged++, current);
+					current = next;
+				}
+			}
+			ranges.set(merged++, current);
+			int[] points = new int[merged << 1];
+			for (int i = 0; i < merged; i++) {
+				long range = ranges.get(i);
+				points[i << 1] = (int)(range >>> 32);
+				points[(i << 1) + 1] = (int)range;
+			}
+			ranges.truncate(merged);
+			return points;
 		}
-		return cps;
 	}
 }
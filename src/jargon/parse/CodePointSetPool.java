@@ -0,0 +1,156 @@
+package jargon.parse;
+
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Hash-conses CodePointSets and memoizes set operations on them.
+ * intern() returns one canonical instance for every group of equal sets, so that interned sets can be compared by identity.
+ * Canonical instances are only weakly referenced by the pool and disappear once nothing else uses them.
+ * union(), intersect() and minus() intern their operands and results,
+ * and remember a bounded number of recent results keyed on the (canonical) operand pair.
+ * All methods are safe for concurrent use.
+ * @author Warren Falk
+ *
+ */
+public final class CodePointSetPool {
+	public static final CodePointSetPool SHARED = new CodePointSetPool(1024);
+	
+	private final WeakHashMap<CodePointSet, WeakReference<CodePointSet>> pool = new WeakHashMap<CodePointSet, WeakReference<CodePointSet>>();
+	private final Map<OperationKey, CodePointSet> results;
+	private long hits;
+	private long misses;
+	
+	/**
+	 * @param capacity the maximum number of operation results to remember
+	 */
+	public CodePointSetPool(final int capacity) {
+		results = new LinkedHashMap<OperationKey, CodePointSet>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<OperationKey, CodePointSet> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+	
+	/**
+	 * Returns the canonical instance for the given set, which is the set itself if no equal set is pooled
+	 * @param cps the set
+	 * @return the canonical set equal to cps
+	 */
+	public CodePointSet intern(CodePointSet cps) {
+		synchronized (pool) {
+			WeakReference<CodePointSet> ref = pool.get(cps);
+			if (ref != null) {
+				CodePointSet canonical = ref.get();
+				if (canonical != null)
+					return canonical;
+			}
+			pool.put(cps, new WeakReference<CodePointSet>(cps));
+			return cps;
+		}
+	}
+	
+	/**
+	 * @return the canonical union of two sets
+	 */
+	public CodePointSet union(CodePointSet left, CodePointSet right) {
+		return apply(CodePointSet.OP_UNION, left, right);
+	}
+	
+	/**
+	 * @return the canonical intersection of two sets
+	 */
+	public CodePointSet intersect(CodePointSet left, CodePointSet right) {
+		return apply(CodePointSet.OP_INTERSECT, left, right);
+	}
+	
+	/**
+	 * @return the canonical set of points in left which are not in right
+	 */
+	public CodePointSet minus(CodePointSet left, CodePointSet right) {
+		return apply(CodePointSet.OP_MINUS, left, right);
+	}
+	
+	/**
+	 * @return the number of operations answered from the result cache
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * @return the number of operations which had to be calculated
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	private CodePointSet apply(int operation, CodePointSet left, CodePointSet right) {
+		left = intern(left);
+		right = intern(right);
+		// union and intersection are commutative, so put the operands in a consistent order
+		if (operation != CodePointSet.OP_MINUS && System.identityHashCode(left) > System.identityHashCode(right)) {
+			CodePointSet t = left;
+			left = right;
+			right = t;
+		}
+		OperationKey key = new OperationKey(operation, left, right);
+		CodePointSet result;
+		synchronized (this) {
+			result = results.get(key);
+			if (result != null) {
+				hits++;
+				return result;
+			}
+			misses++;
+		}
+		// calculate outside of the lock, if two threads race they will both produce the same canonical result
+		switch (operation) {
+		case CodePointSet.OP_UNION:
+			result = left.union(right);
+			break;
+		case CodePointSet.OP_INTERSECT:
+			result = left.intersect(right);
+			break;
+		default:
+			result = left.minus(right);
+			break;
+		}
+		result = intern(result);
+		synchronized (this) {
+			results.put(key, result);
+		}
+		return result;
+	}
+	
+	// operands are canonical, so they are compared by identity
+	static final class OperationKey {
+		final int operation;
+		final CodePointSet left;
+		final CodePointSet right;
+		
+		OperationKey(int operation, CodePointSet left, CodePointSet right) {
+			this.operation = operation;
+			this.left = left;
+			this.right = right;
+		}
+		
+		@Override
+		public int hashCode() {
+			return (System.identityHashCode(left) * 31 + System.identityHashCode(right)) * 31 + operation;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof OperationKey))
+				return false;
+			OperationKey other = (OperationKey)obj;
+			return other.operation == operation && other.left == left && other.right == right;
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package jargon.parse;
+
+import jargon.parse.PatternNode.BranchNode;
+import jargon.parse.PatternNode.KeywordNode;
+import jargon.parse.PatternNode.LeafNode;
+import jargon.parse.PatternNode.SetNode;
+
+import java.util.ArrayList;
+
+import warrenfalk.util.IntegerList;
+
+/**
+ * The compiled form of a PatternNode graph, with the nodes stored in parallel int arrays.
+ * Each node matches one code point (or one code point from a set, or nothing) and then continues at its next-in-series node,
+ * or at the end of the pattern if next-in-series is -1.
+ * If the match fails, its next alternative (if not -1) is tried at the same position.
+ * A keyword node matches one of several strings (with a KeywordMatcher), trying each of those which match in order.
+ * Code point sets and keyword matchers are held in side tables and referred to by index.
+ * Matching walks indices and keeps its backtracking points in an IntegerList, so it allocates nothing once warmed up
+ * (the list belongs to the pattern, so one pattern must not be matched by more than one thread at a time).
+ * @author Warren Falk
+ *
+ */
+public final class FlatPattern {
+	public static final int KIND_CODEPOINT = 0;
+	public static final int KIND_SET = 1;
+	public static final int KIND_EMPTY = 2;
+	public static final int KIND_KEYWORDS = 3;
+
+	final int[] kinds;
+	final int[] values; // code point, or index into sets or keywords
+	final int[] next; // next-in-series, -1 for the end of the pattern
+	final int[] alternatives; // next alternative, -1 for none
+	final CodePointSet[] sets;
+	final CodePointMatcher[] matchers;
+	final KeywordMatcher[] keywords;
+	final int start;
+	final IntegerList stack = new IntegerList(); // pairs of (node, position) still to be tried
+	final long[] matches; // the keywords matched by a keyword node
+
+	FlatPattern(int[] kinds, int[] values, int[] next, int[] alternatives, CodePointSet[] sets, KeywordMatcher[] keywords, int start) {
+		this.kinds = kinds;
+		this.values = values;
+		this.next = next;
+		this.alternatives = alternatives;
+		this.sets = sets;
+		this.keywords = keywords;
+		this.start = start;
+		this.matchers = new CodePointMatcher[sets.length];
+		for (int i = 0; i < sets.length; i++)
+			matchers[i] = sets[i].matcher();
+		int maxMatches = 0;
+		for (KeywordMatcher k : keywords)
+			maxMatches = Math.max(maxMatches, k.getMaxMatches());
+		this.matches = new long[maxMatches];
+	}
+
+	/**
+	 * Compiles a node graph
+	 * @param root the first node of the pattern
+	 * @return the flat form of the pattern
+	 */
+	public static FlatPattern compile(PatternNode root) {
+		Builder builder = new Builder();
+		return builder.build(builder.compile(root, -1));
+	}
+
+	/**
+	 * Matches the pattern
+	 * @param input the input
+	 * @param offset the offset at which the match must start
+	 * @return the offset after the match, or -1 if there is no match
+	 */
+	public int match(CharSequence input, int offset) {
+		IntegerList stack = this.stack;
+		stack.clear();
+		int length = input.length();
+		int node = start;
+		int position = offset;
+		for (;;) {
+			if (alternatives[node] != -1) {
+				stack.add(alternatives[node]);
+				stack.add(position);
+			}
+			boolean matched;
+			int kind = kinds[node];
+			if (kind == KIND_EMPTY) {
+				matched = true;
+			}
+			else if (kind == KIND_KEYWORDS) {
+				// go on after the first keyword, with the others to be tried (in order) if that fails
+				int count = keywords[values[node]].prefixes(input, position, matches);
+				matched = count > 0;
+				if (matched) {
+					if (next[node] != -1) {
+						for (int k = count - 1; k > 0; k--) {
+							stack.add(next[node]);
+							stack.add(KeywordMatcher.end(matches[k]));
+						}
+					}
+					position = KeywordMatcher.end(matches[0]);
+				}
+			}
+			else if (position < length) {
+				int cp = Character.codePointAt(input, position);
+				matched = kind == KIND_CODEPOINT ? cp == values[node] : matchers[values[node]].contains(cp);
+				if (matched)
+					position += Character.charCount(cp);
+			}
+			else {
+				matched = false;
+			}
+			if (matched) {
+				node = next[node];
+				if (node == -1)
+					return position;
+			}
+			else {
+				if (stack.size() == 0)
+					return -1;
+				position = stack.pop();
+				node = stack.pop();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of nodes
+	 */
+	public int size() {
+		return kinds.length;
+	}
+
+	/**
+	 * @return the index of the first node
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	public int getKind(int node) {
+		return kinds[node];
+	}
+
+	/**
+	 * @param node the node index
+	 * @return the code point of a KIND_CODEPOINT node, the set index of a KIND_SET node, or the keyword matcher index of a KIND_KEYWORDS node
+	 */
+	public int getValue(int node) {
+		return values[node];
+	}
+
+	public int getNextInSeries(int node) {
+		return next[node];
+	}
+
+	public int getNextAlternative(int node) {
+		return alternatives[node];
+	}
+
+	public int getSetCount() {
+		return sets.length;
+	}
+
+	public CodePointSet getSet(int index) {
+		return sets[index];
+	}
+
+	public int getKeywordsCount() {
+		return keywords.length;
+	}
+
+	public KeywordMatcher getKeywords(int index) {
+		return keywords[index];
+	}
+
+	/**
+	 * Builds the flat form directly, node by node.
+	 * Series are built back to front, so each method takes the index of the node which follows (or -1 for the end of the pattern)
+	 * and returns the index of the first node it added.
+	 */
+	public static final class Builder {
+		final IntegerList kinds = new IntegerList();
+		final IntegerList values = new IntegerList();
+		final IntegerList next = new IntegerList();
+		final IntegerList alternatives = new IntegerList();
+		final ArrayList<CodePointSet> sets = new ArrayList<CodePointSet>();
+		final ArrayList<KeywordMatcher> keywords = new ArrayList<KeywordMatcher>();
+
+		int add(int kind, int value, int nextInSeries) {
+			kinds.add(kind);
+			values.add(value);
+			next.add(nextInSeries);
+			alternatives.add(-1);
+			return kinds.size() - 1;
+		}
+
+		public int codePoint(int codePoint, int nextInSeries) {
+			return add(KIND_CODEPOINT, codePoint, nextInSeries);
+		}
+
+		public int set(CodePointSet cps, int nextInSeries) {
+			int index = sets.indexOf(cps);
+			if (index == -1) {
+				index = sets.size();
+				sets.add(cps);
+			}
+			return add(KIND_SET, index, nextInSeries);
+		}
+
+		public int empty(int nextInSeries) {
+			return add(KIND_EMPTY, 0, nextInSeries);
+		}
+
+		public int keywords(KeywordMatcher matcher, int nextInSeries) {
+			int index = keywords.indexOf(matcher);
+			if (index == -1) {
+				index = keywords.size();
+				keywords.add(matcher);
+			}
+			return add(KIND_KEYWORDS, index, nextInSeries);
+		}
+
+		/**
+		 * Adds a series of nodes matching a string
+		 * @param string the string
+		 * @param nextInSeries the node following the string
+		 * @return the first node of the string
+		 */
+		public int stringLiteral(String string, int nextInSeries) {
+			if (string.length() == 0)
+				return empty(nextInSeries);
+			int node = nextInSeries;
+			for (int i = string.length(); i > 0;) {
+				int cp = string.codePointBefore(i);
+				i -= Character.charCount(cp);
+				node = codePoint(cp, node);
+			}
+			return node;
+		}
+
+		/**
+		 * Adds a series of nodes matching one code point from each of the given sets
+		 * @param nextInSeries the node following the series
+		 * @param sets the sets
+		 * @return the first node of the series
+		 */
+		public int series(int nextInSeries, CodePointSet... sets) {
+			if (sets.length == 0)
+				return empty(nextInSeries);
+			int node = nextInSeries;
+			for (int i = sets.length - 1; i >= 0; i--)
+				node = set(sets[i], node);
+			return node;
+		}
+
+		/**
+		 * Makes one node the last alternative of another (i.e. appends it to the end of its chain of alternatives)
+		 * @param node the first alternative
+		 * @param alternative the alternative to add
+		 * @return the first alternative
+		 */
+		public int alternative(int node, int alternative) {
+			int last = node;
+			while (alternatives.get(last) != -1)
+				last = alternatives.get(last);
+			alternatives.set(last, alternative);
+			return node;
+		}
+
+		/**
+		 * Adds the nodes of a node graph
+		 * @param node the graph
+		 * @param nextInSeries the node which follows the graph
+		 * @return the first node added
+		 */
+		public int compile(PatternNode node, int nextInSeries) {
+			if (node == null)
+				return empty(nextInSeries);
+			if (node instanceof LeafNode)
+				return codePoint(((LeafNode)node).codePoint, nextInSeries);
+			if (node instanceof SetNode)
+				return set(((SetNode)node).cps, nextInSeries);
+			if (node instanceof KeywordNode)
+				return keywords(((KeywordNode)node).keywords, nextInSeries);
+			BranchNode branch = (BranchNode)node;
+			int rest = branch.nextInSeries == null ? nextInSeries : compile(branch.nextInSeries, nextInSeries);
+			int first = compile(branch.node, rest);
+			if (branch.nextAlternative != null)
+				alternative(first, compile(branch.nextAlternative, nextInSeries));
+			return first;
+		}
+
+		/**
+		 * @param start the first node of the pattern
+		 * @return the flat pattern
+		 */
+		public FlatPattern build(int start) {
+			return new FlatPattern(kinds.toArray(), values.toArray(), next.toArray(), alternatives.toArray(), sets.toArray(new CodePointSet[sets.size()]), keywords.toArray(new KeywordMatcher[keywords.size()]), start);
+		}
+	}
+}
@@ -0,0 +1,358 @@
+package jargon.parse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import warrenfalk.util.IntegerList;
+import warrenfalk.util.LongList;
+
+/**
+ * Matches any number of literal strings (keywords) in one pass over the input, as an Aho-Corasick automaton
+ * whose trie is stored as a double array.
+ * The code points used by the keywords are numbered 1 to n (Latin-1 by table, the rest by binary search),
+ * and the child of state s on code c is state base[s] + c if check[base[s] + c] == s.
+ * Each state also has the keyword which ends there (or -1), its failure link (the state of its longest proper suffix
+ * which is also in the trie) and its output link (the nearest state along the failure links at which a keyword ends),
+ * so that finding every occurrence of every keyword costs one step per code point plus one per occurrence.
+ * A match is a long, packed like those of Dfa: the keyword index in the high 32 bits and the offset after the match
+ * in the low 32 bits. A matcher is immutable and may be shared between threads.
+ * @author Warren Falk
+ *
+ */
+public final class KeywordMatcher {
+	static final int ROOT = 0;
+
+	final String[] keywords;
+	final int[] latin1Codes; // code of each Latin-1 code point, 0 if no keyword uses it
+	final int[] codePoints; // the other code points used by the keywords, sorted
+	final int latin1Count; // the codes of the other code points follow those of Latin-1
+	final int[] base;
+	final int[] check; // parent of each state, -1 for unused slots
+	final int[] outputs; // keyword ending at each state, or -1
+	final int[] failures;
+	final int[] outputLinks; // nearest state along the failure links with an output, or -1
+	final int[] lengths; // length of each keyword in chars
+	final int maxMatches;
+
+	/**
+	 * @param keywords the keywords, whose indexes are the keyword numbers of the matches (where a keyword appears more than once,
+	 * only the first is matched)
+	 */
+	public KeywordMatcher(String... keywords) {
+		this.keywords = keywords.clone();
+		lengths = new int[keywords.length];
+		for (int k = 0; k < keywords.length; k++)
+			lengths[k] = keywords[k].length();
+
+		// number the code points
+		latin1Codes = new int[0x100];
+		IntegerList others = new IntegerList();
+		HashMap<Integer, Boolean> seen = new HashMap<Integer, Boolean>();
+		int maxDepth = 0;
+		for (String keyword : keywords) {
+			maxDepth = Math.max(maxDepth, keyword.codePointCount(0, keyword.length()));
+			for (int i = 0; i < keyword.length(); i += Character.charCount(keyword.codePointAt(i))) {
+				int cp = keyword.codePointAt(i);
+				if (cp < 0x100)
+					latin1Codes[cp] = 1;
+				else if (seen.put(cp, Boolean.TRUE) == null)
+					others.add(cp);
+			}
+		}
+		codePoints = others.toArray();
+		Arrays.sort(codePoints);
+		int code = 0;
+		for (int cp = 0; cp < 0x100; cp++) {
+			if (latin1Codes[cp] != 0)
+				latin1Codes[cp] = ++code;
+		}
+		latin1Count = code;
+		int alphabet = code + codePoints.length;
+		maxMatches = maxDepth + 1;
+
+		// build the trie with explicit child lists
+		ArrayList<IntegerList> childCodes = new ArrayList<IntegerList>();
+		ArrayList<IntegerList> childStates = new ArrayList<IntegerList>();
+		IntegerList trieOutputs = new IntegerList();
+		childCodes.add(new IntegerList());
+		childStates.add(new IntegerList());
+		trieOutputs.add(-1);
+		for (int k = 0; k < keywords.length; k++) {
+			String keyword = keywords[k];
+			int state = 0;
+			for (int i = 0; i < keyword.length(); i += Character.charCount(keyword.codePointAt(i))) {
+				int c = code(keyword.codePointAt(i));
+				IntegerList codes = childCodes.get(state);
+				int found = -1;
+				for (int j = 0; j < codes.size(); j++) {
+					if (codes.get(j) == c) {
+						found = childStates.get(state).get(j);
+						break;
+					}
+				}
+				if (found == -1) {
+					found = trieOutputs.size();
+					childCodes.add(new IntegerList());
+					childStates.add(new IntegerList());
+					trieOutputs.add(-1);
+					codes.add(c);
+					childStates.get(state).add(found);
+				}
+				state = found;
+			}
+			if (trieOutputs.get(state) == -1)
+				trieOutputs.set(state, k);
+		}
+
+		// place the states in the double array breadth first, finding for each state the lowest base at which all of its children fit
+		int trieSize = trieOutputs.size();
+		int[] slotOf = new int[trieSize];
+		IntegerList baseList = new IntegerList();
+		IntegerList checkList = new IntegerList();
+		baseList.add(0);
+		checkList.add(ROOT); // the root is its own parent, no code is 0 so nothing else can be placed there
+		int[] queue = new int[trieSize];
+		int head = 0, tail = 0;
+		queue[tail++] = 0;
+		int firstFree = 1;
+		while (head < tail) {
+			int state = queue[head++];
+			IntegerList codes = childCodes.get(state);
+			if (codes.size() == 0)
+				continue;
+			while (firstFree < checkList.size() && checkList.get(firstFree) != -1)
+				firstFree++;
+			int b = Math.max(1, firstFree - codes.get(0));
+			for (;; b++) {
+				boolean fits = true;
+				for (int j = 0; j < codes.size() && fits; j++) {
+					int slot = b + codes.get(j);
+					fits = slot >= checkList.size() || checkList.get(slot) == -1;
+				}
+				if (fits)
+					break;
+			}
+			baseList.set(slotOf[state], b);
+			for (int j = 0; j < codes.size(); j++) {
+				int slot = b + codes.get(j);
+				while (checkList.size() <= slot) {
+					checkList.add(-1);
+					baseList.add(0);
+				}
+				checkList.set(slot, slotOf[state]);
+				int child = childStates.get(state).get(j);
+				slotOf[child] = slot;
+				queue[tail++] = child;
+			}
+		}
+		// room for a transition on any code from any base, so that lookups need no bounds check
+		int size = checkList.size() + alphabet + 1;
+		base = Arrays.copyOf(baseList.toArray(), size);
+		check = Arrays.copyOf(checkList.toArray(), size);
+		Arrays.fill(check, checkList.size(), size, -1);
+		outputs = new int[size];
+		Arrays.fill(outputs, -1);
+		for (int s = 0; s < trieSize; s++)
+			outputs[slotOf[s]] = trieOutputs.get(s);
+
+		// failure and output links, breadth first so that the links of shorter prefixes are known
+		failures = new int[size];
+		outputLinks = new int[size];
+		Arrays.fill(outputLinks, -1);
+		for (int i = 1; i < tail; i++) {
+			int state = queue[i];
+			int slot = slotOf[state];
+			int parent = check[slot];
+			int c = slot - base[parent];
+			int failure = ROOT;
+			if (parent != ROOT) {
+				for (int f = failures[parent];; f = failures[f]) {
+					int t = base[f] + c;
+					if (check[t] == f) {
+						failure = t;
+						break;
+					}
+					if (f == ROOT)
+						break;
+				}
+			}
+			failures[slot] = failure;
+			outputLinks[slot] = outputs[failure] != -1 ? failure : outputLinks[failure];
+		}
+	}
+
+	// the code of a code point, or 0 if no keyword uses it
+	int code(int codepoint) {
+		if (codepoint < 0x100)
+			return latin1Codes[codepoint];
+		int i = Arrays.binarySearch(codePoints, codepoint);
+		return i < 0 ? 0 : latin1Count + i + 1;
+	}
+
+	/**
+	 * @return the number of keywords
+	 */
+	public int size() {
+		return keywords.length;
+	}
+
+	public String getKeyword(int keyword) {
+		return keywords[keyword];
+	}
+
+	/**
+	 * @return the most keywords which can match at one offset (the size of the array to pass to prefixes())
+	 */
+	public int getMaxMatches() {
+		return maxMatches;
+	}
+
+	/**
+	 * Finds the longest keyword at an offset
+	 * @param input the input
+	 * @param offset the offset at which the keyword must start
+	 * @return the match, or -1 if no keyword matches
+	 */
+	public long longest(CharSequence input, int offset) {
+		long match = outputs[ROOT] == -1 ? -1 : match(outputs[ROOT], offset);
+		int length = input.length();
+		int state = ROOT;
+		for (int i = offset; i < length;) {
+			int cp = Character.codePointAt(input, i);
+			int c = code(cp);
+			int next = base[state] + c;
+			if (c == 0 || check[next] != state)
+				break;
+			state = next;
+			i += Character.charCount(cp);
+			if (outputs[state] != -1)
+				match = match(outputs[state], i);
+		}
+		return match;
+	}
+
+	/**
+	 * Finds every keyword at an offset
+	 * @param input the input
+	 * @param offset the offset at which the keywords must start
+	 * @param matches receives the matches, in the order of the keywords (it must have room for getMaxMatches())
+	 * @return the number of matches
+	 */
+	public int prefixes(CharSequence input, int offset, long[] matches) {
+		int count = 0;
+		if (outputs[ROOT] != -1)
+			matches[count++] = match(outputs[ROOT], offset);
+		int length = input.length();
+		int state = ROOT;
+		for (int i = offset; i < length;) {
+			int cp = Character.codePointAt(input, i);
+			int c = code(cp);
+			int next = base[state] + c;
+			if (c == 0 || check[next] != state)
+				break;
+			state = next;
+			i += Character.charCount(cp);
+			if (outputs[state] != -1) {
+				// insert in keyword order (the list is short)
+				long match = match(outputs[state], i);
+				int j = count++;
+				while (j > 0 && matches[j - 1] > match) {
+					matches[j] = matches[j - 1];
+					j--;
+				}
+				matches[j] = match;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Finds the keywords at an offset one at a time, in the order of the keywords, without a buffer
+	 * (each call walks the trie again, prefixes() finds them all in one walk)
+	 * @param input the input
+	 * @param offset the offset at which the keyword must start
+	 * @param after the keyword index of the previous match, or -1 for the first
+	 * @return the match of the first keyword after it, or -1 if there is none
+	 */
+	public long nextPrefix(CharSequence input, int offset, int after) {
+		long next = -1;
+		if (outputs[ROOT] > after)
+			next = match(outputs[ROOT], offset);
+		int length = input.length();
+		int state = ROOT;
+		for (int i = offset; i < length;) {
+			int cp = Character.codePointAt(input, i);
+			int c = code(cp);
+			int n = base[state] + c;
+			if (c == 0 || check[n] != state)
+				break;
+			state = n;
+			i += Character.charCount(cp);
+			int keyword = outputs[state];
+			if (keyword > after && (next == -1 || keyword < keyword(next)))
+				next = match(keyword, i);
+		}
+		return next;
+	}
+
+	/**
+	 * Finds every occurrence of every keyword in a range of the input, including overlapping ones (but not of the empty keyword)
+	 * @param input the input
+	 * @param from the offset at which to start
+	 * @param to the offset at which to stop
+	 * @param matches receives the matches, in order of their ends (and, for the same end, longest first)
+	 */
+	public void findAll(CharSequence input, int from, int to, LongList matches) {
+		int state = ROOT;
+		for (int i = from; i < to;) {
+			int cp = Character.codePointAt(input, i);
+			i += Character.charCount(cp);
+			int c = code(cp);
+			if (c == 0) {
+				state = ROOT;
+				continue;
+			}
+			for (;;) {
+				int next = base[state] + c;
+				if (check[next] == state) {
+					state = next;
+					break;
+				}
+				if (state == ROOT)
+					break;
+				state = failures[state];
+			}
+			for (int s = outputs[state] != -1 ? state : outputLinks[state]; s > ROOT; s = outputLinks[s])
+				matches.add(match(outputs[s], i));
+		}
+	}
+
+	static long match(int keyword, int end) {
+		return ((long)keyword << 32) | (end & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @param match a match
+	 * @return the index of the keyword which matched
+	 */
+	public static int keyword(long match) {
+		return (int)(match >> 32);
+	}
+
+	/**
+	 * @param match a match
+	 * @return the offset after the end of the match
+	 */
+	public static int end(long match) {
+		return (int)match;
+	}
+
+	/**
+	 * @param match a match
+	 * @return the offset of the start of the match
+	 */
+	public int start(long match) {
+		return end(match) - lengths[keyword(match)];
+	}
+}
@@ -1,36 +1,228 @@
 package jargon.parse;
 
+import java.util.ArrayList;
 
+/**
+ * A pattern as a graph of nodes.
+ * A branch matches its node followed by its next-in-series (the rest of the series) or, failing that, its next alternative.
+ * A missing (null) node matches the empty string.
+ * Alternatives are tried in order and the first one that matches wins.
+ * See FlatPattern for the compiled form of the graph.
+ */
 public abstract class PatternNode {
 	public static final class BranchNode extends PatternNode {
+		final PatternNode node;
 		PatternNode nextInSeries;
 		PatternNode nextAlternative;
+
+		public BranchNode(PatternNode node, PatternNode nextInSeries, PatternNode nextAlternative) {
+			this.node = node;
+			this.nextInSeries = nextInSeries;
+			this.nextAlternative = nextAlternative;
+		}
+
+		@Override
+		int match(CharSequence input, int position, Continuation continuation) {
+			int end = match(node, input, position, new Continuation(nextInSeries, continuation));
+			if (end != -1 || nextAlternative == null)
+				return end;
+			return nextAlternative.match(input, position, continuation);
+		}
 	}
-	
+
 	public static final class LeafNode extends PatternNode {
 		final int codePoint;
-		
+
 		public LeafNode(int codePoint) {
 			this.codePoint = codePoint;
 		}
+
+		@Override
+		int match(CharSequence input, int position, Continuation continuation) {
+			if (position >= input.length() || Character.codePointAt(input, position) != codePoint)
+				return -1;
+			return resume(input, position + Character.charCount(codePoint), continuation);
+		}
 	}
-	
+
+	public static final class SetNode extends PatternNode {
+		final CodePointSet cps;
+
+		public SetNode(CodePointSet cps) {
+			this.cps = cps;
+		}
+
+		@Override
+		int match(CharSequence input, int position, Continuation continuation) {
+			if (position >= input.length())
+				return -1;
+			int cp = Character.codePointAt(input, position);
+			if (!cps.contains(cp))
+				return -1;
+			return resume(input, position + Character.charCount(cp), continuation);
+		}
+	}
+
+	/**
+	 * Matches one of several literal strings followed by the rest of the pattern, trying the strings in order as a chain of
+	 * alternatives would, but finding all of the strings which match in one pass over the input.
+	 */
+	public static final class KeywordNode extends PatternNode {
+		final KeywordMatcher keywords;
+
+		public KeywordNode(KeywordMatcher keywords) {
+			this.keywords = keywords;
+		}
+
+		@Override
+		int match(CharSequence input, int position, Continuation continuation) {
+			// (the node may be matched again within the continuation, or by other threads, so there is no buffer of matches to reuse)
+			for (long m = keywords.nextPrefix(input, position, -1); m != -1; m = keywords.nextPrefix(input, position, KeywordMatcher.keyword(m))) {
+				int end = resume(input, KeywordMatcher.end(m), continuation);
+				if (end != -1)
+					return end;
+			}
+			return -1;
+		}
+	}
+
+	// what remains to be matched after the current node
+	static final class Continuation {
+		final PatternNode node;
+		final Continuation next;
+
+		Continuation(PatternNode node, Continuation next) {
+			this.node = node;
+			this.next = next;
+		}
+	}
+
+	abstract int match(CharSequence input, int position, Continuation continuation);
+
+	static int match(PatternNode node, CharSequence input, int position, Continuation continuation) {
+		if (node == null)
+			return resume(input, position, continuation);
+		return node.match(input, position, continuation);
+	}
+
+	static int resume(CharSequence input, int position, Continuation continuation) {
+		if (continuation == null)
+			return position;
+		return match(continuation.node, input, position, continuation.next);
+	}
+
+	/**
+	 * Matches this pattern by walking the node graph
+	 * @param input the input
+	 * @param offset the offset at which the match must start
+	 * @return the offset after the match, or -1 if there is no match
+	 */
+	public int match(CharSequence input, int offset) {
+		return match(input, offset, null);
+	}
+
+	/**
+	 * @return the compiled (flat array) form of this pattern
+	 */
+	public FlatPattern compile() {
+		return FlatPattern.compile(this);
+	}
+
 	public static void main(String[] args) {
 	}
-	
+
 	public static PatternNode stringLiteral(String string) {
-		LeafNode[] leaves = new int[string.length()];
-		for (int i = 0; i < string.length(); i++) {
-			leaves[i] = new LeafNode(string.codePointAt(i));
+		PatternNode[] leaves = new PatternNode[string.codePointCount(0, string.length())];
+		for (int i = 0, n = 0; i < string.length(); i += Character.charCount(string.codePointAt(i))) {
+			leaves[n++] = new LeafNode(string.codePointAt(i));
 		}
 		return series(0, leaves);
 	}
-	
+
+	/**
+	 * Returns a pattern which tries each of the given strings in order (like alternatives() of their stringLiteral()s)
+	 * @param literals the strings
+	 * @return the pattern
+	 */
+	public static KeywordNode keywords(String... literals) {
+		return new KeywordNode(new KeywordMatcher(literals));
+	}
+
+	/**
+	 * Rewrites a pattern so that every run of two or more adjacent alternatives which are string literals becomes one KeywordNode.
+	 * The pattern matches exactly as before.
+	 * @param node the pattern (which is not changed)
+	 * @return the rewritten pattern
+	 */
+	public static PatternNode mergeLiterals(PatternNode node) {
+		if (!(node instanceof BranchNode))
+			return node;
+		BranchNode branch = (BranchNode)node;
+		ArrayList<String> run = new ArrayList<String>();
+		PatternNode rest = branch;
+		while (rest instanceof BranchNode && ((BranchNode)rest).nextInSeries == null) {
+			String literal = literal(((BranchNode)rest).node);
+			if (literal == null)
+				break;
+			run.add(literal);
+			rest = ((BranchNode)rest).nextAlternative;
+		}
+		if (run.size() >= 2) {
+			KeywordNode keywords = keywords(run.toArray(new String[run.size()]));
+			return rest == null ? keywords : new BranchNode(keywords, null, mergeLiterals(rest));
+		}
+		return new BranchNode(mergeLiterals(branch.node), mergeLiterals(branch.nextInSeries), mergeLiterals(branch.nextAlternative));
+	}
+
+	// the string matched by a node which only matches a fixed series of code points, or null if it matches anything else
+	static String literal(PatternNode node) {
+		StringBuilder sb = new StringBuilder();
+		while (node != null) {
+			if (node instanceof LeafNode)
+				return sb.appendCodePoint(((LeafNode)node).codePoint).toString();
+			if (!(node instanceof BranchNode))
+				return null;
+			BranchNode branch = (BranchNode)node;
+			if (branch.nextAlternative != null)
+				return null;
+			if (branch.node != null) {
+				if (!(branch.node instanceof LeafNode))
+					return null;
+				sb.appendCodePoint(((LeafNode)branch.node).codePoint);
+			}
+			node = branch.nextInSeries;
+		}
+		return sb.toString();
+	}
+
 	public static LeafNode codePoint(int codePoint) {
 		return new LeafNode(codePoint);
 	}
-	
+
+	/**
+	 * Returns a pattern which tries each of the given patterns in order
+	 * @param nodes the alternatives
+	 * @return the first branch of the alternatives
+	 */
+	public static PatternNode alternatives(PatternNode... nodes) {
+		BranchNode first = null, last = null;
+		for (PatternNode node : nodes) {
+			BranchNode branch = new BranchNode(node, null, null);
+			if (last == null)
+				first = branch;
+			else
+				last.nextAlternative = branch;
+			last = branch;
+		}
+		return first;
+	}
+
 	final static PatternNode series(int offset, PatternNode[] nodes) {
-		
+		if (offset >= nodes.length)
+			return new BranchNode(null, null, null);
+		PatternNode next = null;
+		for (int i = nodes.length - 1; i >= offset; i--)
+			next = new BranchNode(nodes[i], next, null);
+		return next;
 	}
 }
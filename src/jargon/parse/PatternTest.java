@@ -1,18 +1,39 @@
 package jargon.parse;
 
-import jargon.parse.reflect.Pattern;
+import jargon.parse.dfa.Dfa;
+import jargon.parse.dfa.DfaCompiler;
+import jargon.parse.reflect.Grammar;
 import jargon.parse.reflect.Pattern.Builder;
+import jargon.parse.reflect.PatternRef;
 
 
 public class PatternTest {
-	public static void main(String[] args) {
+	/**
+	 * The unicode escapes and line terminators of the Java lexical grammar (JLS 3.3 and 3.4)
+	 * @return the grammar
+	 */
+	public static Grammar javaLexical() {
 		Builder pb = new Builder();
-		pb.choice("UnicodeInputCharacter");
-		pb.sequence("UnicodeEscape");
-		pb.choice("UnicodeMarker");
+		pb.choice("UnicodeInputCharacter").add("UnicodeEscape").add("RawInputCharacter");
+		pb.sequence("UnicodeEscape").add(CodePointSet.chars('\\')).add("UnicodeMarker").add("HexDigit", 4, 4);
+		pb.choice("UnicodeMarker").add(CodePointSet.chars('u'), 1, PatternRef.UNBOUNDED);
 		pb.codepoints("RawInputCharacter", CodePointSet.ALL);
 		pb.codepoints("HexDigit", CodePointSet.charRanges('0', '9', 'a', 'f', 'A', 'F'));
-		pb.choice("LineTerminator");
+		pb.choice("LineTerminator").add(CodePointSet.chars('\n')).add(CodePointSet.chars('\r')).literal("\r\n");
 		pb.codepoints("InputCharacter", CodePointSet.not(CodePointSet.chars('\r', '\n')));
+		return pb.build();
+	}
+
+	public static void main(String[] args) {
+		Grammar grammar = javaLexical();
+		Dfa dfa = DfaCompiler.compile(grammar, "LineTerminator", "UnicodeEscape", "InputCharacter");
+		String input = args.length > 0 ? args[0] : "int \\uuu0041 = 1;\r\nreturn;\n";
+		for (int i = 0; i < input.length();) {
+			long match = dfa.match(input, i);
+			if (match == -1)
+				break;
+			System.out.println(dfa.getTokenName(Dfa.token(match)) + " " + i + "-" + Dfa.end(match));
+			i = Dfa.end(match);
+		}
 	}
 }
@@ -0,0 +1,112 @@
+package jargon.parse;
+
+/**
+ * Walks the boundaries of several (right-shifted) point arrays at once in ascending order,
+ * as if they had all been merged into one sorted array.
+ * After each call to next(), isOn() tells whether each array is inside one of its ranges at the current value.
+ * The arrays are merged through a min-heap, so each step costs O(log k) for k arrays.
+ */
+final class RangeSweep {
+	final int[][] arrays;
+	final int[] cursors; // index of the next unread point of each array
+	final int[] heap; // array indexes, ordered by their next unread point
+	int heapSize;
+	int value;
+	
+	RangeSweep(int[][] arrays) {
+		this.arrays = arrays;
+		this.cursors = new int[arrays.length];
+		this.heap = new int[arrays.length];
+		reset();
+	}
+	
+	void reset() {
+		heapSize = 0;
+		value = 0;
+		for (int i = 0; i < arrays.length; i++) {
+			cursors[i] = 0;
+			if (arrays[i].length > 0)
+				push(i);
+		}
+	}
+	
+	/**
+	 * Advances to the next (lowest unread) boundary value and consumes every boundary at that value
+	 * @return false if there are no more boundaries
+	 */
+	boolean next() {
+		if (heapSize == 0)
+			return false;
+		value = arrays[heap[0]][cursors[heap[0]]];
+		skip(value);
+		return true;
+	}
+	
+	/**
+	 * Consumes every boundary at the given value without moving past it,
+	 * used to bring the sweep to the state at 0 before the first call to next()
+	 */
+	void skip(int value) {
+		while (heapSize > 0) {
+			int top = heap[0];
+			if (arrays[top][cursors[top]] != value)
+				break;
+			if (++cursors[top] < arrays[top].length)
+				siftDown(0);
+			else {
+				heap[0] = heap[--heapSize];
+				siftDown(0);
+			}
+		}
+	}
+	
+	/**
+	 * @return the value of the boundary last consumed by next()
+	 */
+	int value() {
+		return value;
+	}
+	
+	/**
+	 * @param index the array index
+	 * @return true if the given array includes the points from the current value up to the next boundary
+	 */
+	boolean isOn(int index) {
+		return (cursors[index] & 1) == 1;
+	}
+	
+	private int key(int index) {
+		return arrays[index][cursors[index]];
+	}
+	
+	private void push(int index) {
+		int i = heapSize++;
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (key(heap[parent]) <= key(index))
+				break;
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = index;
+	}
+	
+	private void siftDown(int i) {
+		if (heapSize == 0)
+			return;
+		int index = heap[i];
+		int k = key(index);
+		for (;;) {
+			int child = (i << 1) + 1;
+			if (child >= heapSize)
+				break;
+			if (child + 1 < heapSize && key(heap[child + 1]) < key(heap[child]))
+				child++;
+			if (key(heap[child]) >= k)
+				break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = index;
+	}
+}
@@ -0,0 +1,201 @@
+package jargon.parse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CodePointSets of Unicode general categories, scripts and binary properties, read from precomputed tables
+ * (the resource UnicodeProperties.dat, which is made from java.lang.Character by UnicodePropertiesGenerator in the tests).
+ * The tables are read on first use, and each set is decoded the first time it is asked for and then kept for the life of the JVM.
+ * <p>
+ * The resource starts with a header (the magic number, the format version, the Java version the tables were made with)
+ * and an index of (name, offset) pairs. At each offset is one set, as the lengths and the ascending points of its
+ * odd and even arrays, each point as the unsigned varint of its difference from the one before
+ * (the even length is written plus one, and zero means the even array is the odd one).
+ * @author Warren Falk
+ *
+ */
+public final class UnicodeProperties {
+	static final String RESOURCE = "UnicodeProperties.dat";
+	static final int MAGIC = 0x4A555044;
+	static final int FORMAT = 1;
+
+	static final String CATEGORY = "gc:";
+	static final String SCRIPT = "sc:";
+	static final String PROPERTY = "is:";
+
+	// the two letter alias of each general category, indexed by the value returned by Character.getType()
+	static final String[] CATEGORIES = {
+		"Cn", "Lu", "Ll", "Lt", "Lm", "Lo", "Mn", "Me", "Mc", "Nd", "Nl", "No", "Zs", "Zl", "Zp", "Cc",
+		"Cf", null, "Co", "Cs", "Pd", "Ps", "Pe", "Pc", "Po", "Sm", "Sc", "Sk", "So", "Pi", "Pf",
+	};
+
+	// the binary properties, each the code points for which the Character method of the same name (with "is" before it) is true
+	static final String[] PROPERTIES = {
+		"Alphabetic", "Ideographic", "Letter", "Digit", "LetterOrDigit", "Whitespace", "SpaceChar", "UpperCase", "LowerCase", "TitleCase",
+		"Mirrored", "ISOControl", "Defined", "JavaIdentifierStart", "JavaIdentifierPart", "UnicodeIdentifierStart", "UnicodeIdentifierPart",
+		"IdentifierIgnorable",
+	};
+
+	private static final ConcurrentHashMap<String, CodePointSet> cache = new ConcurrentHashMap<String, CodePointSet>();
+	private static byte[] data;
+	private static HashMap<String, Integer> offsets;
+	private static String source;
+
+	private UnicodeProperties() {
+	}
+
+	/**
+	 * @param name a general category, by its two letter alias (e.g. "Lu" or "Nd"), or a major class by its one letter alias
+	 * (e.g. "L" for all letters), or "LC" for the cased letters
+	 * @return the code points in the category
+	 */
+	public static CodePointSet category(String name) {
+		CodePointSet cps = cache.get(CATEGORY + name);
+		if (cps != null)
+			return cps;
+		if (name.length() == 1 || name.equals("LC")) {
+			// a union of the categories it is made of
+			CodePointSet.Builder builder = new CodePointSet.Builder();
+			boolean found = false;
+			for (String category : CATEGORIES) {
+				if (category != null && (name.length() == 1 ? category.charAt(0) == name.charAt(0) : category.equals("Lu") || category.equals("Ll") || category.equals("Lt"))) {
+					builder.add(category(category));
+					found = true;
+				}
+			}
+			if (!found)
+				throw new IllegalArgumentException("no general category named \"" + name + "\"");
+			return cache(CATEGORY + name, builder.build());
+		}
+		return get(CATEGORY + name, "general category", name);
+	}
+
+	/**
+	 * @param type a general category, as returned by Character.getType()
+	 * @return the code points in the category
+	 */
+	public static CodePointSet category(int type) {
+		if (type < 0 || type >= CATEGORIES.length || CATEGORIES[type] == null)
+			throw new IllegalArgumentException("no general category " + type);
+		return category(CATEGORIES[type]);
+	}
+
+	/**
+	 * @param name a script, by its name in Character.UnicodeScript (e.g. "HAN" or "LATIN", in any case)
+	 * @return the code points in the script
+	 */
+	public static CodePointSet script(String name) {
+		String key = SCRIPT + name.toUpperCase(Locale.ENGLISH);
+		CodePointSet cps = cache.get(key);
+		return cps != null ? cps : get(key, "script", name);
+	}
+
+	/**
+	 * @param name a binary property (e.g. "Alphabetic" or "Whitespace", in any case), see PROPERTIES
+	 * @return the code points which have the property
+	 */
+	public static CodePointSet property(String name) {
+		String key = PROPERTY + name.toLowerCase(Locale.ENGLISH);
+		CodePointSet cps = cache.get(key);
+		return cps != null ? cps : get(key, "property", name);
+	}
+
+	/**
+	 * @return the version of Java whose java.lang.Character the tables were made from
+	 */
+	public static String getSource() {
+		offset(null);
+		return source;
+	}
+
+	private static CodePointSet get(String key, String kind, String name) {
+		int offset = offset(key);
+		if (offset == -1)
+			throw new IllegalArgumentException("no " + kind + " named \"" + name + "\"");
+		return cache(key, decode(data, offset));
+	}
+
+	// keeps the first set made for a key, in case of a race
+	private static CodePointSet cache(String key, CodePointSet cps) {
+		CodePointSet previous = cache.putIfAbsent(key, cps);
+		return previous != null ? previous : cps;
+	}
+
+	// the offset of the set of a key, or -1 if there is none (reads the resource the first time)
+	private static synchronized int offset(String key) {
+		if (offsets == null)
+			load();
+		Integer offset = key == null ? null : offsets.get(key);
+		return offset == null ? -1 : offset;
+	}
+
+	private static void load() {
+		InputStream in = UnicodeProperties.class.getResourceAsStream(RESOURCE);
+		if (in == null)
+			throw new IllegalStateException("resource " + RESOURCE + " is missing");
+		try {
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				for (int n; (n = in.read(buffer)) != -1;)
+					bytes.write(buffer, 0, n);
+				data = bytes.toByteArray();
+			}
+			finally {
+				in.close();
+			}
+			DataInputStream index = new DataInputStream(new ByteArrayInputStream(data));
+			if (index.readInt() != MAGIC || index.readInt() != FORMAT)
+				throw new IllegalStateException("resource " + RESOURCE + " is not in the expected format");
+			source = index.readUTF();
+			int count = index.readInt();
+			HashMap<String, Integer> map = new HashMap<String, Integer>();
+			for (int i = 0; i < count; i++) {
+				String key = index.readUTF();
+				map.put(key, index.readInt());
+			}
+			offsets = map;
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("resource " + RESOURCE + " cannot be read", e);
+		}
+	}
+
+	static CodePointSet decode(byte[] data, int offset) {
+		int[] position = { offset };
+		int[] odd = points(data, position, varint(data, position));
+		int evenLength = varint(data, position);
+		int[] even = evenLength == 0 ? odd : points(data, position, evenLength - 1);
+		return new CodePointSet(odd, even);
+	}
+
+	private static int[] points(byte[] data, int[] position, int length) {
+		if (length == 0)
+			return CodePointSet.empty;
+		int[] points = new int[length];
+		int point = 0;
+		for (int i = 0; i < length; i++)
+			points[i] = point += varint(data, position);
+		return points;
+	}
+
+	private static int varint(byte[] data, int[] position) {
+		int p = position[0];
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = data[p++];
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				break;
+		}
+		position[0] = p;
+		return value;
+	}
+}
@@ -0,0 +1,374 @@
+package jargon.parse;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import warrenfalk.util.IntegerList;
+
+/**
+ * A CodePointSet compiled into an automaton over UTF-8 bytes, for matching encoded input without decoding it.
+ * The set is first turned into Utf8Sequences (ranges of byte values per byte of the encoding, split the way RE2 and Rust's regex do it),
+ * combed ranges become stepped last-byte ranges rather than single points.
+ * The sequences are then determinized into a table with one row of 256 transitions per state and identical rows are merged,
+ * so every byte costs one table lookup.
+ * Only well formed, shortest form encodings of members match; overlong forms and encoded surrogates never do.
+ * @author Warren Falk
+ *
+ */
+public final class Utf8Matcher {
+	static final int DEAD = 0;
+	static final int MATCH = 1;
+	static final int START = 2;
+
+	final CodePointSet cps;
+	final int[] table; // state << 8 | byte
+	final int stateCount;
+
+	public Utf8Matcher(CodePointSet cps) {
+		this.cps = cps;
+		IntegerList table = determinize(sequences(cps));
+		this.table = minimize(table.toArray());
+		this.stateCount = this.table.length >> 8;
+	}
+
+	/**
+	 * Splits a set into byte range sequences
+	 * @param cps the set
+	 * @return the sequences, in order of the code points they encode
+	 */
+	public static List<Utf8Sequence> sequences(CodePointSet cps) {
+		ArrayList<Utf8Sequence> out = new ArrayList<Utf8Sequence>();
+		RangeSweep sweep = new RangeSweep(new int[][] { cps.even, cps.odd });
+		sweep.skip(0);
+		boolean evenOn = sweep.isOn(0), oddOn = sweep.isOn(1);
+		int from = 0;
+		int runFirst = 0, runLast = -2; // contiguous run not yet split
+		while (sweep.next()) {
+			int to = sweep.value();
+			if (evenOn && oddOn) {
+				if (runLast + 1 != from << 1) {
+					split(out, runFirst, runLast, -1);
+					runFirst = from << 1;
+				}
+				runLast = (to << 1) - 1;
+			}
+			else if (evenOn || oddOn) {
+				split(out, runFirst, runLast, -1);
+				runLast = -2;
+				// split the whole run of points, the other parity is filtered out of the last byte afterwards
+				// (taking in the neighbours of the other parity keeps the run aligned, so it splits into fewer sequences)
+				split(out, from << 1, (to << 1) - 1, oddOn ? 1 : 0);
+			}
+			from = to;
+			evenOn = sweep.isOn(0);
+			oddOn = sweep.isOn(1);
+		}
+		split(out, runFirst, runLast, -1);
+		return out;
+	}
+
+	// adds the sequences for the points from first to last inclusive (only those of the given parity unless it is -1)
+	private static void split(List<Utf8Sequence> out, int first, int last, int parity) {
+		if (first > last)
+			return;
+		if (first <= 0xDFFF && last >= 0xD800) {
+			split(out, first, 0xD7FF, parity);
+			split(out, 0xE000, last, parity);
+			return;
+		}
+		if (first <= 0x7F && last > 0x7F) {
+			split(out, first, 0x7F, parity);
+			split(out, 0x80, last, parity);
+			return;
+		}
+		if (first <= 0x7FF && last > 0x7FF) {
+			split(out, first, 0x7FF, parity);
+			split(out, 0x800, last, parity);
+			return;
+		}
+		if (first <= 0xFFFF && last > 0xFFFF) {
+			split(out, first, 0xFFFF, parity);
+			split(out, 0x10000, last, parity);
+			return;
+		}
+		int[] lows = encode(first);
+		int length = lows.length;
+		// split until every combination of byte values between those of first and last is in range
+		for (int i = 1; i < length; i++) {
+			int m = (1 << (6 * i)) - 1;
+			if ((first & ~m) != (last & ~m)) {
+				if ((first & m) != 0) {
+					split(out, first, first | m, parity);
+					split(out, (first | m) + 1, last, parity);
+					return;
+				}
+				if ((last & m) != m) {
+					split(out, first, (last & ~m) - 1, parity);
+					split(out, last & ~m, last, parity);
+					return;
+				}
+			}
+		}
+		int[] highs = encode(last);
+		boolean stepped = false;
+		if (parity != -1) {
+			// the parity of a code point is the parity of its last byte
+			int n = length - 1;
+			if ((lows[n] & 1) != parity)
+				lows[n]++;
+			if ((highs[n] & 1) != parity)
+				highs[n]--;
+			if (lows[n] > highs[n])
+				return;
+			stepped = lows[n] != highs[n];
+		}
+		out.add(new Utf8Sequence(lows, highs, stepped));
+	}
+
+	static int[] encode(int cp) {
+		if (cp < 0x80)
+			return new int[] { cp };
+		if (cp < 0x800)
+			return new int[] { 0xC0 | (cp >> 6), 0x80 | (cp & 0x3F) };
+		if (cp < 0x10000)
+			return new int[] { 0xE0 | (cp >> 12), 0x80 | ((cp >> 6) & 0x3F), 0x80 | (cp & 0x3F) };
+		return new int[] { 0xF0 | (cp >> 18), 0x80 | ((cp >> 12) & 0x3F), 0x80 | ((cp >> 6) & 0x3F), 0x80 | (cp & 0x3F) };
+	}
+
+	// subset construction, where a state is the set of sequence suffixes which may still match
+	private static IntegerList determinize(List<Utf8Sequence> sequences) {
+		// number the distinct suffixes, so that sequences which end alike share them
+		IntegerList lows = new IntegerList(), highs = new IntegerList(), steps = new IntegerList(), nexts = new IntegerList();
+		HashMap<String, Integer> suffixIds = new HashMap<String, Integer>();
+		IntegerList starts = new IntegerList();
+		for (Utf8Sequence sequence : sequences) {
+			int next = -1;
+			for (int p = sequence.length() - 1; p >= 0; p--) {
+				boolean step = sequence.stepped && p == sequence.length() - 1;
+				String key = sequence.lows[p] + "-" + sequence.highs[p] + (step ? "/2" : "") + " " + next;
+				Integer id = suffixIds.get(key);
+				if (id == null) {
+					id = lows.size();
+					suffixIds.put(key, id);
+					lows.add(sequence.lows[p]);
+					highs.add(sequence.highs[p]);
+					steps.add(step ? 2 : 1);
+					nexts.add(next);
+				}
+				next = id;
+			}
+			starts.add(next);
+		}
+
+		IntegerList table = new IntegerList(1 << 10);
+		for (int i = 0; i < (START << 8); i++)
+			table.add(DEAD);
+		HashMap<Key, Integer> stateIds = new HashMap<Key, Integer>();
+		ArrayList<int[]> states = new ArrayList<int[]>();
+		int[] start = sorted(starts);
+		stateIds.put(new Key(start), START);
+		states.add(start);
+		IntegerList[] buckets = new IntegerList[256];
+		for (int b = 0; b < 256; b++)
+			buckets[b] = new IntegerList(4);
+		boolean[] matches = new boolean[256];
+		for (int s = 0; s < states.size(); s++) {
+			for (int b = 0; b < 256; b++) {
+				buckets[b].clear();
+				matches[b] = false;
+			}
+			for (int suffix : states.get(s)) {
+				int next = nexts.get(suffix);
+				for (int b = lows.get(suffix), high = highs.get(suffix), step = steps.get(suffix); b <= high; b += step) {
+					if (next == -1)
+						matches[b] = true;
+					else
+						buckets[b].add(next);
+				}
+			}
+			for (int b = 0; b < 256; b++) {
+				int target;
+				if (matches[b])
+					target = MATCH;
+				else if (buckets[b].size() == 0)
+					target = DEAD;
+				else {
+					int[] set = sorted(buckets[b]);
+					Key key = new Key(set);
+					Integer id = stateIds.get(key);
+					if (id == null) {
+						id = START + states.size();
+						stateIds.put(key, id);
+						states.add(set);
+					}
+					target = id;
+				}
+				table.add(target);
+			}
+		}
+		return table;
+	}
+
+	private static int[] sorted(IntegerList list) {
+		int[] values = list.toArray();
+		Arrays.sort(values);
+		int n = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (n == 0 || values[n - 1] != values[i])
+				values[n++] = values[i];
+		}
+		return n == values.length ? values : Arrays.copyOf(values, n);
+	}
+
+	// merges states with identical rows until there are none left (which is minimal, since the automaton is acyclic)
+	private static int[] minimize(int[] table) {
+		for (;;) {
+			int count = table.length >> 8;
+			int[] renumber = new int[count];
+			renumber[DEAD] = DEAD;
+			renumber[MATCH] = MATCH;
+			HashMap<Key, Integer> rows = new HashMap<Key, Integer>();
+			int distinct = START;
+			for (int s = START; s < count; s++) {
+				Key row = new Key(Arrays.copyOfRange(table, s << 8, (s + 1) << 8));
+				Integer id = rows.get(row);
+				if (id == null) {
+					id = distinct++;
+					rows.put(row, id);
+				}
+				renumber[s] = id;
+			}
+			if (distinct == count)
+				return table;
+			int[] merged = new int[distinct << 8];
+			for (int s = START; s < count; s++) {
+				int to = renumber[s] << 8;
+				for (int b = 0; b < 256; b++)
+					merged[to + b] = renumber[table[(s << 8) + b]];
+			}
+			table = merged;
+		}
+	}
+
+	static final class Key {
+		final int[] values;
+		final int hash;
+
+		Key(int[] values) {
+			this.values = values;
+			this.hash = Arrays.hashCode(values);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && Arrays.equals(values, ((Key)obj).values);
+		}
+	}
+
+	/**
+	 * @return the set this matcher was compiled from
+	 */
+	public CodePointSet getCodePointSet() {
+		return cps;
+	}
+
+	/**
+	 * @return the number of states, including the dead and match states
+	 */
+	public int getStateCount() {
+		return stateCount;
+	}
+
+	/**
+	 * Matches one encoded member of the set
+	 * @param bytes the UTF-8 input
+	 * @param offset the offset of the first byte of the encoding
+	 * @param end the offset after the last byte of input
+	 * @return the length in bytes of the encoded member, or -1 if the input does not start with one
+	 */
+	public int match(byte[] bytes, int offset, int end) {
+		int[] table = this.table;
+		int state = START;
+		for (int i = offset; i < end;) {
+			state = table[(state << 8) | (bytes[i++] & 0xFF)];
+			if (state == MATCH)
+				return i - offset;
+			if (state == DEAD)
+				return -1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Matches one encoded member of the set
+	 * @param buffer the UTF-8 input, up to its limit
+	 * @param offset the (absolute) offset of the first byte of the encoding
+	 * @return the length in bytes of the encoded member, or -1 if the input does not start with one
+	 */
+	public int match(ByteBuffer buffer, int offset) {
+		int[] table = this.table;
+		int state = START;
+		for (int i = offset, end = buffer.limit(); i < end;) {
+			state = table[(state << 8) | (buffer.get(i++) & 0xFF)];
+			if (state == MATCH)
+				return i - offset;
+			if (state == DEAD)
+				return -1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Skips over encoded members of the set
+	 * @param bytes the UTF-8 input
+	 * @param offset the offset at which to start
+	 * @param end the offset after the last byte of input
+	 * @return the offset of the first byte which does not start an encoded member (or end)
+	 */
+	public int span(byte[] bytes, int offset, int end) {
+		int[] table = this.table;
+		int state = START;
+		int i = offset;
+		while (i < end) {
+			state = table[(state << 8) | (bytes[i++] & 0xFF)];
+			if (state == MATCH) {
+				offset = i;
+				state = START;
+			}
+			else if (state == DEAD)
+				return offset;
+		}
+		return offset;
+	}
+
+	/**
+	 * Skips over encoded members of the set
+	 * @param buffer the UTF-8 input, up to its limit
+	 * @param offset the (absolute) offset at which to start
+	 * @return the offset of the first byte which does not start an encoded member (or the limit)
+	 */
+	public int span(ByteBuffer buffer, int offset) {
+		int[] table = this.table;
+		int state = START;
+		int i = offset;
+		int end = buffer.limit();
+		while (i < end) {
+			state = table[(state << 8) | (buffer.get(i++) & 0xFF)];
+			if (state == MATCH) {
+				offset = i;
+				state = START;
+			}
+			else if (state == DEAD)
+				return offset;
+		}
+		return offset;
+	}
+}
@@ -0,0 +1,84 @@
+package jargon.parse;
+
+/**
+ * A set of UTF-8 encoded code points of one encoded length, as one range of byte values per byte of the encoding.
+ * Every combination of bytes from the ranges is the encoding of a member (and no other encodings are members).
+ * The last range may be stepped, in which case only every other byte in it (starting with the low byte) is included;
+ * that is how "combed" ranges of code points are encoded without listing their points one by one,
+ * since the parity of a code point is the parity of its last byte.
+ * @author Warren Falk
+ *
+ */
+public final class Utf8Sequence {
+	final int[] lows;
+	final int[] highs;
+	final boolean stepped;
+
+	Utf8Sequence(int[] lows, int[] highs, boolean stepped) {
+		this.lows = lows;
+		this.highs = highs;
+		this.stepped = stepped;
+	}
+
+	/**
+	 * @return the number of bytes in the encoding
+	 */
+	public int length() {
+		return lows.length;
+	}
+
+	/**
+	 * @param index the index of the byte in the encoding
+	 * @return the lowest value of the byte (0 to 255)
+	 */
+	public int getLow(int index) {
+		return lows[index];
+	}
+
+	/**
+	 * @param index the index of the byte in the encoding
+	 * @return the highest value of the byte (0 to 255)
+	 */
+	public int getHigh(int index) {
+		return highs[index];
+	}
+
+	/**
+	 * @return true if the last byte range only includes every other byte
+	 */
+	public boolean isStepped() {
+		return stepped;
+	}
+
+	/**
+	 * @param index the index of the byte in the encoding
+	 * @param value the value of the byte (0 to 255)
+	 * @return true if the byte range at the index includes the value
+	 */
+	public boolean matches(int index, int value) {
+		if (value < lows[index] || value > highs[index])
+			return false;
+		return !stepped || index < lows.length - 1 || ((value - lows[index]) & 1) == 0;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < lows.length; i++) {
+			sb.append('[');
+			appendByte(sb, lows[i]);
+			if (highs[i] != lows[i]) {
+				sb.append('-');
+				appendByte(sb, highs[i]);
+			}
+			if (stepped && i == lows.length - 1 && highs[i] != lows[i])
+				sb.append("/2");
+			sb.append(']');
+		}
+		return sb.toString();
+	}
+
+	private static void appendByte(StringBuilder sb, int value) {
+		sb.append(Character.toUpperCase(Character.forDigit(value >> 4, 16))).append(Character.toUpperCase(Character.forDigit(value & 0xF, 16)));
+	}
+}
@@ -0,0 +1,223 @@
+package jargon.parse.dfa;
+
+import jargon.parse.CodePointPartition;
+import jargon.parse.input.CodePointInput;
+
+import java.io.IOException;
+
+/**
+ * A table driven DFA over code point classes, as produced by DfaCompiler.
+ * Each state has one transition per class, so matching costs one class lookup and one table step per code point,
+ * with no backtracking and no allocation.
+ * State 0 is the dead state, which accepts nothing and never leaves.
+ * A state accepts at most one token (the first of the compiled rules which matches).
+ * @author Warren Falk
+ *
+ */
+public final class Dfa {
+	public static final int DEAD = 0;
+
+	final CodePointPartition classes;
+	final int classCount;
+	final int stateCount;
+	final int start;
+	final int[] transitions; // state * classCount + class
+	final int[] accepts; // token accepted by each state, or -1
+	final String[] tokens;
+
+	Dfa(CodePointPartition classes, int stateCount, int start, int[] transitions, int[] accepts, String[] tokens) {
+		this.classes = classes;
+		this.classCount = classes.getClassCount();
+		this.stateCount = stateCount;
+		this.start = start;
+		this.transitions = transitions;
+		this.accepts = accepts;
+		this.tokens = tokens;
+	}
+
+	/**
+	 * @return the initial state
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	/**
+	 * @return the number of states (including the dead state)
+	 */
+	public int getStateCount() {
+		return stateCount;
+	}
+
+	/**
+	 * @return the partition of unicode into classes which the transition table is indexed by
+	 */
+	public CodePointPartition getClasses() {
+		return classes;
+	}
+
+	/**
+	 * @return the number of tokens (compiled rules)
+	 */
+	public int getTokenCount() {
+		return tokens.length;
+	}
+
+	/**
+	 * @param token a token index
+	 * @return the name of the rule the token was compiled from
+	 */
+	public String getTokenName(int token) {
+		return tokens[token];
+	}
+
+	/**
+	 * Returns the state reached from a state on a code point
+	 * @param state the current state
+	 * @param codepoint the next code point
+	 * @return the next state (DEAD if there is no match possible)
+	 */
+	public int step(int state, int codepoint) {
+		int c = classes.classOf(codepoint);
+		if (c < 0)
+			return DEAD;
+		return transitions[state * classCount + c];
+	}
+
+	/**
+	 * Returns the state reached from a state on a code point class
+	 * @param state the current state
+	 * @param c the class of the next code point
+	 * @return the next state
+	 */
+	public int stepClass(int state, int c) {
+		return transitions[state * classCount + c];
+	}
+
+	/**
+	 * @param state a state
+	 * @return the token accepted in the state, or -1 if the state is not accepting
+	 */
+	public int getAccept(int state) {
+		return accepts[state];
+	}
+
+	/**
+	 * Finds the longest match of any token starting at the given offset
+	 * @param input the input
+	 * @param offset the offset at which the match must start
+	 * @return the match (see token() and end()), or -1 if no token matches
+	 */
+	public long match(CharSequence input, int offset) {
+		int state = start;
+		long match = accepts[state] == -1 ? -1 : match(accepts[state], offset);
+		int length = input.length();
+		int i = offset;
+		while (i < length) {
+			int cp = Character.codePointAt(input, i);
+			i += Character.charCount(cp);
+			state = transitions[state * classCount + classes.classOf(cp)];
+			if (state == DEAD)
+				break;
+			int token = accepts[state];
+			if (token != -1)
+				match = match(token, i);
+		}
+		return match;
+	}
+
+	/**
+	 * Finds the longest match of any token at the start of the given code points
+	 * @param input the code points
+	 * @param offset the index of the first code point
+	 * @param end the index after the last code point
+	 * @return the match (see token() and end()), or -1 if no token matches
+	 */
+	public long match(int[] input, int offset, int end) {
+		int state = start;
+		long match = accepts[state] == -1 ? -1 : match(accepts[state], offset);
+		for (int i = offset; i < end;) {
+			int c = classes.classOf(input[i++]);
+			if (c < 0)
+				break;
+			state = transitions[state * classCount + c];
+			if (state == DEAD)
+				break;
+			int token = accepts[state];
+			if (token != -1)
+				match = match(token, i);
+		}
+		return match;
+	}
+
+	/**
+	 * Finds the longest match of any token at the current position of a code point input.
+	 * The input is left positioned after the match, or where it was if no token matches.
+	 * @param input the input
+	 * @return the token which matched, or -1 if no token matches
+	 * @throws IOException if the input fails
+	 */
+	public int match(CodePointInput input) throws IOException {
+		long mark = input.mark();
+		try {
+			int state = start;
+			int token = accepts[state];
+			long end = mark;
+			int cp;
+			while ((cp = input.read()) != CodePointInput.END) {
+				int c = classes.classOf(cp);
+				if (c < 0)
+					break;
+				state = transitions[state * classCount + c];
+				if (state == DEAD)
+					break;
+				if (accepts[state] != -1) {
+					token = accepts[state];
+					end = input.position();
+				}
+			}
+			input.reset(end);
+			return token;
+		}
+		finally {
+			input.release(mark);
+		}
+	}
+
+	/**
+	 * Splits a code point input into tokens, from its current position until no token matches (or only an empty one does)
+	 * @param input the input
+	 * @return the tokens, which end where the input is left positioned
+	 * @throws IOException if the input fails
+	 */
+	public TokenList tokenize(CodePointInput input) throws IOException {
+		TokenList list = new TokenList(input.position());
+		long end = list.start;
+		int token;
+		while ((token = match(input)) != -1 && input.position() != end) {
+			end = input.position();
+			list.add(token, end);
+		}
+		return list;
+	}
+
+	static long match(int token, int end) {
+		return ((long)token << 32) | (end & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @param match a match returned by match()
+	 * @return the token which matched
+	 */
+	public static int token(long match) {
+		return (int)(match >> 32);
+	}
+
+	/**
+	 * @param match a match returned by match()
+	 * @return the offset after the end of the match
+	 */
+	public static int end(long match) {
+		return (int)match;
+	}
+}
@@ -0,0 +1,259 @@
+package jargon.parse.dfa;
+
+import jargon.parse.CodePointPartition;
+import jargon.parse.CodePointSet;
+import jargon.parse.reflect.Grammar;
+import jargon.parse.reflect.Pattern;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+import warrenfalk.util.IntegerList;
+
+/**
+ * Compiles the regular (non-recursive) rules of a grammar into a minimal DFA.
+ * The rules are expanded into an NFA, the NFA is converted by subset construction over the
+ * classes of a CodePointPartition of every code point set in the rules, and the result is minimized.
+ * Finally classes which behave identically in every state are merged, so the table has as few columns as possible.
+ * @author Warren Falk
+ *
+ */
+public final class DfaCompiler {
+	private DfaCompiler() {
+	}
+
+	/**
+	 * Compiles rules of a grammar into one DFA which matches any of them.
+	 * Where more than one rule matches the same input, the one given first wins.
+	 * @param grammar the grammar
+	 * @param ruleNames the rules to compile, which must not be recursive
+	 * @return the DFA, whose token indexes are the indexes of the rules in ruleNames
+	 * @throws IllegalArgumentException if a rule is recursive or has a pattern that is not static
+	 */
+	public static Dfa compile(Grammar grammar, String... ruleNames) {
+		Pattern[] rules = new Pattern[ruleNames.length];
+		for (int i = 0; i < rules.length; i++)
+			rules[i] = grammar.getRule(ruleNames[i]);
+		return compile(rules, ruleNames);
+	}
+
+	/**
+	 * Compiles patterns into one DFA which matches any of them.
+	 * @param patterns the patterns, which must not be recursive
+	 * @param tokenNames the names of the tokens
+	 * @return the DFA, whose token indexes are the indexes of the patterns
+	 */
+	public static Dfa compile(Pattern[] patterns, String[] tokenNames) {
+		Nfa nfa = new Nfa();
+		int nfaStart = nfa.newState();
+		for (int t = 0; t < patterns.length; t++) {
+			int s = nfa.newState();
+			nfa.epsilon(nfaStart, s);
+			nfa.accept(nfa.build(patterns[t], s), t);
+		}
+		CodePointSet[] sets = nfa.sets.toArray(new CodePointSet[nfa.sets.size()]);
+		CodePointPartition partition = new CodePointPartition(sets);
+		int classCount = partition.getClassCount();
+		BitSet[] labelClasses = new BitSet[sets.length];
+		for (int i = 0; i < sets.length; i++)
+			labelClasses[i] = partition.getSetClasses(i);
+
+		// subset construction, DFA state 0 is the (empty) dead state
+		int nfaSize = nfa.size();
+		HashMap<StateSet, Integer> stateIds = new HashMap<StateSet, Integer>();
+		ArrayList<int[]> stateSets = new ArrayList<int[]>();
+		IntegerList transitions = new IntegerList();
+		IntegerList accepts = new IntegerList();
+		boolean[] member = new boolean[nfaSize];
+		IntegerList work = new IntegerList();
+		addState(new int[0], stateIds, stateSets, accepts, nfa);
+		work.add(nfaStart);
+		int start = addState(closure(nfa, work, member), stateIds, stateSets, accepts, nfa);
+		IntegerList[] moves = new IntegerList[classCount];
+		for (int c = 0; c < classCount; c++)
+			moves[c] = new IntegerList();
+		for (int d = 0; d < stateSets.size(); d++) {
+			int[] set = stateSets.get(d);
+			for (int c = 0; c < classCount; c++)
+				moves[c].clear();
+			for (int s : set) {
+				int label = nfa.labels.get(s);
+				if (label == -1)
+					continue;
+				BitSet classes = labelClasses[label];
+				int target = nfa.targets.get(s);
+				for (int c = classes.nextSetBit(0); c >= 0; c = classes.nextSetBit(c + 1))
+					moves[c].add(target);
+			}
+			for (int c = 0; c < classCount; c++) {
+				work.clear();
+				for (int i = 0; i < moves[c].size(); i++)
+					work.add(moves[c].get(i));
+				transitions.add(addState(closure(nfa, work, member), stateIds, stateSets, accepts, nfa));
+			}
+		}
+		return minimize(partition, stateSets.size(), start, transitions.toArray(), accepts.toArray(), tokenNames.clone());
+	}
+
+	// returns the sorted epsilon closure of the states in work (clearing work and member afterward)
+	private static int[] closure(Nfa nfa, IntegerList work, boolean[] member) {
+		int n = work.size();
+		for (int i = 0; i < n; i++) {
+			int s = work.get(i);
+			if (member[s]) {
+				work.set(i, work.get(--n));
+				work.pop();
+				i--;
+			}
+			else {
+				member[s] = true;
+			}
+		}
+		nfa.closure(work, member);
+		int[] set = work.toArray(new int[work.size()]);
+		for (int s : set)
+			member[s] = false;
+		Arrays.sort(set);
+		work.clear();
+		return set;
+	}
+
+	private static int addState(int[] set, HashMap<StateSet, Integer> stateIds, ArrayList<int[]> stateSets, IntegerList accepts, Nfa nfa) {
+		StateSet key = new StateSet(set);
+		Integer id = stateIds.get(key);
+		if (id != null)
+			return id;
+		id = stateSets.size();
+		stateIds.put(key, id);
+		stateSets.add(set);
+		int accept = -1;
+		for (int s : set) {
+			int token = nfa.accepts.get(s);
+			if (token != -1 && (accept == -1 || token < accept))
+				accept = token;
+		}
+		accepts.add(accept);
+		return id;
+	}
+
+	/**
+	 * Minimizes a DFA by partition refinement (Moore's algorithm), then merges equivalent classes.
+	 * The dead state remains state 0.
+	 */
+	static Dfa minimize(CodePointPartition partition, int stateCount, int start, int[] transitions, int[] accepts, String[] tokens) {
+		int classCount = partition.getClassCount();
+		// initially, states are distinguished only by the token they accept
+		int[] block = new int[stateCount];
+		int blockCount = refine(block, accepts, null, 0, stateCount);
+		for (;;) {
+			int[] next = new int[stateCount];
+			int count = refine(next, block, transitions, classCount, stateCount);
+			block = next;
+			if (count == blockCount)
+				break;
+			blockCount = count;
+		}
+		// renumber blocks so that the block of the dead state is 0
+		int[] renumber = new int[blockCount];
+		Arrays.fill(renumber, -1);
+		renumber[block[Dfa.DEAD]] = 0;
+		int n = 1;
+		for (int s = 0; s < stateCount; s++) {
+			if (renumber[block[s]] == -1)
+				renumber[block[s]] = n++;
+		}
+		int[] minTransitions = new int[blockCount * classCount];
+		int[] minAccepts = new int[blockCount];
+		for (int s = 0; s < stateCount; s++) {
+			int b = renumber[block[s]];
+			minAccepts[b] = accepts[s];
+			for (int c = 0; c < classCount; c++)
+				minTransitions[b * classCount + c] = renumber[block[transitions[s * classCount + c]]];
+		}
+		return mergeClasses(partition, blockCount, renumber[block[start]], minTransitions, minAccepts, tokens);
+	}
+
+	// assigns each state a block number by its key (previous block plus the blocks of its successors)
+	private static int refine(int[] out, int[] previous, int[] transitions, int classCount, int stateCount) {
+		HashMap<StateSet, Integer> ids = new HashMap<StateSet, Integer>();
+		for (int s = 0; s < stateCount; s++) {
+			int[] key = new int[1 + classCount];
+			key[0] = previous[s];
+			for (int c = 0; c < classCount; c++)
+				key[1 + c] = previous[transitions[s * classCount + c]];
+			StateSet k = new StateSet(key);
+			Integer id = ids.get(k);
+			if (id == null) {
+				id = ids.size();
+				ids.put(k, id);
+			}
+			out[s] = id;
+		}
+		return ids.size();
+	}
+
+	// merges classes whose columns are identical in every state into a new (coarser) partition
+	private static Dfa mergeClasses(CodePointPartition partition, int stateCount, int start, int[] transitions, int[] accepts, String[] tokens) {
+		int classCount = partition.getClassCount();
+		HashMap<StateSet, Integer> columnIds = new HashMap<StateSet, Integer>();
+		int[] columnOf = new int[classCount];
+		ArrayList<CodePointSet.Builder> columnSets = new ArrayList<CodePointSet.Builder>();
+		for (int c = 0; c < classCount; c++) {
+			int[] column = new int[stateCount];
+			for (int s = 0; s < stateCount; s++)
+				column[s] = transitions[s * classCount + c];
+			StateSet key = new StateSet(column);
+			Integer id = columnIds.get(key);
+			if (id == null) {
+				id = columnIds.size();
+				columnIds.put(key, id);
+				columnSets.add(new CodePointSet.Builder());
+			}
+			columnOf[c] = id;
+			columnSets.get(id).add(partition.getClassSet(c));
+		}
+		if (columnSets.size() == classCount)
+			return new Dfa(partition, stateCount, start, transitions, accepts, tokens);
+		CodePointSet[] sets = new CodePointSet[columnSets.size()];
+		for (int i = 0; i < sets.length; i++)
+			sets[i] = columnSets.get(i).build();
+		CodePointPartition merged = new CodePointPartition(sets);
+		// the merged partition numbers its classes by lowest code point, find the original column of each
+		int mergedCount = merged.getClassCount();
+		int[] classOfColumn = new int[sets.length];
+		for (int i = 0; i < sets.length; i++)
+			classOfColumn[i] = merged.getSetClasses(i).nextSetBit(0);
+		int[] representative = new int[sets.length];
+		for (int c = classCount - 1; c >= 0; c--)
+			representative[columnOf[c]] = c;
+		int[] mergedTransitions = new int[stateCount * mergedCount];
+		for (int s = 0; s < stateCount; s++) {
+			for (int i = 0; i < sets.length; i++)
+				mergedTransitions[s * mergedCount + classOfColumn[i]] = transitions[s * classCount + representative[i]];
+		}
+		return new Dfa(merged, stateCount, start, mergedTransitions, accepts, tokens);
+	}
+
+	// an int array compared by content, used as a hash key
+	static final class StateSet {
+		final int[] states;
+		final int hash;
+
+		StateSet(int[] states) {
+			this.states = states;
+			this.hash = Arrays.hashCode(states);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof StateSet && Arrays.equals(states, ((StateSet)obj).states);
+		}
+	}
+}
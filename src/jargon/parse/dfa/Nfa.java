@@ -0,0 +1,152 @@
+package jargon.parse.dfa;
+
+import jargon.parse.CodePointSet;
+import jargon.parse.reflect.Choice;
+import jargon.parse.reflect.Pattern;
+import jargon.parse.reflect.PatternGroup;
+import jargon.parse.reflect.PatternRef;
+import jargon.parse.reflect.Sequence;
+import jargon.parse.reflect.StaticCodePoint;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import warrenfalk.util.IntegerList;
+
+/**
+ * A Thompson style NFA built from reflect patterns.
+ * Each state has any number of epsilon transitions and at most one transition on a set of code points.
+ * Repetition is expanded: min copies of the pattern followed by either a loop (unbounded) or (max - min) optional copies.
+ */
+final class Nfa {
+	final ArrayList<IntegerList> epsilons = new ArrayList<IntegerList>();
+	final IntegerList labels = new IntegerList(); // index into sets, or -1
+	final IntegerList targets = new IntegerList();
+	final IntegerList accepts = new IntegerList(); // token index, or -1
+	final ArrayList<CodePointSet> sets = new ArrayList<CodePointSet>();
+	final IdentityHashMap<CodePointSet, Integer> setIndexes = new IdentityHashMap<CodePointSet, Integer>();
+	final IdentityHashMap<Pattern, Boolean> active = new IdentityHashMap<Pattern, Boolean>();
+
+	int newState() {
+		epsilons.add(null);
+		labels.add(-1);
+		targets.add(-1);
+		accepts.add(-1);
+		return labels.size() - 1;
+	}
+
+	int size() {
+		return labels.size();
+	}
+
+	void epsilon(int from, int to) {
+		IntegerList list = epsilons.get(from);
+		if (list == null) {
+			list = new IntegerList(2);
+			epsilons.set(from, list);
+		}
+		list.add(to);
+	}
+
+	// a state may only have one labeled transition, so add a fresh state if necessary
+	int labeled(int from, CodePointSet cps) {
+		if (labels.get(from) != -1) {
+			int s = newState();
+			epsilon(from, s);
+			from = s;
+		}
+		Integer index = setIndexes.get(cps);
+		if (index == null) {
+			index = sets.size();
+			sets.add(cps);
+			setIndexes.put(cps, index);
+		}
+		int to = newState();
+		labels.set(from, index);
+		targets.set(from, to);
+		return to;
+	}
+
+	void accept(int state, int token) {
+		int current = accepts.get(state);
+		if (current == -1 || token < current)
+			accepts.set(state, token);
+	}
+
+	/**
+	 * Adds states matching a pattern, starting from the given state
+	 * @param pattern the pattern
+	 * @param from the state at which the pattern starts
+	 * @return the state at which the pattern ends
+	 */
+	int build(Pattern pattern, int from) {
+		if (pattern instanceof PatternRef)
+			return buildRef((PatternRef)pattern, from);
+		if (pattern instanceof StaticCodePoint)
+			return labeled(from, ((StaticCodePoint)pattern).getCodePoints());
+		if (!(pattern instanceof PatternGroup))
+			throw new IllegalArgumentException("pattern " + pattern + " (" + pattern.getClass().getSimpleName() + ") cannot be compiled to an automaton");
+		if (active.containsKey(pattern))
+			throw new IllegalArgumentException("pattern " + pattern + " is recursive and cannot be compiled to an automaton");
+		active.put(pattern, Boolean.TRUE);
+		PatternGroup group = (PatternGroup)pattern;
+		int end;
+		if (group instanceof Sequence) {
+			end = from;
+			for (int i = 0; i < group.getChildCount(); i++)
+				end = buildRef(group.getChild(i), end);
+		}
+		else {
+			assert group instanceof Choice;
+			end = newState();
+			for (int i = 0; i < group.getChildCount(); i++) {
+				int s = newState();
+				epsilon(from, s);
+				epsilon(buildRef(group.getChild(i), s), end);
+			}
+		}
+		active.remove(pattern);
+		return end;
+	}
+
+	int buildRef(PatternRef ref, int from) {
+		Pattern pattern = ref.getPattern();
+		for (int i = 0; i < ref.getMin(); i++)
+			from = build(pattern, from);
+		if (ref.getMax() == PatternRef.UNBOUNDED) {
+			int loop = newState();
+			epsilon(from, loop);
+			epsilon(build(pattern, loop), loop);
+			return loop;
+		}
+		if (ref.getMax() == ref.getMin())
+			return from;
+		int end = newState();
+		for (int i = ref.getMin(); i < ref.getMax(); i++) {
+			epsilon(from, end);
+			from = build(pattern, from);
+		}
+		epsilon(from, end);
+		return end;
+	}
+
+	/**
+	 * Extends a set of states with every state reachable from them by epsilon transitions
+	 * @param states the states (extended in place)
+	 * @param member marks which states are in the set (updated in place)
+	 */
+	void closure(IntegerList states, boolean[] member) {
+		for (int i = 0; i < states.size(); i++) {
+			IntegerList list = epsilons.get(states.get(i));
+			if (list == null)
+				continue;
+			for (int j = 0; j < list.size(); j++) {
+				int s = list.get(j);
+				if (!member[s]) {
+					member[s] = true;
+					states.add(s);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package jargon.parse.dfa;
+
+import jargon.parse.input.MappedCodePointInput;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import warrenfalk.util.LongList;
+
+/**
+ * Tokenizes a large input (a mapped file or a byte buffer) in chunks on several threads, giving the same tokens as Dfa.tokenize().
+ * The input is cut into chunks of about the same size, and each chunk is started just after a match of a synchronization pattern
+ * (typically a line terminator) near its nominal start.
+ * A sync point is not necessarily a token boundary (a line terminator may be inside a comment, say),
+ * so each chunk is tokenized speculatively from several of its first sync points (its candidates),
+ * and each of these runs goes on into the next chunk until it lands on one of that chunk's candidates.
+ * The runs are then stitched in order: the run taken in each chunk is the one from the candidate the run before it landed on.
+ * If no candidate of the next chunk is a boundary of the tokens, the tokens are followed on sequentially until they meet
+ * a candidate of a later chunk.
+ * @author Warren Falk
+ *
+ */
+public final class ParallelTokenizer {
+	public static final int DEFAULT_CANDIDATES = 4;
+
+	static final int EXIT_JOIN = 0; // reached a later candidate of the same chunk
+	static final int EXIT_NEXT = 1; // reached a candidate of the next chunk
+	static final int EXIT_OVERSHOOT = 2; // passed every candidate of the next chunk
+	static final int EXIT_END = 3; // no more tokens
+
+	final Dfa dfa;
+	final Dfa sync;
+	final ExecutorService executor;
+	final long chunkSize;
+	final int candidateCount;
+
+	public ParallelTokenizer(Dfa dfa, Dfa sync, ExecutorService executor, long chunkSize) {
+		this(dfa, sync, executor, chunkSize, DEFAULT_CANDIDATES);
+	}
+
+	/**
+	 * @param dfa the tokenizer
+	 * @param sync the synchronization patterns (a chunk may start after a match of any of its tokens)
+	 * @param executor the executor which runs the chunks
+	 * @param chunkSize the nominal size of a chunk in bytes
+	 * @param candidates the number of sync points each chunk is tokenized from
+	 */
+	public ParallelTokenizer(Dfa dfa, Dfa sync, ExecutorService executor, long chunkSize, int candidates) {
+		if (chunkSize < 1 || candidates < 1)
+			throw new IllegalArgumentException("chunk size and candidates must be positive");
+		this.dfa = dfa;
+		this.sync = sync;
+		this.executor = executor;
+		this.chunkSize = chunkSize;
+		this.candidateCount = candidates;
+	}
+
+	// the tokens from one candidate, and where they stopped
+	static final class Run {
+		final TokenList tokens;
+		final int exit;
+		final int target; // index of the candidate reached, for EXIT_JOIN and EXIT_NEXT
+
+		Run(TokenList tokens, int exit, int target) {
+			this.tokens = tokens;
+			this.exit = exit;
+			this.target = target;
+		}
+	}
+
+	/**
+	 * Tokenizes the whole input
+	 * @param input the input (which is not moved, each thread reads a duplicate of it)
+	 * @return the tokens, up to the end of input or to the first position at which no token matches
+	 */
+	public TokenList tokenize(final MappedCodePointInput input) throws IOException, InterruptedException {
+		long size = input.size();
+		int chunkCount = (int)Math.max(1, (size + chunkSize - 1) / chunkSize);
+
+		// find the candidates of every chunk (chunks without any are absorbed by the one before)
+		ArrayList<Future<long[]>> found = new ArrayList<Future<long[]>>();
+		for (int i = 1; i < chunkCount; i++) {
+			final long from = i * chunkSize;
+			final long to = Math.min(size, from + chunkSize);
+			found.add(executor.submit(new Callable<long[]>() {
+				public long[] call() throws IOException {
+					return candidates(input.duplicate(), from, to);
+				}
+			}));
+		}
+		final ArrayList<long[]> candidates = new ArrayList<long[]>();
+		candidates.add(new long[] { 0 });
+		for (Future<long[]> future : found) {
+			long[] c = get(future);
+			if (c.length > 0)
+				candidates.add(c);
+		}
+
+		// tokenize every chunk from each of its candidates
+		ArrayList<Future<Run[]>> running = new ArrayList<Future<Run[]>>();
+		for (int k = 0; k < candidates.size(); k++) {
+			final long[] own = candidates.get(k);
+			final long[] next = k + 1 < candidates.size() ? candidates.get(k + 1) : null;
+			running.add(executor.submit(new Callable<Run[]>() {
+				public Run[] call() throws IOException {
+					MappedCodePointInput reader = input.duplicate();
+					Run[] runs = new Run[own.length];
+					for (int j = 0; j < own.length; j++)
+						runs[j] = run(reader, own, j, next);
+					return runs;
+				}
+			}));
+		}
+		Run[][] runs = new Run[running.size()][];
+		for (int k = 0; k < runs.length; k++)
+			runs[k] = get(running.get(k));
+
+		// stitch
+		TokenList result = new TokenList(0);
+		int k = 0, j = 0;
+		for (;;) {
+			Run run = runs[k][j];
+			result.addAll(run.tokens, run.tokens.size());
+			if (run.exit == EXIT_JOIN) {
+				j = run.target;
+			}
+			else if (run.exit == EXIT_NEXT) {
+				k++;
+				j = run.target;
+			}
+			else if (run.exit == EXIT_END) {
+				return result;
+			}
+			else {
+				// go on alone until the tokens meet a candidate of any later chunk
+				LongList later = new LongList();
+				LongList chunks = new LongList();
+				for (int c = k + 2; c < candidates.size(); c++) {
+					for (int i = 0; i < candidates.get(c).length; i++) {
+						later.add(candidates.get(c)[i]);
+						chunks.add(((long)c << 32) | i);
+					}
+				}
+				MappedCodePointInput reader = input.duplicate();
+				reader.reset(result.getEnd());
+				Run rest = run(reader, new long[] { result.getEnd() }, 0, later.size() == 0 ? null : later.toArray());
+				result.addAll(rest.tokens, rest.tokens.size());
+				if (rest.exit == EXIT_OVERSHOOT) {
+					// past the last candidate of all, the rest is sequential anyway
+					TokenList tail = dfa.tokenize(reader);
+					result.addAll(tail, tail.size());
+				}
+				if (rest.exit != EXIT_NEXT)
+					return result;
+				k = (int)(chunks.get(rest.target) >>> 32);
+				j = (int)chunks.get(rest.target);
+			}
+		}
+	}
+
+	// the first few positions in [from, to) which follow a sync match
+	long[] candidates(MappedCodePointInput input, long from, long to) throws IOException {
+		LongList found = new LongList(candidateCount);
+		long p = input.align(from);
+		input.reset(p);
+		while (p < to && found.size() < candidateCount) {
+			if (sync.match(input) != -1 && input.position() > p) {
+				p = input.position();
+				if (p < to)
+					found.add(p);
+			}
+			else {
+				input.read();
+				p = input.position();
+			}
+		}
+		return found.toArray();
+	}
+
+	// tokenizes from own[j] until a later candidate of the same chunk or a candidate of the next
+	Run run(MappedCodePointInput input, long[] own, int j, long[] next) throws IOException {
+		long p = own[j];
+		TokenList tokens = new TokenList(p);
+		input.reset(p);
+		int ownIndex = j + 1;
+		int nextIndex = 0;
+		for (;;) {
+			while (ownIndex < own.length && own[ownIndex] < p)
+				ownIndex++;
+			if (ownIndex < own.length && own[ownIndex] == p)
+				return new Run(tokens, EXIT_JOIN, ownIndex);
+			if (next != null) {
+				while (nextIndex < next.length && next[nextIndex] < p)
+					nextIndex++;
+				if (nextIndex == next.length)
+					return new Run(tokens, EXIT_OVERSHOOT, -1);
+				if (next[nextIndex] == p)
+					return new Run(tokens, EXIT_NEXT, nextIndex);
+			}
+			int token = dfa.match(input);
+			if (token == -1 || input.position() == p)
+				return new Run(tokens, EXIT_END, -1);
+			p = input.position();
+			tokens.add(token, p);
+		}
+	}
+
+	private static <T> T get(Future<T> future) throws IOException, InterruptedException {
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException)cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if (cause instanceof Error)
+				throw (Error)cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+}
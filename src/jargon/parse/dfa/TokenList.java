@@ -0,0 +1,75 @@
+package jargon.parse.dfa;
+
+import warrenfalk.util.IntegerList;
+import warrenfalk.util.LongList;
+
+/**
+ * The tokens of an input, in order, as parallel lists of token numbers and end positions
+ * (each token starts where the one before it ends, the first at the start position).
+ * @author Warren Falk
+ *
+ */
+public final class TokenList {
+	final long start;
+	final IntegerList tokens;
+	final LongList ends;
+
+	TokenList(long start) {
+		this(start, new IntegerList(), new LongList());
+	}
+
+	TokenList(long start, IntegerList tokens, LongList ends) {
+		this.start = start;
+		this.tokens = tokens;
+		this.ends = ends;
+	}
+
+	void add(int token, long end) {
+		tokens.add(token);
+		ends.add(end);
+	}
+
+	// appends the first count tokens of another list
+	void addAll(TokenList other, int count) {
+		for (int i = 0; i < count; i++)
+			add(other.tokens.get(i), other.ends.get(i));
+	}
+
+	/**
+	 * @return the number of tokens
+	 */
+	public int size() {
+		return tokens.size();
+	}
+
+	/**
+	 * @param index the index of a token
+	 * @return the token (the index of the rule which matched, as in Dfa)
+	 */
+	public int getToken(int index) {
+		return tokens.get(index);
+	}
+
+	/**
+	 * @param index the index of a token
+	 * @return the position of the start of the token
+	 */
+	public long getStart(int index) {
+		return index == 0 ? start : ends.get(index - 1);
+	}
+
+	/**
+	 * @param index the index of a token
+	 * @return the position after the end of the token
+	 */
+	public long getEnd(int index) {
+		return ends.get(index);
+	}
+
+	/**
+	 * @return the position after the last token, which is where tokenizing stopped
+	 */
+	public long getEnd() {
+		return tokens.size() == 0 ? start : ends.get(tokens.size() - 1);
+	}
+}
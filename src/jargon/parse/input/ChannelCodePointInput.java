@@ -0,0 +1,226 @@
+package jargon.parse.input;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import warrenfalk.util.LongList;
+
+/**
+ * Reads code points from a channel of UTF-8 bytes.
+ * Bytes are decoded straight into a window of code points (an int[]), which is refilled as it is consumed.
+ * Before each refill the window is compacted so that it starts at the oldest live mark (or at the current position if no mark is live),
+ * so memory stays constant however long the input is, as long as marks are released.
+ * It only grows when live marks pin more code points than it can hold.
+ * Malformed UTF-8 (invalid or truncated sequences, overlong forms, surrogates and values above U+10FFFF) decodes to U+FFFD.
+ * The channel is expected to be blocking.
+ * @author Warren Falk
+ *
+ */
+public final class ChannelCodePointInput implements CodePointInput, Closeable {
+	public static final int REPLACEMENT = 0xFFFD;
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	final ReadableByteChannel channel;
+	final byte[] bytes;
+	final ByteBuffer byteBuffer;
+	int byteCount; // undecoded bytes at the start of bytes
+	boolean eof;
+	int[] window;
+	long windowStart; // position of window[0]
+	int limit; // number of decoded code points in the window
+	int index; // index in the window of the next code point
+	final LongList marks = new LongList();
+
+	public ChannelCodePointInput(ReadableByteChannel channel) {
+		this(channel, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param channel the channel of UTF-8 bytes
+	 * @param capacity the initial size of the code point window (and the size of the byte buffer)
+	 */
+	public ChannelCodePointInput(ReadableByteChannel channel, int capacity) {
+		if (capacity < 4)
+			throw new IllegalArgumentException("capacity must be at least 4");
+		this.channel = channel;
+		this.bytes = new byte[capacity];
+		this.byteBuffer = ByteBuffer.wrap(bytes);
+		this.window = new int[capacity];
+	}
+
+	public ChannelCodePointInput(InputStream in) {
+		this(Channels.newChannel(in));
+	}
+
+	public ChannelCodePointInput(InputStream in, int capacity) {
+		this(Channels.newChannel(in), capacity);
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (index == limit && !fill())
+			return END;
+		return window[index++];
+	}
+
+	@Override
+	public long position() {
+		return windowStart + index;
+	}
+
+	@Override
+	public long mark() {
+		long position = windowStart + index;
+		marks.add(position);
+		return position;
+	}
+
+	@Override
+	public void release(long mark) {
+		// marks are usually released in the reverse order they were made, so search from the top
+		int size = marks.size();
+		for (int i = size - 1; i >= 0; i--) {
+			if (marks.get(i) == mark) {
+				for (int j = i + 1; j < size; j++)
+					marks.set(j - 1, marks.get(j));
+				marks.truncate(size - 1);
+				return;
+			}
+		}
+		throw new IllegalArgumentException("no live mark at " + mark);
+	}
+
+	@Override
+	public void reset(long position) {
+		if (position < windowStart || position > windowStart + limit)
+			throw new IllegalArgumentException("position " + position + " is outside the buffered input (" + windowStart + " to " + (windowStart + limit) + ")");
+		index = (int)(position - windowStart);
+	}
+
+	/**
+	 * @return the number of live marks
+	 */
+	public int getMarkCount() {
+		return marks.size();
+	}
+
+	/**
+	 * @return the current size of the code point window
+	 */
+	public int getCapacity() {
+		return window.length;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	// decodes more code points into the window, returns false at the end of the input
+	private boolean fill() throws IOException {
+		compact();
+		while (limit == index) {
+			if (limit == window.length) {
+				int[] grown = new int[window.length << 1];
+				System.arraycopy(window, 0, grown, 0, limit);
+				window = grown;
+			}
+			if (!eof && byteCount < bytes.length) {
+				byteBuffer.limit(bytes.length);
+				byteBuffer.position(byteCount);
+				if (channel.read(byteBuffer) == -1)
+					eof = true;
+				byteCount = byteBuffer.position();
+			}
+			if (byteCount == 0 && eof)
+				return false;
+			decode();
+		}
+		return true;
+	}
+
+	// drops the code points before the oldest live mark (or before the current position)
+	private void compact() {
+		long keep = windowStart + index;
+		for (int i = 0; i < marks.size(); i++) {
+			if (marks.get(i) < keep)
+				keep = marks.get(i);
+		}
+		int shift = (int)(keep - windowStart);
+		if (shift == 0)
+			return;
+		System.arraycopy(window, shift, window, 0, limit - shift);
+		limit -= shift;
+		index -= shift;
+		windowStart = keep;
+	}
+
+	// decodes as many whole sequences as the bytes and the space in the window allow
+	private void decode() {
+		byte[] bytes = this.bytes;
+		int[] window = this.window;
+		int end = byteCount;
+		int p = 0;
+		int w = limit;
+		int capacity = window.length;
+		while (p < end && w < capacity) {
+			int b0 = bytes[p];
+			if (b0 >= 0) {
+				window[w++] = b0;
+				p++;
+				continue;
+			}
+			b0 &= 0xFF;
+			int need, min, cp;
+			if (b0 >= 0xC2 && b0 < 0xE0) {
+				need = 1;
+				min = 0x80;
+				cp = b0 & 0x1F;
+			}
+			else if (b0 >= 0xE0 && b0 < 0xF0) {
+				need = 2;
+				min = 0x800;
+				cp = b0 & 0x0F;
+			}
+			else if (b0 >= 0xF0 && b0 < 0xF5) {
+				need = 3;
+				min = 0x10000;
+				cp = b0 & 0x07;
+			}
+			else {
+				window[w++] = REPLACEMENT;
+				p++;
+				continue;
+			}
+			int n = 1;
+			for (; n <= need; n++) {
+				if (p + n == end)
+					break;
+				int b = bytes[p + n] & 0xFF;
+				if ((b & 0xC0) != 0x80)
+					break;
+				cp = (cp << 6) | (b & 0x3F);
+			}
+			if (n <= need) {
+				// the sequence is cut short: wait for more bytes unless there are none to come
+				if (p + n == end && !eof)
+					break;
+				cp = REPLACEMENT;
+			}
+			else if (cp < min || cp > 0x10FFFF || (cp >= 0xD800 && cp < 0xE000)) {
+				cp = REPLACEMENT;
+			}
+			window[w++] = cp;
+			p += n;
+		}
+		if (p > 0) {
+			System.arraycopy(bytes, p, bytes, 0, end - p);
+			byteCount = end - p;
+		}
+		limit = w;
+	}
+}
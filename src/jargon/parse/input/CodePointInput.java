@@ -0,0 +1,48 @@
+package jargon.parse.input;
+
+import java.io.IOException;
+
+/**
+ * A source of code points which is read forward, with marks for the backtracking engines need.
+ * Positions increase as code points are read and are only meaningful to the input which returned them
+ * (ChannelCodePointInput counts code points, MappedCodePointInput counts bytes).
+ * A mark pins the input at and after its position, so that it can be reset to any position from the oldest live mark on;
+ * implementations are free to discard whatever lies before the oldest live mark (or before the current position if there is none).
+ */
+public interface CodePointInput {
+	/**
+	 * Value returned by read() at the end of the input
+	 */
+	public static final int END = -1;
+
+	/**
+	 * Reads the next code point
+	 * @return the code point, or END at the end of input
+	 * @throws IOException if the underlying source fails
+	 */
+	public int read() throws IOException;
+
+	/**
+	 * @return the position of the next code point to be read
+	 */
+	public long position();
+
+	/**
+	 * Pins the current position
+	 * @return the position, which is also the handle to pass to release()
+	 */
+	public long mark();
+
+	/**
+	 * Releases a mark, allowing the input before it to be discarded
+	 * @param mark the value returned by mark()
+	 */
+	public void release(long mark);
+
+	/**
+	 * Moves back (or forward, up to the furthest position read) to a position
+	 * @param position a position no earlier than the oldest live mark
+	 * @throws IllegalArgumentException if the position has been discarded or not yet read
+	 */
+	public void reset(long position);
+}
@@ -0,0 +1,220 @@
+package jargon.parse.input;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads code points from a memory mapped UTF-8 file (or any other ByteBuffer), decoding them as they are read.
+ * Nothing is copied onto the heap: positions are byte offsets into the file, so any position ever returned can be reset to
+ * (marks cost nothing and pin nothing), and matches are taken as Spans, which are views of the mapped bytes.
+ * Files larger than a single mapping allows are mapped in segments; a sequence may straddle two segments.
+ * Malformed UTF-8 decodes to U+FFFD, as in ChannelCodePointInput.
+ * Reading is not thread-safe, but spans may be used from any thread, and duplicate() gives other threads their own reader of the same mapping.
+ * @author Warren Falk
+ *
+ */
+public final class MappedCodePointInput implements CodePointInput, Closeable {
+	static final int SEGMENT_BITS = 30;
+
+	final FileChannel channel;
+	final long size;
+	final int segmentBits;
+	final long segmentMask;
+	final ByteBuffer[] segments;
+	long position;
+
+	/**
+	 * @param file the file, which is mapped read only and closed at once (the mapping stays valid after it is closed)
+	 */
+	public MappedCodePointInput(File file) throws IOException {
+		this(map(file, SEGMENT_BITS), SEGMENT_BITS);
+	}
+
+	/**
+	 * @param channel the channel of the file, which is mapped read only
+	 */
+	public MappedCodePointInput(FileChannel channel) throws IOException {
+		this(channel, SEGMENT_BITS);
+	}
+
+	MappedCodePointInput(FileChannel channel, int segmentBits) throws IOException {
+		this(channel, channel.size(), segmentBits, map(channel, segmentBits));
+	}
+
+	private MappedCodePointInput(ByteBuffer[] segments, int segmentBits) {
+		this(null, segments.length == 0 ? 0 : ((long)(segments.length - 1) << segmentBits) + segments[segments.length - 1].limit(), segmentBits, segments);
+	}
+
+	private static ByteBuffer[] map(File file, int segmentBits) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return map(raf.getChannel(), segmentBits);
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	private static ByteBuffer[] map(FileChannel channel, int segmentBits) throws IOException {
+		long size = channel.size();
+		long segmentMask = (1L << segmentBits) - 1;
+		int count = (int)((size + segmentMask) >>> segmentBits);
+		ByteBuffer[] segments = new ByteBuffer[count];
+		for (int i = 0; i < count; i++) {
+			long start = (long)i << segmentBits;
+			segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, 1L << segmentBits));
+		}
+		return segments;
+	}
+
+	/**
+	 * Reads from a buffer (between its start and its limit), which is not modified
+	 * @param buffer the buffer of UTF-8 bytes
+	 */
+	public MappedCodePointInput(ByteBuffer buffer) {
+		this(null, buffer.limit(), 31, new ByteBuffer[] { buffer });
+	}
+
+	private MappedCodePointInput(FileChannel channel, long size, int segmentBits, ByteBuffer[] segments) {
+		this.channel = channel;
+		this.size = size;
+		this.segmentBits = segmentBits;
+		this.segmentMask = (1L << segmentBits) - 1;
+		this.segments = segments;
+	}
+
+	/**
+	 * @return a new reader of the same mapping, positioned at the start (closing either closes the file)
+	 */
+	public MappedCodePointInput duplicate() {
+		return new MappedCodePointInput(channel, size, segmentBits, segments);
+	}
+
+	/**
+	 * @return the size of the file in bytes
+	 */
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public int read() {
+		if (position >= size)
+			return END;
+		long decoded = decode(position);
+		position += length(decoded);
+		return codePoint(decoded);
+	}
+
+	@Override
+	public long position() {
+		return position;
+	}
+
+	@Override
+	public long mark() {
+		return position;
+	}
+
+	@Override
+	public void release(long mark) {
+	}
+
+	@Override
+	public void reset(long position) {
+		if (position < 0 || position > size)
+			throw new IllegalArgumentException("position " + position + " is outside the file (0 to " + size + ")");
+		this.position = position;
+	}
+
+	/**
+	 * Finds the start of the sequence at or after a byte offset, i.e. skips any continuation bytes
+	 * @param offset the byte offset, which may be in the middle of a sequence
+	 * @return the position of the first code point which starts at or after the offset (or the size of the file)
+	 */
+	public long align(long offset) {
+		long limit = Math.min(size, offset + 3);
+		while (offset < limit && (byteAt(offset) & 0xC0) == 0x80)
+			offset++;
+		return offset;
+	}
+
+	/**
+	 * Returns a view of part of the file
+	 * @param start the position of the first code point
+	 * @param end the position after the last code point
+	 * @return the span
+	 */
+	public Span span(long start, long end) {
+		if (start < 0 || end > size || start > end)
+			throw new IllegalArgumentException("invalid span " + start + " to " + end);
+		if (end - start > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("span " + start + " to " + end + " is too long");
+		return new Span(this, start, (int)(end - start));
+	}
+
+	@Override
+	public void close() throws IOException {
+		// the mappings themselves are released when they are collected
+		if (channel != null)
+			channel.close();
+	}
+
+	final int byteAt(long offset) {
+		return segments[(int)(offset >>> segmentBits)].get((int)(offset & segmentMask));
+	}
+
+	/**
+	 * Decodes the sequence at an offset
+	 * @return the length of the sequence in the high word and the code point in the low word
+	 */
+	final long decode(long offset) {
+		int b0 = byteAt(offset);
+		if (b0 >= 0)
+			return (1L << 32) | b0;
+		b0 &= 0xFF;
+		int need, min, cp;
+		if (b0 >= 0xC2 && b0 < 0xE0) {
+			need = 1;
+			min = 0x80;
+			cp = b0 & 0x1F;
+		}
+		else if (b0 >= 0xE0 && b0 < 0xF0) {
+			need = 2;
+			min = 0x800;
+			cp = b0 & 0x0F;
+		}
+		else if (b0 >= 0xF0 && b0 < 0xF5) {
+			need = 3;
+			min = 0x10000;
+			cp = b0 & 0x07;
+		}
+		else {
+			return (1L << 32) | ChannelCodePointInput.REPLACEMENT;
+		}
+		int n = 1;
+		for (; n <= need; n++) {
+			if (offset + n >= size)
+				break;
+			int b = byteAt(offset + n) & 0xFF;
+			if ((b & 0xC0) != 0x80)
+				break;
+			cp = (cp << 6) | (b & 0x3F);
+		}
+		if (n <= need || cp < min || cp > 0x10FFFF || (cp >= 0xD800 && cp < 0xE000))
+			cp = ChannelCodePointInput.REPLACEMENT;
+		return ((long)n << 32) | cp;
+	}
+
+	static int length(long decoded) {
+		return (int)(decoded >>> 32);
+	}
+
+	static int codePoint(long decoded) {
+		return (int)decoded;
+	}
+}
@@ -0,0 +1,131 @@
+package jargon.parse.input;
+
+import java.nio.CharBuffer;
+
+/**
+ * A part of a memory mapped file, seen as a CharSequence.
+ * Creating a span copies nothing; its characters are decoded from the mapping only when asked for.
+ * A span which is entirely ASCII is read straight from the mapping, otherwise it is decoded into a char array once, on first use.
+ * @author Warren Falk
+ *
+ */
+public final class Span implements CharSequence {
+	static final int UNKNOWN = 0;
+	static final int ASCII = 1;
+	static final int DECODED = 2;
+
+	final MappedCodePointInput source;
+	final long offset;
+	final int byteLength;
+	volatile int state;
+	volatile char[] chars;
+
+	Span(MappedCodePointInput source, long offset, int byteLength) {
+		this.source = source;
+		this.offset = offset;
+		this.byteLength = byteLength;
+	}
+
+	/**
+	 * @return the position (byte offset) of the start of the span
+	 */
+	public long getStart() {
+		return offset;
+	}
+
+	/**
+	 * @return the position (byte offset) after the end of the span
+	 */
+	public long getEnd() {
+		return offset + byteLength;
+	}
+
+	/**
+	 * @return the length of the span in bytes
+	 */
+	public int getByteLength() {
+		return byteLength;
+	}
+
+	private int state() {
+		int state = this.state;
+		if (state != UNKNOWN)
+			return state;
+		for (int i = 0; i < byteLength; i++) {
+			if (source.byteAt(offset + i) < 0) {
+				decode();
+				return this.state = DECODED;
+			}
+		}
+		return this.state = ASCII;
+	}
+
+	private void decode() {
+		char[] chars = new char[byteLength]; // never fewer bytes than chars
+		int length = 0;
+		long end = offset + byteLength;
+		for (long p = offset; p < end;) {
+			long decoded = source.decode(p);
+			p += MappedCodePointInput.length(decoded);
+			length += Character.toChars(MappedCodePointInput.codePoint(decoded), chars, length);
+		}
+		if (length < chars.length) {
+			char[] trimmed = new char[length];
+			System.arraycopy(chars, 0, trimmed, 0, length);
+			chars = trimmed;
+		}
+		this.chars = chars;
+	}
+
+	@Override
+	public int length() {
+		return state() == ASCII ? byteLength : chars.length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (state() == ASCII) {
+			if (index < 0 || index >= byteLength)
+				throw new IndexOutOfBoundsException("index " + index + " is outside the span (length " + byteLength + ")");
+			return (char)source.byteAt(offset + index);
+		}
+		return chars[index];
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (state() == ASCII) {
+			if (start < 0 || end > byteLength || start > end)
+				throw new IndexOutOfBoundsException("invalid range " + start + " to " + end + " of a span of length " + byteLength);
+			return new Span(source, offset + start, end - start);
+		}
+		return CharBuffer.wrap(chars, start, end - start);
+	}
+
+	/**
+	 * Compares the span with a sequence of characters without materializing a string
+	 * @param cs the characters
+	 * @return true if the span holds exactly the same characters
+	 */
+	public boolean contentEquals(CharSequence cs) {
+		int length = length();
+		if (cs.length() != length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (charAt(i) != cs.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		if (state() == ASCII) {
+			char[] chars = new char[byteLength];
+			for (int i = 0; i < byteLength; i++)
+				chars[i] = (char)source.byteAt(offset + i);
+			return new String(chars);
+		}
+		return new String(chars);
+	}
+}
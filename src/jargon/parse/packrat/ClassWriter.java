@@ -0,0 +1,336 @@
+package jargon.parse.packrat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import warrenfalk.util.IntegerList;
+
+/**
+ * Writes a class file with just what ParserGenerator needs: a constant pool, methods and their code.
+ * Classes are written as version 49 (Java 5), which the JVM verifies by type inference,
+ * so no stack map frames are needed; max stack and max locals are given by the caller.
+ * @author Warren Falk
+ *
+ */
+final class ClassWriter {
+	static final int VERSION = 49;
+
+	static final int ACC_PUBLIC = 0x0001;
+	static final int ACC_PRIVATE = 0x0002;
+	static final int ACC_PROTECTED = 0x0004;
+	static final int ACC_STATIC = 0x0008;
+	static final int ACC_FINAL = 0x0010;
+	static final int ACC_SUPER = 0x0020;
+
+	// constant pool tags
+	static final int CONSTANT_UTF8 = 1;
+	static final int CONSTANT_INTEGER = 3;
+	static final int CONSTANT_CLASS = 7;
+	static final int CONSTANT_FIELDREF = 9;
+	static final int CONSTANT_METHODREF = 10;
+	static final int CONSTANT_INTERFACE_METHODREF = 11;
+	static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	// opcodes
+	static final int ICONST_0 = 0x03;
+	static final int BIPUSH = 0x10;
+	static final int SIPUSH = 0x11;
+	static final int LDC_W = 0x13;
+	static final int ILOAD = 0x15;
+	static final int ALOAD = 0x19;
+	static final int IALOAD = 0x2E;
+	static final int AALOAD = 0x32;
+	static final int ISTORE = 0x36;
+	static final int IASTORE = 0x4F;
+	static final int DUP = 0x59;
+	static final int IADD = 0x60;
+	static final int IINC = 0x84;
+	static final int IFEQ = 0x99;
+	static final int IFNE = 0x9A;
+	static final int IFLT = 0x9B;
+	static final int IFGE = 0x9C;
+	static final int IF_ICMPEQ = 0x9F;
+	static final int IF_ICMPNE = 0xA0;
+	static final int IF_ICMPLT = 0xA1;
+	static final int IF_ICMPGE = 0xA2;
+	static final int IF_ICMPGT = 0xA3;
+	static final int IF_ICMPLE = 0xA4;
+	static final int GOTO = 0xA7;
+	static final int TABLESWITCH = 0xAA;
+	static final int IRETURN = 0xAC;
+	static final int RETURN = 0xB1;
+	static final int GETFIELD = 0xB4;
+	static final int INVOKEVIRTUAL = 0xB6;
+	static final int INVOKESPECIAL = 0xB7;
+	static final int INVOKESTATIC = 0xB8;
+	static final int INVOKEINTERFACE = 0xB9;
+
+	final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	final DataOutputStream poolOut = new DataOutputStream(pool);
+	final HashMap<String, Integer> constants = new HashMap<String, Integer>();
+	int poolCount = 1;
+	final ArrayList<byte[]> methods = new ArrayList<byte[]>();
+	final String name;
+	final String superName;
+
+	/**
+	 * @param name the internal name of the class (with slashes)
+	 * @param superName the internal name of its superclass
+	 */
+	ClassWriter(String name, String superName) {
+		this.name = name;
+		this.superName = superName;
+	}
+
+	// adds a constant (or finds the one already added with the same key)
+	private int constant(String key, int tag, int a, int b, String utf) {
+		Integer index = constants.get(key);
+		if (index != null)
+			return index;
+		try {
+			poolOut.writeByte(tag);
+			if (tag == CONSTANT_UTF8)
+				poolOut.writeUTF(utf);
+			else if (tag == CONSTANT_INTEGER)
+				poolOut.writeInt(a);
+			else if (tag == CONSTANT_CLASS)
+				poolOut.writeShort(a);
+			else {
+				poolOut.writeShort(a);
+				poolOut.writeShort(b);
+			}
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		constants.put(key, poolCount);
+		return poolCount++;
+	}
+
+	int utf8(String s) {
+		return constant("U" + s, CONSTANT_UTF8, 0, 0, s);
+	}
+
+	int integer(int value) {
+		return constant("I" + value, CONSTANT_INTEGER, value, 0, null);
+	}
+
+	int classRef(String internalName) {
+		return constant("C" + internalName, CONSTANT_CLASS, utf8(internalName), 0, null);
+	}
+
+	private int member(int tag, String owner, String name, String descriptor) {
+		int nameAndType = constant("N" + name + ":" + descriptor, CONSTANT_NAME_AND_TYPE, utf8(name), utf8(descriptor), null);
+		return constant(tag + owner + "." + name + ":" + descriptor, tag, classRef(owner), nameAndType, null);
+	}
+
+	int field(String owner, String name, String descriptor) {
+		return member(CONSTANT_FIELDREF, owner, name, descriptor);
+	}
+
+	int method(String owner, String name, String descriptor) {
+		return member(CONSTANT_METHODREF, owner, name, descriptor);
+	}
+
+	int interfaceMethod(String owner, String name, String descriptor) {
+		return member(CONSTANT_INTERFACE_METHODREF, owner, name, descriptor);
+	}
+
+	/**
+	 * Adds a method
+	 * @param access the access flags
+	 * @param name the method name
+	 * @param descriptor the method descriptor
+	 * @param code its code
+	 */
+	void addMethod(int access, String name, String descriptor, Code code) {
+		byte[] bytes = code.toByteArray();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(out);
+		try {
+			data.writeShort(access);
+			data.writeShort(utf8(name));
+			data.writeShort(utf8(descriptor));
+			data.writeShort(1);
+			data.writeShort(utf8("Code"));
+			data.writeInt(12 + bytes.length);
+			data.writeShort(code.maxStack);
+			data.writeShort(code.maxLocals);
+			data.writeInt(bytes.length);
+			data.write(bytes);
+			data.writeShort(0); // exception table
+			data.writeShort(0); // attributes
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		methods.add(out.toByteArray());
+	}
+
+	/**
+	 * @return the class file
+	 */
+	byte[] toByteArray() {
+		int thisClass = classRef(name);
+		int superClass = classRef(superName);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(out);
+		try {
+			data.writeInt(0xCAFEBABE);
+			data.writeShort(0);
+			data.writeShort(VERSION);
+			data.writeShort(poolCount);
+			pool.writeTo(data);
+			data.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			data.writeShort(thisClass);
+			data.writeShort(superClass);
+			data.writeShort(0); // interfaces
+			data.writeShort(0); // fields
+			data.writeShort(methods.size());
+			for (byte[] method : methods)
+				data.write(method);
+			data.writeShort(0); // attributes
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * The code of one method, with labels for branches which are resolved when the code is finished
+	 */
+	final class Code {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final IntegerList labels = new IntegerList(); // offset of each label, -1 until it is placed
+		// branches to patch: the offset of the instruction, the offset of the operand, its size and the label
+		final IntegerList fixups = new IntegerList();
+		final int maxStack;
+		final int maxLocals;
+
+		Code(int maxStack, int maxLocals) {
+			this.maxStack = maxStack;
+			this.maxLocals = maxLocals;
+		}
+
+		int newLabel() {
+			labels.add(-1);
+			return labels.size() - 1;
+		}
+
+		void place(int label) {
+			labels.set(label, out.size());
+		}
+
+		void op(int opcode) {
+			out.write(opcode);
+		}
+
+		private void u2(int value) {
+			out.write(value >> 8);
+			out.write(value);
+		}
+
+		private void u4(int value) {
+			u2(value >> 16);
+			u2(value);
+		}
+
+		void push(int value) {
+			if (value >= -1 && value <= 5)
+				op(ICONST_0 + value);
+			else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				op(BIPUSH);
+				out.write(value);
+			}
+			else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				op(SIPUSH);
+				u2(value);
+			}
+			else {
+				op(LDC_W);
+				u2(integer(value));
+			}
+		}
+
+		void local(int opcode, int index) {
+			op(opcode);
+			out.write(index);
+		}
+
+		void iinc(int index, int delta) {
+			op(IINC);
+			out.write(index);
+			out.write(delta);
+		}
+
+		// getfield, invoke* and the like, whose operand is a constant
+		void ref(int opcode, int constant) {
+			op(opcode);
+			u2(constant);
+		}
+
+		void invokeInterface(int constant, int argumentSlots) {
+			op(INVOKEINTERFACE);
+			u2(constant);
+			out.write(argumentSlots + 1);
+			out.write(0);
+		}
+
+		void jump(int opcode, int label) {
+			int at = out.size();
+			op(opcode);
+			fixups.add(at);
+			fixups.add(out.size());
+			fixups.add(2);
+			fixups.add(label);
+			u2(0);
+		}
+
+		/**
+		 * @param low the lowest value
+		 * @param targets the label for each value from low
+		 * @param otherwise the label for any other value
+		 */
+		void tableswitch(int low, int[] targets, int otherwise) {
+			int at = out.size();
+			op(TABLESWITCH);
+			while (out.size() % 4 != 0)
+				out.write(0);
+			fixup(at, otherwise);
+			u4(low);
+			u4(low + targets.length - 1);
+			for (int target : targets)
+				fixup(at, target);
+		}
+
+		private void fixup(int at, int label) {
+			fixups.add(at);
+			fixups.add(out.size());
+			fixups.add(4);
+			fixups.add(label);
+			u4(0);
+		}
+
+		byte[] toByteArray() {
+			byte[] code = out.toByteArray();
+			for (int i = 0; i < fixups.size(); i += 4) {
+				int at = fixups.get(i), operand = fixups.get(i + 1), size = fixups.get(i + 2);
+				int target = labels.get(fixups.get(i + 3));
+				if (target == -1)
+					throw new IllegalStateException("label " + fixups.get(i + 3) + " was never placed");
+				int offset = target - at;
+				if (size == 2 && (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE))
+					throw new IllegalStateException("branch is too far for a method of " + code.length + " bytes");
+				for (int b = size - 1; b >= 0; b--)
+					code[operand + size - 1 - b] = (byte)(offset >> (b * 8));
+			}
+			if (code.length > 0xFFFF)
+				throw new IllegalStateException("method of " + code.length + " bytes is too large");
+			return code;
+		}
+	}
+}
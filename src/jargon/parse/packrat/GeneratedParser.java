@@ -0,0 +1,149 @@
+package jargon.parse.packrat;
+
+import jargon.parse.CodePointMatcher;
+import jargon.parse.CodePointPartition;
+import jargon.parse.reflect.Grammar;
+
+import java.util.Arrays;
+
+/**
+ * The superclass of the parsers ParserGenerator writes as bytecode: a method per pattern, calling one another,
+ * with the matching of each rule in straight-line code which the JIT can inline.
+ * The result of each rule which can be called again at the same position is memoized as PackratParser memoizes it
+ * (enter() and leave() wrap the method of such a rule, see ParserGenerator), so, as in PackratParser, no rule is matched twice
+ * at a position (while it is in the memo table) however much the grammar backtracks;
+ * and it must not be used by more than one thread at a time (see duplicate()).
+ * @author Warren Falk
+ *
+ */
+public abstract class GeneratedParser {
+	final Grammar grammar;
+	protected final CodePointMatcher[] matchers; // the sets of code point nodes which are not compared inline
+	protected final CodePointPartition[] partitions; // the dispatch classes of choice nodes
+	final int[] cycles; // for each rule, the cycle of left recursion it is on, or -1 (see PackratParser)
+	final int[] active; // the position at which each rule is innermost, or -1
+	final int[] cycleActive; // the same for the rules of each cycle
+	final MemoTable memo;
+	int[] saved = new int[64]; // the outer positions of the rules entered, for leave()
+	int depth;
+	protected int length;
+
+	/**
+	 * @param grammar the grammar
+	 * @param matchers the sets of the code point nodes
+	 * @param partitions the dispatch classes of the choice nodes
+	 * @param cycles the cycle of left recursion of each rule, or -1
+	 * @param memo the memo table
+	 */
+	protected GeneratedParser(Grammar grammar, CodePointMatcher[] matchers, CodePointPartition[] partitions, int[] cycles, MemoTable memo) {
+		this.grammar = grammar;
+		this.matchers = matchers;
+		this.partitions = partitions;
+		this.cycles = cycles;
+		this.memo = memo;
+		this.active = new int[grammar.getRuleCount()];
+		int cycleCount = 0;
+		for (int cycle : cycles)
+			cycleCount = Math.max(cycleCount, cycle + 1);
+		this.cycleActive = new int[cycleCount];
+	}
+
+	/**
+	 * Starts matching a rule at a position
+	 * @return the result of the rule if it is known (memoized, or failed because the rule reaches itself at the position),
+	 * otherwise MemoTable.MISSING, in which case the rule is marked active until leave()
+	 */
+	protected final int enter(int rule, int position) {
+		// positions never decrease inwards, so a rule can only reach itself at the position it is innermost at
+		if (active[rule] == position)
+			return MemoTable.FAILED;
+		int cycle = cycles[rule];
+		if (cycle == -1 || cycleActive[cycle] != position) {
+			int result = memo.get(rule, position);
+			if (result != MemoTable.MISSING)
+				return result;
+		}
+		if (depth + 2 > saved.length)
+			saved = Arrays.copyOf(saved, saved.length * 2);
+		saved[depth++] = active[rule];
+		active[rule] = position;
+		if (cycle != -1) {
+			saved[depth++] = cycleActive[cycle];
+			cycleActive[cycle] = position;
+		}
+		return MemoTable.MISSING;
+	}
+
+	/**
+	 * Finishes matching a rule entered with enter(), memoizing its result unless it depends on the rules of its cycle being matched
+	 * @return the result
+	 */
+	protected final int leave(int result, int rule, int position) {
+		int cycle = cycles[rule];
+		if (cycle != -1)
+			cycleActive[cycle] = saved[--depth];
+		active[rule] = saved[--depth];
+		if (cycle == -1 || cycleActive[cycle] != position)
+			memo.put(rule, position, result);
+		return result;
+	}
+
+	/**
+	 * Matches a rule at a position, where a rule which reaches itself at the same position fails there
+	 * @param ruleId the id of the rule
+	 * @param input the input
+	 * @param position the position
+	 * @return the offset after the match, or -1
+	 */
+	protected abstract int rule(int ruleId, CharSequence input, int position);
+
+	/**
+	 * Parses the start of the input with a rule
+	 * @param ruleName the name of the rule
+	 * @param input the input
+	 * @return the offset after the match, or -1 if the rule did not match
+	 */
+	public int parse(String ruleName, CharSequence input) {
+		return parse(grammar.getRuleId(ruleName), input, 0);
+	}
+
+	/**
+	 * Parses the input with a rule
+	 * @param ruleId the id of the rule
+	 * @param input the input
+	 * @param offset the offset at which the rule must match
+	 * @return the offset after the match, or -1 if the rule did not match
+	 */
+	public int parse(int ruleId, CharSequence input, int offset) {
+		length = input.length();
+		memo.clear();
+		Arrays.fill(active, -1);
+		Arrays.fill(cycleActive, -1);
+		depth = 0;
+		return rule(ruleId, input, offset);
+	}
+
+	/**
+	 * @return the memo table, whose statistics describe the last parse
+	 */
+	public MemoTable getMemo() {
+		return memo;
+	}
+
+	public Grammar getGrammar() {
+		return grammar;
+	}
+
+	/**
+	 * @return a new parser of the same generated class (with a memo table of its own), for another thread
+	 */
+	public GeneratedParser duplicate() {
+		try {
+			return getClass().getConstructor(Grammar.class, CodePointMatcher[].class, CodePointPartition[].class, int[].class, MemoTable.class)
+					.newInstance(grammar, matchers, partitions, cycles, new MemoTable(memo.getCapacity(), memo.window));
+		}
+		catch (Exception e) {
+			throw new IllegalStateException("cannot create a parser of generated class " + getClass().getName(), e);
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package jargon.parse.packrat;
+
+import jargon.parse.CodePointSet;
+import jargon.parse.reflect.Choice;
+import jargon.parse.reflect.Grammar;
+import jargon.parse.reflect.Pattern;
+import jargon.parse.reflect.PatternGroup;
+import jargon.parse.reflect.PatternRef;
+import jargon.parse.reflect.StaticCodePoint;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Random;
+
+/**
+ * Checks that two grammars (typically one and its optimized form) are equivalent on generated inputs.
+ * Inputs are random derivations of the rules of the first grammar, some of them mutated (truncated, or with a code point
+ * inserted, replaced or removed) so that failures are exercised as well as matches.
+ * Both grammars are parsed with PackratParser and must agree on the end of the match of each rule.
+ */
+public final class GrammarVerifier {
+	static final int MAX_DEPTH = 24;
+	static final int MAX_LENGTH = 256;
+	// bounds on the patterns generated per input and on their nesting, since a rule may reach itself through patterns which append nothing
+	static final int MAX_STEPS = 4096;
+	static final int MAX_NESTING = MAX_DEPTH * 4;
+
+	final Grammar original;
+	final Grammar candidate;
+	final Random random;
+	final ArrayList<Integer> alphabet = new ArrayList<Integer>();
+	int steps;
+
+	/**
+	 * @param original the reference grammar
+	 * @param candidate the grammar to check against it
+	 * @param seed the seed of the random input generator
+	 */
+	public GrammarVerifier(Grammar original, Grammar candidate, long seed) {
+		this.original = original;
+		this.candidate = candidate;
+		this.random = new Random(seed);
+		collectAlphabet(original);
+	}
+
+	// a few code points from every set in the grammar, used for mutations
+	private void collectAlphabet(Grammar grammar) {
+		IdentityHashMap<Pattern, Boolean> seen = new IdentityHashMap<Pattern, Boolean>();
+		ArrayList<Pattern> work = new ArrayList<Pattern>();
+		for (int i = 0; i < grammar.getRuleCount(); i++)
+			work.add(grammar.getRule(i));
+		while (!work.isEmpty()) {
+			Pattern pattern = work.remove(work.size() - 1);
+			if (seen.put(pattern, Boolean.TRUE) != null)
+				continue;
+			if (pattern instanceof StaticCodePoint) {
+				CodePointSet cps = ((StaticCodePoint)pattern).getCodePoints();
+				int first = cps.next(0);
+				if (first != -1) {
+					alphabet.add(first);
+					alphabet.add(sample(cps));
+				}
+			}
+			else if (pattern instanceof PatternRef) {
+				work.add(((PatternRef)pattern).getPattern());
+			}
+			else if (pattern instanceof PatternGroup) {
+				PatternGroup group = (PatternGroup)pattern;
+				for (int i = 0; i < group.getChildCount(); i++)
+					work.add(group.getChild(i));
+			}
+		}
+		if (alphabet.isEmpty())
+			alphabet.add((int)'a');
+	}
+
+	/**
+	 * Parses generated inputs with each of the given rules in both grammars
+	 * @param ruleNames the rules to check (which must exist in both grammars)
+	 * @param inputs the number of inputs to generate per rule
+	 * @return null if the grammars agreed on every input, otherwise a description of the first disagreement
+	 */
+	public String verify(String[] ruleNames, int inputs) {
+		PackratParser originalParser = new PackratParser(original);
+		PackratParser candidateParser = new PackratParser(candidate);
+		StringBuilder sb = new StringBuilder();
+		for (String name : ruleNames) {
+			Pattern rule = original.getRule(name);
+			for (int i = 0; i < inputs; i++) {
+				sb.setLength(0);
+				steps = 0;
+				generate(rule, sb, 0);
+				if (random.nextInt(3) == 0)
+					mutate(sb);
+				String input = sb.toString();
+				int expected = originalParser.parse(name, input);
+				int actual = candidateParser.parse(name, input);
+				if (expected != actual)
+					return "rule " + name + " on \"" + escape(input) + "\": expected " + expected + " but was " + actual;
+			}
+		}
+		return null;
+	}
+
+	private void generate(Pattern pattern, StringBuilder sb, int depth) {
+		if (sb.length() > MAX_LENGTH || ++steps > MAX_STEPS || depth > MAX_NESTING)
+			return;
+		if (pattern instanceof StaticCodePoint) {
+			CodePointSet cps = ((StaticCodePoint)pattern).getCodePoints();
+			if (cps.next(0) != -1)
+				sb.appendCodePoint(sample(cps));
+		}
+		else if (pattern instanceof PatternRef) {
+			PatternRef ref = (PatternRef)pattern;
+			int extra = depth > MAX_DEPTH ? 0 : random.nextInt(4);
+			int count = (int)Math.min((long)ref.getMin() + extra, ref.getMax());
+			for (int i = 0; i < count; i++)
+				generate(ref.getPattern(), sb, depth + 1);
+		}
+		else if (pattern instanceof Choice) {
+			PatternGroup group = (PatternGroup)pattern;
+			if (group.getChildCount() > 0) {
+				// past the depth limit, prefer the last alternative (usually the simplest one)
+				int i = depth > MAX_DEPTH ? group.getChildCount() - 1 : random.nextInt(group.getChildCount());
+				generate(group.getChild(i), sb, depth + 1);
+			}
+		}
+		else if (pattern instanceof PatternGroup) {
+			PatternGroup group = (PatternGroup)pattern;
+			for (int i = 0; i < group.getChildCount(); i++)
+				generate(group.getChild(i), sb, depth + 1);
+		}
+		else {
+			sb.appendCodePoint(alphabet.get(random.nextInt(alphabet.size())));
+		}
+	}
+
+	// a random member of the set, mostly small code points
+	private int sample(CodePointSet cps) {
+		int start = random.nextBoolean() ? random.nextInt(0x80) : random.nextInt(CodePointSet.UNICODE_END);
+		int cp = cps.next(start);
+		if (cp == -1)
+			cp = cps.next(0);
+		// lone surrogates would change meaning once placed in a string
+		if (cp >= 0xD800 && cp < 0xE000)
+			cp = cps.next(0xE000) != -1 ? cps.next(0xE000) : cps.next(0);
+		return cp;
+	}
+
+	private void mutate(StringBuilder sb) {
+		int position = sb.length() == 0 ? 0 : random.nextInt(sb.length() + 1);
+		int cp = alphabet.get(random.nextInt(alphabet.size()));
+		switch (random.nextInt(4)) {
+		case 0:
+			sb.setLength(position);
+			break;
+		case 1:
+			sb.insert(position, Character.toChars(cp));
+			break;
+		case 2:
+			if (position < sb.length())
+				sb.setCharAt(position, (char)cp);
+			break;
+		default:
+			if (position < sb.length())
+				sb.deleteCharAt(position);
+			break;
+		}
+	}
+
+	private static String escape(String input) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < input.length(); i++) {
+			char c = input.charAt(i);
+			if (c < 0x20 || c > 0x7E)
+				sb.append(String.format("\\u%04x", (int)c));
+			else
+				sb.append(c);
+		}
+		return sb.toString();
+	}
+}
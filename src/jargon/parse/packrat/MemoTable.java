@@ -0,0 +1,198 @@
+package jargon.parse.packrat;
+
+import java.util.Arrays;
+
+/**
+ * The memo table of the packrat parser, mapping (rule id, input position) to a result
+ * (and to the extent of the input examined to produce it, which incremental reparsing needs).
+ * Entries are kept in open-addressed primitive arrays (a long key packing position and rule, and an int result),
+ * with a bounded probe length so that lookups and insertions are O(1).
+ * Memory is bounded by a sliding window: entries for positions more than "window" behind the furthest position
+ * seen may be overwritten by new entries, as may the oldest entry on a probe sequence when the table is crowded.
+ * Since the table is only a cache, evicting an entry never changes the result of a parse, only its speed.
+ * Each slot is stamped with the generation of the table it was written in, so clearing the table for a new parse costs nothing
+ * however large it is (only when the generation wraps around are the stamps reset).
+ * @author Warren Falk
+ *
+ */
+public final class MemoTable {
+	/**
+	 * Result of a lookup which found no entry
+	 */
+	public static final int MISSING = -2;
+	/**
+	 * Result stored for a rule that failed to match
+	 */
+	public static final int FAILED = -1;
+
+	static final int MAX_PROBE = 16;
+
+	final long[] keys;
+	final int[] stamps; // the generation in which each slot was written, a slot of another generation is empty
+	int generation = 1;
+	final int[] results;
+	final int[] extents; // how far the parser looked to produce each result
+	int lastExtent;
+	final int mask;
+	final int window;
+	int furthest;
+	long hits;
+	long misses;
+	long evictions;
+
+	/**
+	 * @param capacity the number of entries (rounded up to a power of two)
+	 * @param window how far behind the furthest position entries are kept before they may be evicted
+	 */
+	public MemoTable(int capacity, int window) {
+		int size = Integer.highestOneBit(Math.max(capacity, MAX_PROBE) - 1) << 1;
+		keys = new long[size];
+		stamps = new int[size];
+		results = new int[size];
+		extents = new int[size];
+		mask = size - 1;
+		this.window = window;
+	}
+
+	/**
+	 * Empties the table (and resets the statistics) for a new parse, without reallocating it
+	 */
+	public void clear() {
+		if (++generation == 0) {
+			Arrays.fill(stamps, 0);
+			generation = 1;
+		}
+		furthest = 0;
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	private static long key(int rule, int position) {
+		return ((long)position << 32) | rule;
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+
+	/**
+	 * @param rule the rule id
+	 * @param position the input position
+	 * @return the stored result or MISSING
+	 */
+	public int get(int rule, int position) {
+		long key = key(rule, position);
+		int slot = hash(key) & mask;
+		for (int i = 0; i < MAX_PROBE; i++) {
+			if (stamps[slot] != generation)
+				break;
+			if (keys[slot] == key) {
+				hits++;
+				lastExtent = extents[slot];
+				return results[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		misses++;
+		return MISSING;
+	}
+
+	/**
+	 * @return the extent of the entry found by the last get() which found one
+	 */
+	public int getLastExtent() {
+		return lastExtent;
+	}
+
+	/**
+	 * Stores a result
+	 * @param rule the rule id
+	 * @param position the input position
+	 * @param result the end of the match (or FAILED)
+	 */
+	public void put(int rule, int position, int result) {
+		put(rule, position, result, Math.max(position, result));
+	}
+
+	/**
+	 * Stores a result
+	 * @param rule the rule id
+	 * @param position the input position
+	 * @param result the end of the match (or FAILED)
+	 * @param extent the position after the last one the parser looked at to produce the result
+	 */
+	public void put(int rule, int position, int result, int extent) {
+		if (position > furthest)
+			furthest = position;
+		long key = key(rule, position);
+		int slot = hash(key) & mask;
+		int free = -1; // where to store the entry: the first empty slot, or the first entry outside the window
+		int oldest = slot;
+		int oldestPosition = Integer.MAX_VALUE;
+		int windowStart = furthest - window;
+		for (int i = 0; i < MAX_PROBE; i++) {
+			if (stamps[slot] != generation) {
+				if (free == -1)
+					free = slot;
+				break;
+			}
+			long k = keys[slot];
+			if (k == key) {
+				// replace the entry, wherever it is, so that a stale copy further on is never found instead
+				results[slot] = result;
+				extents[slot] = extent;
+				return;
+			}
+			int p = (int)(k >>> 32);
+			if (p < windowStart) {
+				if (free == -1)
+					free = slot;
+			}
+			else if (p < oldestPosition) {
+				oldestPosition = p;
+				oldest = slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (free == -1) {
+			// the probe sequence is full of entries within the window, evict the one furthest behind
+			free = oldest;
+		}
+		if (stamps[free] == generation)
+			evictions++;
+		stamps[free] = generation;
+		keys[free] = key;
+		results[free] = result;
+		extents[free] = extent;
+	}
+
+	/**
+	 * @return the number of lookups which found an entry since the table was cleared
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of lookups which found no entry since the table was cleared
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of entries overwritten to make room for others since the table was cleared
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return the number of entries the table can hold
+	 */
+	public int getCapacity() {
+		return keys.length;
+	}
+}
@@ -0,0 +1,659 @@
+package jargon.parse.packrat;
+
+import jargon.parse.CodePointMatcher;
+import jargon.parse.CodePointPartition;
+import jargon.parse.CodePointSet;
+import jargon.parse.reflect.Choice;
+import jargon.parse.reflect.FirstSets;
+import jargon.parse.reflect.Grammar;
+import jargon.parse.reflect.Pattern;
+import jargon.parse.reflect.PatternGroup;
+import jargon.parse.reflect.PatternRef;
+import jargon.parse.reflect.Sequence;
+import jargon.parse.reflect.StaticCodePoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+
+import warrenfalk.util.IntegerList;
+
+/**
+ * A PEG interpreter over the reflect model, memoizing the result of every named rule at every position (packrat parsing).
+ * Choices are ordered (the first alternative to match wins) and repetition is greedy and possessive.
+ * Left recursion is not supported: a rule which reaches itself at the same position without consuming input fails there.
+ * The rules being matched are tracked apart from the memo table (which may evict anything). The result of a rule on such a cycle
+ * (of rules which reach each other without consuming input) depends on which rules of the cycle are being matched at the position,
+ * so it is only memoized where none is; the size of the memo table never changes the result of a parse.
+ * Each choice dispatches on the class of the next code point to the alternatives whose FIRST set contains it
+ * (or which are nullable), so alternatives which cannot match are never tried.
+ * The grammar is compiled once into parallel arrays of nodes, a parser instance reuses its memo table between parses
+ * and must not be used by more than one thread at a time (duplicate() makes parsers for other threads cheaply).
+ * @author Warren Falk
+ *
+ */
+public final class PackratParser {
+	static final int KIND_CODEPOINTS = 0;
+	static final int KIND_SEQUENCE = 1;
+	static final int KIND_CHOICE = 2;
+	static final int KIND_REF = 3;
+
+	final Grammar grammar;
+	// the compiled nodes
+	final int[] kinds;
+	final int[][] children; // child node indexes of a group, or the single child of a ref
+	final int[] mins;
+	final int[] maxes;
+	final CodePointMatcher[] matchers;
+	final int[] ruleIds; // rule id of the named patterns, -1 for anonymous ones
+	final int[] ruleNodes; // node index of each rule
+	final CodePointPartition[] dispatchClasses; // for choices, the partition of the FIRST sets of the alternatives
+	final int[][][] dispatch; // for choices, the viable alternatives (in order) for each class
+	final int[][] eofDispatch; // for choices, the viable (nullable) alternatives at the end of input
+	final MemoTable memo;
+	final int[] cycles; // for each rule, the cycle of left recursion it is on, or -1
+	// the rules being matched: the position at which each is innermost (-1 if none), and the same for the rules of each cycle
+	final int[] active;
+	final int[] cycleActive;
+	CharSequence input;
+	int length;
+	int examined; // the offset after the last code point looked at in the current rule
+	// the previous tree and the edit since, while reparsing
+	ParseLog previous;
+	int editOffset;
+	int removed;
+	int inserted;
+	int reuseShift; // the shift of the subtree last found by reusable()
+	int reused;
+	int evaluated;
+
+	public PackratParser(Grammar grammar) {
+		this(grammar, 1 << 16, 1 << 12);
+	}
+
+	/**
+	 * @param grammar the grammar
+	 * @param capacity the number of memo entries
+	 * @param window how many chars behind the furthest position memo entries are protected from eviction
+	 */
+	public PackratParser(Grammar grammar, int capacity, int window) {
+		this.grammar = grammar;
+		Compiler compiler = new Compiler(grammar);
+		int count = compiler.patterns.size();
+		kinds = compiler.kinds.toArray();
+		mins = compiler.mins.toArray();
+		maxes = compiler.maxes.toArray();
+		ruleIds = compiler.ruleIds.toArray();
+		children = compiler.children.toArray(new int[count][]);
+		matchers = compiler.matchers.toArray(new CodePointMatcher[count]);
+		ruleNodes = new int[grammar.getRuleCount()];
+		for (int i = 0; i < ruleNodes.length; i++)
+			ruleNodes[i] = compiler.nodes.get(grammar.getRule(i));
+		memo = new MemoTable(capacity, window);
+		cycles = new int[ruleNodes.length];
+		active = new int[ruleNodes.length];
+		cycleActive = new int[compileCycles()];
+		dispatchClasses = new CodePointPartition[count];
+		dispatch = new int[count][][];
+		eofDispatch = new int[count][];
+		FirstSets firstSets = new FirstSets(grammar);
+		for (int node = 0; node < count; node++) {
+			if (kinds[node] == KIND_CHOICE)
+				compileDispatch(node, (PatternGroup)compiler.patterns.get(node), firstSets);
+		}
+	}
+	
+	// a parser sharing the compiled grammar of another, with a memo table of its own
+	private PackratParser(PackratParser prototype) {
+		grammar = prototype.grammar;
+		kinds = prototype.kinds;
+		children = prototype.children;
+		mins = prototype.mins;
+		maxes = prototype.maxes;
+		matchers = prototype.matchers;
+		ruleIds = prototype.ruleIds;
+		ruleNodes = prototype.ruleNodes;
+		dispatchClasses = prototype.dispatchClasses;
+		dispatch = prototype.dispatch;
+		eofDispatch = prototype.eofDispatch;
+		memo = new MemoTable(prototype.memo.getCapacity(), prototype.memo.window);
+		cycles = prototype.cycles;
+		active = new int[ruleNodes.length];
+		cycleActive = new int[prototype.cycleActive.length];
+	}
+
+	/**
+	 * @return a new parser of the same grammar for another thread, which shares the compiled grammar (it is never modified)
+	 * instead of compiling it again
+	 */
+	public PackratParser duplicate() {
+		return new PackratParser(this);
+	}
+
+	// numbers the cycles of rules which reach each other at the same position (left recursion), returns their count
+	private int compileCycles() {
+		boolean[] nullable = nullable();
+		// the rules each rule reaches without consuming input
+		BitSet[] reaches = new BitSet[ruleNodes.length];
+		IntegerList stack = new IntegerList();
+		for (int r = 0; r < ruleNodes.length; r++) {
+			reaches[r] = new BitSet();
+			BitSet visited = new BitSet();
+			stack.add(ruleNodes[r]);
+			while (stack.size() > 0) {
+				int node = stack.pop();
+				if (kinds[node] == KIND_CODEPOINTS)
+					continue;
+				int[] c = children[node];
+				for (int i = 0; i < c.length; i++) {
+					if (!visited.get(c[i])) {
+						visited.set(c[i]);
+						if (ruleIds[c[i]] != -1)
+							reaches[r].set(ruleIds[c[i]]);
+						stack.add(c[i]);
+					}
+					// a sequence reaches its children up to the first which consumes input, a choice or a repetition all of them
+					if (kinds[node] == KIND_SEQUENCE && !nullable[c[i]])
+						break;
+				}
+			}
+		}
+		Arrays.fill(cycles, -1);
+		int cycleCount = 0;
+		for (int r = 0; r < ruleNodes.length; r++) {
+			if (cycles[r] != -1 || !reaches[r].get(r))
+				continue;
+			for (int x = r; x < ruleNodes.length; x++) {
+				if (reaches[r].get(x) && reaches[x].get(r))
+					cycles[x] = cycleCount;
+			}
+			cycleCount++;
+		}
+		return cycleCount;
+	}
+
+	// which nodes can match without consuming input
+	boolean[] nullable() {
+		int count = kinds.length;
+		boolean[] nullable = new boolean[count];
+		for (boolean changed = true; changed;) {
+			changed = false;
+			for (int node = 0; node < count; node++) {
+				if (!nullable[node] && isNullable(node, nullable)) {
+					nullable[node] = true;
+					changed = true;
+				}
+			}
+		}
+		return nullable;
+	}
+
+	private boolean isNullable(int node, boolean[] nullable) {
+		switch (kinds[node]) {
+		case KIND_CODEPOINTS:
+			return false;
+		case KIND_SEQUENCE:
+			for (int child : children[node]) {
+				if (!nullable[child])
+					return false;
+			}
+			return true;
+		case KIND_CHOICE:
+			for (int child : children[node]) {
+				if (nullable[child])
+					return true;
+			}
+			return false;
+		default:
+			return mins[node] == 0 || nullable[children[node][0]];
+		}
+	}
+
+	private void compileDispatch(int node, PatternGroup choice, FirstSets firstSets) {
+		int[] alternatives = children[node];
+		CodePointSet[] firsts = new CodePointSet[alternatives.length];
+		boolean[] nullable = new boolean[alternatives.length];
+		for (int i = 0; i < alternatives.length; i++) {
+			firsts[i] = firstSets.getFirst(choice.getChild(i));
+			nullable[i] = firstSets.isNullable(choice.getChild(i));
+		}
+		CodePointPartition partition = new CodePointPartition(firsts);
+		BitSet[] classes = new BitSet[alternatives.length];
+		for (int i = 0; i < alternatives.length; i++)
+			classes[i] = partition.getSetClasses(i);
+		int[][] table = new int[partition.getClassCount()][];
+		IntegerList viable = new IntegerList();
+		for (int c = 0; c < table.length; c++) {
+			viable.clear();
+			for (int i = 0; i < alternatives.length; i++) {
+				if (nullable[i] || classes[i].get(c))
+					viable.add(alternatives[i]);
+			}
+			table[c] = viable.toArray();
+		}
+		viable.clear();
+		for (int i = 0; i < alternatives.length; i++) {
+			if (nullable[i])
+				viable.add(alternatives[i]);
+		}
+		dispatchClasses[node] = partition;
+		dispatch[node] = table;
+		eofDispatch[node] = viable.toArray();
+	}
+
+	/**
+	 * Parses the start of the input with a rule
+	 * @param ruleName the name of the rule
+	 * @param input the input
+	 * @return the offset after the match, or -1 if the rule did not match
+	 */
+	public int parse(String ruleName, CharSequence input) {
+		return parse(grammar.getRuleId(ruleName), input, 0);
+	}
+
+	/**
+	 * Parses the input with a rule
+	 * @param ruleId the id of the rule
+	 * @param input the input
+	 * @param offset the offset at which the rule must match
+	 * @return the offset after the match, or -1 if the rule did not match
+	 */
+	public int parse(int ruleId, CharSequence input, int offset) {
+		begin(input);
+		try {
+			return match(ruleNodes[ruleId], offset);
+		}
+		finally {
+			this.input = null;
+		}
+	}
+
+	private void begin(CharSequence input) {
+		this.input = input;
+		this.length = input.length();
+		memo.clear();
+		Arrays.fill(active, -1);
+		Arrays.fill(cycleActive, -1);
+	}
+
+	/**
+	 * Parses the start of the input with a rule and records the parse tree
+	 * @param ruleName the name of the rule
+	 * @param input the input
+	 * @param log the log to record the tree in (it is cleared first)
+	 * @return the offset after the match, or -1 if the rule did not match (in which case the log is left empty)
+	 */
+	public int parse(String ruleName, CharSequence input, ParseLog log) {
+		return parse(grammar.getRuleId(ruleName), input, 0, log);
+	}
+
+	/**
+	 * Parses the input with a rule and records the parse tree.
+	 * The input is recognized first and the tree is then recorded by replaying the successful path only, guided by the memo table,
+	 * so backtracking never records (and then discards) events. With a reused log the parse does not allocate.
+	 * @param ruleId the id of the rule
+	 * @param input the input
+	 * @param offset the offset at which the rule must match
+	 * @param log the log to record the tree in (it is cleared first)
+	 * @return the offset after the match, or -1 if the rule did not match (in which case the log is left empty)
+	 */
+	public int parse(int ruleId, CharSequence input, int offset, ParseLog log) {
+		begin(input);
+		log.clear();
+		reused = 0;
+		evaluated = 0;
+		try {
+			int node = ruleNodes[ruleId];
+			int end = match(node, offset);
+			if (end != -1)
+				replay(node, offset, log);
+			return end;
+		}
+		finally {
+			this.input = null;
+		}
+	}
+
+	/**
+	 * Parses an edited input again, reusing what it can of the tree of the input before the edit.
+	 * A rule matched in the previous tree is reused as it was (shifted past the edit if it follows it) without being parsed again
+	 * if everything it looked at to match, up to its extent, is untouched by the edit;
+	 * so only the rules whose extent overlaps the edit (the path from the root to the edit, mostly) are parsed again.
+	 * The result is the same tree a full parse of the edited input gives.
+	 * Only the number of rules evaluated is proportional to the edit, not the time: a rule parsed again still steps over each
+	 * of its reused children (looking each one up in the previous log, in logarithmic time) and the reused subtrees are copied
+	 * event by event into the new log, since it is flat; so a reparse is linear in the size of the tree, with a small constant.
+	 * @param ruleId the id of the rule the previous tree was parsed with
+	 * @param input the edited input
+	 * @param offset the offset at which the rule must match
+	 * @param previous the tree of the input before the edit (which must not be the same log as the one to record in)
+	 * @param editOffset the offset of the edit
+	 * @param removed the number of chars the edit removed
+	 * @param inserted the number of chars the edit inserted in their place
+	 * @param log the log to record the new tree in (it is cleared first)
+	 * @return the offset after the match, or -1 if the rule did not match (in which case the log is left empty)
+	 */
+	public int reparse(int ruleId, CharSequence input, int offset, ParseLog previous, int editOffset, int removed, int inserted, ParseLog log) {
+		if (previous == log)
+			throw new IllegalArgumentException("the new tree cannot be recorded in the previous tree's log");
+		if (editOffset < 0 || removed < 0 || inserted < 0 || editOffset + inserted > input.length())
+			throw new IllegalArgumentException("invalid edit of " + removed + " chars at " + editOffset + " replaced by " + inserted);
+		this.previous = previous;
+		this.editOffset = editOffset;
+		this.removed = removed;
+		this.inserted = inserted;
+		try {
+			return parse(ruleId, input, offset, log);
+		}
+		finally {
+			this.previous = null;
+		}
+	}
+
+	/**
+	 * @return the number of subtrees reused by the last parse (see reparse())
+	 */
+	public int getReused() {
+		return reused;
+	}
+
+	// the index of the event of the previous tree which can stand for the rule at the position, or -1
+	int reusable(int rule, int position) {
+		// (the tree of a rule on a cycle of left recursion depends on the rules it was reached from, it is always parsed again)
+		if (previous == null || cycles[rule] != -1)
+			return -1;
+		if (position <= editOffset) {
+			// before the edit, if it looked no further than the edit
+			int i = previous.find(rule, position);
+			if (i != -1 && previous.getExtent(i) <= editOffset) {
+				reuseShift = 0;
+				return i;
+			}
+		}
+		if (position >= editOffset + inserted) {
+			// after the edit
+			int shift = inserted - removed;
+			int i = previous.find(rule, position - shift);
+			if (i != -1) {
+				reuseShift = shift;
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the memo table, whose statistics describe the last parse
+	 */
+	public MemoTable getMemo() {
+		return memo;
+	}
+
+	// returns the offset after the match, or -1
+	int match(int node, int position) {
+		int rule = ruleIds[node];
+		if (rule == -1)
+			return matchNode(node, position);
+		// positions never decrease inwards, so a rule can only reach itself at the position it is innermost at
+		if (active[rule] == position)
+			return MemoTable.FAILED;
+		if (isDependent(rule, position)) // not memoized
+			return evaluate(node, rule, position);
+		int result = memo.get(rule, position);
+		if (result != MemoTable.MISSING) {
+			examine(memo.getLastExtent());
+			return result;
+		}
+		int outer = examined;
+		int i = reusable(rule, position);
+		int extent;
+		if (i != -1) {
+			result = previous.getEnd(i) + reuseShift;
+			extent = previous.getExtent(i) + reuseShift;
+		}
+		else {
+			examined = position;
+			result = evaluate(node, rule, position);
+			extent = Math.max(examined, result);
+		}
+		memo.put(rule, position, result, extent);
+		examined = Math.max(outer, extent);
+		return result;
+	}
+
+	// true where another rule on the cycle of the rule is being matched at the position, which the result depends on
+	private boolean isDependent(int rule, int position) {
+		int cycle = cycles[rule];
+		return cycle != -1 && cycleActive[cycle] == position;
+	}
+
+	// matches a rule, marked active
+	private int evaluate(int node, int rule, int position) {
+		evaluated++;
+		int cycle = cycles[rule];
+		int outerActive = active[rule];
+		active[rule] = position;
+		if (cycle == -1) {
+			int result = matchNode(node, position);
+			active[rule] = outerActive;
+			return result;
+		}
+		int outerCycleActive = cycleActive[cycle];
+		cycleActive[cycle] = position;
+		int result = matchNode(node, position);
+		cycleActive[cycle] = outerCycleActive;
+		active[rule] = outerActive;
+		return result;
+	}
+
+	private void examine(int extent) {
+		if (extent > examined)
+			examined = extent;
+	}
+
+	int matchNode(int node, int position) {
+		switch (kinds[node]) {
+		case KIND_CODEPOINTS: {
+			if (position >= length) {
+				examine(position + 1); // the end of input is only the end until something is inserted there
+				return -1;
+			}
+			int cp = Character.codePointAt(input, position);
+			examine(position + Character.charCount(cp));
+			return matchers[node].contains(cp) ? position + Character.charCount(cp) : -1;
+		}
+		case KIND_SEQUENCE: {
+			int[] c = children[node];
+			for (int i = 0; i < c.length && position != -1; i++)
+				position = match(c[i], position);
+			return position;
+		}
+		case KIND_CHOICE: {
+			int[] c;
+			if (position >= length) {
+				examine(position + 1);
+				c = eofDispatch[node];
+			}
+			else {
+				int cp = Character.codePointAt(input, position);
+				examine(position + Character.charCount(cp));
+				c = dispatch[node][dispatchClasses[node].classOf(cp)];
+			}
+			for (int i = 0; i < c.length; i++) {
+				int end = match(c[i], position);
+				if (end != -1)
+					return end;
+			}
+			return -1;
+		}
+		default: {
+			int child = children[node][0];
+			int min = mins[node], max = maxes[node];
+			if (isSpan(node))
+				return span(child, position, min);
+			int count = 0;
+			while (count < max) {
+				int end = match(child, position);
+				if (end == -1)
+					break;
+				count++;
+				if (end == position) // no progress, any further repetitions would match the same empty input
+					return position;
+				position = end;
+			}
+			return count >= min ? position : -1;
+		}
+		}
+	}
+
+	// true for an unbounded repetition of an anonymous code point set, which is matched in bulk
+	boolean isSpan(int node) {
+		int child = children[node][0];
+		return maxes[node] == PatternRef.UNBOUNDED && kinds[child] == KIND_CODEPOINTS && ruleIds[child] == -1;
+	}
+
+	int span(int child, int position, int min) {
+		int end = matchers[child].span(input, position);
+		examine(end < length ? end + Character.charCount(Character.codePointAt(input, end)) : end + 1);
+		if (end == position ? min > 0 : min > 1 && Character.codePointCount(input, position, end) < min)
+			return -1;
+		return end;
+	}
+
+	// records the events of a node which is known to match at the position, returns its end
+	int replay(int node, int position, ParseLog log) {
+		int rule = ruleIds[node];
+		if (rule == -1)
+			return replayNode(node, position, log);
+		int i = reusable(rule, position);
+		if (i != -1) {
+			log.copy(previous, i, reuseShift);
+			reused++;
+			return previous.getEnd(i) + reuseShift;
+		}
+		int result = isDependent(rule, position) ? MemoTable.MISSING : memo.get(rule, position);
+		int extent;
+		if (result == MemoTable.MISSING) {
+			// evicted since it was recognized (or not memoized), match it again for its extent
+			examined = position;
+			result = match(node, position);
+			extent = Math.max(examined, result);
+		}
+		else {
+			extent = memo.getLastExtent();
+		}
+		// mark the rule active again, so that it fails where it reaches itself, as it did when it was recognized
+		int cycle = cycles[rule];
+		int outerActive = active[rule];
+		int outerCycleActive = cycle == -1 ? -1 : cycleActive[cycle];
+		active[rule] = position;
+		if (cycle != -1)
+			cycleActive[cycle] = position;
+		int index = log.open(rule, position);
+		int end = replayNode(node, position, log);
+		log.close(index, end, extent);
+		active[rule] = outerActive;
+		if (cycle != -1)
+			cycleActive[cycle] = outerCycleActive;
+		return end;
+	}
+
+	int replayNode(int node, int position, ParseLog log) {
+		switch (kinds[node]) {
+		case KIND_CODEPOINTS:
+			return matchNode(node, position);
+		case KIND_SEQUENCE: {
+			int[] c = children[node];
+			for (int i = 0; i < c.length; i++)
+				position = replay(c[i], position, log);
+			return position;
+		}
+		case KIND_CHOICE: {
+			int[] c;
+			if (position >= length)
+				c = eofDispatch[node];
+			else
+				c = dispatch[node][dispatchClasses[node].classOf(Character.codePointAt(input, position))];
+			for (int i = 0; i < c.length; i++) {
+				if (match(c[i], position) != -1)
+					return replay(c[i], position, log);
+			}
+			return -1;
+		}
+		default: {
+			if (isSpan(node))
+				return matchNode(node, position);
+			int child = children[node][0];
+			int max = maxes[node];
+			for (int count = 0; count < max; count++) {
+				if (match(child, position) == -1)
+					break;
+				int end = replay(child, position, log);
+				if (end == position)
+					break;
+				position = end;
+			}
+			return position;
+		}
+		}
+	}
+
+	// assigns every reachable pattern a node index
+	static final class Compiler {
+		final Grammar grammar;
+		final IdentityHashMap<Pattern, Integer> nodes = new IdentityHashMap<Pattern, Integer>();
+		final ArrayList<Pattern> patterns = new ArrayList<Pattern>();
+		final IntegerList kinds = new IntegerList();
+		final IntegerList mins = new IntegerList();
+		final IntegerList maxes = new IntegerList();
+		final IntegerList ruleIds = new IntegerList();
+		final ArrayList<int[]> children = new ArrayList<int[]>();
+		final ArrayList<CodePointMatcher> matchers = new ArrayList<CodePointMatcher>();
+
+		Compiler(Grammar grammar) {
+			this.grammar = grammar;
+			for (int i = 0; i < grammar.getRuleCount(); i++)
+				node(grammar.getRule(i));
+		}
+
+		int node(Pattern pattern) {
+			Integer index = nodes.get(pattern);
+			if (index != null)
+				return index;
+			index = patterns.size();
+			nodes.put(pattern, index);
+			patterns.add(pattern);
+			ruleIds.add(grammar.getRuleId(pattern));
+			children.add(null);
+			matchers.add(null);
+			if (pattern instanceof StaticCodePoint) {
+				kinds.add(KIND_CODEPOINTS);
+				mins.add(1);
+				maxes.add(1);
+				matchers.set(index, ((StaticCodePoint)pattern).getCodePoints().matcher());
+			}
+			else if (pattern instanceof PatternRef) {
+				PatternRef ref = (PatternRef)pattern;
+				kinds.add(KIND_REF);
+				mins.add(ref.getMin());
+				maxes.add(ref.getMax());
+				children.set(index, new int[] {node(ref.getPattern())});
+			}
+			else if (pattern instanceof Sequence || pattern instanceof Choice) {
+				PatternGroup group = (PatternGroup)pattern;
+				kinds.add(pattern instanceof Sequence ? KIND_SEQUENCE : KIND_CHOICE);
+				mins.add(1);
+				maxes.add(1);
+				int[] c = new int[group.getChildCount()];
+				children.set(index, c);
+				for (int i = 0; i < c.length; i++)
+					c[i] = node(group.getChild(i));
+			}
+			else {
+				throw new IllegalArgumentException("pattern " + pattern + " (" + pattern.getClass().getSimpleName() + ") is not supported by the packrat parser");
+			}
+			return index;
+		}
+	}
+}
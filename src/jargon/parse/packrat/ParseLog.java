@@ -0,0 +1,222 @@
+package jargon.parse.packrat;
+
+import warrenfalk.util.IntegerList;
+
+/**
+ * A parse tree as a flat log of events, one per matched rule, in pre-order (each rule before the rules it contains).
+ * Every event records the rule id, the start and end offsets of the match, its extent (the offset after the last code point
+ * the parser looked at to match it, which is at least the end), the index of its parent and the size of its subtree,
+ * in parallel IntegerLists, so the descendants of event i are the events from i + 1 to i + getSubtreeSize(i) - 1.
+ * Since a rule starts no earlier than the rule containing it and no earlier than the end of the rule before it,
+ * the starts never decrease along the log, which is what lets find() search it without an index.
+ * The lists keep their capacity when the log is cleared, so a log reused between parses stops allocating once it has grown
+ * to the size of the largest tree. Use a Cursor to walk the tree.
+ * @author Warren Falk
+ *
+ */
+public final class ParseLog {
+	final IntegerList rules = new IntegerList();
+	final IntegerList starts = new IntegerList();
+	final IntegerList ends = new IntegerList();
+	final IntegerList extents = new IntegerList();
+	final IntegerList parents = new IntegerList();
+	final IntegerList sizes = new IntegerList();
+	int open = -1; // the innermost event not yet closed
+
+	public void clear() {
+		rules.clear();
+		starts.clear();
+		ends.clear();
+		extents.clear();
+		parents.clear();
+		sizes.clear();
+		open = -1;
+	}
+
+	// adds an event whose end is not yet known, inside the currently open one
+	int open(int rule, int start) {
+		int index = rules.size();
+		rules.add(rule);
+		starts.add(start);
+		ends.add(-1);
+		extents.add(-1);
+		parents.add(open);
+		sizes.add(1);
+		open = index;
+		return index;
+	}
+
+	void close(int index, int end, int extent) {
+		ends.set(index, end);
+		extents.set(index, extent);
+		sizes.set(index, rules.size() - index);
+		open = parents.get(index);
+	}
+
+	// appends a copy of the subtree of an event of another log inside the currently open event, with its offsets shifted
+	void copy(ParseLog from, int index, int shift) {
+		int base = rules.size() - index;
+		int size = from.sizes.get(index);
+		for (int i = index; i < index + size; i++) {
+			rules.add(from.rules.get(i));
+			starts.add(from.starts.get(i) + shift);
+			ends.add(from.ends.get(i) + shift);
+			extents.add(from.extents.get(i) + shift);
+			parents.add(i == index ? open : from.parents.get(i) + base);
+			sizes.add(from.sizes.get(i));
+		}
+	}
+
+	/**
+	 * Finds the event of a rule at a start offset, by binary search on the start and then a scan of the events
+	 * starting there (as many as rules nest at that offset)
+	 * @param rule the rule id
+	 * @param start the start offset
+	 * @return the index of the (outermost) event, or -1 if there is none
+	 */
+	public int find(int rule, int start) {
+		int low = 0, high = rules.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (starts.get(middle) < start)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		for (int i = low; i < rules.size() && starts.get(i) == start; i++) {
+			if (rules.get(i) == rule)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of events
+	 */
+	public int size() {
+		return rules.size();
+	}
+
+	public int getRule(int index) {
+		return rules.get(index);
+	}
+
+	public int getStart(int index) {
+		return starts.get(index);
+	}
+
+	public int getEnd(int index) {
+		return ends.get(index);
+	}
+
+	/**
+	 * @param index an event
+	 * @return the offset after the last code point looked at to match the event
+	 */
+	public int getExtent(int index) {
+		return extents.get(index);
+	}
+
+	/**
+	 * @param index an event
+	 * @return the index of the event's parent, or -1 for the root
+	 */
+	public int getParent(int index) {
+		return parents.get(index);
+	}
+
+	/**
+	 * @param index an event
+	 * @return the number of events in the subtree of the event, including itself
+	 */
+	public int getSubtreeSize(int index) {
+		return sizes.get(index);
+	}
+
+	/**
+	 * Walks the tree of a log without allocating; one cursor may be reused for any number of walks.
+	 * A cursor is valid while it is on an event; the navigation methods return false (and leave the cursor where it is)
+	 * when there is no event to move to.
+	 */
+	public static final class Cursor {
+		final ParseLog log;
+		int index;
+
+		public Cursor(ParseLog log) {
+			this.log = log;
+			reset();
+		}
+
+		/**
+		 * Moves to the root event (or makes the cursor invalid if the log is empty)
+		 */
+		public void reset() {
+			index = log.size() == 0 ? -1 : 0;
+		}
+
+		public boolean isValid() {
+			return index >= 0 && index < log.size();
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public int getRule() {
+			return log.rules.get(index);
+		}
+
+		public int getStart() {
+			return log.starts.get(index);
+		}
+
+		public int getEnd() {
+			return log.ends.get(index);
+		}
+
+		/**
+		 * @return the depth of the current event (0 for the root)
+		 */
+		public int getDepth() {
+			int depth = 0;
+			for (int i = log.parents.get(index); i != -1; i = log.parents.get(i))
+				depth++;
+			return depth;
+		}
+
+		public boolean firstChild() {
+			if (log.sizes.get(index) == 1)
+				return false;
+			index++;
+			return true;
+		}
+
+		public boolean nextSibling() {
+			int next = index + log.sizes.get(index);
+			int parent = log.parents.get(index);
+			int limit = parent == -1 ? log.size() : parent + log.sizes.get(parent);
+			if (next >= limit)
+				return false;
+			index = next;
+			return true;
+		}
+
+		public boolean parent() {
+			int parent = log.parents.get(index);
+			if (parent == -1)
+				return false;
+			index = parent;
+			return true;
+		}
+
+		/**
+		 * Moves to the next event in pre-order (the first child, or else the next sibling of this event or of its nearest ancestor which has one)
+		 */
+		public boolean next() {
+			if (index + 1 >= log.size())
+				return false;
+			index++;
+			return true;
+		}
+	}
+}
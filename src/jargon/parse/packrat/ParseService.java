@@ -0,0 +1,205 @@
+package jargon.parse.packrat;
+
+import jargon.parse.reflect.Grammar;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Parses many documents with one grammar on a fixed pool of threads.
+ * The compiled grammar is shared by every thread (see PackratParser.duplicate()); the mutable state of a parse
+ * (the parser with its memo table, and the log of the tree) is kept per thread and reused for every document the thread parses,
+ * so parsing a document allocates nothing.
+ * The queue of waiting work is bounded: when it is full, the thread which submits more work runs it itself,
+ * which slows a producer down to the rate at which documents are parsed.
+ * @author Warren Falk
+ *
+ */
+public final class ParseService implements Closeable {
+	public static final int DEFAULT_QUEUE = 1024;
+
+	/**
+	 * Receives the tree of each document parsed by parseAll()
+	 */
+	public interface Listener {
+		/**
+		 * Called on the thread which parsed the document, possibly at the same time as for other documents
+		 * @param index the index of the document in the batch
+		 * @param input the document
+		 * @param end the offset after the match, or -1 if the rule did not match
+		 * @param log the tree (which belongs to the thread, and is reused once this returns)
+		 */
+		void parsed(int index, CharSequence input, int end, ParseLog log);
+	}
+
+	final PackratParser prototype;
+	final int threads;
+	final ThreadPoolExecutor executor;
+	final AtomicLong callerRuns = new AtomicLong();
+	final ThreadLocal<PackratParser> parsers = new ThreadLocal<PackratParser>() {
+		@Override
+		protected PackratParser initialValue() {
+			return prototype.duplicate();
+		}
+	};
+	final ThreadLocal<ParseLog> logs = new ThreadLocal<ParseLog>() {
+		@Override
+		protected ParseLog initialValue() {
+			return new ParseLog();
+		}
+	};
+
+	public ParseService(Grammar grammar) {
+		this(new PackratParser(grammar), Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE);
+	}
+
+	/**
+	 * @param prototype a parser of the grammar, whose compiled grammar and memo table size every thread's parser has
+	 * (the prototype itself is not used to parse)
+	 * @param threads the number of threads
+	 * @param queueCapacity the number of tasks which may wait for a thread
+	 */
+	public ParseService(PackratParser prototype, int threads, int queueCapacity) {
+		if (threads < 1 || queueCapacity < 1)
+			throw new IllegalArgumentException("threads and queue capacity must be positive");
+		this.prototype = prototype;
+		this.threads = threads;
+		final AtomicInteger count = new AtomicInteger();
+		ThreadFactory factory = new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "jargon-parse-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		RejectedExecutionHandler callerRuns = new ThreadPoolExecutor.CallerRunsPolicy() {
+			@Override
+			public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+				if (e.isShutdown())
+					throw new RejectedExecutionException("the parse service is closed");
+				ParseService.this.callerRuns.incrementAndGet();
+				super.rejectedExecution(r, e);
+			}
+		};
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity), factory, callerRuns);
+	}
+
+	public Grammar getGrammar() {
+		return prototype.grammar;
+	}
+
+	/**
+	 * @return the number of tasks which the submitting thread ran itself because the queue was full
+	 */
+	public long getCallerRuns() {
+		return callerRuns.get();
+	}
+
+	/**
+	 * Parses one document (for a stream of documents, submitted one at a time)
+	 * @param ruleId the id of the rule
+	 * @param input the document
+	 * @return the offset after the match, or -1 if the rule did not match
+	 * @throws RejectedExecutionException if the service is closed
+	 */
+	public Future<Integer> submit(final int ruleId, final CharSequence input) {
+		return executor.submit(new Callable<Integer>() {
+			public Integer call() {
+				return parsers.get().parse(ruleId, input, 0);
+			}
+		});
+	}
+
+	/**
+	 * Parses a batch of documents, each from its start
+	 * @param ruleName the name of the rule
+	 * @param inputs the documents
+	 * @return the offset after the match in each document, or -1 where the rule did not match
+	 */
+	public int[] parseAll(String ruleName, List<? extends CharSequence> inputs) throws InterruptedException {
+		return parseAll(ruleName, inputs, null);
+	}
+
+	/**
+	 * Parses a batch of documents, each from its start, in slices of consecutive documents (a few per thread)
+	 * @param ruleName the name of the rule
+	 * @param inputs the documents
+	 * @param listener receives the tree of each document, or null if only the ends are wanted
+	 * @return the offset after the match in each document, or -1 where the rule did not match
+	 * @throws RejectedExecutionException if the service is closed
+	 */
+	public int[] parseAll(String ruleName, final List<? extends CharSequence> inputs, final Listener listener) throws InterruptedException {
+		final int ruleId = prototype.grammar.getRuleId(ruleName);
+		final int[] ends = new int[inputs.size()];
+		int slice = Math.max(1, inputs.size() / (threads * 4));
+		int slices = (inputs.size() + slice - 1) / slice;
+		final CountDownLatch done = new CountDownLatch(slices);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		for (int s = 0; s < slices; s++) {
+			final int from = s * slice;
+			final int to = Math.min(inputs.size(), from + slice);
+			Runnable task = new Runnable() {
+				public void run() {
+					try {
+						PackratParser parser = parsers.get();
+						ParseLog log = listener == null ? null : logs.get();
+						for (int i = from; i < to && failure.get() == null; i++) {
+							CharSequence input = inputs.get(i);
+							if (log == null) {
+								ends[i] = parser.parse(ruleId, input, 0);
+							}
+							else {
+								ends[i] = parser.parse(ruleId, input, 0, log);
+								listener.parsed(i, input, ends[i], log);
+							}
+						}
+					}
+					catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					}
+					finally {
+						done.countDown();
+					}
+				}
+			};
+			try {
+				executor.execute(task);
+			}
+			catch (RejectedExecutionException e) {
+				// the slices already running still count down, let them finish first
+				for (int r = s; r < slices; r++)
+					done.countDown();
+				done.await();
+				throw e;
+			}
+		}
+		done.await();
+		Throwable cause = failure.get();
+		if (cause instanceof RuntimeException)
+			throw (RuntimeException)cause;
+		if (cause instanceof Error)
+			throw (Error)cause;
+		if (cause != null)
+			throw new IllegalStateException(cause);
+		return ends;
+	}
+
+	/**
+	 * Stops the threads once the work already submitted is done
+	 */
+	public void close() {
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,654 @@
+package jargon.parse.packrat;
+
+import jargon.parse.CodePointMatcher;
+import jargon.parse.CodePointPartition;
+import jargon.parse.CodePointSet;
+import jargon.parse.packrat.ClassWriter.Code;
+import jargon.parse.reflect.FirstSets;
+import jargon.parse.reflect.Grammar;
+import jargon.parse.reflect.PatternRef;
+import jargon.parse.reflect.StaticCodePoint;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import warrenfalk.util.IntegerList;
+
+/**
+ * Generates a GeneratedParser for a grammar as a class of its own, written as bytecode and defined by a new class loader
+ * (so that it can be collected with its parser).
+ * The grammar is compiled into nodes as PackratParser compiles it, and each node becomes a method:
+ * a code point set of a few ranges is compared inline (larger ones use a CodePointMatcher),
+ * a sequence calls its children in turn, a choice switches (tableswitch) on the dispatch class of the next code point
+ * to the alternatives which can match it, and a repetition loops (or spans, as PackratParser does).
+ * A rule which can be called again at the same position has a second method which memoizes it, as PackratParser does
+ * (see GeneratedParser.enter()), so that no rule is matched twice at a position however much the grammar backtracks:
+ * where a choice backtracks to an alternative which reaches it too, or where a child of a sequence or an iteration of a repetition
+ * called it at or past its own end (in an optional part, or a last iteration which failed) and what follows can call it there.
+ * So is a rule on a cycle of left recursion, which must fail where it reaches itself at the same position.
+ * Other rules are not memoized, since no result of theirs would be used again; in a grammar like arithmetic,
+ * whose repetitions stop at an operator which nothing after them starts with, that is every rule.
+ * @author Warren Falk
+ *
+ */
+public final class ParserGenerator {
+	static final int MAX_INLINE_RANGES = 4;
+
+	static final String SUPER = "jargon/parse/packrat/GeneratedParser";
+	static final String CONSTRUCTOR = "(Ljargon/parse/reflect/Grammar;[Ljargon/parse/CodePointMatcher;[Ljargon/parse/CodePointPartition;[ILjargon/parse/packrat/MemoTable;)V";
+	static final String NODE = "(Ljava/lang/CharSequence;I)I";
+	static final String MATCHER = "jargon/parse/CodePointMatcher";
+	static final String PARTITION = "jargon/parse/CodePointPartition";
+	static final AtomicInteger classes = new AtomicInteger();
+
+	// locals of the node methods
+	static final int THIS = 0;
+	static final int INPUT = 1;
+	static final int POSITION = 2;
+	static final int VALUE = 3;
+	static final int COUNT = 4;
+
+	final PackratParser nodes;
+	final PackratParser.Compiler patterns;
+	final ClassWriter cw;
+	final boolean[] memoized; // for each rule
+
+	private ParserGenerator(Grammar grammar, String name) {
+		this.nodes = new PackratParser(grammar, 0, 0);
+		this.patterns = new PackratParser.Compiler(grammar);
+		this.cw = new ClassWriter(name, SUPER);
+		this.memoized = findMemoized();
+	}
+
+	// the rules which can be called more than once at a position, and those on cycles of left recursion.
+	// Two calls of a rule at a position have a nearest common caller: a choice (two alternatives tried at the same position),
+	// or a sequence or repetition (a child or an iteration, then one after it); in the second case the first call was made
+	// at or past the end of the child that made it, which is what the "late" sets below approximate
+	private boolean[] findMemoized() {
+		boolean[] memoized = new boolean[nodes.ruleNodes.length];
+		for (int r = 0; r < memoized.length; r++)
+			memoized[r] = nodes.cycles[r] != -1;
+		int count = nodes.kinds.length;
+		boolean[] nullable = nodes.nullable();
+		FirstSets firstSets = new FirstSets(nodes.grammar);
+		CodePointSet[] firsts = new CodePointSet[count];
+		for (int node = 0; node < count; node++)
+			firsts[node] = firstSets.getFirst(patterns.patterns.get(node));
+		HashMap<Integer, BitSet> reaches = new HashMap<Integer, BitSet>();
+		BitSet[] entries = entries(nullable);
+		Late[] lates = lates(nullable, firsts, entries, reaches);
+		for (int node = 0; node < count; node++) {
+			int[] c = nodes.children[node];
+			if (nodes.kinds[node] == PackratParser.KIND_CHOICE) {
+				// the alternatives tried one after another at the same position
+				for (int[] alternatives : nodes.dispatch[node]) {
+					for (int i = 0; i < alternatives.length; i++)
+						markShared(alternatives, i, reaches, memoized);
+				}
+				for (int i = 0; i < nodes.eofDispatch[node].length; i++)
+					markShared(nodes.eofDispatch[node], i, reaches, memoized);
+			}
+			else if (nodes.kinds[node] == PackratParser.KIND_SEQUENCE) {
+				// a child and the children after it
+				BitSet entry = new BitSet(), reach = new BitSet();
+				CodePointSet first = CodePointSet.NONE;
+				for (int i = c.length - 1; i >= 0; i--) {
+					if (i < c.length - 1)
+						markLate(lates[c[i]], entry, reach, first, memoized);
+					if (!nullable[c[i]]) {
+						entry = new BitSet();
+						first = CodePointSet.NONE;
+					}
+					entry.or(entries[c[i]]);
+					reach.or(reach(c[i], reaches));
+					first = first.union(firsts[c[i]]);
+				}
+			}
+			else if (nodes.kinds[node] == PackratParser.KIND_REF && nodes.maxes[node] > 1) {
+				// an iteration and the ones after it
+				markLate(lates[c[0]], entries[c[0]], reach(c[0], reaches), firsts[c[0]], memoized);
+			}
+		}
+		return memoized;
+	}
+
+	// the rules a node can call at the position it starts at, before it consumes anything
+	private BitSet[] entries(boolean[] nullable) {
+		int count = nodes.kinds.length;
+		BitSet[] entries = new BitSet[count];
+		for (int node = 0; node < count; node++) {
+			entries[node] = new BitSet();
+			if (nodes.ruleIds[node] != -1)
+				entries[node].set(nodes.ruleIds[node]);
+		}
+		for (boolean changed = true; changed;) {
+			changed = false;
+			for (int node = 0; node < count; node++) {
+				if (nodes.kinds[node] == PackratParser.KIND_CODEPOINTS)
+					continue;
+				BitSet entry = (BitSet)entries[node].clone();
+				for (int child : nodes.children[node]) {
+					entry.or(entries[child]);
+					if (nodes.kinds[node] == PackratParser.KIND_SEQUENCE && !nullable[child])
+						break;
+				}
+				if (!entry.equals(entries[node])) {
+					entries[node] = entry;
+					changed = true;
+				}
+			}
+		}
+		return entries;
+	}
+
+	// the rules a node which matched can have called at or past the position it ended at
+	static final class Late {
+		final BitSet at = new BitSet(); // at the end
+		final BitSet past = new BitSet(); // past the end, having consumed a code point of "first" there
+		CodePointSet first = CodePointSet.NONE;
+		final BitSet any = new BitSet(); // at or past the end
+
+		// adds what a child ending where the node ends, unless the nodes after it consume (a code point of "next"), called late
+		void add(Late child, boolean restNullable, CodePointSet next) {
+			any.or(child.any);
+			if (restNullable)
+				at.or(child.at);
+			if (!child.past.isEmpty()) {
+				if (intersects(child.first, next))
+					any.or(child.past);
+				else if (restNullable) {
+					past.or(child.past);
+					first = first.union(child.first);
+				}
+			}
+		}
+
+		boolean same(Late other) {
+			return at.equals(other.at) && past.equals(other.past) && first.equals(other.first) && any.equals(other.any);
+		}
+	}
+
+	private Late[] lates(boolean[] nullable, CodePointSet[] firsts, BitSet[] entries, HashMap<Integer, BitSet> reaches) {
+		int count = nodes.kinds.length;
+		Late[] lates = new Late[count];
+		for (int node = 0; node < count; node++)
+			lates[node] = new Late();
+		for (boolean changed = true; changed;) {
+			changed = false;
+			for (int node = 0; node < count; node++) {
+				int[] c = nodes.children[node];
+				Late late = new Late();
+				if (nodes.ruleIds[node] != -1 && nullable[node])
+					late.at.set(nodes.ruleIds[node]);
+				if (nodes.kinds[node] == PackratParser.KIND_SEQUENCE) {
+					boolean restNullable = true;
+					CodePointSet next = CodePointSet.NONE;
+					for (int i = c.length - 1; i >= 0; i--) {
+						late.add(lates[c[i]], restNullable, next);
+						if (!nullable[c[i]]) {
+							restNullable = false;
+							next = CodePointSet.NONE;
+						}
+						next = next.union(firsts[c[i]]);
+					}
+				}
+				else if (nodes.kinds[node] == PackratParser.KIND_CHOICE) {
+					for (int alternative : c)
+						late.add(lates[alternative], true, CodePointSet.NONE);
+					// an alternative which failed before another matched may have looked anywhere
+					for (int[] alternatives : nodes.dispatch[node]) {
+						for (int i = 0; i < alternatives.length - 1; i++)
+							late.any.or(reach(alternatives[i], reaches));
+					}
+					for (int i = 0; i < nodes.eofDispatch[node].length - 1; i++)
+						late.any.or(reach(nodes.eofDispatch[node][i], reaches));
+				}
+				else if (nodes.kinds[node] == PackratParser.KIND_REF) {
+					// an iteration followed by others, and the attempt at another which failed (unless there were as many as can be)
+					late.add(lates[c[0]], true, firsts[c[0]]);
+					if (nodes.mins[node] < nodes.maxes[node]) {
+						late.at.or(entries[c[0]]);
+						late.past.or(reach(c[0], reaches));
+						late.first = late.first.union(firsts[c[0]]);
+					}
+				}
+				// (keeping what earlier rounds found, so that a late call moved from "past" to "any" cannot make the rounds go back and forth)
+				late.add(lates[node], true, CodePointSet.NONE);
+				if (!late.same(lates[node])) {
+					lates[node] = late;
+					changed = true;
+				}
+			}
+		}
+		return lates;
+	}
+
+	// marks the rules which a node called late and the nodes after it (which call "entry" where they start,
+	// "reach" anywhere, and consume a code point of "first" first) can call at the same position
+	private static void markLate(Late late, BitSet entry, BitSet reach, CodePointSet first, boolean[] memoized) {
+		BitSet shared = (BitSet)late.any.clone();
+		shared.and(reach);
+		BitSet at = (BitSet)late.at.clone();
+		at.and(entry);
+		shared.or(at);
+		if (intersects(late.first, first)) {
+			BitSet past = (BitSet)late.past.clone();
+			past.and(reach);
+			shared.or(past);
+		}
+		for (int r = shared.nextSetBit(0); r != -1; r = shared.nextSetBit(r + 1))
+			memoized[r] = true;
+	}
+
+	static boolean intersects(CodePointSet a, CodePointSet b) {
+		return !a.intersect(b).equals(CodePointSet.NONE);
+	}
+
+	// marks the rules which one of the nodes and any of those after it can reach (at any position)
+	private void markShared(int[] c, int first, HashMap<Integer, BitSet> reaches, boolean[] memoized) {
+		if (c.length - first < 2)
+			return;
+		BitSet shared = new BitSet();
+		for (int j = first + 1; j < c.length; j++)
+			shared.or(reach(c[j], reaches));
+		shared.and(reach(c[first], reaches));
+		for (int r = shared.nextSetBit(0); r != -1; r = shared.nextSetBit(r + 1))
+			memoized[r] = true;
+	}
+
+	// the rules a node reaches, at any position
+	private BitSet reach(int start, HashMap<Integer, BitSet> reaches) {
+		BitSet rules = reaches.get(start);
+		if (rules != null)
+			return rules;
+		rules = new BitSet();
+		BitSet visited = new BitSet();
+		IntegerList stack = new IntegerList();
+		stack.add(start);
+		visited.set(start);
+		while (stack.size() > 0) {
+			int node = stack.pop();
+			if (nodes.ruleIds[node] != -1)
+				rules.set(nodes.ruleIds[node]);
+			if (nodes.kinds[node] == PackratParser.KIND_CODEPOINTS)
+				continue;
+			for (int child : nodes.children[node]) {
+				if (!visited.get(child)) {
+					visited.set(child);
+					stack.add(child);
+				}
+			}
+		}
+		reaches.put(start, rules);
+		return rules;
+	}
+
+	// true for the node of a rule which is called through its memoizing method
+	private boolean isMemoized(int node) {
+		return nodes.ruleIds[node] != -1 && memoized[nodes.ruleIds[node]];
+	}
+
+	/**
+	 * Generates a parser for a grammar, with a memo table of the size PackratParser has by default
+	 * @param grammar the grammar
+	 * @return the parser (duplicate() makes more of them without generating the class again)
+	 * @throws IllegalArgumentException if the grammar has a pattern which PackratParser does not support
+	 */
+	public static GeneratedParser generate(Grammar grammar) {
+		return generate(grammar, 1 << 16, 1 << 12);
+	}
+
+	/**
+	 * Generates a parser for a grammar
+	 * @param grammar the grammar
+	 * @param capacity the number of memo entries
+	 * @param window how many chars behind the furthest position memo entries are protected from eviction
+	 * @return the parser (duplicate() makes more of them without generating the class again)
+	 * @throws IllegalArgumentException if the grammar has a pattern which PackratParser does not support
+	 */
+	public static GeneratedParser generate(Grammar grammar, int capacity, int window) {
+		String name = SUPER + "$" + classes.incrementAndGet();
+		ParserGenerator generator = new ParserGenerator(grammar, name);
+		byte[] bytes = generator.write();
+		Class<?> c = new Loader(GeneratedParser.class.getClassLoader()).define(name.replace('/', '.'), bytes);
+		try {
+			return (GeneratedParser)c.getConstructor(Grammar.class, CodePointMatcher[].class, CodePointPartition[].class, int[].class, MemoTable.class)
+					.newInstance(grammar, generator.nodes.matchers, generator.nodes.dispatchClasses, generator.nodes.cycles, new MemoTable(capacity, window));
+		}
+		catch (Exception e) {
+			throw new IllegalStateException("cannot create a parser of generated class " + c.getName(), e);
+		}
+	}
+
+	static final class Loader extends ClassLoader {
+		Loader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+
+	byte[] write() {
+		Code init = cw.new Code(6, 6);
+		for (int i = 0; i < 6; i++)
+			init.local(ClassWriter.ALOAD, i);
+		init.ref(ClassWriter.INVOKESPECIAL, cw.method(SUPER, "<init>", CONSTRUCTOR));
+		init.op(ClassWriter.RETURN);
+		cw.addMethod(ClassWriter.ACC_PUBLIC, "<init>", CONSTRUCTOR, init);
+		writeRule();
+		for (int node = 0; node < nodes.kinds.length; node++) {
+			if (target(node) != node)
+				continue;
+			cw.addMethod(ClassWriter.ACC_PRIVATE | ClassWriter.ACC_FINAL, "m" + node, NODE, writeNode(node));
+			if (nodes.ruleIds[node] != -1)
+				cw.addMethod(ClassWriter.ACC_PRIVATE | ClassWriter.ACC_FINAL, "r" + node, NODE, writeGuard(node));
+		}
+		return cw.toByteArray();
+	}
+
+	// the node to call for a node: a reference to a pattern once is the pattern itself
+	int target(int node) {
+		while (nodes.kinds[node] == PackratParser.KIND_REF && nodes.mins[node] == 1 && nodes.maxes[node] == 1)
+			node = nodes.children[node][0];
+		return node;
+	}
+
+	// calls a node at the position in local POSITION, leaving its end on the stack
+	private void call(Code code, int node) {
+		node = target(node);
+		code.local(ClassWriter.ALOAD, THIS);
+		code.local(ClassWriter.ALOAD, INPUT);
+		code.local(ClassWriter.ILOAD, POSITION);
+		code.ref(ClassWriter.INVOKESPECIAL, cw.method(cw.name, (isMemoized(node) ? "r" : "m") + node, NODE));
+	}
+
+	private void fail(Code code, int label) {
+		code.place(label);
+		code.push(-1);
+		code.op(ClassWriter.IRETURN);
+	}
+
+	// rule(ruleId, input, position) switches to the method of each rule
+	private void writeRule() {
+		Code code = cw.new Code(3, 4);
+		int failed = code.newLabel();
+		int count = nodes.ruleNodes.length;
+		if (count > 0) {
+			int[] labels = new int[count];
+			for (int r = 0; r < count; r++)
+				labels[r] = code.newLabel();
+			code.local(ClassWriter.ILOAD, 1);
+			code.tableswitch(0, labels, failed);
+			for (int r = 0; r < count; r++) {
+				code.place(labels[r]);
+				code.local(ClassWriter.ALOAD, 0);
+				code.local(ClassWriter.ALOAD, 2);
+				code.local(ClassWriter.ILOAD, 3);
+				int node = nodes.ruleNodes[r];
+				code.ref(ClassWriter.INVOKESPECIAL, cw.method(cw.name, (isMemoized(node) ? "r" : "m") + node, NODE));
+				code.op(ClassWriter.IRETURN);
+			}
+		}
+		fail(code, failed);
+		cw.addMethod(ClassWriter.ACC_PROTECTED | ClassWriter.ACC_FINAL, "rule", "(ILjava/lang/CharSequence;I)I", code);
+	}
+
+	// matches the rule between GeneratedParser.enter() and leave(), unless enter() knows the result
+	private Code writeGuard(int node) {
+		Code code = cw.new Code(4, 4);
+		int rule = nodes.ruleIds[node];
+		int known = code.newLabel();
+		code.local(ClassWriter.ALOAD, THIS);
+		code.push(rule);
+		code.local(ClassWriter.ILOAD, POSITION);
+		code.ref(ClassWriter.INVOKEVIRTUAL, cw.method(SUPER, "enter", "(II)I"));
+		code.local(ClassWriter.ISTORE, VALUE);
+		code.local(ClassWriter.ILOAD, VALUE);
+		code.push(MemoTable.MISSING);
+		code.jump(ClassWriter.IF_ICMPNE, known);
+		code.local(ClassWriter.ALOAD, THIS);
+		code.local(ClassWriter.ALOAD, THIS);
+		code.local(ClassWriter.ALOAD, INPUT);
+		code.local(ClassWriter.ILOAD, POSITION);
+		code.ref(ClassWriter.INVOKESPECIAL, cw.method(cw.name, "m" + node, NODE));
+		code.push(rule);
+		code.local(ClassWriter.ILOAD, POSITION);
+		code.ref(ClassWriter.INVOKEVIRTUAL, cw.method(SUPER, "leave", "(III)I"));
+		code.op(ClassWriter.IRETURN);
+		code.place(known);
+		code.local(ClassWriter.ILOAD, VALUE);
+		code.op(ClassWriter.IRETURN);
+		return code;
+	}
+
+	private Code writeNode(int node) {
+		Code code = cw.new Code(5, 5);
+		switch (nodes.kinds[node]) {
+		case PackratParser.KIND_CODEPOINTS:
+			writeCodePoints(code, node);
+			break;
+		case PackratParser.KIND_SEQUENCE:
+			writeSequence(code, node);
+			break;
+		case PackratParser.KIND_CHOICE:
+			writeChoice(code, node);
+			break;
+		default:
+			if (nodes.isSpan(node))
+				writeSpan(code, node);
+			else
+				writeRepeat(code, node);
+		}
+		return code;
+	}
+
+	// loads the code point at the position
+	private void codePointAt(Code code) {
+		code.local(ClassWriter.ALOAD, INPUT);
+		code.local(ClassWriter.ILOAD, POSITION);
+		code.ref(ClassWriter.INVOKESTATIC, cw.method("java/lang/Character", "codePointAt", "(Ljava/lang/CharSequence;I)I"));
+	}
+
+	// jumps to a label if the position is at the end of the input
+	private void ifEnd(Code code, int label) {
+		code.local(ClassWriter.ILOAD, POSITION);
+		code.local(ClassWriter.ALOAD, THIS);
+		code.ref(ClassWriter.GETFIELD, cw.field(SUPER, "length", "I"));
+		code.jump(ClassWriter.IF_ICMPGE, label);
+	}
+
+	private void writeCodePoints(Code code, int node) {
+		int failed = code.newLabel(), matched = code.newLabel();
+		ifEnd(code, failed);
+		codePointAt(code);
+		code.local(ClassWriter.ISTORE, VALUE);
+		int[] ranges = ranges(((StaticCodePoint)patterns.patterns.get(node)).getCodePoints());
+		if (ranges != null) {
+			// the ranges are in order, so a code point below the start of one is in none of them
+			for (int i = 0; i < ranges.length; i += 2) {
+				code.local(ClassWriter.ILOAD, VALUE);
+				code.push(ranges[i]);
+				code.jump(ClassWriter.IF_ICMPLT, failed);
+				code.local(ClassWriter.ILOAD, VALUE);
+				code.push(ranges[i + 1]);
+				code.jump(ClassWriter.IF_ICMPLT, matched);
+			}
+			code.jump(ClassWriter.GOTO, failed);
+		}
+		else {
+			code.local(ClassWriter.ALOAD, THIS);
+			code.ref(ClassWriter.GETFIELD, cw.field(SUPER, "matchers", "[L" + MATCHER + ";"));
+			code.push(node);
+			code.op(ClassWriter.AALOAD);
+			code.local(ClassWriter.ILOAD, VALUE);
+			code.ref(ClassWriter.INVOKEVIRTUAL, cw.method(MATCHER, "contains", "(I)Z"));
+			code.jump(ClassWriter.IFEQ, failed);
+		}
+		code.place(matched);
+		code.local(ClassWriter.ILOAD, POSITION);
+		code.local(ClassWriter.ILOAD, VALUE);
+		code.ref(ClassWriter.INVOKESTATIC, cw.method("java/lang/Character", "charCount", "(I)I"));
+		code.op(ClassWriter.IADD);
+		code.op(ClassWriter.IRETURN);
+		fail(code, failed);
+	}
+
+	// the ranges of a set as (start, end) pairs, or null if there are too many to compare inline
+	static int[] ranges(CodePointSet cps) {
+		CodePointSet not = CodePointSet.not(cps);
+		IntegerList ranges = new IntegerList();
+		for (int start = cps.next(0); start != -1;) {
+			if (ranges.size() == MAX_INLINE_RANGES * 2)
+				return null;
+			int end = not.next(start);
+			if (end == -1)
+				end = CodePointSet.UNICODE_END;
+			ranges.add(start);
+			ranges.add(end);
+			start = cps.next(end);
+		}
+		return ranges.toArray();
+	}
+
+	private void writeSequence(Code code, int node) {
+		int failed = code.newLabel();
+		for (int child : nodes.children[node]) {
+			call(code, child);
+			code.op(ClassWriter.DUP);
+			code.local(ClassWriter.ISTORE, POSITION);
+			code.jump(ClassWriter.IFLT, failed);
+		}
+		code.local(ClassWriter.ILOAD, POSITION);
+		code.op(ClassWriter.IRETURN);
+		fail(code, failed);
+	}
+
+	private void writeChoice(Code code, int node) {
+		int failed = code.newLabel(), matched = code.newLabel(), notEnd = code.newLabel();
+		// at the end of input, only the nullable alternatives
+		code.local(ClassWriter.ILOAD, POSITION);
+		code.local(ClassWriter.ALOAD, THIS);
+		code.ref(ClassWriter.GETFIELD, cw.field(SUPER, "length", "I"));
+		code.jump(ClassWriter.IF_ICMPLT, notEnd);
+		tryAlternatives(code, nodes.eofDispatch[node], matched);
+		code.jump(ClassWriter.GOTO, failed);
+		code.place(notEnd);
+		int[][] table = nodes.dispatch[node];
+		if (table.length > 0) {
+			code.local(ClassWriter.ALOAD, THIS);
+			code.ref(ClassWriter.GETFIELD, cw.field(SUPER, "partitions", "[L" + PARTITION + ";"));
+			code.push(node);
+			code.op(ClassWriter.AALOAD);
+			codePointAt(code);
+			code.ref(ClassWriter.INVOKEVIRTUAL, cw.method(PARTITION, "classOf", "(I)I"));
+			// classes with the same alternatives share their case
+			HashMap<String, Integer> cases = new HashMap<String, Integer>();
+			IntegerList distinct = new IntegerList();
+			int[] targets = new int[table.length];
+			for (int c = 0; c < table.length; c++) {
+				String key = Arrays.toString(table[c]);
+				Integer label = cases.get(key);
+				if (label == null) {
+					cases.put(key, label = code.newLabel());
+					distinct.add(c);
+				}
+				targets[c] = label;
+			}
+			code.tableswitch(0, targets, failed);
+			for (int i = 0; i < distinct.size(); i++) {
+				int c = distinct.get(i);
+				code.place(targets[c]);
+				tryAlternatives(code, table[c], matched);
+				code.jump(ClassWriter.GOTO, failed);
+			}
+		}
+		else {
+			code.jump(ClassWriter.GOTO, failed);
+		}
+		code.place(matched);
+		code.local(ClassWriter.ILOAD, VALUE);
+		code.op(ClassWriter.IRETURN);
+		fail(code, failed);
+	}
+
+	// calls each alternative in turn, jumping to matched (with the end in VALUE) at the first which matches
+	private void tryAlternatives(Code code, int[] alternatives, int matched) {
+		for (int alternative : alternatives) {
+			call(code, alternative);
+			code.local(ClassWriter.ISTORE, VALUE);
+			code.local(ClassWriter.ILOAD, VALUE);
+			code.jump(ClassWriter.IFGE, matched);
+		}
+	}
+
+	// an unbounded repetition of an anonymous code point set, matched in bulk as PackratParser.span() does
+	private void writeSpan(Code code, int node) {
+		int failed = code.newLabel();
+		int child = nodes.children[node][0];
+		int min = nodes.mins[node];
+		code.local(ClassWriter.ALOAD, THIS);
+		code.ref(ClassWriter.GETFIELD, cw.field(SUPER, "matchers", "[L" + MATCHER + ";"));
+		code.push(child);
+		code.op(ClassWriter.AALOAD);
+		code.local(ClassWriter.ALOAD, INPUT);
+		code.local(ClassWriter.ILOAD, POSITION);
+		code.ref(ClassWriter.INVOKEVIRTUAL, cw.method(MATCHER, "span", "(Ljava/lang/CharSequence;I)I"));
+		code.local(ClassWriter.ISTORE, VALUE);
+		if (min > 0) {
+			code.local(ClassWriter.ILOAD, VALUE);
+			code.local(ClassWriter.ILOAD, POSITION);
+			code.jump(ClassWriter.IF_ICMPEQ, failed);
+		}
+		if (min > 1) {
+			code.local(ClassWriter.ALOAD, INPUT);
+			code.local(ClassWriter.ILOAD, POSITION);
+			code.local(ClassWriter.ILOAD, VALUE);
+			code.ref(ClassWriter.INVOKESTATIC, cw.method("java/lang/Character", "codePointCount", "(Ljava/lang/CharSequence;II)I"));
+			code.push(min);
+			code.jump(ClassWriter.IF_ICMPLT, failed);
+		}
+		code.local(ClassWriter.ILOAD, VALUE);
+		code.op(ClassWriter.IRETURN);
+		fail(code, failed);
+	}
+
+	// greedy and possessive, stopping where the child matches nothing (as PackratParser.matchNode() does)
+	private void writeRepeat(Code code, int node) {
+		int failed = code.newLabel(), loop = code.newLabel(), done = code.newLabel(), stop = code.newLabel();
+		int child = nodes.children[node][0];
+		int min = nodes.mins[node], max = nodes.maxes[node];
+		code.push(0);
+		code.local(ClassWriter.ISTORE, COUNT);
+		code.place(loop);
+		if (max != PatternRef.UNBOUNDED) {
+			code.local(ClassWriter.ILOAD, COUNT);
+			code.push(max);
+			code.jump(ClassWriter.IF_ICMPGE, done);
+		}
+		call(code, child);
+		code.local(ClassWriter.ISTORE, VALUE);
+		code.local(ClassWriter.ILOAD, VALUE);
+		code.jump(ClassWriter.IFLT, done);
+		code.iinc(COUNT, 1);
+		code.local(ClassWriter.ILOAD, VALUE);
+		code.local(ClassWriter.ILOAD, POSITION);
+		code.jump(ClassWriter.IF_ICMPEQ, stop);
+		code.local(ClassWriter.ILOAD, VALUE);
+		code.local(ClassWriter.ISTORE, POSITION);
+		code.jump(ClassWriter.GOTO, loop);
+		code.place(done);
+		if (min > 0) {
+			code.local(ClassWriter.ILOAD, COUNT);
+			code.push(min);
+			code.jump(ClassWriter.IF_ICMPLT, failed);
+		}
+		code.place(stop);
+		code.local(ClassWriter.ILOAD, POSITION);
+		code.op(ClassWriter.IRETURN);
+		fail(code, failed);
+	}
+}
@@ -0,0 +1,181 @@
+package jargon.parse.pike;
+
+import java.util.Arrays;
+
+/**
+ * Matches a Program by simulating all of its threads in lockstep, one code point at a time (Pike's VM).
+ * Each list of threads is a sparse set of instructions, so an instruction runs at most once per input position,
+ * and a match costs O(input length * program size * capture slots) whatever the pattern and input,
+ * with no recursion (the epsilon transitions are followed with an explicit stack) and no allocation after construction.
+ * Threads are kept in priority order, so when a thread matches, the threads after it are dropped and the match is the one
+ * a backtracking matcher would find first.
+ * A PikeVm is not thread safe, but a Program may be shared by any number of them.
+ * @author Warren Falk
+ *
+ */
+public final class PikeVm {
+	final Program program;
+	final int slotCount;
+	ThreadList current;
+	ThreadList next;
+	// pending work of add(): an instruction (>= 0), or -1 - slot to restore the slot to the value beside it
+	final int[] stack;
+	final int[] stackValues;
+	final int[] slots; // capture slots of the thread being added
+	final int[] matched; // capture slots of the match
+	boolean found;
+
+	public PikeVm(Program program) {
+		this.program = program;
+		int size = program.size();
+		this.slotCount = program.getGroupCount() << 1;
+		this.current = new ThreadList(size, slotCount);
+		this.next = new ThreadList(size, slotCount);
+		this.stack = new int[size + 1];
+		this.stackValues = new int[size + 1];
+		this.slots = new int[slotCount];
+		this.matched = new int[slotCount];
+	}
+
+	// a sparse set of instructions in the order they were added, with the capture slots of each
+	static final class ThreadList {
+		final int[] dense;
+		final int[] sparse;
+		final int[] slots;
+		int size;
+
+		ThreadList(int capacity, int slotCount) {
+			dense = new int[capacity];
+			sparse = new int[capacity];
+			slots = new int[capacity * slotCount];
+		}
+
+		boolean contains(int pc) {
+			int i = sparse[pc];
+			return i < size && dense[i] == pc;
+		}
+
+		int insert(int pc) {
+			sparse[pc] = size;
+			dense[size] = pc;
+			return size++;
+		}
+	}
+
+	/**
+	 * Matches the program at an offset
+	 * @param input the input
+	 * @param from the offset at which the match must start
+	 * @return the offset of the end of the match, or -1 if the program does not match there
+	 */
+	public int match(CharSequence input, int from) {
+		Program program = this.program;
+		int[] ops = program.ops;
+		int length = input.length();
+		found = false;
+		current.size = 0;
+		Arrays.fill(slots, -1);
+		add(current, 0, from);
+		for (int position = from; current.size > 0;) {
+			int cp = position < length ? Character.codePointAt(input, position) : -1;
+			int after = cp == -1 ? position : position + Character.charCount(cp);
+			next.size = 0;
+			ThreadList list = current;
+			for (int i = 0; i < list.size; i++) {
+				int pc = list.dense[i];
+				int op = ops[pc];
+				if (op == Program.MATCH) {
+					System.arraycopy(list.slots, i * slotCount, matched, 0, slotCount);
+					found = true;
+					break;
+				}
+				if (op == Program.SET && cp != -1 && program.sets[program.args1[pc]].contains(cp)) {
+					System.arraycopy(list.slots, i * slotCount, slots, 0, slotCount);
+					add(next, pc + 1, after);
+				}
+			}
+			current = next;
+			next = list;
+			position = after;
+		}
+		return found ? matched[1] : -1;
+	}
+
+	// adds the thread at pc, and every thread it reaches without consuming input, to a list (with the capture slots in slots)
+	private void add(ThreadList list, int pc, int position) {
+		int[] ops = program.ops;
+		int top = 0;
+		stack[top++] = pc;
+		while (top > 0) {
+			pc = stack[--top];
+			if (pc < 0) {
+				slots[-1 - pc] = stackValues[top];
+				continue;
+			}
+			while (!list.contains(pc)) {
+				int i = list.insert(pc);
+				int op = ops[pc];
+				if (op == Program.JMP) {
+					pc = program.args1[pc];
+				}
+				else if (op == Program.SPLIT) {
+					stack[top++] = program.args2[pc];
+					pc = program.args1[pc];
+				}
+				else if (op == Program.SAVE) {
+					int slot = program.args1[pc];
+					stackValues[top] = slots[slot];
+					stack[top++] = -1 - slot;
+					slots[slot] = position;
+					pc++;
+				}
+				else {
+					System.arraycopy(slots, 0, list.slots, i * slotCount, slotCount);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the program this VM runs
+	 */
+	public Program getProgram() {
+		return program;
+	}
+
+	/**
+	 * @param group a capture group of the program
+	 * @return the offset of the start of the group in the last match, or -1 if the group did not take part in it
+	 * (or there was no match)
+	 */
+	public int getStart(int group) {
+		return found ? matched[group << 1] : -1;
+	}
+
+	/**
+	 * @param group a capture group of the program
+	 * @return the offset of the end of the group in the last match, or -1
+	 */
+	public int getEnd(int group) {
+		return found ? matched[(group << 1) + 1] : -1;
+	}
+
+	/**
+	 * @param name the name of a pattern
+	 * @return the offset of the start of the last match of the pattern within the last match, or -1
+	 */
+	public int getStart(String name) {
+		int group = program.getGroup(name);
+		return group == -1 ? -1 : getStart(group);
+	}
+
+	/**
+	 * @param name the name of a pattern
+	 * @return the offset of the end of the last match of the pattern within the last match, or -1
+	 */
+	public int getEnd(String name) {
+		int group = program.getGroup(name);
+		return group == -1 ? -1 : getEnd(group);
+	}
+}
@@ -0,0 +1,100 @@
+package jargon.parse.pike;
+
+import jargon.parse.CodePointMatcher;
+
+/**
+ * A compiled pattern for PikeVm, as produced by ProgramCompiler: an array of instructions, each an opcode and up to two arguments.
+ * <ul>
+ * <li>SET s: consumes one code point in set s, then goes on to the next instruction</li>
+ * <li>SPLIT x y: goes on at both x and y, x having the higher priority</li>
+ * <li>JMP x: goes on at x</li>
+ * <li>SAVE n: records the current offset in capture slot n, then goes on to the next instruction</li>
+ * <li>MATCH: the pattern has matched</li>
+ * </ul>
+ * Slots 0 and 1 hold the start and end of the whole match, and slots 2g and 2g + 1 those of capture group g (g > 0),
+ * which is the last match of a named pattern.
+ * @author Warren Falk
+ *
+ */
+public final class Program {
+	static final int MATCH = 0;
+	static final int SET = 1;
+	static final int SPLIT = 2;
+	static final int JMP = 3;
+	static final int SAVE = 4;
+
+	final int[] ops;
+	final int[] args1;
+	final int[] args2;
+	final CodePointMatcher[] sets;
+	final String[] groups; // the name of each capture group (null for group 0, the whole match)
+
+	Program(int[] ops, int[] args1, int[] args2, CodePointMatcher[] sets, String[] groups) {
+		this.ops = ops;
+		this.args1 = args1;
+		this.args2 = args2;
+		this.sets = sets;
+		this.groups = groups;
+	}
+
+	/**
+	 * @return the number of instructions
+	 */
+	public int size() {
+		return ops.length;
+	}
+
+	/**
+	 * @return the number of capture groups, including group 0 (the whole match)
+	 */
+	public int getGroupCount() {
+		return groups.length;
+	}
+
+	/**
+	 * @param group a capture group
+	 * @return the name of the pattern captured by the group, or null for group 0
+	 */
+	public String getGroupName(int group) {
+		return groups[group];
+	}
+
+	/**
+	 * @param name the name of a pattern
+	 * @return the capture group of the pattern, or -1 if the pattern is not part of this program
+	 */
+	public int getGroup(String name) {
+		for (int g = 1; g < groups.length; g++) {
+			if (groups[g].equals(name))
+				return g;
+		}
+		return -1;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int pc = 0; pc < ops.length; pc++) {
+			sb.append(pc).append(": ");
+			switch (ops[pc]) {
+			case MATCH:
+				sb.append("match");
+				break;
+			case SET:
+				sb.append("set ").append(sets[args1[pc]].getCodePointSet());
+				break;
+			case SPLIT:
+				sb.append("split ").append(args1[pc]).append(' ').append(args2[pc]);
+				break;
+			case JMP:
+				sb.append("jmp ").append(args1[pc]);
+				break;
+			default:
+				sb.append("save ").append(args1[pc]);
+				break;
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+}
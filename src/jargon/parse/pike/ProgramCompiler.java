@@ -0,0 +1,154 @@
+package jargon.parse.pike;
+
+import jargon.parse.CodePointMatcher;
+import jargon.parse.CodePointSet;
+import jargon.parse.reflect.Choice;
+import jargon.parse.reflect.Grammar;
+import jargon.parse.reflect.Pattern;
+import jargon.parse.reflect.PatternGroup;
+import jargon.parse.reflect.PatternRef;
+import jargon.parse.reflect.Sequence;
+import jargon.parse.reflect.StaticCodePoint;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+
+import warrenfalk.util.IntegerList;
+
+/**
+ * Compiles a regular (non-recursive) rule of a grammar into a Program for PikeVm.
+ * Choices try their alternatives in order and repetition is greedy, so the match found is the one a backtracking matcher
+ * would find first. Repetition is expanded as in the DFA compiler: min copies of the pattern followed by either a loop
+ * (unbounded) or (max - min) optional copies, so a large bounded repetition makes a large program.
+ * Every named pattern gets a capture group.
+ * @author Warren Falk
+ *
+ */
+public final class ProgramCompiler {
+	final IntegerList ops = new IntegerList();
+	final IntegerList args1 = new IntegerList();
+	final IntegerList args2 = new IntegerList();
+	final ArrayList<CodePointSet> sets = new ArrayList<CodePointSet>();
+	final IdentityHashMap<CodePointSet, Integer> setIndexes = new IdentityHashMap<CodePointSet, Integer>();
+	final LinkedHashMap<String, Integer> groups = new LinkedHashMap<String, Integer>();
+	final IdentityHashMap<Pattern, Boolean> active = new IdentityHashMap<Pattern, Boolean>();
+
+	private ProgramCompiler() {
+	}
+
+	/**
+	 * @param grammar the grammar
+	 * @param ruleName the rule to compile, which must not be recursive
+	 * @return the program
+	 * @throws IllegalArgumentException if the rule is recursive or has a pattern that is not static
+	 */
+	public static Program compile(Grammar grammar, String ruleName) {
+		return compile(grammar.getRule(ruleName));
+	}
+
+	/**
+	 * @param pattern the pattern to compile, which must not be recursive
+	 * @return the program
+	 */
+	public static Program compile(Pattern pattern) {
+		ProgramCompiler compiler = new ProgramCompiler();
+		compiler.emit(Program.SAVE, 0, 0);
+		compiler.build(pattern);
+		compiler.emit(Program.SAVE, 1, 0);
+		compiler.emit(Program.MATCH, 0, 0);
+		CodePointMatcher[] matchers = new CodePointMatcher[compiler.sets.size()];
+		for (int i = 0; i < matchers.length; i++)
+			matchers[i] = compiler.sets.get(i).matcher();
+		String[] groups = new String[compiler.groups.size() + 1];
+		for (String name : compiler.groups.keySet())
+			groups[compiler.groups.get(name)] = name;
+		return new Program(compiler.ops.toArray(), compiler.args1.toArray(), compiler.args2.toArray(), matchers, groups);
+	}
+
+	private int emit(int op, int arg1, int arg2) {
+		ops.add(op);
+		args1.add(arg1);
+		args2.add(arg2);
+		return ops.size() - 1;
+	}
+
+	private int pc() {
+		return ops.size();
+	}
+
+	void build(Pattern pattern) {
+		if (pattern instanceof PatternRef) {
+			buildRef((PatternRef)pattern);
+			return;
+		}
+		int group = -1;
+		if (pattern.getName() != null) {
+			Integer g = groups.get(pattern.getName());
+			if (g == null)
+				groups.put(pattern.getName(), g = groups.size() + 1);
+			group = g;
+			emit(Program.SAVE, group << 1, 0);
+		}
+		if (pattern instanceof StaticCodePoint) {
+			CodePointSet cps = ((StaticCodePoint)pattern).getCodePoints();
+			Integer index = setIndexes.get(cps);
+			if (index == null) {
+				index = sets.size();
+				sets.add(cps);
+				setIndexes.put(cps, index);
+			}
+			emit(Program.SET, index, 0);
+		}
+		else {
+			if (!(pattern instanceof PatternGroup))
+				throw new IllegalArgumentException("pattern " + pattern + " (" + pattern.getClass().getSimpleName() + ") cannot be compiled to a program");
+			if (active.containsKey(pattern))
+				throw new IllegalArgumentException("pattern " + pattern + " is recursive and cannot be compiled to a program");
+			active.put(pattern, Boolean.TRUE);
+			PatternGroup g = (PatternGroup)pattern;
+			if (g instanceof Sequence) {
+				for (int i = 0; i < g.getChildCount(); i++)
+					buildRef(g.getChild(i));
+			}
+			else {
+				assert g instanceof Choice;
+				// split to each alternative but the last, each of them jumping to the end
+				IntegerList jumps = new IntegerList();
+				for (int i = 0; i + 1 < g.getChildCount(); i++) {
+					int split = emit(Program.SPLIT, pc() + 1, -1);
+					buildRef(g.getChild(i));
+					jumps.add(emit(Program.JMP, -1, 0));
+					args2.set(split, pc());
+				}
+				buildRef(g.getChild(g.getChildCount() - 1));
+				for (int i = 0; i < jumps.size(); i++)
+					args1.set(jumps.get(i), pc());
+			}
+			active.remove(pattern);
+		}
+		if (group != -1)
+			emit(Program.SAVE, (group << 1) + 1, 0);
+	}
+
+	void buildRef(PatternRef ref) {
+		Pattern pattern = ref.getPattern();
+		for (int i = 0; i < ref.getMin(); i++)
+			build(pattern);
+		if (ref.getMax() == PatternRef.UNBOUNDED) {
+			int loop = emit(Program.SPLIT, pc() + 1, -1);
+			build(pattern);
+			emit(Program.JMP, loop, 0);
+			args2.set(loop, pc());
+			return;
+		}
+		// each optional copy may be skipped, which skips the rest of them too
+		IntegerList splits = new IntegerList();
+		for (int i = ref.getMin(); i < ref.getMax(); i++) {
+			splits.add(emit(Program.SPLIT, pc() + 1, -1));
+			build(pattern);
+		}
+		for (int i = 0; i < splits.size(); i++)
+			args2.set(splits.get(i), pc());
+	}
+}
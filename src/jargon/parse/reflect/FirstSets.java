@@ -0,0 +1,116 @@
+package jargon.parse.reflect;
+
+import jargon.parse.CodePointSet;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Computes, for every pattern reachable from the rules of a grammar, whether it can match empty input (nullable)
+ * and the set of code points that can start a non-empty match (FIRST).
+ * Recursive rules are handled by iterating to a fixed point.
+ * A dynamic code point may be any code point, so its FIRST set is every code point.
+ */
+public final class FirstSets {
+	final IdentityHashMap<Pattern, Integer> indexes = new IdentityHashMap<Pattern, Integer>();
+	final ArrayList<Pattern> patterns = new ArrayList<Pattern>();
+	CodePointSet[] firsts;
+	boolean[] nullables;
+
+	public FirstSets(Grammar grammar) {
+		for (int i = 0; i < grammar.getRuleCount(); i++)
+			collect(grammar.getRule(i));
+		int count = patterns.size();
+		firsts = new CodePointSet[count];
+		nullables = new boolean[count];
+		for (int i = 0; i < count; i++)
+			firsts[i] = CodePointSet.NONE;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 0; i < count; i++) {
+				Pattern pattern = patterns.get(i);
+				CodePointSet first;
+				boolean nullable;
+				if (pattern instanceof StaticCodePoint) {
+					first = ((StaticCodePoint)pattern).cps;
+					nullable = false;
+				}
+				else if (pattern instanceof PatternRef) {
+					PatternRef ref = (PatternRef)pattern;
+					int child = indexes.get(ref.pattern);
+					first = firsts[child];
+					nullable = ref.min == 0 || nullables[child];
+				}
+				else if (pattern instanceof Sequence) {
+					CodePointSet.Builder builder = new CodePointSet.Builder();
+					nullable = true;
+					for (PatternRef ref : ((PatternGroup)pattern).children) {
+						int child = indexes.get(ref);
+						builder.add(firsts[child]);
+						if (!nullables[child]) {
+							nullable = false;
+							break;
+						}
+					}
+					first = builder.build();
+				}
+				else if (pattern instanceof Choice) {
+					CodePointSet.Builder builder = new CodePointSet.Builder();
+					nullable = false;
+					for (PatternRef ref : ((PatternGroup)pattern).children) {
+						int child = indexes.get(ref);
+						builder.add(firsts[child]);
+						nullable |= nullables[child];
+					}
+					first = builder.build();
+				}
+				else {
+					first = CodePointSet.ALL;
+					nullable = false;
+				}
+				if (nullable != nullables[i] || !first.equals(firsts[i])) {
+					firsts[i] = first;
+					nullables[i] = nullable;
+					changed = true;
+				}
+			}
+		}
+	}
+
+	private void collect(Pattern pattern) {
+		if (indexes.containsKey(pattern))
+			return;
+		indexes.put(pattern, patterns.size());
+		patterns.add(pattern);
+		if (pattern instanceof PatternRef)
+			collect(((PatternRef)pattern).pattern);
+		else if (pattern instanceof PatternGroup) {
+			for (PatternRef ref : ((PatternGroup)pattern).children)
+				collect(ref);
+		}
+	}
+
+	private int index(Pattern pattern) {
+		Integer index = indexes.get(pattern);
+		if (index == null)
+			throw new IllegalArgumentException("pattern " + pattern + " is not part of the grammar");
+		return index;
+	}
+
+	/**
+	 * @param pattern a pattern of the grammar
+	 * @return the code points which can start a non-empty match of the pattern
+	 */
+	public CodePointSet getFirst(Pattern pattern) {
+		return firsts[index(pattern)];
+	}
+
+	/**
+	 * @param pattern a pattern of the grammar
+	 * @return true if the pattern can match empty input
+	 */
+	public boolean isNullable(Pattern pattern) {
+		return nullables[index(pattern)];
+	}
+}
@@ -0,0 +1,64 @@
+package jargon.parse.reflect;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * The named patterns (rules) produced by Pattern.Builder.
+ * Each rule has an id, which is its index in order of definition.
+ * A grammar and its patterns are never changed once built, so a grammar may be used by many threads at once, however it reaches them:
+ * the children of each group are filled in after the group is constructed (since patterns may be recursive), but before the grammar is,
+ * and since its rules are a final field, every thread which sees the grammar sees all it reaches from them as it was then (JLS 17.5).
+ * Whoever builds a grammar (Pattern.Builder, GrammarOptimizer, GrammarImage) must therefore fill in every group before constructing it.
+ */
+public final class Grammar {
+	final Pattern[] rules;
+	final HashMap<String, Integer> idsByName = new HashMap<String, Integer>();
+	final IdentityHashMap<Pattern, Integer> idsByPattern = new IdentityHashMap<Pattern, Integer>();
+
+	Grammar(Pattern[] rules) {
+		this.rules = rules;
+		for (int i = 0; i < rules.length; i++) {
+			idsByName.put(rules[i].name, i);
+			idsByPattern.put(rules[i], i);
+		}
+	}
+
+	public int getRuleCount() {
+		return rules.length;
+	}
+
+	public Pattern getRule(int id) {
+		return rules[id];
+	}
+
+	/**
+	 * @param name the rule name
+	 * @return the rule
+	 * @throws IllegalArgumentException if there is no such rule
+	 */
+	public Pattern getRule(String name) {
+		return rules[getRuleId(name)];
+	}
+
+	/**
+	 * @param name the rule name
+	 * @return the id of the rule
+	 * @throws IllegalArgumentException if there is no such rule
+	 */
+	public int getRuleId(String name) {
+		Integer id = idsByName.get(name);
+		if (id == null)
+			throw new IllegalArgumentException("no rule named \"" + name + "\"");
+		return id;
+	}
+
+	/**
+	 * @param pattern a pattern
+	 * @return the id of the rule, or -1 if the pattern is not one of the named rules of this grammar
+	 */
+	public int getRuleId(Pattern pattern) {
+		Integer id = idsByPattern.get(pattern);
+		return id == null ? -1 : id;
+	}
+}
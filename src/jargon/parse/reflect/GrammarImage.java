@@ -0,0 +1,457 @@
+package jargon.parse.reflect;
+
+import jargon.parse.CodePointSet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.zip.CRC32;
+
+import warrenfalk.util.IntegerList;
+
+/**
+ * A grammar in a compact binary form which can be read straight from a memory mapped file, so that a grammar built once
+ * (at build time, with main()) does not have to be built again by every process which uses it.
+ * The patterns, the references between them and the code point sets (as their odd and even arrays) are held in flat tables,
+ * which the accessors read from the buffer without building any objects; getGrammar() builds the Pattern graph only when
+ * it is wanted, reusing the sets.
+ * <p>
+ * The image is a series of big-endian ints followed by the names as UTF-8:
+ * a header (MAGIC, FORMAT, the CRC32 of everything after the header's first four ints, and the total size in bytes),
+ * the counts of rules, patterns, references, sets and names, the size of the set data in ints and of the names in bytes,
+ * then the tables: patterns (kind, name or -1, first reference or set, reference count), references (pattern, min, max),
+ * set offsets and set data (as CodePointSet.encode() writes them), name offsets and the names.
+ * The rules come first among the patterns, in the order of their ids.
+ * <p>
+ * An image is immutable and may be shared between threads.
+ * @author Warren Falk
+ *
+ */
+public final class GrammarImage {
+	public static final int MAGIC = 0x4A47524D; // "JGRM"
+	public static final int FORMAT = 1;
+
+	public static final int KIND_SEQUENCE = 0;
+	public static final int KIND_CHOICE = 1;
+	public static final int KIND_CODEPOINTS = 2;
+	public static final int KIND_DYNAMIC = 3;
+
+	static final int HEADER_INTS = 11;
+	static final int CHECKED_FROM = 16; // the checksum covers everything after the magic, format, checksum and size
+	static final int PATTERN_INTS = 4;
+	static final int REF_INTS = 3;
+
+	final ByteBuffer buffer;
+	final IntBuffer ints;
+	final int ruleCount;
+	final int patternCount;
+	final int refCount;
+	final int setCount;
+	final int nameCount;
+	final int patternsAt; // offsets of the tables in ints
+	final int refsAt;
+	final int setOffsetsAt;
+	final int setDataAt;
+	final int nameOffsetsAt;
+	final int namesAt; // in bytes
+	final CodePointSet[] sets; // decoded on first use
+	private HashMap<String, Integer> ruleIds; // built on first use
+	private Grammar grammar; // built on first use
+
+	/**
+	 * Reads an image from a buffer (between its position and its limit), checking its format and checksum
+	 * @param buffer the buffer, which is not modified and must not be modified while the image is in use
+	 * @throws IllegalArgumentException if the buffer does not hold a valid image of this format
+	 */
+	public GrammarImage(ByteBuffer buffer) {
+		this.buffer = buffer.slice();
+		int size = this.buffer.remaining();
+		if (size < HEADER_INTS * 4)
+			throw new IllegalArgumentException("grammar image is truncated");
+		this.ints = this.buffer.asIntBuffer();
+		if (ints.get(0) != MAGIC)
+			throw new IllegalArgumentException("not a grammar image");
+		if (ints.get(1) != FORMAT)
+			throw new IllegalArgumentException("grammar image format " + ints.get(1) + " is not supported (expected " + FORMAT + ")");
+		if (ints.get(3) != size)
+			throw new IllegalArgumentException("grammar image is " + size + " bytes, expected " + ints.get(3));
+		if (ints.get(2) != checksum(this.buffer, size))
+			throw new IllegalArgumentException("grammar image checksum does not match");
+		ruleCount = ints.get(4);
+		patternCount = ints.get(5);
+		refCount = ints.get(6);
+		setCount = ints.get(7);
+		nameCount = ints.get(8);
+		int setInts = ints.get(9);
+		int nameBytes = ints.get(10);
+		patternsAt = HEADER_INTS;
+		refsAt = patternsAt + patternCount * PATTERN_INTS;
+		setOffsetsAt = refsAt + refCount * REF_INTS;
+		setDataAt = setOffsetsAt + setCount + 1;
+		nameOffsetsAt = setDataAt + setInts;
+		namesAt = (nameOffsetsAt + nameCount + 1) * 4;
+		if (namesAt + nameBytes != size || ruleCount > patternCount)
+			throw new IllegalArgumentException("grammar image tables do not match its size");
+		sets = new CodePointSet[setCount];
+	}
+
+	/**
+	 * Maps a file read only and reads the image in it
+	 * @param file the file
+	 * @return the image
+	 * @throws IOException if the file cannot be mapped
+	 * @throws IllegalArgumentException if the file does not hold a valid image
+	 */
+	public static GrammarImage map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			// the mapping stays valid after the channel is closed
+			return new GrammarImage(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	private static int checksum(ByteBuffer buffer, int size) {
+		CRC32 crc = new CRC32();
+		ByteBuffer in = buffer.duplicate();
+		in.position(CHECKED_FROM);
+		byte[] chunk = new byte[8192];
+		while (in.hasRemaining()) {
+			int n = Math.min(chunk.length, in.remaining());
+			in.get(chunk, 0, n);
+			crc.update(chunk, 0, n);
+		}
+		return (int)crc.getValue();
+	}
+
+	public int getRuleCount() {
+		return ruleCount;
+	}
+
+	/**
+	 * @return the number of patterns, named and anonymous (the first getRuleCount() of which are the rules)
+	 */
+	public int getPatternCount() {
+		return patternCount;
+	}
+
+	/**
+	 * @param pattern the index of a pattern
+	 * @return one of the KIND_ constants
+	 */
+	public int getKind(int pattern) {
+		return ints.get(patternsAt + pattern * PATTERN_INTS);
+	}
+
+	/**
+	 * @param pattern the index of a pattern
+	 * @return the name of the pattern, or null if it is anonymous
+	 */
+	public String getName(int pattern) {
+		int name = ints.get(patternsAt + pattern * PATTERN_INTS + 1);
+		return name == -1 ? null : name(name);
+	}
+
+	/**
+	 * @param pattern the index of a sequence or choice
+	 * @return the number of its children
+	 */
+	public int getChildCount(int pattern) {
+		return ints.get(patternsAt + pattern * PATTERN_INTS + 3);
+	}
+
+	/**
+	 * @param pattern the index of a sequence or choice
+	 * @param index the index of the child
+	 * @return the index of the reference to the child
+	 */
+	public int getChild(int pattern, int index) {
+		return ints.get(patternsAt + pattern * PATTERN_INTS + 2) + index;
+	}
+
+	/**
+	 * @param ref the index of a reference
+	 * @return the index of the pattern it refers to
+	 */
+	public int getRefPattern(int ref) {
+		return ints.get(refsAt + ref * REF_INTS);
+	}
+
+	public int getRefMin(int ref) {
+		return ints.get(refsAt + ref * REF_INTS + 1);
+	}
+
+	/**
+	 * @param ref the index of a reference
+	 * @return the maximum number of repetitions, or PatternRef.UNBOUNDED
+	 */
+	public int getRefMax(int ref) {
+		return ints.get(refsAt + ref * REF_INTS + 2);
+	}
+
+	/**
+	 * @param pattern the index of a KIND_CODEPOINTS pattern
+	 * @return its code points (decoded from the image on first use)
+	 */
+	public CodePointSet getCodePoints(int pattern) {
+		return getSet(ints.get(patternsAt + pattern * PATTERN_INTS + 2));
+	}
+
+	public int getSetCount() {
+		return setCount;
+	}
+
+	/**
+	 * @param index the index of a set
+	 * @return the set (equal sets are stored once, so patterns with equal sets share one instance)
+	 */
+	public CodePointSet getSet(int index) {
+		// decoding a set twice in a race is harmless, sets are immutable
+		CodePointSet cps = sets[index];
+		if (cps == null) {
+			IntBuffer in = ints.duplicate();
+			in.position(setDataAt + ints.get(setOffsetsAt + index));
+			in.limit(setDataAt + ints.get(setOffsetsAt + index + 1));
+			sets[index] = cps = CodePointSet.decode(in);
+		}
+		return cps;
+	}
+
+	/**
+	 * @param name the rule name
+	 * @return the id of the rule (the index of its pattern)
+	 * @throws IllegalArgumentException if there is no such rule
+	 */
+	public synchronized int getRuleId(String name) {
+		if (ruleIds == null) {
+			ruleIds = new HashMap<String, Integer>();
+			for (int i = 0; i < ruleCount; i++)
+				ruleIds.put(getName(i), i);
+		}
+		Integer id = ruleIds.get(name);
+		if (id == null)
+			throw new IllegalArgumentException("no rule named \"" + name + "\"");
+		return id;
+	}
+
+	private String name(int index) {
+		int start = ints.get(nameOffsetsAt + index);
+		int end = ints.get(nameOffsetsAt + index + 1);
+		byte[] bytes = new byte[end - start];
+		ByteBuffer in = buffer.duplicate();
+		in.position(namesAt + start);
+		in.get(bytes);
+		try {
+			return new String(bytes, "UTF-8");
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return the grammar, built from the image on first use
+	 */
+	public synchronized Grammar getGrammar() {
+		if (grammar == null) {
+			// create every pattern before resolving references, since they may be recursive
+			Pattern[] patterns = new Pattern[patternCount];
+			for (int p = 0; p < patternCount; p++) {
+				String name = getName(p);
+				switch (getKind(p)) {
+				case KIND_SEQUENCE:
+					patterns[p] = new Sequence(name, new PatternRef[getChildCount(p)]);
+					break;
+				case KIND_CHOICE:
+					patterns[p] = new Choice(name, new PatternRef[getChildCount(p)]);
+					break;
+				case KIND_CODEPOINTS:
+					patterns[p] = new StaticCodePoint(name, getCodePoints(p));
+					break;
+				case KIND_DYNAMIC:
+					patterns[p] = new DynamicCodePoint(name);
+					break;
+				default:
+					throw new IllegalArgumentException("pattern " + p + " of the grammar image has unknown kind " + getKind(p));
+				}
+			}
+			for (int p = 0; p < patternCount; p++) {
+				if (patterns[p] instanceof PatternGroup) {
+					PatternRef[] children = ((PatternGroup)patterns[p]).children;
+					for (int i = 0; i < children.length; i++) {
+						int ref = getChild(p, i);
+						children[i] = new PatternRef(patterns[getRefPattern(ref)], getRefMin(ref), getRefMax(ref));
+					}
+				}
+			}
+			Pattern[] rules = new Pattern[ruleCount];
+			System.arraycopy(patterns, 0, rules, 0, ruleCount);
+			grammar = new Grammar(rules);
+		}
+		return grammar;
+	}
+
+	/**
+	 * Writes a grammar as an image
+	 * @param grammar the grammar
+	 * @return the bytes of the image
+	 * @throws IllegalArgumentException if the grammar has a kind of pattern that an image cannot hold
+	 */
+	public static byte[] encode(Grammar grammar) {
+		IdentityHashMap<Pattern, Integer> indexes = new IdentityHashMap<Pattern, Integer>();
+		ArrayList<Pattern> patterns = new ArrayList<Pattern>();
+		for (int id = 0; id < grammar.getRuleCount(); id++) {
+			indexes.put(grammar.getRule(id), id);
+			patterns.add(grammar.getRule(id));
+		}
+		IntegerList patternTable = new IntegerList();
+		IntegerList refTable = new IntegerList();
+		HashMap<CodePointSet, Integer> setIndexes = new HashMap<CodePointSet, Integer>();
+		ArrayList<CodePointSet> sets = new ArrayList<CodePointSet>();
+		HashMap<String, Integer> nameIndexes = new HashMap<String, Integer>();
+		ArrayList<String> names = new ArrayList<String>();
+		// anonymous patterns are numbered as they are found, after the rules
+		for (int p = 0; p < patterns.size(); p++) {
+			Pattern pattern = patterns.get(p);
+			int name = -1;
+			if (pattern.getName() != null) {
+				Integer n = nameIndexes.get(pattern.getName());
+				if (n == null) {
+					nameIndexes.put(pattern.getName(), n = names.size());
+					names.add(pattern.getName());
+				}
+				name = n;
+			}
+			if (pattern instanceof PatternGroup) {
+				PatternGroup group = (PatternGroup)pattern;
+				patternTable.add(group instanceof Choice ? KIND_CHOICE : KIND_SEQUENCE);
+				patternTable.add(name);
+				patternTable.add(refTable.size() / REF_INTS);
+				patternTable.add(group.getChildCount());
+				for (int i = 0; i < group.getChildCount(); i++) {
+					PatternRef ref = group.getChild(i);
+					Integer child = indexes.get(ref.getPattern());
+					if (child == null) {
+						indexes.put(ref.getPattern(), child = patterns.size());
+						patterns.add(ref.getPattern());
+					}
+					refTable.add(child);
+					refTable.add(ref.getMin());
+					refTable.add(ref.getMax());
+				}
+			}
+			else if (pattern instanceof StaticCodePoint) {
+				CodePointSet cps = ((StaticCodePoint)pattern).getCodePoints();
+				Integer set = setIndexes.get(cps);
+				if (set == null) {
+					setIndexes.put(cps, set = sets.size());
+					sets.add(cps);
+				}
+				patternTable.add(KIND_CODEPOINTS);
+				patternTable.add(name);
+				patternTable.add(set);
+				patternTable.add(0);
+			}
+			else if (pattern instanceof DynamicCodePoint) {
+				patternTable.add(KIND_DYNAMIC);
+				patternTable.add(name);
+				patternTable.add(0);
+				patternTable.add(0);
+			}
+			else {
+				throw new IllegalArgumentException("pattern " + pattern + " (" + pattern.getClass().getSimpleName() + ") cannot be written to a grammar image");
+			}
+		}
+
+		int setInts = 0;
+		for (CodePointSet cps : sets)
+			setInts += cps.encodedSize();
+		byte[][] nameBytes = new byte[names.size()][];
+		int nameSize = 0;
+		for (int i = 0; i < nameBytes.length; i++) {
+			try {
+				nameBytes[i] = names.get(i).getBytes("UTF-8");
+			}
+			catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+			nameSize += nameBytes[i].length;
+		}
+		int intCount = HEADER_INTS + patternTable.size() + refTable.size() + sets.size() + 1 + setInts + names.size() + 1;
+		int size = intCount * 4 + nameSize;
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		IntBuffer out = buffer.asIntBuffer();
+		out.put(MAGIC).put(FORMAT).put(0).put(size);
+		out.put(grammar.getRuleCount()).put(patterns.size()).put(refTable.size() / REF_INTS).put(sets.size()).put(names.size());
+		out.put(setInts).put(nameSize);
+		out.put(patternTable.toArray());
+		out.put(refTable.toArray());
+		int offset = 0;
+		for (CodePointSet cps : sets) {
+			out.put(offset);
+			offset += cps.encodedSize();
+		}
+		out.put(offset);
+		for (CodePointSet cps : sets)
+			cps.encode(out);
+		offset = 0;
+		for (byte[] bytes : nameBytes) {
+			out.put(offset);
+			offset += bytes.length;
+		}
+		out.put(offset);
+		buffer.position(intCount * 4);
+		for (byte[] bytes : nameBytes)
+			buffer.put(bytes);
+		buffer.putInt(8, checksum(buffer, size));
+		return buffer.array();
+	}
+
+	/**
+	 * Writes a grammar as an image to a file
+	 * @param grammar the grammar
+	 * @param file the file, which is replaced
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(Grammar grammar, File file) throws IOException {
+		byte[] image = encode(grammar);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(image);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the image of a grammar at build time.
+	 * Arguments: the name of a class with a method "public static void define(Pattern.Builder)" which defines the grammar,
+	 * and the file to write.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("usage: GrammarImage <class with define(Pattern.Builder)> <image file>");
+			System.exit(2);
+		}
+		Method define = Class.forName(args[0]).getMethod("define", Pattern.Builder.class);
+		Pattern.Builder builder = new Pattern.Builder();
+		define.invoke(null, builder);
+		Grammar grammar = builder.build();
+		File file = new File(args[1]);
+		write(grammar, file);
+		System.out.println("wrote " + grammar.getRuleCount() + " rules to " + file + " (" + file.length() + " bytes)");
+	}
+}
@@ -0,0 +1,424 @@
+package jargon.parse.reflect;
+
+import jargon.parse.CodePointSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rewrites a grammar into an equivalent one with fewer (or cheaper) patterns.
+ * The passes, which are repeated until none of them changes anything, are:
+ * <ul>
+ * <li>collapse-choices: adjacent alternatives of a choice which each match exactly one code point become one code point set</li>
+ * <li>inline: rules which are not roots and are referenced exactly once (with min == max == 1) become anonymous,
+ * except those which reach themselves without consuming input (left recursion), since a parser fails a rule where it reaches itself
+ * and an anonymous pattern has no such guard</li>
+ * <li>flatten: anonymous sequences within sequences (and choices within choices) are spliced into their parent,
+ * and anonymous groups with a single child are replaced by the child</li>
+ * <li>factor-prefixes: adjacent alternatives of a choice starting with the same pattern are factored, i.e. AB / AC becomes A (B / C)</li>
+ * </ul>
+ * All rewrites preserve PEG semantics (ordered choice, greedy repetition) which is why only adjacent alternatives are merged.
+ * The number of patterns (including references) each pass removed is available from getRemoved().
+ */
+public final class GrammarOptimizer {
+	public static final String COLLAPSE_CHOICES = "collapse-choices";
+	public static final String INLINE = "inline";
+	public static final String FLATTEN = "flatten";
+	public static final String FACTOR_PREFIXES = "factor-prefixes";
+
+	static final int KIND_STATIC = 0;
+	static final int KIND_SEQUENCE = 1;
+	static final int KIND_CHOICE = 2;
+	static final int KIND_OTHER = 3;
+
+	static final int MAX_ROUNDS = 16;
+
+	final LinkedHashMap<String, Integer> removed = new LinkedHashMap<String, Integer>();
+	ArrayList<Node> roots;
+
+	// the mutable form of a pattern used while optimizing
+	static final class Node {
+		int kind;
+		String name;
+		CodePointSet cps;
+		Pattern original; // for patterns which are copied as they are
+		ArrayList<Ref> refs = new ArrayList<Ref>();
+
+		Node(int kind, String name) {
+			this.kind = kind;
+			this.name = name;
+		}
+	}
+
+	static final class Ref {
+		Node node;
+		int min;
+		int max;
+
+		Ref(Node node, int min, int max) {
+			this.node = node;
+			this.min = min;
+			this.max = max;
+		}
+
+		boolean once() {
+			return min == 1 && max == 1;
+		}
+
+		boolean sameAs(Ref other) {
+			if (min != other.min || max != other.max)
+				return false;
+			if (node == other.node)
+				return true;
+			return node.kind == KIND_STATIC && other.node.kind == KIND_STATIC && node.name == null && other.node.name == null && node.cps.equals(other.node.cps);
+		}
+	}
+
+	/**
+	 * Optimizes a grammar
+	 * @param grammar the grammar
+	 * @param rootNames the rules which must be kept (others may be inlined), all rules if none are given
+	 * @return the optimized grammar, whose rules are the named patterns which survived, in their original order
+	 */
+	public Grammar optimize(Grammar grammar, String... rootNames) {
+		removed.clear();
+		removed.put(COLLAPSE_CHOICES, 0);
+		removed.put(INLINE, 0);
+		removed.put(FLATTEN, 0);
+		removed.put(FACTOR_PREFIXES, 0);
+		IdentityHashMap<Pattern, Node> nodes = new IdentityHashMap<Pattern, Node>();
+		Node[] rules = new Node[grammar.getRuleCount()];
+		for (int i = 0; i < rules.length; i++)
+			rules[i] = convert(grammar.getRule(i), nodes);
+		roots = new ArrayList<Node>();
+		if (rootNames.length == 0) {
+			Collections.addAll(roots, rules);
+		}
+		else {
+			for (String name : rootNames)
+				roots.add(rules[grammar.getRuleId(name)]);
+		}
+		for (int round = 0; round < MAX_ROUNDS; round++) {
+			boolean changed = false;
+			changed |= run(COLLAPSE_CHOICES);
+			changed |= run(INLINE);
+			changed |= run(FLATTEN);
+			changed |= run(FACTOR_PREFIXES);
+			if (!changed)
+				break;
+		}
+		return emit(rules);
+	}
+
+	/**
+	 * @return the number of patterns removed by each pass during the last optimize() (negative if a pass added patterns)
+	 */
+	public Map<String, Integer> getRemoved() {
+		return Collections.unmodifiableMap(removed);
+	}
+
+	private boolean run(String pass) {
+		int before = count();
+		boolean changed;
+		if (pass == COLLAPSE_CHOICES)
+			changed = collapseChoices();
+		else if (pass == INLINE)
+			changed = inline();
+		else if (pass == FLATTEN)
+			changed = flatten();
+		else
+			changed = factorPrefixes();
+		removed.put(pass, removed.get(pass) + before - count());
+		return changed;
+	}
+
+	private Node convert(Pattern pattern, IdentityHashMap<Pattern, Node> nodes) {
+		Node node = nodes.get(pattern);
+		if (node != null)
+			return node;
+		if (pattern instanceof StaticCodePoint) {
+			node = new Node(KIND_STATIC, pattern.name);
+			node.cps = ((StaticCodePoint)pattern).cps;
+			nodes.put(pattern, node);
+		}
+		else if (pattern instanceof PatternGroup) {
+			node = new Node(pattern instanceof Choice ? KIND_CHOICE : KIND_SEQUENCE, pattern.name);
+			nodes.put(pattern, node);
+			for (PatternRef ref : ((PatternGroup)pattern).children)
+				node.refs.add(new Ref(convert(ref.pattern, nodes), ref.min, ref.max));
+		}
+		else if (pattern instanceof PatternRef) {
+			PatternRef ref = (PatternRef)pattern;
+			node = new Node(KIND_SEQUENCE, pattern.name);
+			nodes.put(pattern, node);
+			node.refs.add(new Ref(convert(ref.pattern, nodes), ref.min, ref.max));
+		}
+		else {
+			node = new Node(KIND_OTHER, pattern.name);
+			node.original = pattern;
+			nodes.put(pattern, node);
+		}
+		return node;
+	}
+
+	// the nodes reachable from the roots
+	private ArrayList<Node> reachable() {
+		IdentityHashMap<Node, Boolean> seen = new IdentityHashMap<Node, Boolean>();
+		ArrayList<Node> list = new ArrayList<Node>();
+		for (Node root : roots) {
+			if (seen.put(root, Boolean.TRUE) == null)
+				list.add(root);
+		}
+		for (int i = 0; i < list.size(); i++) {
+			for (Ref ref : list.get(i).refs) {
+				if (seen.put(ref.node, Boolean.TRUE) == null)
+					list.add(ref.node);
+			}
+		}
+		return list;
+	}
+
+	int count() {
+		int count = 0;
+		for (Node node : reachable())
+			count += 1 + node.refs.size();
+		return count;
+	}
+
+	private boolean collapseChoices() {
+		boolean changed = false;
+		for (Node node : reachable()) {
+			if (node.kind != KIND_CHOICE)
+				continue;
+			ArrayList<Ref> refs = new ArrayList<Ref>();
+			for (int i = 0; i < node.refs.size();) {
+				int j = i;
+				while (j < node.refs.size() && node.refs.get(j).once() && node.refs.get(j).node.kind == KIND_STATIC)
+					j++;
+				if (j - i >= 2) {
+					CodePointSet.Builder builder = new CodePointSet.Builder();
+					for (int k = i; k < j; k++)
+						builder.add(node.refs.get(k).node.cps);
+					Node merged = new Node(KIND_STATIC, null);
+					merged.cps = builder.build();
+					refs.add(new Ref(merged, 1, 1));
+					changed = true;
+					i = j;
+				}
+				else {
+					refs.add(node.refs.get(i++));
+				}
+			}
+			node.refs = refs;
+			if (refs.size() == 1 && refs.get(0).once() && refs.get(0).node.kind == KIND_STATIC) {
+				node.kind = KIND_STATIC;
+				node.cps = refs.get(0).node.cps;
+				node.refs = new ArrayList<Ref>();
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private boolean inline() {
+		ArrayList<Node> nodes = reachable();
+		IdentityHashMap<Node, Integer> uses = new IdentityHashMap<Node, Integer>();
+		IdentityHashMap<Node, Ref> lastUse = new IdentityHashMap<Node, Ref>();
+		for (Node node : nodes) {
+			for (Ref ref : node.refs) {
+				Integer n = uses.get(ref.node);
+				uses.put(ref.node, n == null ? 1 : n + 1);
+				lastUse.put(ref.node, ref);
+			}
+		}
+		HashSet<Node> rootSet = new HashSet<Node>(roots);
+		IdentityHashMap<Node, Boolean> leftRecursive = leftRecursive(nodes);
+		boolean changed = false;
+		for (Node node : nodes) {
+			if (node.name == null || rootSet.contains(node) || leftRecursive.containsKey(node))
+				continue;
+			Integer n = uses.get(node);
+			if (n != null && n == 1 && lastUse.get(node).once()) {
+				node.name = null;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	// the named nodes which reach themselves without consuming input
+	private static IdentityHashMap<Node, Boolean> leftRecursive(ArrayList<Node> nodes) {
+		IdentityHashMap<Node, Boolean> nullable = new IdentityHashMap<Node, Boolean>();
+		for (boolean changed = true; changed;) {
+			changed = false;
+			for (Node node : nodes) {
+				if (!nullable.containsKey(node) && isNullable(node, nullable)) {
+					nullable.put(node, Boolean.TRUE);
+					changed = true;
+				}
+			}
+		}
+		IdentityHashMap<Node, Boolean> recursive = new IdentityHashMap<Node, Boolean>();
+		for (Node node : nodes) {
+			if (node.name == null)
+				continue;
+			IdentityHashMap<Node, Boolean> seen = new IdentityHashMap<Node, Boolean>();
+			ArrayList<Node> work = new ArrayList<Node>();
+			work.add(node);
+			while (!work.isEmpty() && !recursive.containsKey(node)) {
+				Node n = work.remove(work.size() - 1);
+				// a sequence reaches its children up to the first which consumes input, a choice all of them
+				for (Ref ref : n.refs) {
+					if (ref.node == node)
+						recursive.put(node, Boolean.TRUE);
+					else if (seen.put(ref.node, Boolean.TRUE) == null)
+						work.add(ref.node);
+					if (n.kind == KIND_SEQUENCE && !isNullable(ref, nullable))
+						break;
+				}
+			}
+		}
+		return recursive;
+	}
+
+	private static boolean isNullable(Ref ref, IdentityHashMap<Node, Boolean> nullable) {
+		return ref.min == 0 || nullable.containsKey(ref.node);
+	}
+
+	private static boolean isNullable(Node node, IdentityHashMap<Node, Boolean> nullable) {
+		if (node.kind == KIND_SEQUENCE) {
+			for (Ref ref : node.refs) {
+				if (!isNullable(ref, nullable))
+					return false;
+			}
+			return true;
+		}
+		if (node.kind == KIND_CHOICE) {
+			for (Ref ref : node.refs) {
+				if (isNullable(ref, nullable))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean flatten() {
+		boolean changed = false;
+		for (Node node : reachable()) {
+			if (node.kind != KIND_SEQUENCE && node.kind != KIND_CHOICE)
+				continue;
+			ArrayList<Ref> refs = new ArrayList<Ref>();
+			for (Ref ref : node.refs) {
+				// replace anonymous groups with a single child by the child
+				while (ref.node.name == null && ref.node != node && (ref.node.kind == KIND_SEQUENCE || ref.node.kind == KIND_CHOICE) && ref.node.refs.size() == 1) {
+					Ref inner = ref.node.refs.get(0);
+					if (ref.once())
+						ref = new Ref(inner.node, inner.min, inner.max);
+					else if (inner.once())
+						ref = new Ref(inner.node, ref.min, ref.max);
+					else
+						break;
+					changed = true;
+				}
+				if (ref.once() && ref.node.name == null && ref.node.kind == node.kind && ref.node != node) {
+					refs.addAll(ref.node.refs);
+					changed = true;
+				}
+				else {
+					refs.add(ref);
+				}
+			}
+			node.refs = refs;
+		}
+		return changed;
+	}
+
+	private static ArrayList<Ref> elements(Ref alternative) {
+		ArrayList<Ref> elements = new ArrayList<Ref>();
+		if (alternative.once() && alternative.node.name == null && alternative.node.kind == KIND_SEQUENCE)
+			elements.addAll(alternative.node.refs);
+		else
+			elements.add(alternative);
+		return elements;
+	}
+
+	private boolean factorPrefixes() {
+		boolean changed = false;
+		for (Node node : reachable()) {
+			if (node.kind != KIND_CHOICE)
+				continue;
+			ArrayList<Ref> refs = new ArrayList<Ref>();
+			for (int i = 0; i < node.refs.size();) {
+				ArrayList<Ref> first = elements(node.refs.get(i));
+				int j = i + 1;
+				while (j < node.refs.size() && !first.isEmpty()) {
+					ArrayList<Ref> next = elements(node.refs.get(j));
+					if (next.isEmpty() || !next.get(0).sameAs(first.get(0)))
+						break;
+					j++;
+				}
+				if (j - i < 2) {
+					refs.add(node.refs.get(i++));
+					continue;
+				}
+				Node rest = new Node(KIND_CHOICE, null);
+				for (int k = i; k < j; k++) {
+					ArrayList<Ref> elements = elements(node.refs.get(k));
+					Node tail = new Node(KIND_SEQUENCE, null);
+					tail.refs.addAll(elements.subList(1, elements.size()));
+					rest.refs.add(new Ref(tail, 1, 1));
+				}
+				Node factored = new Node(KIND_SEQUENCE, null);
+				factored.refs.add(first.get(0));
+				factored.refs.add(new Ref(rest, 1, 1));
+				refs.add(new Ref(factored, 1, 1));
+				changed = true;
+				i = j;
+			}
+			node.refs = refs;
+		}
+		return changed;
+	}
+
+	private Grammar emit(Node[] rules) {
+		IdentityHashMap<Node, Pattern> patterns = new IdentityHashMap<Node, Pattern>();
+		ArrayList<Node> nodes = reachable();
+		for (Node node : nodes) {
+			Pattern pattern;
+			switch (node.kind) {
+			case KIND_STATIC:
+				pattern = new StaticCodePoint(node.name, node.cps);
+				break;
+			case KIND_SEQUENCE:
+				pattern = new Sequence(node.name, new PatternRef[node.refs.size()]);
+				break;
+			case KIND_CHOICE:
+				pattern = new Choice(node.name, new PatternRef[node.refs.size()]);
+				break;
+			default:
+				pattern = node.original;
+				break;
+			}
+			patterns.put(node, pattern);
+		}
+		for (Node node : nodes) {
+			if (node.kind != KIND_SEQUENCE && node.kind != KIND_CHOICE)
+				continue;
+			PatternRef[] children = ((PatternGroup)patterns.get(node)).children;
+			for (int i = 0; i < children.length; i++) {
+				Ref ref = node.refs.get(i);
+				children[i] = new PatternRef(patterns.get(ref.node), ref.min, ref.max);
+			}
+		}
+		ArrayList<Pattern> kept = new ArrayList<Pattern>();
+		for (Node rule : rules) {
+			if (rule.name != null && patterns.containsKey(rule))
+				kept.add(patterns.get(rule));
+		}
+		return new Grammar(kept.toArray(new Pattern[kept.size()]));
+	}
+}
@@ -1,12 +1,234 @@
 package jargon.parse.reflect;
 
+import jargon.parse.CodePointSet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public abstract class Pattern {
 	final String name;
-	
+
 	public Pattern(String name) {
 		this.name = name;
 	}
-	
+
+	/**
+	 * @return the name of the pattern, or null if it is anonymous
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return name != null ? name : getClass().getSimpleName();
+	}
+
+	/**
+	 * Collects pattern definitions by name and builds them into a Grammar.
+	 * Groups refer to their children by name, so patterns may be used before they are defined (and may be recursive);
+	 * names are resolved when build() is called.
+	 */
 	public static class Builder {
+		final LinkedHashMap<String, Object> definitions = new LinkedHashMap<String, Object>();
+
+		/**
+		 * Define a choice, which matches any one of its children
+		 * @param name the name of the choice
+		 * @return the group to which the alternatives are added
+		 */
+		public Group choice(String name) {
+			Group group = new Group(true);
+			define(name, group);
+			return group;
+		}
+
+		/**
+		 * Define a sequence, which matches each of its children in order
+		 * @param name the name of the sequence
+		 * @return the group to which the elements are added
+		 */
+		public Group sequence(String name) {
+			Group group = new Group(false);
+			define(name, group);
+			return group;
+		}
+
+		/**
+		 * Define a pattern matching any single code point in a set
+		 * @param name the name of the pattern
+		 * @param cps the code points
+		 */
+		public void codepoints(String name, CodePointSet cps) {
+			define(name, new StaticCodePoint(name, cps));
+		}
+
+		/**
+		 * Define a sequence matching a literal string
+		 * @param name the name of the pattern
+		 * @param literal the string to match
+		 */
+		public void literal(String name, String literal) {
+			sequence(name).literal(literal);
+		}
+
+		/**
+		 * Define a pattern matching a single code point which is only known at parse time
+		 * @param name the name of the pattern
+		 */
+		public void dynamic(String name) {
+			define(name, new DynamicCodePoint(name));
+		}
+
+		private void define(String name, Object definition) {
+			if (name == null)
+				throw new IllegalArgumentException("pattern name must not be null");
+			if (definitions.containsKey(name))
+				throw new IllegalArgumentException("pattern \"" + name + "\" is already defined");
+			definitions.put(name, definition);
+		}
+
+		/**
+		 * Resolves all references and builds the grammar
+		 * @return the grammar, whose rule ids are assigned in order of definition
+		 */
+		public Grammar build() {
+			HashMap<String, Pattern> patterns = new HashMap<String, Pattern>();
+			// first create every named pattern, so that groups can refer to patterns defined after them
+			for (Map.Entry<String, Object> entry : definitions.entrySet()) {
+				Object definition = entry.getValue();
+				if (definition instanceof Group) {
+					Group group = (Group)definition;
+					PatternRef[] children = new PatternRef[group.children.size()];
+					patterns.put(entry.getKey(), group.choice ? new Choice(entry.getKey(), children) : new Sequence(entry.getKey(), children));
+				}
+				else {
+					patterns.put(entry.getKey(), (Pattern)definition);
+				}
+			}
+			Pattern[] rules = new Pattern[definitions.size()];
+			int id = 0;
+			for (Map.Entry<String, Object> entry : definitions.entrySet()) {
+				Pattern pattern = patterns.get(entry.getKey());
+				if (entry.getValue() instanceof Group)
+					((Group)entry.getValue()).resolve(entry.getKey(), patterns, ((PatternGroup)pattern).children);
+				rules[id++] = pattern;
+			}
+			return new Grammar(rules);
+		}
+
+		/**
+		 * The children of a choice or sequence under construction
+		 */
+		public static final class Group {
+			final boolean choice;
+			final ArrayList<Object> children = new ArrayList<Object>(); // String names or anonymous Patterns
+			final ArrayList<int[]> repeats = new ArrayList<int[]>();
+
+			Group(boolean choice) {
+				this.choice = choice;
+			}
+
+			/**
+			 * Add a reference to a named pattern which must match exactly once
+			 * @param name the name of the pattern
+			 * @return this group
+			 */
+			public Group add(String name) {
+				return add(name, 1, 1);
+			}
+
+			/**
+			 * Add a reference to a named pattern which must match between min and max times
+			 * @param name the name of the pattern
+			 * @param min the minimum number of repetitions
+			 * @param max the maximum number of repetitions (or PatternRef.UNBOUNDED)
+			 * @return this group
+			 */
+			public Group add(String name, int min, int max) {
+				return addChild(name, min, max);
+			}
+
+			/**
+			 * Add an anonymous pattern matching one code point in a set
+			 * @param cps the code points
+			 * @return this group
+			 */
+			public Group add(CodePointSet cps) {
+				return add(cps, 1, 1);
+			}
+
+			/**
+			 * Add an anonymous pattern matching between min and max code points in a set
+			 * @param cps the code points
+			 * @param min the minimum number of repetitions
+			 * @param max the maximum number of repetitions (or PatternRef.UNBOUNDED)
+			 * @return this group
+			 */
+			public Group add(CodePointSet cps, int min, int max) {
+				return addChild(new StaticCodePoint(null, cps), min, max);
+			}
+
+			/**
+			 * Add an anonymous pattern matching a literal string
+			 * @param literal the string
+			 * @return this group
+			 */
+			public Group literal(String literal) {
+				if (!choice) {
+					for (int i = 0; i < literal.length(); i = literal.offsetByCodePoints(i, 1))
+						add(CodePointSet.all(literal.codePointAt(i), literal.codePointAt(i) + 1));
+					return this;
+				}
+				Group sequence = new Group(false);
+				sequence.literal(literal);
+				return addChild(sequence, 1, 1);
+			}
+
+			public Group optional(String name) {
+				return add(name, 0, 1);
+			}
+
+			public Group zeroOrMore(String name) {
+				return add(name, 0, PatternRef.UNBOUNDED);
+			}
+
+			public Group oneOrMore(String name) {
+				return add(name, 1, PatternRef.UNBOUNDED);
+			}
+
+			private Group addChild(Object child, int min, int max) {
+				if (min < 0 || max < min || max == 0)
+					throw new IllegalArgumentException("invalid repetition " + min + "-" + max);
+				children.add(child);
+				repeats.add(new int[] {min, max});
+				return this;
+			}
+
+			void resolve(String name, HashMap<String, Pattern> patterns, PatternRef[] refs) {
+				for (int i = 0; i < refs.length; i++) {
+					Object child = children.get(i);
+					Pattern pattern;
+					if (child instanceof String) {
+						pattern = patterns.get(child);
+						if (pattern == null)
+							throw new IllegalStateException("pattern \"" + name + "\" refers to undefined pattern \"" + child + "\"");
+					}
+					else if (child instanceof Group) {
+						Group group = (Group)child;
+						PatternRef[] children = new PatternRef[group.children.size()];
+						group.resolve(name, patterns, children);
+						pattern = group.choice ? new Choice(null, children) : new Sequence(null, children);
+					}
+					else {
+						pattern = (Pattern)child;
+					}
+					int[] repeat = repeats.get(i);
+					refs[i] = new PatternRef(pattern, repeat[0], repeat[1]);
+				}
+			}
+		}
 	}
 }
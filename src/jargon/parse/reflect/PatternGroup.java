@@ -2,11 +2,19 @@ package jargon.parse.reflect;
 
 
 public abstract class PatternGroup extends Pattern {
-	final PatternRef[] children;
+	final PatternRef[] children; // filled in after construction (patterns may be recursive) by whoever builds the grammar, before the Grammar is constructed
 
 	public PatternGroup(String name, PatternRef[] children) {
 		super(name);
 		this.children = children;
 	}
 	
+	public int getChildCount() {
+		return children.length;
+	}
+	
+	public PatternRef getChild(int index) {
+		return children[index];
+	}
+	
 }
@@ -1,6 +1,11 @@
 package jargon.parse.reflect;
 
 public class PatternRef extends Pattern {
+	/**
+	 * Value of max for a reference which may repeat any number of times
+	 */
+	public static final int UNBOUNDED = Integer.MAX_VALUE;
+	
 	final Pattern pattern;
 	final int min;
 	final int max;
@@ -11,5 +16,17 @@ public class PatternRef extends Pattern {
 		this.min = min;
 		this.max = max;
 	}
+	
+	public Pattern getPattern() {
+		return pattern;
+	}
+	
+	public int getMin() {
+		return min;
+	}
+	
+	public int getMax() {
+		return max;
+	}
 
 }
@@ -9,5 +9,9 @@ public class StaticCodePoint extends Pattern {
 		super(name);
 		this.cps = cps;
 	}
+	
+	public CodePointSet getCodePoints() {
+		return cps;
+	}
 
 }
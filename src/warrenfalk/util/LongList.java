@@ -0,0 +1,82 @@
+package warrenfalk.util;
+
+import java.util.EmptyStackException;
+
+public class LongList {
+	long[] buffer;
+	int size;
+	
+	public final static long[] EMPTY = new long[0];
+	
+	public LongList() {
+		this(10);
+	}
+	
+	public LongList(int capacity) {
+		buffer = new long[capacity];
+	}
+	
+	public long get(int index) {
+		return buffer[index];
+	}
+	
+	public void set(int index, long value) {
+		buffer[index] = value;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public void add(long item) {
+		if (size == buffer.length) {
+			setCapacity(Math.max(buffer.length << 1, 1));
+		}
+		buffer[size++] = item;
+	}
+	
+	public long pop() {
+		if (size > 0)
+			return buffer[--size];
+		throw new EmptyStackException();
+	}
+	
+	public void clear() {
+		size = 0;
+	}
+	
+	/**
+	 * Shrinks the list to the given size (which must not be greater than the current size)
+	 * @param size the new size
+	 */
+	public void truncate(int size) {
+		if (size < 0 || size > this.size)
+			throw new IndexOutOfBoundsException("size " + size + " is not within 0-" + this.size);
+		this.size = size;
+	}
+	
+	public void setCapacity(int capacity) {
+		if (capacity <= buffer.length)
+			return;
+		long[] newBuffer = new long[capacity];
+		if (size > 0)
+			System.arraycopy(buffer, 0, newBuffer, 0, size);
+		buffer = newBuffer;
+	}
+	
+	public void sort(SortLong.Comparator comparator) {
+		SortLong.mergeSort(buffer, 0, size, comparator);
+	}
+
+	public long[] toArray() {
+		if (size == 0)
+			return EMPTY;
+		return toArray(new long[size]);
+	}
+	
+	public long[] toArray(long[] dest) {
+		if (size > 0)
+			System.arraycopy(buffer, 0, dest, 0, size);
+		return dest;
+	}
+}
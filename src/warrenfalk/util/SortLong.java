@@ -5,6 +5,12 @@ public class SortLong {
 		public int compare(long x0, long x1);
 	}
 	
+	public static final Comparator ASCENDING = new Comparator() {
+		public int compare(long x0, long x1) {
+			return x0 < x1 ? -1 : x0 == x1 ? 0 : 1;
+		}
+	};
+	
 	private static int med3(long x[], int a, int b, int c, Comparator comparator) {
 		return (comparator.compare(x[a], x[b]) == -1 ? (comparator.compare(x[b], x[c]) == -1 ? b : comparator.compare(x[a], x[c]) == -1 ? c : a)
 				: (comparator.compare(x[b], x[c]) == 1 ? b : comparator.compare(x[a], x[c]) == 1 ? c : a));
@@ -0,0 +1,103 @@
+package jargon.parse;
+
+import static jargon.parse.CodePointSet.all;
+import static jargon.parse.CodePointSet.even;
+import static jargon.parse.CodePointSet.odd;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class BlockCodePointSetTest {
+	// a set of many small ranges, scattered points and a few large ranges and combs
+	private static CodePointSet fragmented(Random random) {
+		CodePointSet.Builder builder = new CodePointSet.Builder();
+		int pieces = random.nextInt(400);
+		for (int i = 0; i < pieces; i++) {
+			int start = random.nextInt(random.nextBoolean() ? 0x3000 : CodePointSet.UNICODE_END);
+			int end = Math.min(CodePointSet.UNICODE_END, start + 1 + random.nextInt(random.nextInt(10) == 0 ? 0x5000 : 8));
+			switch (random.nextInt(3)) {
+			case 0:
+				builder.add(start, end);
+				break;
+			case 1:
+				builder.addOdd(start, end);
+				break;
+			default:
+				builder.addEven(start, end);
+				break;
+			}
+		}
+		return builder.build();
+	}
+
+	private static void assertSamePoints(CodePointSet expected, BlockCodePointSet actual) {
+		assertEquals(expected, actual.toCodePointSet());
+		for (int b = 0; b < BlockCodePointSet.BLOCK_COUNT; b++) {
+			int base = b << BlockCodePointSet.BLOCK_BITS;
+			for (int cp = base; cp < base + BlockCodePointSet.BLOCK_SIZE; cp += 7)
+				assertEquals(expected.contains(cp), actual.contains(cp));
+		}
+	}
+
+	@Test
+	public void testConversion() {
+		CodePointSet[] sets = {
+				CodePointSet.NONE,
+				CodePointSet.ALL,
+				all(0, 1),
+				all(0x10FFFF, 0x110000),
+				odd(0x101, 0x17F),
+				even(0xFF, 0x10100),
+				CodePointSet.charRanges('0', '9', 'a', 'f', 'A', 'F'),
+		};
+		for (CodePointSet cps : sets) {
+			BlockCodePointSet blocks = BlockCodePointSet.of(cps);
+			assertSamePoints(cps, blocks);
+			assertEquals(cps.toString(), blocks.toString());
+		}
+		Random random = new Random(19);
+		for (int n = 0; n < 50; n++) {
+			CodePointSet cps = fragmented(random);
+			assertSamePoints(cps, BlockCodePointSet.of(cps));
+		}
+	}
+
+	@Test
+	public void testOperations() {
+		Random random = new Random(20);
+		for (int n = 0; n < 50; n++) {
+			CodePointSet left = fragmented(random), right = fragmented(random);
+			BlockCodePointSet l = BlockCodePointSet.of(left), r = BlockCodePointSet.of(right);
+			assertEquals(BlockCodePointSet.of(left.union(right)), l.union(r));
+			assertEquals(BlockCodePointSet.of(left.minus(right)), l.minus(r));
+			assertEquals(BlockCodePointSet.of(left.intersect(right)), l.intersect(r));
+			assertEquals(BlockCodePointSet.of(CodePointSet.not(left)), BlockCodePointSet.not(l));
+			assertEquals(l, BlockCodePointSet.not(BlockCodePointSet.not(l)));
+			assertEquals(l.hashCode(), BlockCodePointSet.of(l.toCodePointSet()).hashCode());
+		}
+		assertEquals(BlockCodePointSet.NONE, BlockCodePointSet.not(BlockCodePointSet.ALL));
+		assertFalse(BlockCodePointSet.NONE.equals(BlockCodePointSet.ALL));
+	}
+
+	@Test
+	public void testContainers() {
+		// a comb across a block needs a bitmap, a few ranges a range list, and neither empty nor full blocks need anything
+		BlockCodePointSet blocks = BlockCodePointSet.of(even(0x1000, 0x2000).union(all(0x3000, 0x3010)).union(all(0x5000, 0x7000)));
+		assertEquals(BlockCodePointSet.BITMAP, blocks.kinds[1]);
+		assertEquals(BlockCodePointSet.RANGES, blocks.kinds[3]);
+		assertEquals(BlockCodePointSet.FULL, blocks.kinds[5]);
+		assertEquals(BlockCodePointSet.FULL, blocks.kinds[6]);
+		assertEquals(BlockCodePointSet.EMPTY, blocks.kinds[7]);
+		assertEquals(512 + 4, blocks.footprint());
+		assertEquals(0, BlockCodePointSet.ALL.footprint());
+		assertTrue(blocks.contains(0x1FFE));
+		assertFalse(blocks.contains(0x1FFF));
+		assertTrue(blocks.contains(0x300F));
+		assertFalse(blocks.contains(0x3010));
+	}
+}
@@ -0,0 +1,79 @@
+package jargon.parse;
+
+import static jargon.parse.CodePointExpression.intersect;
+import static jargon.parse.CodePointExpression.minus;
+import static jargon.parse.CodePointExpression.not;
+import static jargon.parse.CodePointExpression.of;
+import static jargon.parse.CodePointExpression.union;
+import static jargon.parse.CodePointSet.all;
+import static jargon.parse.CodePointSet.even;
+import static jargon.parse.CodePointSet.odd;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class CodePointExpressionTest {
+	@Test
+	public void testSimple() {
+		CodePointSet a = all(5, 15), b = odd(9, 13), c = all(12, 20);
+		assertEquals(a.union(b).union(c), union(of(a), of(b), of(c)).evaluate());
+		assertEquals(a.intersect(c), intersect(of(a), of(c)).evaluate());
+		assertEquals(a.minus(b), minus(of(a), of(b)).evaluate());
+		assertEquals(CodePointSet.not(a), not(of(a)).evaluate());
+		assertEquals(CodePointSet.ALL, not(of(CodePointSet.NONE)).evaluate());
+		assertEquals(CodePointSet.NONE, not(of(CodePointSet.ALL)).evaluate());
+		assertEquals(CodePointSet.NONE, union().evaluate());
+		assertEquals(CodePointSet.NONE, minus(of(a), of(a)).evaluate());
+	}
+	
+	@Test
+	public void testNested() {
+		CodePointSet a = CodePointSet.charRanges('a', 'z', 'A', 'Z');
+		CodePointSet b = CodePointSet.charRanges('0', '9', 'a', 'f', 'A', 'F');
+		CodePointSet c = odd(0x41, 0x101).union(even(0x100, 0x180));
+		CodePointSet d = CodePointSet.chars('\r', '\n', 'c');
+		CodePointSet expected = CodePointSet.not(a.union(b.intersect(c.minus(d))));
+		assertEquals(expected, not(union(of(a), intersect(of(b), minus(of(c), of(d))))).evaluate());
+	}
+	
+	@Test
+	public void testRandom() {
+		Random random = new Random(7);
+		for (int round = 0; round < 200; round++) {
+			CodePointSet[] sets = new CodePointSet[4];
+			for (int i = 0; i < sets.length; i++)
+				sets[i] = randomSet(random);
+			CodePointSet expected = sets[0].minus(sets[1]).union(CodePointSet.not(sets[2].intersect(sets[3]))).intersect(sets[1].union(sets[3]));
+			CodePointExpression expression = intersect(
+					union(minus(of(sets[0]), of(sets[1])), not(intersect(of(sets[2]), of(sets[3])))),
+					union(of(sets[1]), of(sets[3])));
+			assertEquals(expression.toString(), expected, expression.evaluate());
+		}
+	}
+	
+	static CodePointSet randomSet(Random random) {
+		CodePointSet.Builder builder = new CodePointSet.Builder();
+		int ranges = random.nextInt(6);
+		for (int i = 0; i < ranges; i++) {
+			int start = random.nextInt(200);
+			int end = start + random.nextInt(40);
+			switch (random.nextInt(3)) {
+			case 0:
+				builder.add(start, end);
+				break;
+			case 1:
+				builder.addOdd(start, end);
+				break;
+			default:
+				builder.addEven(start, end);
+				break;
+			}
+		}
+		if (random.nextInt(10) == 0)
+			builder.add(0x10FF00, CodePointSet.UNICODE_END);
+		return builder.build();
+	}
+}
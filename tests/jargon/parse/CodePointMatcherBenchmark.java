@@ -0,0 +1,156 @@
+package jargon.parse;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Compares the throughput of CodePointSet.contains() to CodePointMatcher.contains(),
+ * and of a contains() loop over a string to CodePointMatcher.span(), on ASCII-heavy and CJK-heavy input,
+ * and of span() over UTF-8 a byte at a time to span() a word at a time (for sets with a few ASCII ranges).
+ * Run as a plain java application, results are in millions of code points per second.
+ */
+public class CodePointMatcherBenchmark {
+	static final int INPUT_SIZE = 1 << 20;
+	static final int ROUNDS = 20;
+	
+	public static void main(String[] args) {
+		CodePointSet inputCharacter = CodePointSet.not(CodePointSet.chars('\r', '\n'));
+		CodePointSet hexDigit = CodePointSet.charRanges('0', '9', 'a', 'f', 'A', 'F');
+		CodePointSet letters = letters();
+		int[] ascii = input(new Random(1), 0x20, 0x7F, 0.01);
+		int[] cjk = input(new Random(2), 0x4E00, 0x9FCC, 0.10);
+		
+		run("InputCharacter", inputCharacter, ascii, cjk);
+		run("HexDigit", hexDigit, ascii, cjk);
+		run("Letter", letters, ascii, cjk);
+	}
+	
+	// the BMP letters, which is a set with a realistic number of ranges
+	static CodePointSet letters() {
+		CodePointSet.Builder builder = new CodePointSet.Builder();
+		for (int cp = 0; cp < 0x10000; cp++) {
+			if (Character.isLetter(cp))
+				builder.add(cp);
+		}
+		return builder.build();
+	}
+	
+	// mostly points from [start, end) with "other" fraction of any BMP point
+	static int[] input(Random random, int start, int end, double other) {
+		int[] input = new int[INPUT_SIZE];
+		for (int i = 0; i < input.length; i++) {
+			if (random.nextDouble() < other)
+				input[i] = random.nextInt(0x10000);
+			else
+				input[i] = start + random.nextInt(end - start);
+		}
+		return input;
+	}
+	
+	static void run(String name, CodePointSet cps, int[] ascii, int[] cjk) {
+		CodePointMatcher matcher = cps.matcher();
+		System.out.println(name + " (" + (cps.odd.length + cps.even.length) + " range points)");
+		report("  ascii set", measureSet(cps, ascii));
+		report("  ascii matcher", measureMatcher(matcher, ascii));
+		report("  cjk set", measureSet(cps, cjk));
+		report("  cjk matcher", measureMatcher(matcher, cjk));
+		report("  ascii loop", measureLoop(matcher, string(ascii)));
+		report("  ascii span", measureSpan(matcher, string(ascii)));
+		report("  cjk loop", measureLoop(matcher, string(cjk)));
+		report("  cjk span", measureSpan(matcher, string(cjk)));
+		if (matcher.spanWords != null) {
+			byte[] utf8 = string(ascii).getBytes(Charset.forName("UTF-8"));
+			report("  utf8 span bytes", measureSpan(new CodePointMatcher(cps, false), utf8));
+			report("  utf8 span words", measureSpan(matcher, utf8));
+		}
+	}
+	
+	static String string(int[] input) {
+		return new String(input, 0, input.length);
+	}
+	
+	static void report(String label, double rate) {
+		System.out.println(label + ": " + Math.round(rate) + " Mcp/s");
+	}
+	
+	static int sink;
+	
+	static double measureSet(CodePointSet cps, int[] input) {
+		long best = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			int count = 0;
+			for (int i = 0; i < input.length; i++) {
+				if (cps.contains(input[i]))
+					count++;
+			}
+			best = Math.min(best, System.nanoTime() - start);
+			sink += count;
+		}
+		return input.length * 1000.0 / best;
+	}
+	
+	static double measureMatcher(CodePointMatcher matcher, int[] input) {
+		long best = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			int count = 0;
+			for (int i = 0; i < input.length; i++) {
+				if (matcher.contains(input[i]))
+					count++;
+			}
+			best = Math.min(best, System.nanoTime() - start);
+			sink += count;
+		}
+		return input.length * 1000.0 / best;
+	}
+	
+	static double measureLoop(CodePointMatcher matcher, String input) {
+		long best = Long.MAX_VALUE;
+		int length = input.length();
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			int count = 0;
+			for (int i = 0; i < length; i++) {
+				if (matcher.contains(input.charAt(i)))
+					count++;
+			}
+			best = Math.min(best, System.nanoTime() - start);
+			sink += count;
+		}
+		return length * 1000.0 / best;
+	}
+	
+	// counts the runs of members, stepping over each non-member
+	static double measureSpan(CodePointMatcher matcher, String input) {
+		long best = Long.MAX_VALUE;
+		int length = input.length();
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			int count = 0;
+			for (int i = 0; i < length; i++) {
+				i = matcher.span(input, i);
+				count++;
+			}
+			best = Math.min(best, System.nanoTime() - start);
+			sink += count;
+		}
+		return length * 1000.0 / best;
+	}
+	
+	// as above, but the rates are in millions of bytes per second
+	static double measureSpan(CodePointMatcher matcher, byte[] input) {
+		long best = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			int count = 0;
+			for (int i = 0; i < input.length; i++) {
+				i = matcher.span(input, i, input.length);
+				count++;
+			}
+			best = Math.min(best, System.nanoTime() - start);
+			sink += count;
+		}
+		return input.length * 1000.0 / best;
+	}
+}
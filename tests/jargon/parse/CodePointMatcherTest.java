@@ -0,0 +1,171 @@
+package jargon.parse;
+
+import static jargon.parse.CodePointSet.all;
+import static jargon.parse.CodePointSet.even;
+import static jargon.parse.CodePointSet.odd;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class CodePointMatcherTest {
+	private static void assertSameAnswers(CodePointSet cps) {
+		CodePointMatcher matcher = cps.matcher();
+		for (int cp = -2; cp < CodePointSet.UNICODE_END + 2; cp++)
+			assertEquals("code point " + cp + " in " + cps, cps.contains(cp), matcher.contains(cp));
+	}
+	
+	@Test
+	public void testEmptyAndAll() {
+		assertSameAnswers(CodePointSet.NONE);
+		assertSameAnswers(CodePointSet.ALL);
+	}
+	
+	@Test
+	public void testLatin1() {
+		assertSameAnswers(CodePointSet.charRanges('0', '9', 'a', 'f', 'A', 'F'));
+		assertSameAnswers(CodePointSet.not(CodePointSet.chars('\r', '\n')));
+		assertSameAnswers(all(0x3F, 0x41).union(all(0x7F, 0x101)));
+	}
+	
+	@Test
+	public void testCombed() {
+		assertSameAnswers(odd(0x101, 0x17F));
+		assertSameAnswers(even(0xFF, 0x10100));
+		assertSameAnswers(odd(0x5, 0xB).union(even(0xA, 0x12)).union(odd(0x11, 0x19)));
+	}
+	
+	@Test
+	public void testBlockBoundaries() {
+		assertSameAnswers(all(0xFF, 0x100));
+		assertSameAnswers(all(0x4E00, 0x9FCC));
+		assertSameAnswers(all(0xFFFF, 0x10001));
+		assertSameAnswers(all(0xFFFE, 0x10003).union(odd(0x20000, 0x2A6D7)));
+	}
+	
+	@Test
+	public void testSupplementary() {
+		assertSameAnswers(all(0x10000, CodePointSet.UNICODE_END));
+		assertSameAnswers(all(0x1D400, 0x1D6A6).union(even(0x1E900, 0x1E944)).union(all(0x10FFFF, 0x110000)));
+	}
+	
+	// the offset of the first code point of a string whose membership is not the given one, one code point at a time
+	private static int slowSpan(CodePointSet cps, String s, int from, boolean member) {
+		int i = from;
+		while (i < s.length()) {
+			int cp = s.codePointAt(i);
+			if (cps.contains(cp) != member)
+				return i;
+			i += Character.charCount(cp);
+		}
+		return i;
+	}
+	
+	@Test
+	public void testSpan() {
+		int[] samples = { 'a', 'z', '0', ' ', 0xE9, 0xFF, 0x100, 0x101, 0x4E00, 0xFFFD, 0xD800, 0x10000, 0x10001, 0x1D400, 0x10FFFF };
+		CodePointSet[] sets = {
+				CodePointSet.NONE,
+				CodePointSet.ALL,
+				CodePointSet.charRanges('a', 'z'),
+				all(0xE0, 0x4E01).union(odd(0x10001, 0x1D401)),
+				even(0x0, 0x110000),
+		};
+		Random random = new Random(17);
+		Charset utf8 = Charset.forName("UTF-8");
+		for (CodePointSet cps : sets) {
+			CodePointMatcher matcher = cps.matcher();
+			for (int n = 0; n < 200; n++) {
+				StringBuilder sb = new StringBuilder(), eb = new StringBuilder();
+				int length = random.nextInt(20);
+				for (int k = 0; k < length; k++) {
+					int cp = samples[random.nextInt(samples.length)];
+					sb.appendCodePoint(cp);
+					eb.appendCodePoint(cp == 0xD800 ? '?' : cp);
+				}
+				String s = sb.toString();
+				int from = s.length() == 0 ? 0 : s.offsetByCodePoints(0, random.nextInt(s.codePointCount(0, s.length()) + 1));
+				assertEquals(cps + " " + s, slowSpan(cps, s, from, true), matcher.span(s, from));
+				assertEquals(cps + " " + s, slowSpan(cps, s, from, false), matcher.spanNot(s, from));
+				
+				// the same offsets in bytes (a lone surrogate cannot be encoded, so it is replaced)
+				String encodable = eb.toString();
+				byte[] bytes = encodable.getBytes(utf8);
+				int byteFrom = encodable.substring(0, from).getBytes(utf8).length;
+				int end = slowSpan(cps, encodable, from, true);
+				assertEquals(encodable.substring(0, end).getBytes(utf8).length, matcher.span(bytes, byteFrom, bytes.length));
+				end = slowSpan(cps, encodable, from, false);
+				assertEquals(encodable.substring(0, end).getBytes(utf8).length, matcher.spanNot(bytes, byteFrom, bytes.length));
+				
+				int[] codepoints = new int[encodable.codePointCount(0, encodable.length())];
+				for (int i = 0, k = 0; i < encodable.length(); i += Character.charCount(codepoints[k++]))
+					codepoints[k] = encodable.codePointAt(i);
+				boolean all = true;
+				for (int cp : codepoints)
+					all &= cps.contains(cp);
+				assertEquals(all, cps.containsAll(codepoints, 0, codepoints.length));
+			}
+		}
+	}
+	
+	@Test
+	public void testSpanMalformed() {
+		CodePointMatcher matcher = CodePointSet.charRanges('a', 'z').union(CodePointSet.chars('\uFFFD')).matcher();
+		// a stray continuation byte, an overlong encoding and an encoded surrogate are all U+FFFD
+		byte[] bytes = { 'a', (byte)0x80, 'b', (byte)0xC0, (byte)0xAF, (byte)0xED, (byte)0xA0, (byte)0x80, 'c', '!' };
+		assertEquals(9, matcher.span(bytes, 0, bytes.length));
+		assertEquals(2, CodePointSet.charRanges('a', 'z').matcher().spanNot(bytes, 1, bytes.length));
+		// a sequence cut short by the end of the input ends the span
+		byte[] cut = { 'a', 'b', (byte)0xE4, (byte)0xB8 };
+		assertEquals(2, matcher.span(cut, 0, cut.length));
+		assertEquals(2, CodePointSet.NONE.matcher().spanNot(cut, 0, cut.length));
+		assertTrue(matcher.containsAll(new int[] { 'a', 0xFFFD, 'z' }, 0, 3));
+		assertFalse(matcher.containsAll(new int[] { 'a', '!', 'z' }, 0, 3));
+		assertTrue(matcher.containsAll(new int[] { 'a', '!', 'z' }, 2, 1));
+	}
+	
+	@Test
+	public void testSpanWords() {
+		// sets with a few ASCII ranges are scanned a word at a time, which must agree with scanning a byte at a time
+		CodePointSet[] sets = {
+				CodePointSet.ALL,
+				CodePointSet.charRanges('a', 'z'),
+				CodePointSet.charRanges('0', '9', 'a', 'f', 'A', 'F').union(all(0x100, 0x10000)),
+				CodePointSet.not(CodePointSet.chars('\r', '\n')),
+				CodePointSet.charRanges('\u0000', '\u007F'),
+				odd(0x20, 0x80),
+		};
+		byte[] alphabet = "az09AF_\r\n \u007F\u0000".getBytes(Charset.forName("UTF-8"));
+		byte[][] multi = { { (byte)0xC3, (byte)0xA9 }, { (byte)0xE4, (byte)0xB8, (byte)0x80 }, { (byte)0x80 }, { (byte)0xF0, (byte)0x9F } };
+		Random random = new Random(18);
+		for (CodePointSet cps : sets) {
+			CodePointMatcher words = new CodePointMatcher(cps, true);
+			CodePointMatcher bytes = new CodePointMatcher(cps, false);
+			for (int n = 0; n < 500; n++) {
+				byte[] utf8 = new byte[random.nextInt(80)];
+				for (int i = 0; i < utf8.length; i++) {
+					if (random.nextInt(20) == 0) {
+						byte[] m = multi[random.nextInt(multi.length)];
+						for (int k = 0; k < m.length && i < utf8.length; k++)
+							utf8[i++] = m[k];
+						i--;
+					}
+					else {
+						utf8[i] = alphabet[random.nextInt(random.nextBoolean() ? 2 : alphabet.length)];
+					}
+				}
+				int from = random.nextInt(utf8.length + 1);
+				int to = from + random.nextInt(utf8.length - from + 1);
+				assertEquals(bytes.span(utf8, from, to), words.span(utf8, from, to));
+				assertEquals(bytes.spanNot(utf8, from, to), words.spanNot(utf8, from, to));
+			}
+		}
+		assertTrue(CodePointSet.charRanges('a', 'z').matcher().spanWords != null);
+		assertTrue(CodePointSet.chars('a', 'c', 'e', 'g', 'i').matcher().spanWords == null);
+	}
+}
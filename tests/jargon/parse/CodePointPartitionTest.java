@@ -0,0 +1,90 @@
+package jargon.parse;
+
+import static jargon.parse.CodePointSet.all;
+import static jargon.parse.CodePointSet.odd;
+import static org.junit.Assert.assertEquals;
+
+import java.util.BitSet;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+
+public class CodePointPartitionTest {
+	@Test
+	public void testEmpty() {
+		CodePointPartition partition = new CodePointPartition();
+		assertEquals(1, partition.getClassCount());
+		assertEquals(0, partition.classOf(0x10FFFF));
+		assertEquals(-1, partition.classOf(CodePointSet.UNICODE_END));
+		assertEquals(-1, partition.classOf(-1));
+		assertEquals(CodePointSet.ALL, partition.getClassSet(0));
+	}
+	
+	@Test
+	public void testLexicalSets() {
+		CodePointSet[] sets = {
+				CodePointSet.ALL,
+				CodePointSet.charRanges('0', '9', 'a', 'f', 'A', 'F'),
+				CodePointSet.not(CodePointSet.chars('\r', '\n')),
+				CodePointSet.chars('\r'),
+				CodePointSet.chars('\n'),
+				CodePointSet.chars('\\'),
+				CodePointSet.chars('u'),
+				CodePointSet.charRanges('a', 'z', 'A', 'Z', '_', '_'),
+		};
+		CodePointPartition partition = new CodePointPartition(sets);
+		// CR, LF, backslash, u, hex letters, other letters (and underscore), digits, everything else
+		assertEquals(8, partition.getClassCount());
+		assertEquals(0, partition.classOf(0));
+		assertPartitions(partition, sets);
+	}
+	
+	@Test
+	public void testCombed() {
+		CodePointSet[] sets = {
+				odd(0x101, 0x180),
+				all(0x100, 0x140),
+				all(0x170, 0x10001),
+				odd(0x1D400, 0x1D500).union(all(0x10FFF0, CodePointSet.UNICODE_END)),
+		};
+		assertPartitions(new CodePointPartition(sets), sets);
+	}
+	
+	@Test
+	public void testRandom() {
+		java.util.Random random = new java.util.Random(11);
+		CodePointSet[] sets = new CodePointSet[12];
+		for (int i = 0; i < sets.length; i++)
+			sets[i] = CodePointExpressionTest.randomSet(random);
+		assertPartitions(new CodePointPartition(sets), sets);
+	}
+	
+	private static void assertPartitions(CodePointPartition partition, CodePointSet[] sets) {
+		// each set must be the union of its classes
+		for (int i = 0; i < sets.length; i++) {
+			CodePointSet.Builder builder = new CodePointSet.Builder();
+			BitSet classes = partition.getSetClasses(i);
+			for (int c = classes.nextSetBit(0); c >= 0; c = classes.nextSetBit(c + 1))
+				builder.add(partition.getClassSet(c));
+			assertEquals(sets[i], builder.build());
+		}
+		// points are in the same class exactly when they have the same membership, and classes are numbered by lowest point
+		HashMap<BitSet, Integer> classOfSignature = new HashMap<BitSet, Integer>();
+		int nextClass = 0;
+		for (int cp = 0; cp < CodePointSet.UNICODE_END; cp++) {
+			BitSet signature = new BitSet();
+			for (int i = 0; i < sets.length; i++) {
+				if (sets[i].contains(cp))
+					signature.set(i);
+			}
+			Integer expected = classOfSignature.get(signature);
+			if (expected == null) {
+				expected = nextClass++;
+				classOfSignature.put(signature, expected);
+			}
+			assertEquals("class of " + cp, expected.intValue(), partition.classOf(cp));
+		}
+		assertEquals(nextClass, partition.getClassCount());
+	}
+}
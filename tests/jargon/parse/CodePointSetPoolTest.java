@@ -0,0 +1,54 @@
+package jargon.parse;
+
+import static jargon.parse.CodePointSet.all;
+import static jargon.parse.CodePointSet.odd;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashSet;
+
+import org.junit.Test;
+
+
+public class CodePointSetPoolTest {
+	@Test
+	public void testHashCode() {
+		CodePointSet a = all(5, 10).union(odd(21, 31));
+		CodePointSet b = new CodePointSet.Builder().addOdd(21, 31).add(5, 10).build();
+		assertEquals(a, b);
+		assertEquals(a.hashCode(), b.hashCode());
+		HashSet<CodePointSet> set = new HashSet<CodePointSet>();
+		set.add(a);
+		set.add(b);
+		assertEquals(1, set.size());
+	}
+	
+	@Test
+	public void testIntern() {
+		CodePointSetPool pool = new CodePointSetPool(16);
+		CodePointSet a = all(5, 10);
+		CodePointSet b = all(5, 8).union(all(7, 10));
+		assertNotSame(a, b);
+		assertSame(a, pool.intern(a));
+		assertSame(a, pool.intern(b));
+		assertSame(pool.intern(CodePointSet.charRanges('a', 'z')), pool.intern(CodePointSet.charRanges('a', 'm', 'n', 'z')));
+	}
+	
+	@Test
+	public void testOperations() {
+		CodePointSetPool pool = new CodePointSetPool(16);
+		CodePointSet a = all(5, 15);
+		CodePointSet b = odd(9, 13);
+		CodePointSet union = pool.union(a, b);
+		assertEquals(a.union(b), union);
+		assertSame(union, pool.union(b, all(5, 15)));
+		assertEquals(1, pool.getHits());
+		assertEquals(a.minus(b), pool.minus(a, b));
+		assertEquals(a.intersect(b), pool.intersect(a, b));
+		assertEquals(b, pool.intersect(a, b));
+		assertSame(pool.intern(b), pool.intersect(b, a));
+		assertEquals(3, pool.getHits());
+		assertEquals(3, pool.getMisses());
+	}
+}
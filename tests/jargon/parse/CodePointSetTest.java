@@ -164,4 +164,42 @@ public class CodePointSetTest {
 		assertEquals("{05~09-0A~10-11~17}", odd(0x5, 0xB).union(even(0xA, 0x12)).union(odd(0x11,0x19)).toString());
 	}
 	
-}
\ No newline at end of file
+	@Test
+	public void testBuilder() {
+		assertEquals(
+				all(5, 10).union(all(12, 13)).union(odd(21, 31)).union(even(30, 40)),
+				new CodePointSet.Builder().addEven(30, 40).add(12).add(7, 10).addOdd(21, 31).add(5, 8).build()
+				);
+		assertEquals(all(0x41, 0x5B), new CodePointSet.Builder().add(0x50, 0x5B).add(0x41, 0x51).add(0x45, 0x46).build());
+		assertEquals(CodePointSet.NONE, new CodePointSet.Builder().add(5, 5).build());
+		assertEquals(CodePointSet.ALL, new CodePointSet.Builder().add(0x10, CodePointSet.UNICODE_END).add(0, 0x11).build());
+		CodePointSet cps = odd(5, 0xF).union(even(0xA, 0x12)).union(all(0x30, 0x35));
+		assertEquals(cps, new CodePointSet.Builder().add(cps).add(cps).build());
+	}
+	
+	@Test
+	public void testCharRanges() {
+		CodePointSet cps = CodePointSet.charRanges('a', 'f', '0', '9', 'A', 'F', 'e', 'z');
+		assertEquals(all('0', '9' + 1).union(all('A', 'F' + 1)).union(all('a', 'z' + 1)), cps);
+		assertEquals(all(0x100, CodePointSet.UNICODE_END), CodePointSet.charRanges((char)0x100));
+		assertEquals(all('\n', '\n' + 1).union(all('\r', '\r' + 1)), CodePointSet.chars('\r', '\n', '\r'));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testBuilderReversedRange() {
+		new CodePointSet.Builder().add(10, 5);
+	}
+	@Test
+	public void testNext() {
+		CodePointSet cps = odd(5, 0xF).union(even(0x20, 0x26)).union(all(0x30, 0x35));
+		int expected = -1;
+		for (int cp = 0x40; cp >= 0; cp--) {
+			if (cps.contains(cp))
+				expected = cp;
+			assertEquals(expected, cps.next(cp));
+		}
+		assertEquals(-1, CodePointSet.NONE.next(0));
+		assertEquals(0x10FFFF, CodePointSet.ALL.next(0x10FFFF));
+		assertEquals(-1, CodePointSet.ALL.next(CodePointSet.UNICODE_END));
+	}
+}
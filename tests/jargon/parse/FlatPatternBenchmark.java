@@ -0,0 +1,74 @@
+package jargon.parse;
+
+/**
+ * Compares matching a keyword alternation by walking the PatternNode object graph to matching its FlatPattern form,
+ * each with and without the literals merged into a KeywordMatcher.
+ * Run as a plain java application.
+ */
+public class FlatPatternBenchmark {
+	static final String[] KEYWORDS = {
+		"abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const", "continue",
+		"default", "do", "double", "else", "enum", "extends", "final", "finally", "float", "for", "goto", "if",
+		"implements", "import", "instanceof", "int", "interface", "long", "native", "new", "package", "private",
+		"protected", "public", "return", "short", "static", "strictfp", "super", "switch", "synchronized", "this",
+		"throw", "throws", "transient", "try", "void", "volatile", "while",
+	};
+	static final int ROUNDS = 20;
+	static int sink;
+
+	public static void main(String[] args) {
+		run("java keywords", KEYWORDS);
+		// as many keywords as a large SQL dialect has
+		java.util.Random random = new java.util.Random(2);
+		java.util.LinkedHashSet<String> keywords = new java.util.LinkedHashSet<String>();
+		while (keywords.size() < 900) {
+			StringBuilder sb = new StringBuilder();
+			for (int n = 2 + random.nextInt(10); n > 0; n--)
+				sb.append((char)('a' + random.nextInt(26)));
+			keywords.add(sb.toString());
+		}
+		run("900 keywords", keywords.toArray(new String[keywords.size()]));
+	}
+
+	static void run(String name, String[] keywords) {
+		PatternNode[] literals = new PatternNode[keywords.length];
+		for (int i = 0; i < literals.length; i++)
+			literals[i] = PatternNode.stringLiteral(keywords[i]);
+		PatternNode graph = PatternNode.alternatives(literals);
+		FlatPattern flat = graph.compile();
+		PatternNode mergedGraph = PatternNode.mergeLiterals(graph);
+		FlatPattern merged = mergedGraph.compile();
+		StringBuilder sb = new StringBuilder();
+		java.util.Random random = new java.util.Random(1);
+		int[] offsets = new int[100000];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = sb.length();
+			sb.append(keywords[random.nextInt(keywords.length)]).append(' ');
+		}
+		String input = sb.toString();
+		long graphBest = Long.MAX_VALUE, flatBest = Long.MAX_VALUE, mergedGraphBest = Long.MAX_VALUE, mergedBest = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (int offset : offsets)
+				sink += graph.match(input, offset);
+			graphBest = Math.min(graphBest, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int offset : offsets)
+				sink += flat.match(input, offset);
+			flatBest = Math.min(flatBest, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int offset : offsets)
+				sink += mergedGraph.match(input, offset);
+			mergedGraphBest = Math.min(mergedGraphBest, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int offset : offsets)
+				sink += merged.match(input, offset);
+			mergedBest = Math.min(mergedBest, System.nanoTime() - start);
+		}
+		System.out.println(name);
+		System.out.println(String.format("  graph:         %.2f M matches/s", offsets.length * 1000.0 / graphBest));
+		System.out.println(String.format("  flat:          %.2f M matches/s", offsets.length * 1000.0 / flatBest));
+		System.out.println(String.format("  merged graph:  %.2f M matches/s", offsets.length * 1000.0 / mergedGraphBest));
+		System.out.println(String.format("  merged flat:   %.2f M matches/s", offsets.length * 1000.0 / mergedBest));
+	}
+}
@@ -0,0 +1,111 @@
+package jargon.parse;
+
+import static jargon.parse.PatternNode.alternatives;
+import static jargon.parse.PatternNode.mergeLiterals;
+import static jargon.parse.PatternNode.stringLiteral;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import jargon.parse.PatternNode.BranchNode;
+import jargon.parse.PatternNode.KeywordNode;
+import jargon.parse.PatternNode.SetNode;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class FlatPatternTest {
+	private static void assertMatches(PatternNode node, String input, int expected) {
+		assertEquals(expected, node.match(input, 0));
+		assertEquals(expected, node.compile().match(input, 0));
+	}
+
+	@Test
+	public void testStringLiteral() {
+		PatternNode literal = stringLiteral("while");
+		assertMatches(literal, "while", 5);
+		assertMatches(literal, "whiled", 5);
+		assertMatches(literal, "whil", -1);
+		assertMatches(literal, "", -1);
+		assertMatches(stringLiteral(""), "x", 0);
+		assertMatches(stringLiteral("a\uD83D\uDE00b"), "a\uD83D\uDE00b", 4);
+		assertEquals(5, literal.compile().size());
+	}
+
+	@Test
+	public void testAlternatives() {
+		PatternNode keywords = alternatives(stringLiteral("in"), stringLiteral("int"), stringLiteral("if"));
+		assertMatches(keywords, "int", 2);
+		assertMatches(keywords, "if", 2);
+		assertMatches(keywords, "i", -1);
+		assertMatches(keywords, "for", -1);
+	}
+
+	@Test
+	public void testBacktracking() {
+		// ("a" | "ab") followed by "c" has to backtrack into the second alternative
+		PatternNode node = new BranchNode(alternatives(stringLiteral("a"), stringLiteral("ab")), stringLiteral("c"), null);
+		assertMatches(node, "abc", 3);
+		assertMatches(node, "ac", 2);
+		assertMatches(node, "ab", -1);
+		PatternNode digits = new BranchNode(new SetNode(CodePointSet.charRanges('0', '9')), new SetNode(CodePointSet.charRanges('0', '9')), stringLiteral("x"));
+		assertMatches(digits, "42", 2);
+		assertMatches(digits, "x", 1);
+	}
+
+	@Test
+	public void testBuilder() {
+		FlatPattern.Builder builder = new FlatPattern.Builder();
+		int hex = builder.series(-1, CodePointSet.charRanges('0', '9', 'a', 'f'), CodePointSet.charRanges('0', '9', 'a', 'f'));
+		int start = builder.alternative(builder.stringLiteral("0x", hex), builder.stringLiteral("#", hex));
+		FlatPattern pattern = builder.build(start);
+		assertEquals(4, pattern.match("0xff", 0));
+		assertEquals(3, pattern.match("#a0", 0));
+		assertEquals(-1, pattern.match("#g0", 0));
+		assertEquals(1, pattern.getSetCount());
+	}
+
+	@Test
+	public void testMergeLiterals() {
+		PatternNode merged = mergeLiterals(new BranchNode(alternatives(stringLiteral("a"), stringLiteral("ab")), stringLiteral("c"), null));
+		assertTrue(((BranchNode)merged).node instanceof KeywordNode);
+		assertMatches(merged, "abc", 3);
+		assertMatches(merged, "ac", 2);
+		assertMatches(merged, "ab", -1);
+		assertEquals(1, merged.compile().getKeywordsCount());
+
+		// random alternatives of literals (and of the odd set) followed by more of the same, matching as before they were merged
+		String[] alphabet = { "a", "b", "\u00E9" };
+		Random random = new Random(22);
+		for (int n = 0; n < 300; n++) {
+			PatternNode[] parts = new PatternNode[1 + random.nextInt(3)];
+			for (int p = 0; p < parts.length; p++) {
+				PatternNode[] nodes = new PatternNode[1 + random.nextInt(6)];
+				for (int i = 0; i < nodes.length; i++) {
+					if (random.nextInt(6) == 0) {
+						nodes[i] = new SetNode(CodePointSet.chars('a', 'b'));
+						continue;
+					}
+					StringBuilder sb = new StringBuilder();
+					for (int k = random.nextInt(4); k > 0; k--)
+						sb.append(alphabet[random.nextInt(alphabet.length)]);
+					nodes[i] = stringLiteral(sb.toString());
+				}
+				parts[p] = alternatives(nodes);
+			}
+			PatternNode node = PatternNode.series(0, parts);
+			PatternNode mergedNode = mergeLiterals(node);
+			FlatPattern flat = mergedNode.compile();
+			for (int i = 0; i < 10; i++) {
+				StringBuilder sb = new StringBuilder();
+				for (int k = random.nextInt(8); k > 0; k--)
+					sb.append(alphabet[random.nextInt(alphabet.length)]);
+				String input = sb.toString();
+				int expected = node.match(input, 0);
+				assertEquals(expected, node.compile().match(input, 0));
+				assertEquals(expected, mergedNode.match(input, 0));
+				assertEquals(expected, flat.match(input, 0));
+			}
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package jargon.parse;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import warrenfalk.util.LongList;
+
+
+public class KeywordMatcherTest {
+	private static String random(Random random, String[] alphabet, int maxLength) {
+		StringBuilder sb = new StringBuilder();
+		for (int n = random.nextInt(maxLength + 1); n > 0; n--)
+			sb.append(alphabet[random.nextInt(alphabet.length)]);
+		return sb.toString();
+	}
+
+	@Test
+	public void testLongestAndPrefixes() {
+		KeywordMatcher matcher = new KeywordMatcher("int", "in", "interface", "if", "\u00E9t\u00E9", "\uD83D\uDE00!", "in");
+		long match = matcher.longest("interfaces", 0);
+		assertEquals(2, KeywordMatcher.keyword(match));
+		assertEquals(9, KeywordMatcher.end(match));
+		assertEquals(0, matcher.start(match));
+		assertEquals(-1, matcher.longest("i", 0));
+		assertEquals(-1, matcher.longest("", 0));
+		assertEquals(4, KeywordMatcher.end(matcher.longest("x\u00E9t\u00E9", 1)));
+		assertEquals(5, KeywordMatcher.keyword(matcher.longest("\uD83D\uDE00!", 0)));
+		long[] matches = new long[matcher.getMaxMatches()];
+		// in the order of the keywords, a repeated keyword only matching as the first
+		assertEquals(3, matcher.prefixes("interface", 0, matches));
+		assertEquals(0, KeywordMatcher.keyword(matches[0]));
+		assertEquals(1, KeywordMatcher.keyword(matches[1]));
+		assertEquals(2, KeywordMatcher.keyword(matches[2]));
+		assertEquals(2, KeywordMatcher.end(matches[1]));
+		assertEquals(0, matcher.prefixes("if", 1, matches));
+	}
+
+	@Test
+	public void testEmptyKeyword() {
+		KeywordMatcher matcher = new KeywordMatcher("ab", "");
+		assertEquals(1, KeywordMatcher.keyword(matcher.longest("x", 0)));
+		assertEquals(0, KeywordMatcher.end(matcher.longest("x", 0)));
+		LongList all = new LongList();
+		matcher.findAll("abab", 0, 4, all);
+		assertEquals(2, all.size());
+	}
+
+	@Test
+	public void testSameAsNaive() {
+		String[] alphabet = { "a", "b", "c", "\u00E9", "\u4E00", "\uD83D\uDE00" };
+		Random random = new Random(22);
+		for (int n = 0; n < 200; n++) {
+			String[] keywords = new String[1 + random.nextInt(30)];
+			for (int k = 0; k < keywords.length; k++) {
+				do
+					keywords[k] = random(random, alphabet, 5);
+				while (keywords[k].length() == 0);
+			}
+			KeywordMatcher matcher = new KeywordMatcher(keywords);
+			String input = random(random, alphabet, 40);
+			long[] matches = new long[matcher.getMaxMatches()];
+			for (int offset = 0; offset <= input.length(); offset++) {
+				if (offset > 0 && offset < input.length() && Character.isLowSurrogate(input.charAt(offset)))
+					continue;
+				// every keyword at the offset, by keyword, the first of repeated ones only
+				ArrayList<Integer> expected = new ArrayList<Integer>();
+				long longest = -1;
+				for (int k = 0; k < keywords.length; k++) {
+					boolean first = true;
+					for (int j = 0; j < k; j++)
+						first &= !keywords[j].equals(keywords[k]);
+					if (first && input.startsWith(keywords[k], offset)) {
+						expected.add(k);
+						if (longest == -1 || keywords[k].length() > keywords[KeywordMatcher.keyword(longest)].length())
+							longest = KeywordMatcher.match(k, offset + keywords[k].length());
+					}
+				}
+				int count = matcher.prefixes(input, offset, matches);
+				assertEquals(expected.size(), count);
+				for (int i = 0; i < count; i++)
+					assertEquals((int)expected.get(i), KeywordMatcher.keyword(matches[i]));
+				long next = -1;
+				for (int i = 0; i < count; i++) {
+					next = matcher.nextPrefix(input, offset, next == -1 ? -1 : KeywordMatcher.keyword(next));
+					assertEquals(matches[i], next);
+				}
+				assertEquals(-1, matcher.nextPrefix(input, offset, count == 0 ? -1 : KeywordMatcher.keyword(next)));
+				assertEquals(longest, matcher.longest(input, offset));
+			}
+
+			// every occurrence, ordered by end and then longest first
+			LongList expected = new LongList();
+			for (int end = 1; end <= input.length(); end++) {
+				for (int start = 0; start < end; start++) {
+					for (int k = 0; k < keywords.length; k++) {
+						if (input.startsWith(keywords[k], start) && start + keywords[k].length() == end && input.indexOf(keywords[k]) != -1) {
+							boolean first = true;
+							for (int j = 0; j < k; j++)
+								first &= !keywords[j].equals(keywords[k]);
+							if (first)
+								expected.add(KeywordMatcher.match(k, end));
+						}
+					}
+				}
+			}
+			LongList actual = new LongList();
+			matcher.findAll(input, 0, input.length(), actual);
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++)
+				assertEquals(expected.get(i), actual.get(i));
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package jargon.parse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Makes the tables of UnicodeProperties from java.lang.Character of the running JDK.
+ * Run as a plain java application from the project directory (or give the path of the file to write);
+ * scripts and the Alphabetic and Ideographic properties need Java 7 or later.
+ */
+public class UnicodePropertiesGenerator {
+	// the value of a property of each code point
+	interface Property {
+		Object of(int codepoint) throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+		String path = args.length > 0 ? args[0] : "src/jargon/parse/" + UnicodeProperties.RESOURCE;
+		FileOutputStream out = new FileOutputStream(path);
+		try {
+			out.write(generate());
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	static byte[] generate() throws Exception {
+		LinkedHashMap<String, CodePointSet> sets = new LinkedHashMap<String, CodePointSet>();
+		for (Map.Entry<Object, CodePointSet> e : partition(new Property() {
+			public Object of(int codepoint) {
+				return UnicodeProperties.CATEGORIES[Character.getType(codepoint)];
+			}
+		}).entrySet())
+			sets.put(UnicodeProperties.CATEGORY + e.getKey(), e.getValue());
+		final Method script = scriptOf();
+		if (script != null) {
+			for (Map.Entry<Object, CodePointSet> e : partition(new Property() {
+				public Object of(int codepoint) throws Exception {
+					return script.invoke(null, codepoint).toString();
+				}
+			}).entrySet())
+				sets.put(UnicodeProperties.SCRIPT + e.getKey(), e.getValue());
+		}
+		for (String name : UnicodeProperties.PROPERTIES) {
+			final Method is = predicate(name);
+			if (is == null)
+				continue;
+			CodePointSet cps = partition(new Property() {
+				public Object of(int codepoint) throws Exception {
+					return is.invoke(null, codepoint);
+				}
+			}).get(Boolean.TRUE);
+			sets.put(UnicodeProperties.PROPERTY + name.toLowerCase(Locale.ENGLISH), cps == null ? CodePointSet.NONE : cps);
+		}
+
+		// the sets first, so that their offsets are known when the index is written
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		ArrayList<Integer> offsets = new ArrayList<Integer>();
+		for (CodePointSet cps : sets.values()) {
+			offsets.add(body.size());
+			varint(body, cps.odd.length);
+			points(body, cps.odd);
+			if (cps.even == cps.odd) {
+				varint(body, 0);
+			}
+			else {
+				varint(body, cps.even.length + 1);
+				points(body, cps.even);
+			}
+		}
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream index = new DataOutputStream(header);
+		index.writeInt(UnicodeProperties.MAGIC);
+		index.writeInt(UnicodeProperties.FORMAT);
+		index.writeUTF(System.getProperty("java.version"));
+		index.writeInt(sets.size());
+		int size = header.size();
+		for (String key : sets.keySet())
+			size += 2 + key.length() + 4;
+		int i = 0;
+		for (String key : sets.keySet()) {
+			index.writeUTF(key);
+			index.writeInt(size + offsets.get(i++));
+		}
+		index.flush();
+		body.writeTo(header);
+		return header.toByteArray();
+	}
+
+	// the Character.UnicodeScript.of() method, or null before Java 7
+	static Method scriptOf() {
+		try {
+			return Class.forName("java.lang.Character$UnicodeScript").getMethod("of", int.class);
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+
+	// the Character method of a binary property, or null if this JDK does not have it
+	static Method predicate(String name) {
+		try {
+			return Character.class.getMethod("is" + name, int.class);
+		}
+		catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	// the set of the code points of each value of a property (built from runs of code points with the same value)
+	static Map<Object, CodePointSet> partition(Property property) throws Exception {
+		LinkedHashMap<Object, CodePointSet.Builder> builders = new LinkedHashMap<Object, CodePointSet.Builder>();
+		Object value = property.of(0);
+		int start = 0;
+		for (int cp = 1; cp <= CodePointSet.UNICODE_END; cp++) {
+			Object next = cp == CodePointSet.UNICODE_END ? null : property.of(cp);
+			if (next != null && next.equals(value))
+				continue;
+			CodePointSet.Builder builder = builders.get(value);
+			if (builder == null)
+				builders.put(value, builder = new CodePointSet.Builder());
+			builder.add(start, cp);
+			value = next;
+			start = cp;
+		}
+		LinkedHashMap<Object, CodePointSet> sets = new LinkedHashMap<Object, CodePointSet>();
+		for (Map.Entry<Object, CodePointSet.Builder> e : builders.entrySet())
+			sets.put(e.getKey(), e.getValue().build());
+		return sets;
+	}
+
+	private static void points(ByteArrayOutputStream out, int[] points) {
+		int previous = 0;
+		for (int point : points) {
+			varint(out, point - previous);
+			previous = point;
+		}
+	}
+
+	private static void varint(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+}
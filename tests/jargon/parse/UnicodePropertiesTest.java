@@ -0,0 +1,106 @@
+package jargon.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+
+/**
+ * Checks the tables against java.lang.Character of the running JDK.
+ * A JDK with another version of Unicode may have assigned more code points, so only the code points which are assigned
+ * both in the tables and in the JDK are compared.
+ */
+public class UnicodePropertiesTest {
+	private static final CodePointMatcher unassigned = UnicodeProperties.category("Cn").matcher();
+
+	private static boolean assigned(int codepoint) {
+		return Character.getType(codepoint) != Character.UNASSIGNED && !unassigned.contains(codepoint);
+	}
+
+	@Test
+	public void testCategories() {
+		CodePointMatcher[] matchers = new CodePointMatcher[UnicodeProperties.CATEGORIES.length];
+		for (int type = 0; type < matchers.length; type++) {
+			if (UnicodeProperties.CATEGORIES[type] != null)
+				matchers[type] = UnicodeProperties.category(type).matcher();
+		}
+		// every code point is in the set of its category, and in no other
+		for (int cp = 0; cp < CodePointSet.UNICODE_END; cp++) {
+			if (!assigned(cp))
+				continue;
+			int type = Character.getType(cp);
+			for (int t = 0; t < matchers.length; t++) {
+				if (matchers[t] != null)
+					assertEquals("code point " + cp + " in " + UnicodeProperties.CATEGORIES[t], t == type, matchers[t].contains(cp));
+			}
+		}
+	}
+
+	@Test
+	public void testMajorClasses() {
+		CodePointSet letters = UnicodeProperties.category("L");
+		assertEquals(UnicodeProperties.category("Lu").union(UnicodeProperties.category("Ll")).union(UnicodeProperties.category("Lt"))
+				.union(UnicodeProperties.category("Lm")).union(UnicodeProperties.category("Lo")), letters);
+		assertTrue(UnicodeProperties.category("LC").contains('A'));
+		assertFalse(UnicodeProperties.category("LC").contains(0x4E00));
+		assertSame(letters, UnicodeProperties.category("L"));
+		assertEquals(CodePointSet.ALL, UnicodeProperties.category("L").union(UnicodeProperties.category("M")).union(UnicodeProperties.category("N"))
+				.union(UnicodeProperties.category("P")).union(UnicodeProperties.category("S")).union(UnicodeProperties.category("Z"))
+				.union(UnicodeProperties.category("C")));
+	}
+
+	@Test
+	public void testScripts() throws Exception {
+		Method of = UnicodePropertiesGenerator.scriptOf();
+		if (of == null)
+			return;
+		for (int cp = 0; cp < CodePointSet.UNICODE_END; cp++) {
+			if (assigned(cp)) {
+				String script = of.invoke(null, cp).toString();
+				assertTrue("code point " + cp + " in " + script, UnicodeProperties.script(script).contains(cp));
+			}
+		}
+		assertTrue(UnicodeProperties.script("han").contains(0x4E00));
+		assertSame(UnicodeProperties.script("Han"), UnicodeProperties.script("HAN"));
+	}
+
+	@Test
+	public void testProperties() throws Exception {
+		for (String name : UnicodeProperties.PROPERTIES) {
+			Method is = UnicodePropertiesGenerator.predicate(name);
+			if (is == null)
+				continue;
+			CodePointMatcher matcher = UnicodeProperties.property(name).matcher();
+			for (int cp = 0; cp < CodePointSet.UNICODE_END; cp++) {
+				if (assigned(cp))
+					assertEquals(name + " of code point " + cp, is.invoke(null, cp), matcher.contains(cp));
+			}
+		}
+		assertSame(UnicodeProperties.property("whitespace"), UnicodeProperties.property("Whitespace"));
+	}
+
+	@Test
+	public void testUnknownNames() {
+		String[][] calls = { { "category", "Xx" }, { "category", "X" }, { "script", "KLINGON" }, { "property", "Pretty" } };
+		for (String[] call : calls) {
+			try {
+				if (call[0].equals("category"))
+					UnicodeProperties.category(call[1]);
+				else if (call[0].equals("script"))
+					UnicodeProperties.script(call[1]);
+				else
+					UnicodeProperties.property(call[1]);
+				fail(call[0] + " " + call[1]);
+			}
+			catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package jargon.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class Utf8MatcherTest {
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testSequencesOfAll() {
+		assertEquals("[[00-7F], [C2-DF][80-BF], [E0][A0-BF][80-BF], [E1-EC][80-BF][80-BF], [ED][80-9F][80-BF], [EE-EF][80-BF][80-BF], "
+				+ "[F0][90-BF][80-BF][80-BF], [F1-F3][80-BF][80-BF][80-BF], [F4][80-8F][80-BF][80-BF]]",
+				Utf8Matcher.sequences(CodePointSet.ALL).toString());
+	}
+
+	@Test
+	public void testCombedSequences() {
+		// the odd points of Latin Extended-A, as one sequence with a stepped last byte
+		assertEquals("[[C4-C5][81-BF/2]]", Utf8Matcher.sequences(CodePointSet.odd(0x100, 0x180)).toString());
+		assertEquals("[[40-5E/2]]", Utf8Matcher.sequences(CodePointSet.even(0x40, 0x5F)).toString());
+		assertEquals("[[C4][80-BF]]", Utf8Matcher.sequences(CodePointSet.all(0x100, 0x140)).toString());
+	}
+
+	@Test
+	public void testInvalid() {
+		Utf8Matcher matcher = CodePointSet.ALL.utf8Matcher();
+		assertEquals(-1, matcher.match(new byte[] { (byte)0xC0, (byte)0x80 }, 0, 2)); // overlong
+		assertEquals(-1, matcher.match(new byte[] { (byte)0xED, (byte)0xA0, (byte)0x80 }, 0, 3)); // surrogate
+		assertEquals(-1, matcher.match(new byte[] { (byte)0xF4, (byte)0x90, (byte)0x80, (byte)0x80 }, 0, 4)); // above U+10FFFF
+		assertEquals(-1, matcher.match(new byte[] { (byte)0xE2, (byte)0x82 }, 0, 2)); // truncated
+		assertEquals(-1, matcher.match(new byte[] { (byte)0x80 }, 0, 1));
+		assertEquals(4, matcher.match(new byte[] { (byte)0xF4, (byte)0x8F, (byte)0xBF, (byte)0xBF }, 0, 4));
+	}
+
+	private static CodePointSet randomSet(Random random) {
+		CodePointSet.Builder builder = new CodePointSet.Builder();
+		int ranges = 1 + random.nextInt(8);
+		for (int i = 0; i < ranges; i++) {
+			int scale = new int[] { 0x100, 0x1000, 0x10000, CodePointSet.UNICODE_END }[random.nextInt(4)];
+			int start = random.nextInt(scale);
+			int end = Math.min(CodePointSet.UNICODE_END, start + 1 + random.nextInt(Math.max(1, scale >> 4)));
+			switch (random.nextInt(3)) {
+			case 0:
+				builder.add(start, end);
+				break;
+			case 1:
+				builder.addOdd(start, end);
+				break;
+			default:
+				builder.addEven(start, end);
+				break;
+			}
+		}
+		return builder.build();
+	}
+
+	private static void check(CodePointSet cps, Utf8Matcher matcher, int cp) {
+		if (cp >= 0xD800 && cp < 0xE000)
+			return;
+		byte[] bytes = new String(Character.toChars(cp)).getBytes(UTF8);
+		int expected = cps.contains(cp) ? bytes.length : -1;
+		assertEquals(cps + " at " + Integer.toHexString(cp), expected, matcher.match(bytes, 0, bytes.length));
+		assertEquals(expected, matcher.match(ByteBuffer.wrap(bytes), 0));
+	}
+
+	@Test
+	public void testRandom() {
+		Random random = new Random(13);
+		for (int n = 0; n < 50; n++) {
+			CodePointSet cps = randomSet(random);
+			Utf8Matcher matcher = cps.utf8Matcher();
+			for (int cp = 0; cp < 0x10000; cp++)
+				check(cps, matcher, cp);
+			for (int i = 0; i < 20000; i++)
+				check(cps, matcher, 0x10000 + random.nextInt(CodePointSet.UNICODE_END - 0x10000));
+			// and around the edges of the set's ranges
+			for (int cp = cps.next(0); cp != -1 && cp + 1 < CodePointSet.UNICODE_END; cp = cps.next(cp + 1)) {
+				check(cps, matcher, cp);
+				check(cps, matcher, cp + 1);
+				if (cp > 0)
+					check(cps, matcher, cp - 1);
+			}
+		}
+	}
+
+	@Test
+	public void testSpan() {
+		CodePointSet letters = new CodePointSet.Builder().add('a', 'z' + 1).add(0xE0, 0x100).add(0x1F600, 0x1F650).build();
+		Utf8Matcher matcher = letters.utf8Matcher();
+		byte[] bytes = "ab\u00E9\uD83D\uDE00z 1".getBytes(UTF8);
+		assertEquals(9, matcher.span(bytes, 0, bytes.length));
+		assertEquals(9, matcher.span(ByteBuffer.wrap(bytes), 0));
+		assertEquals(9, matcher.span(bytes, 9, bytes.length));
+		// a truncated member ends the span
+		assertEquals(4, matcher.span(bytes, 0, 6));
+		assertTrue(matcher.getStateCount() < 12);
+	}
+}
@@ -0,0 +1,74 @@
+package jargon.parse.dfa;
+
+import static org.junit.Assert.assertEquals;
+import jargon.parse.CodePointSet;
+import jargon.parse.PatternTest;
+import jargon.parse.reflect.Grammar;
+import jargon.parse.reflect.Pattern.Builder;
+import jargon.parse.reflect.PatternRef;
+
+import org.junit.Test;
+
+
+public class DfaCompilerTest {
+	private static String match(Dfa dfa, String input) {
+		long match = dfa.match(input, 0);
+		if (match == -1)
+			return null;
+		return dfa.getTokenName(Dfa.token(match)) + ":" + Dfa.end(match);
+	}
+
+	@Test
+	public void testJavaLexical() {
+		Grammar grammar = PatternTest.javaLexical();
+		Dfa dfa = DfaCompiler.compile(grammar, "LineTerminator", "UnicodeEscape", "InputCharacter");
+		assertEquals("LineTerminator:2", match(dfa, "\r\nx"));
+		assertEquals("LineTerminator:1", match(dfa, "\rx"));
+		assertEquals("LineTerminator:1", match(dfa, "\n\r"));
+		assertEquals("UnicodeEscape:6", match(dfa, "\\u0041x"));
+		assertEquals("UnicodeEscape:8", match(dfa, "\\uuu00aF"));
+		assertEquals("InputCharacter:1", match(dfa, "\\u004"));
+		assertEquals("InputCharacter:1", match(dfa, "x"));
+		assertEquals("InputCharacter:2", match(dfa, "\uD83D\uDE00"));
+		assertEquals(null, match(dfa, ""));
+	}
+
+	@Test
+	public void testMinimal() {
+		// (a|b)*abb, the classic example whose minimal DFA has 4 states (plus the dead state)
+		Builder pb = new Builder();
+		pb.codepoints("a", CodePointSet.chars('a'));
+		pb.codepoints("b", CodePointSet.chars('b'));
+		pb.choice("ab").add("a").add("b");
+		pb.sequence("abb").add("ab", 0, PatternRef.UNBOUNDED).add("a").add("b").add("b");
+		Dfa dfa = DfaCompiler.compile(pb.build(), "abb");
+		assertEquals(5, dfa.getStateCount());
+		// a, b and everything else
+		assertEquals(3, dfa.getClasses().getClassCount());
+		assertEquals("abb:7", match(dfa, "babaabbc"));
+		assertEquals("abb:7", match(dfa, "abbbabb"));
+		assertEquals(null, match(dfa, "abab"));
+	}
+
+	@Test
+	public void testRepetition() {
+		Builder pb = new Builder();
+		pb.sequence("digits").add(CodePointSet.charRanges('0', '9'), 2, 4);
+		pb.sequence("word").add(CodePointSet.charRanges('a', 'z'), 1, PatternRef.UNBOUNDED);
+		pb.literal("if", "if");
+		Dfa dfa = DfaCompiler.compile(pb.build(), "if", "word", "digits");
+		assertEquals(null, match(dfa, "1"));
+		assertEquals("digits:2", match(dfa, "12"));
+		assertEquals("digits:4", match(dfa, "123456"));
+		assertEquals("if:2", match(dfa, "if"));
+		assertEquals("word:3", match(dfa, "iff"));
+		assertEquals("word:1", match(dfa, "i"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRecursive() {
+		Builder pb = new Builder();
+		pb.sequence("parens").add(CodePointSet.chars('(')).add("parens", 0, 1).add(CodePointSet.chars(')'));
+		DfaCompiler.compile(pb.build(), "parens");
+	}
+}
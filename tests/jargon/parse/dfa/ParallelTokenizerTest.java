@@ -0,0 +1,92 @@
+package jargon.parse.dfa;
+
+import static org.junit.Assert.assertEquals;
+import jargon.parse.CodePointSet;
+import jargon.parse.input.MappedCodePointInput;
+import jargon.parse.reflect.Grammar;
+import jargon.parse.reflect.Pattern.Builder;
+import jargon.parse.reflect.PatternRef;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+
+public class ParallelTokenizerTest {
+	// block comments may span lines, so a line terminator is not always a token boundary
+	private static Grammar grammar() {
+		Builder pb = new Builder();
+		pb.choice("LineTerminator").add(CodePointSet.chars('\n')).add(CodePointSet.chars('\r')).literal("\r\n");
+		pb.sequence("Comment").add(CodePointSet.chars('{')).add(CodePointSet.not(CodePointSet.chars('}')), 0, PatternRef.UNBOUNDED).add(CodePointSet.chars('}'));
+		pb.sequence("Word").add(CodePointSet.charRanges('a', 'z'), 1, PatternRef.UNBOUNDED);
+		pb.codepoints("Other", CodePointSet.not(CodePointSet.chars('\n', '\r')));
+		return pb.build();
+	}
+
+	private static String text(Random random, int lines) {
+		String[] pieces = { "abc", "x", " ", "{", "}", "\n", "\r\n", "\u00E9t\u00E9", "\uD83D\uDE00", "{ in a\ncomment }" };
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			int n = random.nextInt(12);
+			for (int k = 0; k < n; k++)
+				sb.append(pieces[random.nextInt(pieces.length)]);
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static String describe(Dfa dfa, TokenList tokens) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < tokens.size(); i++)
+			sb.append(dfa.getTokenName(tokens.getToken(i))).append(' ').append(tokens.getStart(i)).append('-').append(tokens.getEnd(i)).append('\n');
+		return sb.append("end ").append(tokens.getEnd()).toString();
+	}
+
+	@Test
+	public void testSameAsSequential() throws IOException, InterruptedException {
+		Grammar grammar = grammar();
+		Dfa dfa = DfaCompiler.compile(grammar, "LineTerminator", "Comment", "Word", "Other");
+		Dfa sync = DfaCompiler.compile(grammar, "LineTerminator");
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Random random = new Random(5);
+			for (int n = 0; n < 40; n++) {
+				byte[] bytes = text(random, 1 + random.nextInt(200)).getBytes(Charset.forName("UTF-8"));
+				MappedCodePointInput input = new MappedCodePointInput(ByteBuffer.wrap(bytes));
+				String expected = describe(dfa, dfa.tokenize(input.duplicate()));
+				for (int candidates = 1; candidates <= 3; candidates++) {
+					ParallelTokenizer tokenizer = new ParallelTokenizer(dfa, sync, executor, 1 + random.nextInt(200), candidates);
+					assertEquals(expected, describe(dfa, tokenizer.tokenize(input)));
+				}
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testStopsAtError() throws IOException, InterruptedException {
+		Builder pb = new Builder();
+		pb.literal("LineTerminator", "\n");
+		pb.sequence("Word").add(CodePointSet.charRanges('a', 'z'), 1, PatternRef.UNBOUNDED);
+		Grammar grammar = pb.build();
+		Dfa dfa = DfaCompiler.compile(grammar, "LineTerminator", "Word");
+		Dfa sync = DfaCompiler.compile(grammar, "LineTerminator");
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			byte[] bytes = "abc\ndef\nghi\nj!kl\nmno\npqr\n".getBytes(Charset.forName("UTF-8"));
+			TokenList tokens = new ParallelTokenizer(dfa, sync, executor, 4).tokenize(new MappedCodePointInput(ByteBuffer.wrap(bytes)));
+			assertEquals(13, tokens.getEnd());
+			assertEquals(7, tokens.size());
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package jargon.parse.input;
+
+import static org.junit.Assert.assertEquals;
+import jargon.parse.PatternTest;
+import jargon.parse.dfa.Dfa;
+import jargon.parse.dfa.DfaCompiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+
+public class ChannelCodePointInputTest {
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// hands out one byte per read, so that every sequence is split across reads
+	static final class TrickleInputStream extends InputStream {
+		final byte[] bytes;
+		int position;
+
+		TrickleInputStream(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public int read() {
+			return position < bytes.length ? bytes[position++] & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0)
+				return 0;
+			int c = read();
+			if (c == -1)
+				return -1;
+			b[off] = (byte)c;
+			return 1;
+		}
+	}
+
+	private static String readAll(CodePointInput input) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int cp;
+		while ((cp = input.read()) != CodePointInput.END)
+			sb.appendCodePoint(cp);
+		return sb.toString();
+	}
+
+	private static final String TEXT = "plain ascii, caf\u00E9, \u20AC100, \uD83D\uDE00 and \u4E2D\u6587\n";
+
+	@Test
+	public void testDecode() throws IOException {
+		byte[] bytes = TEXT.getBytes(UTF8);
+		assertEquals(TEXT, readAll(new ChannelCodePointInput(new ByteArrayInputStream(bytes))));
+		assertEquals(TEXT, readAll(new ChannelCodePointInput(new ByteArrayInputStream(bytes), 4)));
+		assertEquals(TEXT, readAll(new ChannelCodePointInput(new TrickleInputStream(bytes), 4)));
+	}
+
+	@Test
+	public void testMalformed() throws IOException {
+		byte[] bytes = new byte[] {
+			'a',
+			(byte)0x80, // stray continuation
+			(byte)0xC0, (byte)0xAF, // overlong
+			(byte)0xED, (byte)0xA0, (byte)0x80, // surrogate
+			(byte)0xE2, (byte)0x82, 'b', // truncated by an ascii byte
+			(byte)0xF4, (byte)0x90, (byte)0x80, (byte)0x80, // above U+10FFFF
+			(byte)0xE2, (byte)0x82 // truncated by the end of input
+		};
+		String expected = "a\uFFFD\uFFFD\uFFFD\uFFFD\uFFFDb\uFFFD\uFFFD";
+		assertEquals(expected, readAll(new ChannelCodePointInput(new ByteArrayInputStream(bytes))));
+		assertEquals(expected, readAll(new ChannelCodePointInput(new TrickleInputStream(bytes), 4)));
+	}
+
+	@Test
+	public void testMarkReset() throws IOException {
+		ChannelCodePointInput input = new ChannelCodePointInput(new TrickleInputStream("abcdefghijklmnop".getBytes(UTF8)), 4);
+		assertEquals('a', input.read());
+		long mark = input.mark();
+		assertEquals(1, mark);
+		// read well past the initial window, the mark keeps everything after it
+		for (int i = 0; i < 10; i++)
+			input.read();
+		assertEquals(11, input.position());
+		input.reset(mark);
+		assertEquals('b', input.read());
+		long inner = input.mark();
+		input.read();
+		input.reset(inner);
+		assertEquals('c', input.read());
+		input.release(inner);
+		input.release(mark);
+		assertEquals(0, input.getMarkCount());
+		input.reset(11);
+		assertEquals("lmnop", readAll(input));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testResetDiscarded() throws IOException {
+		ChannelCodePointInput input = new ChannelCodePointInput(new TrickleInputStream("abcdefghijklmnop".getBytes(UTF8)), 4);
+		for (int i = 0; i < 10; i++)
+			input.read();
+		input.reset(0);
+	}
+
+	@Test
+	public void testConstantMemory() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 2000; i++)
+			sb.append(TEXT);
+		ChannelCodePointInput input = new ChannelCodePointInput(new ByteArrayInputStream(sb.toString().getBytes(UTF8)), 64);
+		long count = 0;
+		while (input.read() != CodePointInput.END) {
+			// short lived marks, as a backtracking engine would make
+			if (count % 7 == 0) {
+				long mark = input.mark();
+				input.read();
+				input.read();
+				input.reset(mark);
+				input.release(mark);
+			}
+			count++;
+		}
+		assertEquals(sb.codePointCount(0, sb.length()), count);
+		assertEquals(64, input.getCapacity());
+	}
+
+	@Test
+	public void testDfa() throws IOException {
+		Dfa dfa = DfaCompiler.compile(PatternTest.javaLexical(), "LineTerminator", "UnicodeEscape", "InputCharacter");
+		String text = "a\\u0041\r\n\\u004\uD83D\uDE00\n";
+		ChannelCodePointInput input = new ChannelCodePointInput(new TrickleInputStream(text.getBytes(UTF8)), 4);
+		StringBuilder sb = new StringBuilder();
+		int token;
+		while ((token = dfa.match(input)) != -1)
+			sb.append(dfa.getTokenName(token)).append(':').append(input.position()).append(' ');
+		assertEquals("InputCharacter:1 UnicodeEscape:7 LineTerminator:9 InputCharacter:10 InputCharacter:11 InputCharacter:12 InputCharacter:13 InputCharacter:14 InputCharacter:15 LineTerminator:16 ", sb.toString());
+		assertEquals(CodePointInput.END, input.read());
+	}
+}
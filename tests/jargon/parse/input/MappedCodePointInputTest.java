@@ -0,0 +1,109 @@
+package jargon.parse.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import jargon.parse.PatternTest;
+import jargon.parse.dfa.Dfa;
+import jargon.parse.dfa.DfaCompiler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+
+public class MappedCodePointInputTest {
+	private static File write(String text) throws IOException {
+		File file = File.createTempFile("jargon", ".txt");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(text.getBytes(ChannelCodePointInputTest.UTF8));
+		}
+		finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static String readAll(CodePointInput input) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int cp;
+		while ((cp = input.read()) != CodePointInput.END)
+			sb.appendCodePoint(cp);
+		return sb.toString();
+	}
+
+	private static final String TEXT = "plain ascii, caf\u00E9, \u20AC100, \uD83D\uDE00 and \u4E2D\u6587\n";
+
+	@Test
+	public void testDecode() throws IOException {
+		File file = write(TEXT);
+		MappedCodePointInput input = new MappedCodePointInput(file);
+		assertEquals(file.length(), input.size());
+		assertEquals(TEXT, readAll(input));
+		assertEquals(file.length(), input.position());
+		input.close();
+		// tiny segments, so that sequences straddle them
+		for (int bits = 0; bits < 4; bits++) {
+			input = new MappedCodePointInput(new RandomAccessFile(file, "r").getChannel(), bits);
+			assertEquals(TEXT, readAll(input));
+			input.close();
+		}
+		assertEquals(0, new MappedCodePointInput(write("")).size());
+	}
+
+	@Test
+	public void testMarkReset() throws IOException {
+		MappedCodePointInput input = new MappedCodePointInput(write(TEXT));
+		for (int i = 0; i < 17; i++)
+			input.read();
+		long mark = input.mark();
+		assertEquals(18, mark); // the e acute is two bytes
+		assertEquals(',', input.read());
+		input.reset(0);
+		assertEquals('p', input.read());
+		input.reset(mark);
+		assertEquals(',', input.read());
+		input.release(mark);
+		input.close();
+	}
+
+	@Test
+	public void testSpans() throws IOException {
+		MappedCodePointInput input = new MappedCodePointInput(write(TEXT));
+		Span ascii = input.span(0, 5);
+		assertEquals(5, ascii.length());
+		assertEquals('l', ascii.charAt(1));
+		assertEquals("ain", ascii.subSequence(2, 5).toString());
+		assertTrue(ascii.contentEquals("plain"));
+		assertEquals("plain", ascii.toString());
+
+		Span mixed = input.span(13, 32);
+		assertEquals("caf\u00E9, \u20AC100, \uD83D\uDE00", mixed.toString());
+		assertEquals(14, mixed.length());
+		assertEquals('\uD83D', mixed.charAt(12));
+		assertEquals("\u20AC100", mixed.subSequence(6, 10).toString());
+		assertEquals(19, mixed.getByteLength());
+		input.close();
+	}
+
+	@Test
+	public void testDfa() throws IOException {
+		Dfa dfa = DfaCompiler.compile(PatternTest.javaLexical(), "LineTerminator", "UnicodeEscape", "InputCharacter");
+		MappedCodePointInput input = new MappedCodePointInput(write("a\\u0041\r\n\u00E9\n"));
+		ArrayList<String> tokens = new ArrayList<String>();
+		long start = input.position();
+		int token;
+		while ((token = dfa.match(input)) != -1) {
+			Span span = input.span(start, input.position());
+			tokens.add(dfa.getTokenName(token) + ":" + span);
+			start = input.position();
+		}
+		assertEquals("[InputCharacter:a, UnicodeEscape:\\u0041, LineTerminator:\r\n, InputCharacter:\u00E9, LineTerminator:\n]", tokens.toString());
+		input.close();
+	}
+}
@@ -0,0 +1,221 @@
+package jargon.parse.packrat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import jargon.parse.CodePointSet;
+import jargon.parse.PatternTest;
+import jargon.parse.reflect.Grammar;
+import jargon.parse.reflect.Pattern.Builder;
+import jargon.parse.reflect.PatternRef;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class PackratParserTest {
+	static Grammar arithmetic() {
+		Builder pb = new Builder();
+		pb.sequence("Expression").add("Term").add("AddTail", 0, PatternRef.UNBOUNDED);
+		pb.sequence("AddTail").add(CodePointSet.chars('+', '-')).add("Term");
+		pb.sequence("Term").add("Factor").add("MulTail", 0, PatternRef.UNBOUNDED);
+		pb.sequence("MulTail").add(CodePointSet.chars('*', '/')).add("Factor");
+		pb.choice("Factor").add("Number").add("Parenthesized");
+		pb.sequence("Parenthesized").add(CodePointSet.chars('(')).add("Expression").add(CodePointSet.chars(')'));
+		pb.sequence("Number").add(CodePointSet.charRanges('0', '9'), 1, PatternRef.UNBOUNDED);
+		return pb.build();
+	}
+
+	@Test
+	public void testArithmetic() {
+		PackratParser parser = new PackratParser(arithmetic());
+		assertEquals(1, parser.parse("Expression", "1"));
+		assertEquals(10, parser.parse("Expression", "(1+2)*34-5"));
+		assertEquals(3, parser.parse("Expression", "1+2)"));
+		assertEquals(1, parser.parse("Expression", "1+"));
+		assertEquals(-1, parser.parse("Expression", "+1"));
+		assertEquals(-1, parser.parse("Expression", "(1+2"));
+	}
+
+	@Test
+	public void testOrderedChoice() {
+		Grammar grammar = PatternTest.javaLexical();
+		PackratParser parser = new PackratParser(grammar);
+		assertEquals(7, parser.parse("UnicodeInputCharacter", "\\uu0041"));
+		assertEquals(1, parser.parse("UnicodeInputCharacter", "\\uu004"));
+		assertEquals(1, parser.parse("LineTerminator", "\r\n"));
+	}
+
+	@Test
+	public void testMemo() {
+		// without memoization, "a" would be matched again by every alternative
+		Builder pb = new Builder();
+		pb.choice("S").add("Tail1").add("Tail2").add("A");
+		pb.sequence("Tail1").add("A").add(CodePointSet.chars('1'));
+		pb.sequence("Tail2").add("A").add(CodePointSet.chars('2'));
+		pb.sequence("A").add(CodePointSet.chars('a'), 1, PatternRef.UNBOUNDED);
+		PackratParser parser = new PackratParser(pb.build());
+		assertEquals(4, parser.parse("S", "aaa2"));
+		assertEquals(1, parser.getMemo().getHits());
+	}
+
+	@Test
+	public void testSmallWindow() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 20000; i++)
+			sb.append("(1+2*3)-");
+		sb.append('4');
+		PackratParser parser = new PackratParser(arithmetic(), 64, 16);
+		assertEquals(sb.length(), parser.parse("Expression", sb));
+		assertEquals(64, parser.getMemo().getCapacity());
+		assertTrue(parser.getMemo().getEvictions() > 0);
+	}
+
+	@Test
+	public void testLeftRecursion() {
+		Builder pb = new Builder();
+		pb.choice("L").add("LeftRecursive").add(CodePointSet.chars('x'));
+		pb.sequence("LeftRecursive").add("L").add(CodePointSet.chars('y'));
+		PackratParser parser = new PackratParser(pb.build());
+		assertEquals(1, parser.parse("L", "xyy"));
+	}
+
+	// rules of random choices and sequences of each other (with left recursion) and of 'a' and 'b'
+	public static Grammar recursive(Random random, int count) {
+		CodePointSet[] leaves = { CodePointSet.chars('a'), CodePointSet.chars('b'), CodePointSet.chars('a', 'b') };
+		int[][] repeats = { { 1, 1 }, { 1, 1 }, { 0, 1 }, { 0, PatternRef.UNBOUNDED }, { 1, PatternRef.UNBOUNDED } };
+		Builder pb = new Builder();
+		for (int r = 0; r < count; r++) {
+			Builder.Group group = random.nextBoolean() ? pb.choice("R" + r) : pb.sequence("R" + r);
+			for (int c = 1 + random.nextInt(3); c > 0; c--) {
+				int[] repeat = repeats[random.nextInt(repeats.length)];
+				if (random.nextInt(3) == 0)
+					group.add(leaves[random.nextInt(leaves.length)], repeat[0], repeat[1]);
+				else
+					group.add("R" + random.nextInt(count), repeat[0], repeat[1]);
+			}
+		}
+		return pb.build();
+	}
+
+	public static String ab(Random random, int max) {
+		StringBuilder sb = new StringBuilder();
+		for (int k = random.nextInt(max); k > 0; k--)
+			sb.append(random.nextBoolean() ? 'a' : 'b');
+		return sb.toString();
+	}
+
+	@Test
+	public void testSmallMemo() {
+		// left recursion must fail the same way however little of the memo table survives
+		Random random = new Random(7);
+		for (int n = 0; n < 300; n++) {
+			int count = 3 + random.nextInt(5);
+			Grammar grammar = recursive(random, count);
+			PackratParser expected = new PackratParser(grammar);
+			PackratParser actual = new PackratParser(grammar, 16, 1);
+			ParseLog expectedLog = new ParseLog(), actualLog = new ParseLog();
+			for (int i = 0; i < 10; i++) {
+				String input = ab(random, 12);
+				for (int rule = 0; rule < count; rule++) {
+					assertEquals(input, expected.parse(rule, input, 0, expectedLog), actual.parse(rule, input, 0, actualLog));
+					assertEquals(input, describe(expectedLog), describe(actualLog));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testDispatch() {
+		Builder pb = new Builder();
+		pb.choice("Keyword").add("if").add("else").add("while").add("Empty");
+		pb.literal("if", "if");
+		pb.literal("else", "else");
+		pb.literal("while", "while");
+		pb.sequence("Empty").add(CodePointSet.chars(';'), 0, 1);
+		PackratParser parser = new PackratParser(pb.build());
+		assertEquals(5, parser.parse("Keyword", "while"));
+		// only Keyword, while are looked up, if and else can't start with 'w'
+		assertEquals(2, parser.getMemo().getMisses());
+		assertEquals(0, parser.parse("Keyword", "x"));
+		assertEquals(2, parser.getMemo().getMisses());
+		assertEquals(0, parser.parse("Keyword", ""));
+	}
+
+	private static String describe(ParseLog log) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < log.size(); i++)
+			sb.append(log.getRule(i)).append(' ').append(log.getStart(i)).append('-').append(log.getEnd(i)).append('/').append(log.getExtent(i)).append(' ').append(log.getParent(i)).append(' ').append(log.getSubtreeSize(i)).append('\n');
+		return sb.toString();
+	}
+
+	@Test
+	public void testReparse() {
+		Grammar grammar = statements();
+		int document = grammar.getRuleId("Document");
+		Random random = new Random(3);
+		StringBuilder text = statements(300);
+		PackratParser parser = new PackratParser(grammar);
+		PackratParser full = new PackratParser(grammar);
+		ParseLog log = new ParseLog(), next = new ParseLog(), expected = new ParseLog();
+		int end = parser.parse(document, text, 0, log);
+		int fullEvaluated = parser.evaluated;
+		String[] insertions = { "", "q", "1", "+", ";", "=", "\n", "zz;", "a=b;" };
+		for (int n = 0; n < 200; n++) {
+			int offset = random.nextInt(text.length() + 1);
+			int removed = Math.min(text.length() - offset, random.nextInt(3));
+			String insertion = insertions[random.nextInt(insertions.length)];
+			text.replace(offset, offset + removed, insertion);
+			end = parser.reparse(document, text, 0, log, offset, removed, insertion.length(), next);
+			assertEquals(full.parse(document, text, 0, expected), end);
+			assertEquals(describe(expected), describe(next));
+			// only the statements around the edit (and the document) are parsed again
+			assertTrue(parser.evaluated + " evaluated", parser.evaluated * 10 < fullEvaluated);
+			ParseLog swap = log;
+			log = next;
+			next = swap;
+		}
+		assertTrue(parser.getReused() > 0);
+	}
+
+	@Test
+	public void testReparseSize() {
+		// the same edit makes the same rules be parsed again however long the document is
+		// (with a memo table big enough to keep every entry, since one evicted before the tree is replayed is evaluated again)
+		Grammar grammar = statements();
+		int document = grammar.getRuleId("Document");
+		int[] evaluated = new int[2];
+		for (int n = 0; n < 2; n++) {
+			StringBuilder text = statements(n == 0 ? 300 : 30000);
+			PackratParser parser = new PackratParser(grammar, 1 << 20, 1 << 24);
+			ParseLog log = new ParseLog(), next = new ParseLog(), expected = new ParseLog();
+			parser.parse(document, text, 0, log);
+			int offset = text.indexOf("vf=") + 1;
+			text.insert(offset, "q");
+			int end = parser.reparse(document, text, 0, log, offset, 0, 1, next);
+			assertEquals(new PackratParser(grammar).parse(document, text, 0, expected), end);
+			assertEquals(expected.size(), next.size());
+			evaluated[n] = parser.evaluated;
+		}
+		assertEquals(evaluated[0], evaluated[1]);
+	}
+
+	static Grammar statements() {
+		Builder pb = new Builder();
+		pb.sequence("Document").add("Statement", 0, PatternRef.UNBOUNDED);
+		pb.sequence("Statement").add("Word").add(CodePointSet.chars('=')).add("Expression").add(CodePointSet.chars(';')).add(CodePointSet.chars(' ', '\n'), 0, PatternRef.UNBOUNDED);
+		pb.sequence("Expression").add("Term").add("AddTail", 0, PatternRef.UNBOUNDED);
+		pb.sequence("AddTail").add(CodePointSet.chars('+', '-')).add("Term");
+		pb.choice("Term").add("Word").add("Number");
+		pb.sequence("Word").add(CodePointSet.charRanges('a', 'z'), 1, PatternRef.UNBOUNDED);
+		pb.sequence("Number").add(CodePointSet.charRanges('0', '9'), 1, PatternRef.UNBOUNDED);
+		return pb.build();
+	}
+
+	static StringBuilder statements(int count) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < count; i++)
+			text.append("v").append(i % 26 == 0 ? "" : String.valueOf((char)('a' + i % 26))).append("=x+").append(i).append("-y;\n");
+		return text;
+	}
+}
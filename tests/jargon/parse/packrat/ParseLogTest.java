@@ -0,0 +1,104 @@
+package jargon.parse.packrat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import jargon.parse.CodePointSet;
+import jargon.parse.reflect.Grammar;
+import jargon.parse.reflect.Pattern.Builder;
+import jargon.parse.reflect.PatternRef;
+
+import org.junit.Test;
+
+
+public class ParseLogTest {
+	private static String describe(Grammar grammar, ParseLog log) {
+		StringBuilder sb = new StringBuilder();
+		ParseLog.Cursor cursor = new ParseLog.Cursor(log);
+		if (!cursor.isValid())
+			return "";
+		do {
+			for (int i = cursor.getDepth(); i > 0; i--)
+				sb.append(' ');
+			sb.append(grammar.getRule(cursor.getRule()).getName()).append(' ').append(cursor.getStart()).append('-').append(cursor.getEnd()).append('\n');
+		} while (cursor.next());
+		return sb.toString();
+	}
+
+	@Test
+	public void testArithmetic() {
+		Grammar grammar = PackratParserTest.arithmetic();
+		PackratParser parser = new PackratParser(grammar);
+		ParseLog log = new ParseLog();
+		assertEquals(7, parser.parse("Expression", "(1+2)*3", log));
+		assertEquals(
+				"Expression 0-7\n" +
+				" Term 0-7\n" +
+				"  Factor 0-5\n" +
+				"   Parenthesized 0-5\n" +
+				"    Expression 1-4\n" +
+				"     Term 1-2\n" +
+				"      Factor 1-2\n" +
+				"       Number 1-2\n" +
+				"     AddTail 2-4\n" +
+				"      Term 3-4\n" +
+				"       Factor 3-4\n" +
+				"        Number 3-4\n" +
+				"  MulTail 5-7\n" +
+				"   Factor 6-7\n" +
+				"    Number 6-7\n", describe(grammar, log));
+
+		// the log is reused
+		assertEquals(-1, parser.parse("Expression", "+1", log));
+		assertEquals(0, log.size());
+		assertEquals(1, parser.parse("Expression", "1", log));
+		assertEquals("Expression 0-1\n Term 0-1\n  Factor 0-1\n   Number 0-1\n", describe(grammar, log));
+	}
+
+	@Test
+	public void testCursor() {
+		Grammar grammar = PackratParserTest.arithmetic();
+		ParseLog log = new ParseLog();
+		new PackratParser(grammar).parse("Expression", "1+2+3", log);
+		ParseLog.Cursor cursor = new ParseLog.Cursor(log);
+		assertEquals("Expression", grammar.getRule(cursor.getRule()).getName());
+		assertFalse(cursor.nextSibling());
+		assertTrue(cursor.firstChild());
+		assertEquals("Term", grammar.getRule(cursor.getRule()).getName());
+		assertTrue(cursor.nextSibling());
+		assertEquals("AddTail", grammar.getRule(cursor.getRule()).getName());
+		assertEquals(1, cursor.getStart());
+		assertTrue(cursor.nextSibling());
+		assertEquals(3, cursor.getStart());
+		assertFalse(cursor.nextSibling());
+		assertTrue(cursor.parent());
+		assertEquals(0, cursor.getIndex());
+		assertFalse(cursor.parent());
+		assertEquals(log.size(), log.getSubtreeSize(0));
+	}
+
+	@Test
+	public void testOnlySuccessfulPath() {
+		Builder pb = new Builder();
+		pb.choice("S").add("Tail1").add("Tail2").add("A");
+		pb.sequence("Tail1").add("A").add(CodePointSet.chars('1'));
+		pb.sequence("Tail2").add("A").add(CodePointSet.chars('2'));
+		pb.sequence("A").add(CodePointSet.chars('a'), 1, PatternRef.UNBOUNDED);
+		Grammar grammar = pb.build();
+		ParseLog log = new ParseLog();
+		assertEquals(4, new PackratParser(grammar).parse("S", "aaa2", log));
+		assertEquals("S 0-4\n Tail2 0-4\n  A 0-3\n", describe(grammar, log));
+	}
+
+	@Test
+	public void testLeftRecursion() {
+		// the recursive alternative fails while the tree is recorded just as it did when the input was recognized
+		Builder pb = new Builder();
+		pb.choice("A").add("AX").add(CodePointSet.chars('y'));
+		pb.sequence("AX").add("A").add(CodePointSet.chars('x'));
+		Grammar grammar = pb.build();
+		ParseLog log = new ParseLog();
+		assertEquals(1, new PackratParser(grammar).parse("A", "yx", log));
+		assertEquals("A 0-1\n", describe(grammar, log));
+	}
+}
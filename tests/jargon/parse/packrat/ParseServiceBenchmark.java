@@ -0,0 +1,46 @@
+package jargon.parse.packrat;
+
+import jargon.parse.reflect.Grammar;
+
+import java.util.ArrayList;
+
+/**
+ * Measures the throughput of ParseService over a batch of small documents with 1, 2, 4 ... threads, up to the number of cores.
+ * Run as a plain java application.
+ */
+public class ParseServiceBenchmark {
+	static final int ROUNDS = 10;
+	static int sink;
+
+	public static void main(String[] args) throws InterruptedException {
+		Grammar grammar = PackratParserTest.arithmetic();
+		ArrayList<String> documents = ParseServiceTest.documents(100000, 1);
+		long chars = 0;
+		for (String document : documents)
+			chars += document.length();
+		int cores = Runtime.getRuntime().availableProcessors();
+		// the default memo table, as new ParseService(grammar) has
+		PackratParser prototype = new PackratParser(grammar);
+		double single = 0;
+		for (int threads = 1;; threads = Math.min(threads * 2, cores)) {
+			ParseService service = new ParseService(prototype, threads, ParseService.DEFAULT_QUEUE);
+			long best = Long.MAX_VALUE;
+			try {
+				for (int round = 0; round < ROUNDS; round++) {
+					long start = System.nanoTime();
+					sink += service.parseAll("Expression", documents)[0];
+					best = Math.min(best, System.nanoTime() - start);
+				}
+			}
+			finally {
+				service.close();
+			}
+			double rate = documents.size() * 1e9 / best;
+			if (threads == 1)
+				single = rate;
+			System.out.println(String.format("%2d threads: %8.0f documents/s, %6.1f MB/s, %.2fx", threads, rate, chars * 1e3 / best, rate / single));
+			if (threads == cores)
+				break;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package jargon.parse.packrat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import jargon.parse.reflect.Grammar;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+
+public class ParseServiceTest {
+	static ArrayList<String> documents(int count, long seed) {
+		Random random = new Random(seed);
+		ArrayList<String> documents = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			StringBuilder sb = new StringBuilder();
+			for (int k = random.nextInt(20); k >= 0; k--) {
+				if (random.nextInt(4) == 0)
+					sb.append('(');
+				sb.append(random.nextInt(1000)).append("+-*/".charAt(random.nextInt(4)));
+				if (random.nextInt(4) == 0)
+					sb.append(')');
+			}
+			sb.append(random.nextInt(10));
+			documents.add(sb.toString());
+		}
+		return documents;
+	}
+
+	@Test
+	public void testParseAll() throws InterruptedException {
+		Grammar grammar = PackratParserTest.arithmetic();
+		ArrayList<String> documents = documents(2000, 25);
+		PackratParser parser = new PackratParser(grammar);
+		int[] expected = new int[documents.size()];
+		final int[] expectedEvents = new int[documents.size()];
+		ParseLog log = new ParseLog();
+		for (int i = 0; i < expected.length; i++) {
+			expected[i] = parser.parse(grammar.getRuleId("Expression"), documents.get(i), 0, log);
+			expectedEvents[i] = log.size();
+		}
+		ParseService service = new ParseService(new PackratParser(grammar, 1 << 10, 1 << 8), 4, 16);
+		try {
+			int[] ends = service.parseAll("Expression", documents);
+			for (int i = 0; i < expected.length; i++)
+				assertEquals(expected[i], ends[i]);
+			final AtomicIntegerArray events = new AtomicIntegerArray(documents.size());
+			ends = service.parseAll("Expression", documents, new ParseService.Listener() {
+				public void parsed(int index, CharSequence input, int end, ParseLog log) {
+					events.set(index, log.size());
+				}
+			});
+			for (int i = 0; i < expected.length; i++) {
+				assertEquals(expected[i], ends[i]);
+				assertEquals(expectedEvents[i], events.get(i));
+			}
+			assertEquals(0, service.parseAll("Expression", new ArrayList<String>()).length);
+		}
+		finally {
+			service.close();
+		}
+	}
+
+	@Test
+	public void testBackpressure() throws Exception {
+		Grammar grammar = PackratParserTest.arithmetic();
+		ParseService service = new ParseService(new PackratParser(grammar), 1, 1);
+		try {
+			// while the one thread parses a long document, the queue fills and the submitting thread parses the rest itself
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < 100000; i++)
+				sb.append("(1+2)*");
+			sb.append('3');
+			ArrayList<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			futures.add(service.submit(0, sb));
+			ArrayList<String> documents = documents(20, 26);
+			for (String document : documents)
+				futures.add(service.submit(0, document));
+			assertEquals(sb.length(), (int)futures.get(0).get());
+			PackratParser parser = new PackratParser(grammar);
+			for (int i = 0; i < documents.size(); i++)
+				assertEquals(parser.parse(0, documents.get(i), 0), (int)futures.get(i + 1).get());
+			assertTrue(service.getCallerRuns() > 0);
+		}
+		finally {
+			service.close();
+		}
+		try {
+			service.submit(0, "1");
+			fail();
+		}
+		catch (RejectedExecutionException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testErrors() throws InterruptedException {
+		ParseService service = new ParseService(PackratParserTest.arithmetic());
+		try {
+			service.parseAll("NoSuchRule", documents(10, 27));
+			fail();
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			service.parseAll("Expression", documents(100, 28), new ParseService.Listener() {
+				public void parsed(int index, CharSequence input, int end, ParseLog log) {
+					if (index == 50)
+						throw new IllegalStateException("listener failed");
+				}
+			});
+			fail();
+		}
+		catch (IllegalStateException e) {
+			assertEquals("listener failed", e.getMessage());
+		}
+		finally {
+			service.close();
+		}
+	}
+}
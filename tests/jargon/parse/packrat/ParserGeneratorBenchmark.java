@@ -0,0 +1,57 @@
+package jargon.parse.packrat;
+
+import jargon.parse.reflect.Grammar;
+
+/**
+ * Compares parsing with the PackratParser interpreter to parsing with the parser ParserGenerator writes for the same grammar,
+ * on a grammar which barely backtracks (arithmetic) and on one which backtracks at every level (so that it depends on memoization).
+ * Run as a plain java application.
+ */
+public class ParserGeneratorBenchmark {
+	static final int ROUNDS = 20;
+	static int sink;
+
+	public static void main(String[] args) {
+		StringBuilder sb = new StringBuilder();
+		java.util.Random random = new java.util.Random(1);
+		for (int i = 0; i < 20000; i++) {
+			sb.append('(').append(random.nextInt(1000)).append('+').append(random.nextInt(100)).append(")*");
+			sb.append(random.nextInt(100000)).append(random.nextBoolean() ? '-' : '/');
+		}
+		sb.append('1');
+		compare("arithmetic", PackratParserTest.arithmetic(), "Expression", sb.toString());
+		// every level of nesting tries the inner S three times, which only memoization keeps linear
+		sb.setLength(0);
+		for (int i = 0; i < 10000; i++) {
+			for (int k = 0; k < 30; k++)
+				sb.append('(');
+			sb.append('a');
+			for (int k = 0; k < 30; k++)
+				sb.append(')').append("xy ".charAt(random.nextInt(3)));
+		}
+		String nested = sb.toString().replace(" ", "");
+		compare("backtracking", ParserGeneratorTest.backtracking(), "Document", nested);
+	}
+
+	static void compare(String name, Grammar grammar, String rule, String input) {
+		PackratParser interpreter = new PackratParser(grammar);
+		long start = System.nanoTime();
+		GeneratedParser generated = ParserGenerator.generate(grammar);
+		long generation = System.nanoTime() - start;
+		if (interpreter.parse(rule, input) != generated.parse(rule, input))
+			throw new IllegalStateException("the parsers disagree");
+		long interpreterBest = Long.MAX_VALUE, generatedBest = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			start = System.nanoTime();
+			sink += interpreter.parse(rule, input);
+			interpreterBest = Math.min(interpreterBest, System.nanoTime() - start);
+			start = System.nanoTime();
+			sink += generated.parse(rule, input);
+			generatedBest = Math.min(generatedBest, System.nanoTime() - start);
+		}
+		System.out.println(name + ":");
+		System.out.println(String.format("  generation: %.2f ms", generation / 1e6));
+		System.out.println(String.format("  interpreter: %.2f MB/s", input.length() * 1000.0 / interpreterBest));
+		System.out.println(String.format("  generated:   %.2f MB/s", input.length() * 1000.0 / generatedBest));
+	}
+}
@@ -0,0 +1,170 @@
+package jargon.parse.packrat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import jargon.parse.CodePointSet;
+import jargon.parse.PatternTest;
+import jargon.parse.reflect.Grammar;
+import jargon.parse.reflect.Pattern.Builder;
+import jargon.parse.reflect.PatternRef;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class ParserGeneratorTest {
+	private static void assertSameAsPackrat(Grammar grammar, String rule, String... inputs) {
+		PackratParser expected = new PackratParser(grammar);
+		GeneratedParser actual = ParserGenerator.generate(grammar);
+		for (String input : inputs)
+			assertEquals(input, expected.parse(rule, input), actual.parse(rule, input));
+	}
+
+	@Test
+	public void testArithmetic() {
+		assertSameAsPackrat(PackratParserTest.arithmetic(), "Expression", "1", "(1+2)*34-5", "1+2)", "1+", "+1", "(1+2", "");
+		GeneratedParser parser = ParserGenerator.generate(PackratParserTest.arithmetic());
+		assertEquals(10, parser.parse("Expression", "(1+2)*34-5"));
+		// every choice dispatches to one alternative, so no rule is called twice at a position and none is memoized
+		assertEquals(0, parser.getMemo().getMisses());
+		assertEquals(10, parser.duplicate().parse("Expression", "(1+2)*34-5"));
+		assertTrue(parser.duplicate().getClass() == parser.getClass());
+	}
+
+	@Test
+	public void testJavaLexical() {
+		// HexDigit is compared inline, InputCharacter (with a range in the supplementary planes) is not
+		assertSameAsPackrat(PatternTest.javaLexical(), "UnicodeInputCharacter", "\\uu0041", "\\uu004", "\\u00g1", "x", "\uD83D\uDE00", "");
+		assertSameAsPackrat(PatternTest.javaLexical(), "LineTerminator", "\r\n", "\n", "\r", "x");
+		assertSameAsPackrat(PatternTest.javaLexical(), "InputCharacter", "\uD83D\uDE00", "\r", "a");
+	}
+
+	@Test
+	public void testLeftRecursion() {
+		Builder pb = new Builder();
+		pb.choice("L").add("LeftRecursive").add(CodePointSet.chars('x'));
+		pb.sequence("LeftRecursive").add("L").add(CodePointSet.chars('y'));
+		assertSameAsPackrat(pb.build(), "L", "xyy", "y", "");
+	}
+
+	// S = A 'x' / A 'y' / A, A = '(' S ')' / 'a'
+	static Grammar backtracking() {
+		Builder pb = new Builder();
+		pb.sequence("Document").add("S", 0, PatternRef.UNBOUNDED);
+		pb.choice("S").add("Sx").add("Sy").add("A");
+		pb.sequence("Sx").add("A").add(CodePointSet.chars('x'));
+		pb.sequence("Sy").add("A").add(CodePointSet.chars('y'));
+		pb.choice("A").add("Nested").add(CodePointSet.chars('a'));
+		pb.sequence("Nested").add(CodePointSet.chars('(')).add("S").add(CodePointSet.chars(')'));
+		return pb.build();
+	}
+
+	@Test
+	public void testBacktracking() {
+		// each level tries A three times, which without memoization would take 3^40 steps
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 40; i++)
+			sb.append('(');
+		sb.append('a');
+		for (int i = 0; i < 40; i++)
+			sb.append(')');
+		GeneratedParser parser = ParserGenerator.generate(backtracking());
+		assertEquals(sb.length(), parser.parse("S", sb));
+		assertTrue(parser.getMemo().getHits() > 0);
+		assertSameAsPackrat(backtracking(), "S", sb.toString(), "((a)x)y", "(ax", "");
+	}
+
+	@Test
+	public void testRepetitionBacktracking() {
+		// the last, failed iteration of Ax{1,*} calls A where the A after it starts, at every level
+		Builder pb = new Builder();
+		pb.sequence("S").add("Ax", 1, PatternRef.UNBOUNDED).add("A");
+		pb.sequence("Ax").add("A").add(CodePointSet.chars('x'));
+		pb.choice("A").add("Nested").add(CodePointSet.chars('a'));
+		pb.sequence("Nested").add(CodePointSet.chars('(')).add("S").add(CodePointSet.chars(')'));
+		Grammar grammar = pb.build();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 40; i++)
+			sb.append("ax(");
+		sb.append("axa");
+		for (int i = 0; i < 40; i++)
+			sb.append(')');
+		GeneratedParser parser = ParserGenerator.generate(grammar);
+		assertEquals(sb.length(), parser.parse("S", sb));
+		assertTrue(parser.getMemo().getHits() > 0);
+		assertSameAsPackrat(grammar, "S", sb.toString(), "axa", "ax(axa)x(axa)", "ax(ax");
+	}
+
+	@Test
+	public void testLeftRecursionSmallMemo() {
+		Random random = new Random(8);
+		for (int n = 0; n < 200; n++) {
+			int count = 3 + random.nextInt(5);
+			Grammar grammar = PackratParserTest.recursive(random, count);
+			PackratParser expected = new PackratParser(grammar);
+			GeneratedParser actual = ParserGenerator.generate(grammar, 16, 1);
+			for (int i = 0; i < 10; i++) {
+				String input = PackratParserTest.ab(random, 12);
+				for (int rule = 0; rule < count; rule++)
+					assertEquals(input, expected.parse(rule, input, 0), actual.parse(rule, input, 0));
+			}
+		}
+	}
+
+	@Test
+	public void testRanges() {
+		assertEquals(4, ParserGenerator.ranges(CodePointSet.charRanges('0', '9', 'a', 'f')).length);
+		assertEquals(2, ParserGenerator.ranges(CodePointSet.ALL).length);
+		assertEquals(CodePointSet.UNICODE_END, ParserGenerator.ranges(CodePointSet.ALL)[1]);
+		assertNull(ParserGenerator.ranges(CodePointSet.chars('a', 'c', 'e', 'g', 'i')));
+	}
+
+	@Test
+	public void testSameAsPackrat() {
+		Random random = new Random(24);
+		int[][] repeats = { { 1, 1 }, { 1, 1 }, { 0, 1 }, { 2, 3 }, { 0, PatternRef.UNBOUNDED }, { 1, PatternRef.UNBOUNDED }, { 2, PatternRef.UNBOUNDED } };
+		CodePointSet[] leaves = {
+			CodePointSet.chars('a'), CodePointSet.chars('b'), CodePointSet.chars('a', 'b'),
+			CodePointSet.chars('a', 'c', 'e', 'g', 'i', 'k'), CodePointSet.all(0x1F600, 0x1F650),
+		};
+		String[] alphabet = { "a", "b", "c", "k", "\uD83D\uDE00" };
+		for (int n = 0; n < 300; n++) {
+			// rules refer to rules after them, and rules reached through a first code point may refer to any rule
+			int count = 3 + random.nextInt(6);
+			Builder pb = new Builder();
+			for (int r = count - 1; r >= 0; r--) {
+				if (r >= count - 2) {
+					pb.codepoints("R" + r, leaves[random.nextInt(leaves.length)]);
+					continue;
+				}
+				boolean choice = random.nextBoolean();
+				Builder.Group group = choice ? pb.choice("R" + r) : pb.sequence("R" + r);
+				if (!choice && random.nextInt(3) == 0) {
+					// guarded recursion
+					group.add(leaves[random.nextInt(leaves.length)]);
+					group.add("R" + random.nextInt(count), 0, 1);
+				}
+				for (int c = 1 + random.nextInt(3); c > 0; c--) {
+					int[] repeat = repeats[random.nextInt(repeats.length)];
+					if (random.nextInt(4) == 0)
+						group.add(leaves[random.nextInt(leaves.length)], repeat[0], repeat[1]);
+					else
+						group.add("R" + (r + 1 + random.nextInt(count - r - 1)), repeat[0], repeat[1]);
+				}
+			}
+			Grammar grammar = pb.build();
+			PackratParser expected = new PackratParser(grammar);
+			GeneratedParser actual = ParserGenerator.generate(grammar);
+			for (int i = 0; i < 20; i++) {
+				StringBuilder sb = new StringBuilder();
+				for (int k = random.nextInt(10); k > 0; k--)
+					sb.append(alphabet[random.nextInt(alphabet.length)]);
+				String input = sb.toString();
+				for (int rule = 0; rule < count; rule++)
+					assertEquals(input, expected.parse(rule, input, 0), actual.parse(rule, input, 0));
+			}
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package jargon.parse.pike;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import jargon.parse.CodePointSet;
+import jargon.parse.reflect.Choice;
+import jargon.parse.reflect.Grammar;
+import jargon.parse.reflect.Pattern;
+import jargon.parse.reflect.Pattern.Builder;
+import jargon.parse.reflect.PatternGroup;
+import jargon.parse.reflect.PatternRef;
+import jargon.parse.reflect.StaticCodePoint;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class PikeVmTest {
+	private static PikeVm vm(Grammar grammar, String rule) {
+		return new PikeVm(ProgramCompiler.compile(grammar, rule));
+	}
+
+	@Test
+	public void testCaptures() {
+		Builder pb = new Builder();
+		pb.sequence("Number").add("Int").optional("Fraction");
+		pb.sequence("Fraction").add(CodePointSet.chars('.')).add("Digits");
+		pb.sequence("Int").add(CodePointSet.chars('-'), 0, 1).add("Digits");
+		pb.sequence("Digits").add(CodePointSet.charRanges('0', '9'), 1, PatternRef.UNBOUNDED);
+		PikeVm vm = vm(pb.build(), "Number");
+		assertEquals(7, vm.match("x-12.75!", 1));
+		assertEquals(1, vm.getStart(0));
+		assertEquals(1, vm.getStart("Int"));
+		assertEquals(4, vm.getEnd("Int"));
+		assertEquals(4, vm.getStart("Fraction"));
+		assertEquals(7, vm.getEnd("Fraction"));
+		// the last match of a pattern which matched more than once
+		assertEquals(5, vm.getStart("Digits"));
+		assertEquals(2, vm.match("12.", 0));
+		assertEquals(-1, vm.getStart("Fraction"));
+		assertEquals(0, vm.getStart("Digits"));
+		assertEquals(-1, vm.match("-.5", 0));
+		assertEquals(-1, vm.getStart(0));
+		assertEquals(-1, vm.getStart("NoSuchPattern"));
+	}
+
+	@Test
+	public void testPriority() {
+		// the first alternative which leads to a match wins, not the longest
+		Builder pb = new Builder();
+		pb.choice("AorAB").literal("a").literal("ab");
+		pb.sequence("Greedy").add(CodePointSet.chars('a'), 0, PatternRef.UNBOUNDED).add("A");
+		pb.codepoints("A", CodePointSet.chars('a'));
+		pb.sequence("Bounded").add(CodePointSet.chars('a'), 1, 3).add(CodePointSet.chars('a', 'b'), 0, 1);
+		Grammar grammar = pb.build();
+		assertEquals(1, vm(grammar, "AorAB").match("ab", 0));
+		PikeVm greedy = vm(grammar, "Greedy");
+		assertEquals(4, greedy.match("aaaab", 0));
+		assertEquals(3, greedy.getStart("A"));
+		assertEquals(-1, greedy.match("b", 0));
+		PikeVm bounded = vm(grammar, "Bounded");
+		assertEquals(4, bounded.match("aaaaa", 0));
+		assertEquals(3, bounded.match("aab", 0));
+	}
+
+	@Test(timeout = 10000)
+	public void testNoBlowUp() {
+		// (a|a)*b and ((a*)*)*b take exponential time to fail with backtracking
+		Builder pb = new Builder();
+		pb.choice("AA").add("A").add("A");
+		pb.codepoints("A", CodePointSet.chars('a'));
+		pb.sequence("Alternatives").zeroOrMore("AA").add(CodePointSet.chars('b'));
+		pb.sequence("Stars").zeroOrMore("Stars2").add(CodePointSet.chars('b'));
+		pb.sequence("Stars2").zeroOrMore("Stars3");
+		pb.sequence("Stars3").add(CodePointSet.chars('a'), 0, PatternRef.UNBOUNDED);
+		Grammar grammar = pb.build();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 20000; i++)
+			sb.append('a');
+		String input = sb.toString();
+		assertEquals(-1, vm(grammar, "Alternatives").match(input, 0));
+		assertEquals(-1, vm(grammar, "Stars").match(input, 0));
+		assertEquals(input.length() + 1, vm(grammar, "Stars").match(input + "b", 0));
+	}
+
+	@Test
+	public void testRecursive() {
+		Builder pb = new Builder();
+		pb.sequence("Parens").add(CodePointSet.chars('(')).optional("Parens").add(CodePointSet.chars(')'));
+		try {
+			ProgramCompiler.compile(pb.build(), "Parens");
+			fail();
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	// the first match found by a backtracking matcher, for comparison
+	interface Continuation {
+		int run(int position);
+	}
+
+	private static int backtrack(Pattern pattern, final String input, int position, final Continuation k) {
+		if (pattern instanceof StaticCodePoint) {
+			if (position < input.length() && ((StaticCodePoint)pattern).getCodePoints().contains(input.codePointAt(position)))
+				return k.run(position + Character.charCount(input.codePointAt(position)));
+			return -1;
+		}
+		final PatternGroup group = (PatternGroup)pattern;
+		if (group instanceof Choice) {
+			for (int i = 0; i < group.getChildCount(); i++) {
+				int end = repeat(group.getChild(i), 0, input, position, k);
+				if (end != -1)
+					return end;
+			}
+			return -1;
+		}
+		return sequence(group, 0, input, position, k);
+	}
+
+	private static int sequence(final PatternGroup group, final int index, final String input, int position, final Continuation k) {
+		if (index == group.getChildCount())
+			return k.run(position);
+		return repeat(group.getChild(index), 0, input, position, new Continuation() {
+			public int run(int p) {
+				return sequence(group, index + 1, input, p, k);
+			}
+		});
+	}
+
+	private static int repeat(final PatternRef ref, final int count, final String input, final int position, final Continuation k) {
+		if (count < ref.getMax()) {
+			int end = backtrack(ref.getPattern(), input, position, new Continuation() {
+				public int run(int p) {
+					// an unbounded repetition which consumed nothing goes no further (as in the VM, where the loop is already visited)
+					if (p == position && count >= ref.getMin() && ref.getMax() == PatternRef.UNBOUNDED)
+						return -1;
+					return repeat(ref, count + 1, input, p, k);
+				}
+			});
+			if (end != -1)
+				return end;
+		}
+		return count >= ref.getMin() ? k.run(position) : -1;
+	}
+
+	@Test
+	public void testSameAsBacktracking() {
+		Random random = new Random(21);
+		int[][] repeats = { { 1, 1 }, { 1, 1 }, { 0, 1 }, { 2, 3 }, { 0, PatternRef.UNBOUNDED }, { 1, PatternRef.UNBOUNDED } };
+		CodePointSet[] leaves = { CodePointSet.chars('a'), CodePointSet.chars('b'), CodePointSet.chars('a', 'b') };
+		for (int n = 0; n < 300; n++) {
+			// rules only refer to rules defined after them, and only repeat without bound those which cannot match nothing
+			int count = 2 + random.nextInt(5);
+			boolean[] nullable = new boolean[count];
+			Builder pb = new Builder();
+			for (int r = count - 1; r >= 0; r--) {
+				if (r >= count - 2) {
+					pb.codepoints("R" + r, leaves[random.nextInt(leaves.length)]);
+					continue;
+				}
+				boolean choice = random.nextBoolean();
+				Builder.Group group = choice ? pb.choice("R" + r) : pb.sequence("R" + r);
+				nullable[r] = !choice;
+				int children = 1 + random.nextInt(3);
+				for (int c = 0; c < children; c++) {
+					int child = r + 1 + random.nextInt(count - r - 1);
+					int[] repeat = repeats[random.nextInt(repeats.length)];
+					if (repeat[1] == PatternRef.UNBOUNDED && nullable[child])
+						repeat = repeats[0];
+					group.add("R" + child, repeat[0], repeat[1]);
+					boolean childNullable = repeat[0] == 0 || nullable[child];
+					nullable[r] = choice ? nullable[r] || childNullable : nullable[r] && childNullable;
+				}
+			}
+			Grammar grammar = pb.build();
+			PikeVm vm = vm(grammar, "R0");
+			for (int i = 0; i < 20; i++) {
+				StringBuilder sb = new StringBuilder();
+				for (int k = random.nextInt(8); k > 0; k--)
+					sb.append(random.nextBoolean() ? 'a' : 'b');
+				String input = sb.toString();
+				int expected = backtrack(grammar.getRule("R0"), input, 0, new Continuation() {
+					public int run(int position) {
+						return position;
+					}
+				});
+				assertEquals(vm.getProgram() + input, expected, vm.match(input, 0));
+			}
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package jargon.parse.reflect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import jargon.parse.CodePointSet;
+import jargon.parse.PatternTest;
+import jargon.parse.reflect.Pattern.Builder;
+
+import org.junit.Test;
+
+
+public class FirstSetsTest {
+	@Test
+	public void testJavaLexical() {
+		Grammar grammar = PatternTest.javaLexical();
+		FirstSets firstSets = new FirstSets(grammar);
+		assertEquals(CodePointSet.chars('\\'), firstSets.getFirst(grammar.getRule("UnicodeEscape")));
+		assertEquals(CodePointSet.chars('u'), firstSets.getFirst(grammar.getRule("UnicodeMarker")));
+		assertEquals(CodePointSet.chars('\r', '\n'), firstSets.getFirst(grammar.getRule("LineTerminator")));
+		assertEquals(CodePointSet.ALL, firstSets.getFirst(grammar.getRule("UnicodeInputCharacter")));
+		assertFalse(firstSets.isNullable(grammar.getRule("UnicodeEscape")));
+	}
+
+	@Test
+	public void testNullable() {
+		Builder pb = new Builder();
+		pb.sequence("Signed").add("Sign", 0, 1).add("Digits");
+		pb.codepoints("Sign", CodePointSet.chars('+', '-'));
+		pb.sequence("Digits").add(CodePointSet.charRanges('0', '9'), 1, PatternRef.UNBOUNDED);
+		pb.sequence("Optional").add("Sign", 0, 1).add("Digits", 0, 3);
+		Grammar grammar = pb.build();
+		FirstSets firstSets = new FirstSets(grammar);
+		assertEquals(CodePointSet.charRanges('0', '9', '+', '+', '-', '-'), firstSets.getFirst(grammar.getRule("Signed")));
+		assertFalse(firstSets.isNullable(grammar.getRule("Signed")));
+		assertTrue(firstSets.isNullable(grammar.getRule("Optional")));
+		PatternGroup signed = (PatternGroup)grammar.getRule("Signed");
+		assertTrue(firstSets.isNullable(signed.getChild(0)));
+		assertFalse(firstSets.isNullable(signed.getChild(1)));
+	}
+
+	@Test
+	public void testRecursive() {
+		Builder pb = new Builder();
+		pb.choice("Nested").add("Parenthesized").add(CodePointSet.chars('x'));
+		pb.sequence("Parenthesized").add(CodePointSet.chars('(')).add("List").add(CodePointSet.chars(')'));
+		pb.sequence("List").add("Nested", 0, PatternRef.UNBOUNDED);
+		Grammar grammar = pb.build();
+		FirstSets firstSets = new FirstSets(grammar);
+		assertEquals(CodePointSet.chars('(', 'x'), firstSets.getFirst(grammar.getRule("List")));
+		assertTrue(firstSets.isNullable(grammar.getRule("List")));
+		assertFalse(firstSets.isNullable(grammar.getRule("Nested")));
+	}
+}
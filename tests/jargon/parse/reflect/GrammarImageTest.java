@@ -0,0 +1,127 @@
+package jargon.parse.reflect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import jargon.parse.CodePointSet;
+import jargon.parse.PatternTest;
+import jargon.parse.packrat.PackratParser;
+import jargon.parse.reflect.Pattern.Builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+
+import org.junit.Test;
+
+
+public class GrammarImageTest {
+	public static void define(Builder pb) {
+		pb.sequence("Expression").add("Term").add("AddTail", 0, PatternRef.UNBOUNDED);
+		pb.sequence("AddTail").add(CodePointSet.chars('+', '-')).add("Term");
+		pb.sequence("Term").add("Factor").add("MulTail", 0, PatternRef.UNBOUNDED);
+		pb.sequence("MulTail").add(CodePointSet.chars('*', '/')).add("Factor");
+		pb.choice("Factor").add("Number").add("Parenthesized").literal("\u03C0");
+		pb.sequence("Parenthesized").add(CodePointSet.chars('(')).add("Expression").add(CodePointSet.chars(')'));
+		pb.sequence("Number").add(CodePointSet.charRanges('0', '9'), 1, PatternRef.UNBOUNDED).optional("Digit");
+		pb.codepoints("Digit", CodePointSet.charRanges('0', '9'));
+	}
+
+	// the same patterns, shaped the same way
+	private static void assertSameShape(Pattern expected, Pattern actual, IdentityHashMap<Pattern, Pattern> seen) {
+		Pattern previous = seen.put(expected, actual);
+		if (previous != null) {
+			assertSame(previous, actual);
+			return;
+		}
+		assertEquals(expected.getClass(), actual.getClass());
+		assertEquals(expected.getName(), actual.getName());
+		if (expected instanceof StaticCodePoint)
+			assertEquals(((StaticCodePoint)expected).getCodePoints(), ((StaticCodePoint)actual).getCodePoints());
+		if (expected instanceof PatternGroup) {
+			PatternGroup e = (PatternGroup)expected, a = (PatternGroup)actual;
+			assertEquals(e.getChildCount(), a.getChildCount());
+			for (int i = 0; i < e.getChildCount(); i++) {
+				assertEquals(e.getChild(i).getMin(), a.getChild(i).getMin());
+				assertEquals(e.getChild(i).getMax(), a.getChild(i).getMax());
+				assertSameShape(e.getChild(i).getPattern(), a.getChild(i).getPattern(), seen);
+			}
+		}
+	}
+
+	private static void assertSameShape(Grammar expected, Grammar actual) {
+		assertEquals(expected.getRuleCount(), actual.getRuleCount());
+		IdentityHashMap<Pattern, Pattern> seen = new IdentityHashMap<Pattern, Pattern>();
+		for (int id = 0; id < expected.getRuleCount(); id++)
+			assertSameShape(expected.getRule(id), actual.getRule(id), seen);
+	}
+
+	@Test
+	public void testRoundTrip() {
+		Grammar grammar = PatternTest.javaLexical();
+		GrammarImage image = new GrammarImage(ByteBuffer.wrap(GrammarImage.encode(grammar)));
+		assertEquals(grammar.getRuleCount(), image.getRuleCount());
+		int id = image.getRuleId("HexDigit");
+		assertEquals(GrammarImage.KIND_CODEPOINTS, image.getKind(id));
+		assertEquals(CodePointSet.charRanges('0', '9', 'a', 'f', 'A', 'F'), image.getCodePoints(id));
+		int escape = image.getRuleId("UnicodeEscape");
+		assertEquals(3, image.getChildCount(escape));
+		int hex = image.getChild(escape, 2);
+		assertEquals(id, image.getRefPattern(hex));
+		assertEquals(4, image.getRefMin(hex));
+		assertNull(image.getName(image.getRefPattern(image.getChild(escape, 0))));
+		assertSameShape(grammar, image.getGrammar());
+		assertSame(image.getGrammar(), image.getGrammar());
+
+		Builder pb = new Builder();
+		pb.sequence("Quoted").add("Quote").add(CodePointSet.ALL, 0, PatternRef.UNBOUNDED);
+		pb.dynamic("Quote");
+		grammar = pb.build();
+		image = new GrammarImage(ByteBuffer.wrap(GrammarImage.encode(grammar)));
+		assertEquals(GrammarImage.KIND_DYNAMIC, image.getKind(image.getRuleId("Quote")));
+		assertSameShape(grammar, image.getGrammar());
+	}
+
+	@Test
+	public void testMain() throws Exception {
+		File file = File.createTempFile("jargon", ".grammar");
+		file.deleteOnExit();
+		GrammarImage.main(new String[] { GrammarImageTest.class.getName(), file.getPath() });
+		GrammarImage image = GrammarImage.map(file);
+		Builder pb = new Builder();
+		define(pb);
+		Grammar grammar = pb.build();
+		assertSameShape(grammar, image.getGrammar());
+		// the two sets of digits are one set in the image
+		assertEquals(6, image.getSetCount());
+		PackratParser expected = new PackratParser(grammar);
+		PackratParser actual = new PackratParser(image.getGrammar());
+		for (String input : new String[] { "(1+2)*34-5", "\u03C0*2", "1+", "+1", "(1+2" })
+			assertEquals(expected.parse("Expression", input), actual.parse("Expression", input));
+	}
+
+	@Test
+	public void testCorrupt() throws IOException {
+		byte[] image = GrammarImage.encode(PatternTest.javaLexical());
+		for (int i = 0; i < image.length; i += 7) {
+			byte[] corrupt = image.clone();
+			corrupt[i] ^= 0x10;
+			try {
+				new GrammarImage(ByteBuffer.wrap(corrupt));
+				fail("byte " + i);
+			}
+			catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		try {
+			new GrammarImage(ByteBuffer.wrap(image, 0, image.length - 1));
+			fail();
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
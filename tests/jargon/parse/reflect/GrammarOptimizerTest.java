@@ -0,0 +1,96 @@
+package jargon.parse.reflect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import jargon.parse.CodePointSet;
+import jargon.parse.PatternTest;
+import jargon.parse.packrat.GrammarVerifier;
+import jargon.parse.packrat.PackratParser;
+import jargon.parse.packrat.PackratParserTest;
+import jargon.parse.reflect.Pattern.Builder;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class GrammarOptimizerTest {
+	@Test
+	public void testCollapseChoices() {
+		Builder pb = new Builder();
+		pb.choice("Sign").add(CodePointSet.chars('+')).add(CodePointSet.chars('-'));
+		pb.choice("Operator").add(CodePointSet.chars('*')).add(CodePointSet.chars('/')).literal("**").add(CodePointSet.chars('%'));
+		Grammar grammar = pb.build();
+		GrammarOptimizer optimizer = new GrammarOptimizer();
+		Grammar optimized = optimizer.optimize(grammar);
+		StaticCodePoint sign = (StaticCodePoint)optimized.getRule("Sign");
+		assertEquals(CodePointSet.chars('+', '-'), sign.getCodePoints());
+		// only adjacent alternatives may be merged, "**" must still be tried before '%'
+		assertEquals(3, ((PatternGroup)optimized.getRule("Operator")).getChildCount());
+		assertTrue(optimizer.getRemoved().get(GrammarOptimizer.COLLAPSE_CHOICES) > 0);
+		assertNull(new GrammarVerifier(grammar, optimized, 1).verify(new String[] {"Sign", "Operator"}, 500));
+	}
+
+	@Test
+	public void testInlineAndFlatten() {
+		Builder pb = new Builder();
+		pb.sequence("Number").add("Integer").add("Fraction", 0, 1);
+		pb.sequence("Integer").add("Sign", 0, 1).add("Digits");
+		pb.choice("Sign").add(CodePointSet.chars('+')).add(CodePointSet.chars('-'));
+		pb.sequence("Digits").add("Digit", 1, PatternRef.UNBOUNDED);
+		pb.sequence("Fraction").add(CodePointSet.chars('.')).add("Digits");
+		pb.codepoints("Digit", CodePointSet.charRanges('0', '9'));
+		Grammar grammar = pb.build();
+		GrammarOptimizer optimizer = new GrammarOptimizer();
+		Grammar optimized = optimizer.optimize(grammar, "Number");
+		// Integer is the only rule used exactly once (and not repeated), so it is inlined into Number
+		assertEquals(5, optimized.getRuleCount());
+		assertEquals(3, ((PatternGroup)optimized.getRule("Number")).getChildCount());
+		assertTrue(optimizer.getRemoved().get(GrammarOptimizer.FLATTEN) > 0);
+		assertNull(new GrammarVerifier(grammar, optimized, 2).verify(new String[] {"Number"}, 1000));
+	}
+
+	@Test
+	public void testFactorPrefixes() {
+		Builder pb = new Builder();
+		pb.choice("Keyword").literal("int").literal("interface").literal("if").literal("in").add("Identifier");
+		pb.sequence("Identifier").add(CodePointSet.charRanges('a', 'z'), 1, PatternRef.UNBOUNDED);
+		Grammar grammar = pb.build();
+		GrammarOptimizer optimizer = new GrammarOptimizer();
+		Grammar optimized = optimizer.optimize(grammar, "Keyword");
+		// the keywords share the prefix "i", which is now matched once before trying the rest of each keyword
+		assertEquals(2, ((PatternGroup)optimized.getRule("Keyword")).getChildCount());
+		int total = 0;
+		for (int removed : optimizer.getRemoved().values())
+			total += removed;
+		assertTrue(total > 0);
+		assertNull(new GrammarVerifier(grammar, optimized, 3).verify(new String[] {"Keyword"}, 1000));
+	}
+
+	@Test
+	public void testJavaLexical() {
+		Grammar grammar = PatternTest.javaLexical();
+		Grammar optimized = new GrammarOptimizer().optimize(grammar, "UnicodeInputCharacter", "LineTerminator", "InputCharacter");
+		assertNull(new GrammarVerifier(grammar, optimized, 4).verify(new String[] {"UnicodeInputCharacter", "LineTerminator", "InputCharacter"}, 1000));
+	}
+
+	@Test
+	public void testLeftRecursion() {
+		// R1 reaches itself through R4 and R0 without consuming input, so it fails where it does; it would not once inlined into R0
+		Builder pb = new Builder();
+		pb.sequence("R0").add("R5", 0, 1).add("R1").add(CodePointSet.chars('a', 'b'), 0, 1);
+		pb.choice("R1").add("R4").add(CodePointSet.chars('a', 'b'));
+		pb.choice("R4").add(CodePointSet.chars('b')).add("R0").add(CodePointSet.chars('b'));
+		pb.choice("R5").add("R4").add("R5");
+		Grammar grammar = pb.build();
+		Grammar optimized = new GrammarOptimizer().optimize(grammar, "R0");
+		assertEquals(new PackratParser(grammar).parse("R0", "baabbba"), new PackratParser(optimized).parse("R0", "baabbba"));
+		Random random = new Random(1);
+		for (int n = 0; n < 300; n++) {
+			grammar = PackratParserTest.recursive(random, 3 + random.nextInt(5));
+			optimized = new GrammarOptimizer().optimize(grammar, "R0");
+			assertNull(new GrammarVerifier(grammar, optimized, n).verify(new String[] {"R0"}, 20));
+		}
+	}
+}